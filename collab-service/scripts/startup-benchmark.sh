@@ -0,0 +1,63 @@
+#!/usr/bin/env bash
+# Đo time-to-first-WebSocket-accept của collab-service
+#
+#   mvn -Pstartup package -DskipTests
+#   ./scripts/startup-benchmark.sh            # so sánh default vs startup profile + AppCDS
+#   RUNS=5 PORT=8083 ./scripts/startup-benchmark.sh
+#
+# Mỗi lần chạy: start JVM, gửi WebSocket upgrade tới /yjs-ws liên tục cho tới khi nhận 101,
+# in ra số ms từ lúc launch tới lúc connection đầu tiên được accept.
+
+set -euo pipefail
+
+cd "$(dirname "$0")/.."
+
+RUNS=${RUNS:-3}
+PORT=${PORT:-8083}
+JAR=$(ls target/cds/*.jar 2>/dev/null | head -1)
+ARCHIVE=target/cds/application.jsa
+
+if [[ -z "$JAR" ]]; then
+    echo "Missing target/cds/*.jar - run: mvn -Pstartup package -DskipTests" >&2
+    exit 1
+fi
+
+now_ms() {
+    date +%s%3N
+}
+
+first_accept_ms() {
+    local started=$1
+    while true; do
+        local status
+        status=$(curl -s -o /dev/null -w '%{http_code}' --max-time 1 \
+            -H "Connection: Upgrade" -H "Upgrade: websocket" \
+            -H "Sec-WebSocket-Version: 13" -H "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==" \
+            "http://localhost:${PORT}/yjs-ws?documentId=startup-benchmark" || true)
+        if [[ "$status" == "101" ]]; then
+            echo $(( $(now_ms) - started ))
+            return
+        fi
+        sleep 0.02
+    done
+}
+
+run() {
+    local label=$1
+    shift
+    for i in $(seq 1 "$RUNS"); do
+        local started
+        started=$(now_ms)
+        java "$@" -jar "$JAR" --server.port="$PORT" --GMAIL_APP_PASSWORD=benchmark \
+            --spring.data.mongodb.auto-index-creation=false > "target/startup-${label}-${i}.log" 2>&1 &
+        local pid=$!
+        local elapsed
+        elapsed=$(first_accept_ms "$started")
+        kill "$pid"
+        wait "$pid" 2>/dev/null || true
+        echo "${label} run ${i}: first WebSocket accept after ${elapsed} ms"
+    done
+}
+
+run default
+run startup -XX:SharedArchiveFile="$ARCHIVE" -Dspring.profiles.active=startup
@@ -9,7 +9,8 @@ public class CollabServiceApplication {
 	
 	public static void main(String[] args) {
 		// Load biến môi trường từ file .env trước khi khởi động Spring Boot
-		Dotenv dotenv = Dotenv.configure().load();
+		// ignoreIfMissing: build AppCDS (profile startup) chạy thử app khi không có .env
+		Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
 		dotenv.entries().forEach(entry -> {
 			System.setProperty(entry.getKey(), entry.getValue());
 		});
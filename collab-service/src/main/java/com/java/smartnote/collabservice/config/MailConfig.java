@@ -0,0 +1,53 @@
+package com.java.smartnote.collabservice.config;
+
+import com.java.smartnote.collabservice.mail.PooledJavaMailSender;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.mail.MailProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.mail.javamail.JavaMailSender;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+
+@Configuration
+@EnableConfigurationProperties(MailProperties.class)
+public class MailConfig {
+
+    /**
+     * JavaMailSender dùng pool SMTP connection thay cho bean mặc định của Spring Boot
+     * Tắt bằng app.mail.pool.enabled=false để quay về một connection mỗi lần send
+     */
+    @Bean
+    @ConditionalOnProperty(name = "app.mail.pool.enabled", havingValue = "true", matchIfMissing = true)
+    public JavaMailSender javaMailSender(MailProperties mailProperties,
+                                         @Value("${app.mail.pool.max-size:4}") int maxSize,
+                                         @Value("${app.mail.pool.idle-timeout-seconds:60}") long idleTimeoutSeconds,
+                                         @Value("${app.mail.pool.borrow-timeout-seconds:30}") long borrowTimeoutSeconds,
+                                         @Value("${app.mail.pool.validate-after-seconds:10}") long validateAfterSeconds) {
+        PooledJavaMailSender sender = new PooledJavaMailSender(
+                maxSize,
+                idleTimeoutSeconds * 1000,
+                borrowTimeoutSeconds * 1000,
+                validateAfterSeconds * 1000);
+
+        sender.setHost(mailProperties.getHost());
+        if (mailProperties.getPort() != null) {
+            sender.setPort(mailProperties.getPort());
+        }
+        sender.setUsername(mailProperties.getUsername());
+        sender.setPassword(mailProperties.getPassword());
+        sender.setProtocol(mailProperties.getProtocol());
+        sender.setDefaultEncoding(mailProperties.getDefaultEncoding() != null
+                ? mailProperties.getDefaultEncoding().name()
+                : StandardCharsets.UTF_8.name());
+
+        Properties javaMailProperties = new Properties();
+        javaMailProperties.putAll(mailProperties.getProperties());
+        sender.setJavaMailProperties(javaMailProperties);
+
+        return sender;
+    }
+}
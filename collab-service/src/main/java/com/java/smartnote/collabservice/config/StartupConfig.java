@@ -0,0 +1,29 @@
+package com.java.smartnote.collabservice.config;
+
+import com.java.smartnote.collabservice.controller.CollabController;
+import com.java.smartnote.collabservice.controller.WebSocketController;
+import com.java.smartnote.collabservice.mail.FakeSmtpServer;
+import com.java.smartnote.collabservice.websocket.YjsWebSocketHandler;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class StartupConfig {
+
+    /**
+     * Khi bật spring.main.lazy-initialization (profile "startup"),
+     * các bean WebSocket vẫn được khởi tạo ngay để nhận connection đầu tiên không bị chậm
+     */
+    @Bean
+    static LazyInitializationExcludeFilter webSocketEagerBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(
+                WebSocketConfig.class,
+                YjsWebSocketConfig.class,
+                YjsWebSocketHandler.class,
+                CollabController.class,
+                WebSocketController.class,
+                StartupMetrics.class,
+                FakeSmtpServer.class);
+    }
+}
@@ -0,0 +1,58 @@
+package com.java.smartnote.collabservice.config;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.messaging.SessionConnectedEvent;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Đo thời gian khởi động tính từ lúc JVM start:
+ * - ready: ApplicationReadyEvent
+ * - first WebSocket accept: connection Yjs hoặc STOMP đầu tiên
+ */
+@Component
+public class StartupMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupMetrics.class);
+
+    private final long jvmStartTime = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private final AtomicLong readyMillis = new AtomicLong(-1);
+    private final AtomicLong firstWebSocketAcceptMillis = new AtomicLong(-1);
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        readyMillis.set(sinceJvmStart());
+        log.info("⏱️ Startup: application ready {} ms after JVM start", readyMillis.get());
+    }
+
+    @EventListener(SessionConnectedEvent.class)
+    public void onStompConnected() {
+        recordWebSocketAccept("stomp");
+    }
+
+    /**
+     * Ghi nhận WebSocket connection đầu tiên (chỉ lần đầu được log)
+     */
+    public void recordWebSocketAccept(String transport) {
+        long elapsed = sinceJvmStart();
+        if (firstWebSocketAcceptMillis.compareAndSet(-1, elapsed)) {
+            log.info("⏱️ Startup: first WebSocket accept ({}) {} ms after JVM start", transport, elapsed);
+        }
+    }
+
+    public Map<String, Long> getStartupTimes() {
+        return Map.of(
+                "readyMillis", readyMillis.get(),
+                "firstWebSocketAcceptMillis", firstWebSocketAcceptMillis.get());
+    }
+
+    private long sinceJvmStart() {
+        return System.currentTimeMillis() - jvmStartTime;
+    }
+}
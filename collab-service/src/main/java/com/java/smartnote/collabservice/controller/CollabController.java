@@ -1,8 +1,11 @@
 package com.java.smartnote.collabservice.controller;
 
+import com.java.smartnote.collabservice.dto.NoteConflictMessage;
 import com.java.smartnote.collabservice.dto.NoteUpdateMessage;
 import com.java.smartnote.collabservice.dto.CursorUpdateMessage;
 import com.java.smartnote.collabservice.dto.UserJoinMessage;
+import com.java.smartnote.collabservice.exception.NoteVersionConflictException;
+import com.java.smartnote.collabservice.model.Note;
 import com.java.smartnote.collabservice.service.NoteService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
@@ -94,6 +97,8 @@ public class CollabController {
 
     /**
      * Xử lý realtime collaboration - Content changes
+     * Edit chỉ được lưu khi message.version còn khớp version trong DB; broadcast kèm version mới.
+     * Lệch version: không broadcast, gửi conflict về /topic/note/{noteId}/conflict cho người gửi
      */
     @MessageMapping("/note.edit/{noteId}")
     @SendTo("/topic/note/{noteId}")
@@ -112,9 +117,20 @@ public class CollabController {
         try {
             // Lưu vào database
             if ("EDIT".equals(message.getType())) {
-                noteService.updateNoteContent(noteId, message.getContent());
-                System.out.println("✅ Content saved to database");
+                Note saved = noteService.updateNoteContent(noteId, message.getContent(), message.getVersion());
+                message.setVersion(saved.getVersion());
+                System.out.println("✅ Content saved to database (version " + saved.getVersion() + ")");
             }
+        } catch (NoteVersionConflictException e) {
+            System.err.println("⚠️ Edit conflict: " + e.getMessage());
+            messagingTemplate.convertAndSend("/topic/note/" + noteId + "/conflict", new NoteConflictMessage(
+                    noteId, message.getSenderId(), e.getExpectedVersion(), e.getCurrentVersion(),
+                    e.getCurrentContent(), "CONFLICT", System.currentTimeMillis()));
+            return null;
+        } catch (IllegalStateException e) {
+            // Edit không được lưu thì cũng không broadcast, tránh client khác thấy nội dung không tồn tại
+            System.err.println("❌ Edit rejected: " + e.getMessage());
+            return null;
         } catch (Exception e) {
             System.err.println("❌ Error saving note: " + e.getMessage());
             e.printStackTrace();
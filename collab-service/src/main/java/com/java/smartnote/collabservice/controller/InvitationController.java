@@ -1,10 +1,12 @@
 package com.java.smartnote.collabservice.controller;
 
 import com.java.smartnote.collabservice.dto.InviteUserRequest;
+import com.java.smartnote.collabservice.dto.BulkInviteRequest;
 import com.fasterxml.jackson.databind.JsonDeserializer.None;
 import com.java.smartnote.collabservice.dto.AcceptInvitationRequest;
 import com.java.smartnote.collabservice.model.Invitation;
 import com.java.smartnote.collabservice.service.InvitationService;
+import com.java.smartnote.collabservice.service.InvitationService.BulkInvitationResult;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -42,7 +44,8 @@ public class InvitationController {
                 request.getNoteId(),
                 request.getInviterEmail(),
                 request.getInviteeEmail(),
-                currentUserId
+                currentUserId,
+                request.getLocale()
             );
             
             Map<String, Object> response = new HashMap<>();
@@ -67,6 +70,49 @@ public class InvitationController {
         }
     }
     
+    /**
+     * Gửi invitation cho nhiều người, email đi chung một SMTP connection
+     */
+    @PostMapping("/invite/bulk")
+    public ResponseEntity<?> inviteUsers(
+            @RequestBody BulkInviteRequest request,
+            @RequestHeader("X-User-Id") String currentUserId) {
+
+        System.out.println("📨 BULK INVITE REQUEST: note " + request.getNoteId() + ", "
+                + (request.getInviteeEmails() != null ? request.getInviteeEmails().size() : 0) + " invitees");
+
+        if (request.getInviteeEmails() == null || request.getInviteeEmails().isEmpty()) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", "Invalid request");
+            error.put("message", "inviteeEmails cannot be empty");
+            return ResponseEntity.badRequest().body(error);
+        }
+
+        try {
+            BulkInvitationResult result = invitationService.createInvitations(
+                request.getNoteId(),
+                request.getInviterEmail(),
+                request.getInviteeEmails(),
+                currentUserId,
+                request.getLocale()
+            );
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", result.failedEmails().isEmpty());
+            response.put("invitations", result.invitations());
+            response.put("failedEmails", result.failedEmails());
+            return ResponseEntity.ok(response);
+
+        } catch (Exception e) {
+            System.err.println("❌ BULK INVITE FAILED: " + e.getMessage());
+
+            Map<String, String> error = new HashMap<>();
+            error.put("error", "Failed to send invitations");
+            error.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        }
+    }
+
     /**
      * Accept invitation
      */
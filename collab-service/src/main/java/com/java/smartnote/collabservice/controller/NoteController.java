@@ -1,16 +1,23 @@
 package com.java.smartnote.collabservice.controller;
 
+import com.java.smartnote.collabservice.config.StartupMetrics;
+import com.java.smartnote.collabservice.mail.PooledJavaMailSender;
 import com.java.smartnote.collabservice.model.Note;
 import com.java.smartnote.collabservice.service.NoteService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import com.java.smartnote.collabservice.dto.BulkShareRequest;
 import com.java.smartnote.collabservice.dto.ShareNoteRequest;
+import com.java.smartnote.collabservice.dto.SharedNotesPage;
 
 @RestController
 @CrossOrigin(origins = "http://localhost:3000", allowCredentials = "true", allowedHeaders = "*", methods = {
@@ -20,6 +27,12 @@ public class NoteController {
     @Autowired
     private NoteService noteService;
 
+    @Autowired
+    private StartupMetrics startupMetrics;
+
+    @Autowired(required = false)
+    private JavaMailSender mailSender;
+
     /**
      * HEALTH CHECK
      */
@@ -30,27 +43,44 @@ public class NoteController {
         health.put("service", "Collab Service");
         health.put("port", 8083);
         health.put("timestamp", System.currentTimeMillis());
+        health.put("startup", startupMetrics.getStartupTimes());
+        if (mailSender instanceof PooledJavaMailSender pooledMailSender) {
+            health.put("mailPool", pooledMailSender.getPoolStats());
+        }
 
         System.out.println("✅ Health check successful");
         return ResponseEntity.ok(health);
     }
 
     /**
-     * Lấy danh sách tất cả notes đang được share
+     * Lấy danh sách notes đang được share với user
+     * - Không có limit/cursor/fields: trả về mảng Note đầy đủ như trước (legacy)
+     * - Có limit/cursor/fields: trả về một trang summary, keyset pagination theo (updatedAt, id)
      */
     @GetMapping("/api/notes/shared")
-    public ResponseEntity<?> getSharedNotes(@RequestHeader(value = "X-User-Id", required = false) String userId) {
-        System.out.println("🌐 [CONTROLLER] ===== RECEIVED REQUEST FOR SHARED NOTES =====");
-        System.out.println("🌐 [CONTROLLER] UserId from header: " + userId);
-        System.out.println("🌐 [CONTROLLER] UserId is null: " + (userId == null));
-        System.out.println("🌐 [CONTROLLER] UserId length: " + (userId != null ? userId.length() : 0));
+    public ResponseEntity<?> getSharedNotes(@RequestHeader(value = "X-User-Id", required = false) String userId,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) List<String> fields) {
+        System.out.println("🌐 [CONTROLLER] Shared notes request for user: " + userId);
 
         try {
-            System.out.println("📋 Fetching shared notes for user: " + (userId != null ? userId : "all users"));
+            if (limit != null || cursor != null || fields != null) {
+                Set<String> requestedFields = fields != null ? new LinkedHashSet<>(fields) : Set.of();
+                SharedNotesPage page = noteService.getSharedNotesPage(userId, cursor, limit, requestedFields);
+                System.out.println("✅ Returning page of " + page.getItems().size() + " shared notes, hasMore: "
+                        + page.isHasMore());
+                return ResponseEntity.ok(page);
+            }
+
             List<Note> sharedNotes = noteService.getSharedNotesForUser(userId);
             System.out.println("✅ Found " + sharedNotes.size() + " shared notes for user: " + userId);
-            System.out.println("🌐 [CONTROLLER] ===== REQUEST COMPLETED =====");
             return ResponseEntity.ok(sharedNotes);
+        } catch (IllegalArgumentException e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", "Invalid request");
+            error.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
         } catch (Exception e) {
             System.err.println("❌ Error fetching shared notes: " + e.getMessage());
             e.printStackTrace();
@@ -177,6 +207,70 @@ public class NoteController {
         }
     }
 
+    /**
+     * Share nhiều notes với nhiều users cùng lúc
+     */
+    @PostMapping("/api/notes/share/bulk")
+    public ResponseEntity<?> bulkShareNotes(@RequestBody BulkShareRequest request) {
+        System.out.println("📨 BULK SHARE REQUEST: " + request);
+
+        try {
+            long modified = noteService.bulkShareNotes(request.getNoteIds(), request.getUserIds());
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("requested", request.getNoteIds().size());
+            response.put("modified", modified);
+            return ResponseEntity.ok(response);
+
+        } catch (IllegalArgumentException e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", "Validation failed");
+            error.put("details", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        } catch (Exception e) {
+            System.err.println("❌ BULK SHARE FAILED: " + e.getMessage());
+            e.printStackTrace();
+
+            Map<String, String> error = new HashMap<>();
+            error.put("error", "Internal server error");
+            error.put("details", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
+        }
+    }
+
+    /**
+     * Bỏ share nhiều notes với nhiều users cùng lúc
+     */
+    @PostMapping("/api/notes/unshare/bulk")
+    public ResponseEntity<?> bulkUnshareNotes(@RequestBody BulkShareRequest request) {
+        System.out.println("🔓 BULK UNSHARE REQUEST: " + request);
+
+        try {
+            long modified = noteService.bulkUnshareNotes(request.getNoteIds(), request.getUserIds());
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("requested", request.getNoteIds().size());
+            response.put("modified", modified);
+            return ResponseEntity.ok(response);
+
+        } catch (IllegalArgumentException e) {
+            Map<String, String> error = new HashMap<>();
+            error.put("error", "Validation failed");
+            error.put("details", e.getMessage());
+            return ResponseEntity.badRequest().body(error);
+        } catch (Exception e) {
+            System.err.println("❌ BULK UNSHARE FAILED: " + e.getMessage());
+            e.printStackTrace();
+
+            Map<String, String> error = new HashMap<>();
+            error.put("error", "Internal server error");
+            error.put("details", e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(error);
+        }
+    }
+
     /**
      * Lấy chi tiết một note theo ID
      */
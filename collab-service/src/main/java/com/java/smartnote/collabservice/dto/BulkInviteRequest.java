@@ -0,0 +1,16 @@
+package com.java.smartnote.collabservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkInviteRequest {
+    private String noteId;
+    private String inviterEmail;
+    private List<String> inviteeEmails;
+    private String locale;
+}
@@ -0,0 +1,14 @@
+package com.java.smartnote.collabservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BulkShareRequest {
+    private List<String> noteIds;
+    private List<String> userIds;
+}
@@ -11,4 +11,5 @@ public class InviteUserRequest {
     private String noteId;
     private String inviterEmail;
     private String inviteeEmail;
+    private String locale; // Optional: "en" | "vi", mặc định app.email.default-locale
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package com.java.smartnote.collabservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Gửi về /topic/note/{noteId}/conflict khi edit bị từ chối vì version đã đổi
+ * Client có senderId trùng với mình thì lấy content/version hiện tại rồi áp lại thay đổi
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class NoteConflictMessage {
+    private String noteId;
+    private String senderId;
+    private Integer expectedVersion;
+    private Integer currentVersion;
+    private String currentContent;
+    private String type; // "CONFLICT"
+    private Long timestamp;
+}
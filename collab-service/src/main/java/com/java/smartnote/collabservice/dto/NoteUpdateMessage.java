@@ -14,5 +14,7 @@ public class NoteUpdateMessage {
     private String senderEmail;
     private String senderName;
     private String type; // "EDIT" or "CURSOR"
+    // Gửi lên: version client đang sửa; broadcast: version sau khi lưu
+    private Integer version;
     private Long timestamp;
 }
\ No newline at end of file
@@ -0,0 +1,35 @@
+package com.java.smartnote.collabservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Note được share, chỉ gồm các field cần cho danh sách
+ * Các field optional chỉ có giá trị khi được yêu cầu qua tham số "fields"
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SharedNoteSummary {
+    private String id;
+    private String title;
+    private String createdBy;
+    private LocalDateTime updatedAt;
+    private Integer shareCount;
+
+    // Optional fields
+    private String folderId;
+    private String content;
+    private String contentType;
+    private LocalDateTime createdAt;
+    private Integer version;
+    private List<String> tags;
+    private List<Object> shares;
+    private Boolean isImportant;
+}
@@ -0,0 +1,16 @@
+package com.java.smartnote.collabservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SharedNotesPage {
+    private List<SharedNoteSummary> items;
+    private String nextCursor; // null khi đã hết
+    private boolean hasMore;
+}
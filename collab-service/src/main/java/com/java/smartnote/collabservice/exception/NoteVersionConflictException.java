@@ -0,0 +1,24 @@
+package com.java.smartnote.collabservice.exception;
+
+import lombok.Getter;
+
+/**
+ * Edit realtime dựa trên version cũ: note đã bị ghi (REST hoặc client khác) sau khi client nhận expectedVersion
+ */
+@Getter
+public class NoteVersionConflictException extends RuntimeException {
+
+    private final String noteId;
+    private final Integer expectedVersion;
+    private final Integer currentVersion;
+    private final String currentContent;
+
+    public NoteVersionConflictException(String noteId, Integer expectedVersion, Integer currentVersion,
+                                        String currentContent) {
+        super("Version conflict on note " + noteId + ": expected " + expectedVersion + ", current " + currentVersion);
+        this.noteId = noteId;
+        this.expectedVersion = expectedVersion;
+        this.currentVersion = currentVersion;
+        this.currentContent = currentContent;
+    }
+}
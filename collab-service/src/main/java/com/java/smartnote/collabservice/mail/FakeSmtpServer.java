@@ -0,0 +1,125 @@
+package com.java.smartnote.collabservice.mail;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SMTP server giả chạy local, nhận và bỏ mail (không auth, không TLS)
+ * Dùng cho test và benchmark gửi invitation hàng loạt: bật bằng profile "fakesmtp"
+ * hoặc app.mail.fake-smtp.enabled=true. Port 0 = chọn port trống (xem getPort)
+ */
+@Component
+@ConditionalOnProperty(name = "app.mail.fake-smtp.enabled", havingValue = "true")
+public class FakeSmtpServer {
+
+    private static final Logger log = LoggerFactory.getLogger(FakeSmtpServer.class);
+
+    private final int port;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final AtomicLong connections = new AtomicLong();
+    private final AtomicLong messagesReceived = new AtomicLong();
+
+    private volatile ServerSocket serverSocket;
+
+    public FakeSmtpServer(@Value("${app.mail.fake-smtp.port:2525}") int port) {
+        this.port = port;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        executor.submit(this::acceptLoop);
+        log.info("📭 Fake SMTP server listening on localhost:{}", port);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        executor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.incrementAndGet();
+                executor.submit(() -> handle(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    log.warn("Fake SMTP accept failed: {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             OutputStream out = socket.getOutputStream()) {
+
+            reply(out, "220 localhost Fake SMTP ready");
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+                switch (command) {
+                    case "EHLO" -> reply(out, "250-localhost\r\n250-PIPELINING\r\n250-8BITMIME\r\n250 SIZE 26214400");
+                    case "HELO" -> reply(out, "250 localhost");
+                    case "MAIL", "RCPT", "RSET", "NOOP" -> reply(out, "250 OK");
+                    case "DATA" -> {
+                        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                        String dataLine;
+                        while ((dataLine = in.readLine()) != null && !dataLine.equals(".")) {
+                            // Bỏ nội dung mail
+                        }
+                        messagesReceived.incrementAndGet();
+                        reply(out, "250 OK queued");
+                    }
+                    case "QUIT" -> {
+                        reply(out, "221 Bye");
+                        return;
+                    }
+                    default -> reply(out, "502 Command not implemented");
+                }
+            }
+        } catch (IOException e) {
+            log.debug("Fake SMTP connection closed: {}", e.getMessage());
+        }
+    }
+
+    private void reply(OutputStream out, String response) throws IOException {
+        out.write((response + "\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    public int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : port;
+    }
+
+    public long getConnections() {
+        return connections.get();
+    }
+
+    public long getMessagesReceived() {
+        return messagesReceived.get();
+    }
+}
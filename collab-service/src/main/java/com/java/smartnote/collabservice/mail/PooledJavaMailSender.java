@@ -0,0 +1,235 @@
+package com.java.smartnote.collabservice.mail;
+
+import jakarta.mail.Address;
+import jakarta.mail.AuthenticationFailedException;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.mail.MailAuthenticationException;
+import org.springframework.mail.MailException;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * JavaMailSender giữ một pool SMTP transport đã connect + authenticate sẵn
+ *
+ * JavaMailSenderImpl mặc định mở một SMTP session mới (TCP + STARTTLS + AUTH) cho mỗi lần send.
+ * Ở đây transport được mượn từ pool, gửi tất cả messages của lần send đó trên cùng một connection,
+ * rồi trả lại pool. Transport idle quá lâu sẽ bị đóng bởi evictor.
+ */
+public class PooledJavaMailSender extends JavaMailSenderImpl implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(PooledJavaMailSender.class);
+
+    private final int maxPoolSize;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+    private final long validateAfterMillis;
+
+    // Transport đang rảnh, mới trả về nằm ở đầu deque (LIFO giữ connection "nóng")
+    private final LinkedBlockingDeque<PooledTransport> idle = new LinkedBlockingDeque<>();
+    private final Semaphore permits;
+    private final ScheduledExecutorService evictor;
+
+    private final AtomicLong connectionsOpened = new AtomicLong();
+    private final AtomicLong connectionsReused = new AtomicLong();
+    private final AtomicLong messagesSent = new AtomicLong();
+
+    public PooledJavaMailSender(int maxPoolSize, long idleTimeoutMillis, long borrowTimeoutMillis,
+                                long validateAfterMillis) {
+        this.maxPoolSize = maxPoolSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validateAfterMillis = validateAfterMillis;
+        this.permits = new Semaphore(maxPoolSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "smtp-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long evictInterval = Math.max(1000, idleTimeoutMillis / 2);
+        this.evictor.scheduleWithFixedDelay(this::evictIdle, evictInterval, evictInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    protected void doSend(MimeMessage[] mimeMessages, Object[] originalMessages) throws MailException {
+        Map<Object, Exception> failedMessages = new LinkedHashMap<>();
+
+        PooledTransport pooled;
+        try {
+            pooled = borrow();
+        } catch (AuthenticationFailedException ex) {
+            throw new MailAuthenticationException(ex);
+        } catch (Exception ex) {
+            for (int i = 0; i < mimeMessages.length; i++) {
+                failedMessages.put(original(mimeMessages, originalMessages, i), ex);
+            }
+            throw new MailSendException("Mail server connection failed", ex, failedMessages);
+        }
+
+        try {
+            for (int i = 0; i < mimeMessages.length; i++) {
+                MimeMessage mimeMessage = mimeMessages[i];
+                try {
+                    prepare(mimeMessage);
+                    pooled = sendWithReconnect(pooled, mimeMessage);
+                    messagesSent.incrementAndGet();
+                } catch (Exception ex) {
+                    failedMessages.put(original(mimeMessages, originalMessages, i), ex);
+                }
+            }
+        } finally {
+            release(pooled);
+        }
+
+        if (!failedMessages.isEmpty()) {
+            throw new MailSendException(failedMessages);
+        }
+    }
+
+    /**
+     * Gửi message, nếu server đã đóng connection (timeout, giới hạn số mail/connection)
+     * thì mở connection mới và thử lại một lần
+     */
+    private PooledTransport sendWithReconnect(PooledTransport pooled, MimeMessage mimeMessage) throws MessagingException {
+        Address[] addresses = mimeMessage.getAllRecipients();
+        Address[] recipients = addresses != null ? addresses : new Address[0];
+        try {
+            pooled.transport.sendMessage(mimeMessage, recipients);
+            return pooled;
+        } catch (MessagingException ex) {
+            if (pooled.transport.isConnected()) {
+                throw ex;
+            }
+            log.debug("SMTP connection dropped mid-batch, reconnecting");
+            closeQuietly(pooled.transport);
+            pooled.transport = connectTransport();
+            connectionsOpened.incrementAndGet();
+            pooled.transport.sendMessage(mimeMessage, recipients);
+            return pooled;
+        }
+    }
+
+    private void prepare(MimeMessage mimeMessage) throws MessagingException {
+        // Giống JavaMailSenderImpl: giữ Message-ID đã set trước khi saveChanges()
+        if (mimeMessage.getSentDate() == null) {
+            mimeMessage.setSentDate(new Date());
+        }
+        String messageId = mimeMessage.getMessageID();
+        mimeMessage.saveChanges();
+        if (messageId != null) {
+            mimeMessage.setHeader("Message-ID", messageId);
+        }
+    }
+
+    private PooledTransport borrow() throws MessagingException, InterruptedException {
+        if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            throw new MessagingException("Timed out waiting for an SMTP connection (pool size " + maxPoolSize + ")");
+        }
+        try {
+            PooledTransport pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) {
+                    connectionsReused.incrementAndGet();
+                    return pooled;
+                }
+                closeQuietly(pooled.transport);
+            }
+            Transport transport = connectTransport();
+            connectionsOpened.incrementAndGet();
+            return new PooledTransport(transport);
+        } catch (MessagingException | RuntimeException ex) {
+            permits.release();
+            throw ex;
+        }
+    }
+
+    private boolean isUsable(PooledTransport pooled) {
+        long idleFor = System.currentTimeMillis() - pooled.lastUsed;
+        if (idleFor > idleTimeoutMillis) {
+            return false;
+        }
+        // isConnected() gửi NOOP, chỉ kiểm tra khi transport đã rảnh một lúc
+        return idleFor < validateAfterMillis || pooled.transport.isConnected();
+    }
+
+    private void release(PooledTransport pooled) {
+        try {
+            if (pooled.transport.isConnected()) {
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerFirst(pooled);
+            } else {
+                closeQuietly(pooled.transport);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void evictIdle() {
+        long now = System.currentTimeMillis();
+        Iterator<PooledTransport> iterator = idle.descendingIterator();
+        while (iterator.hasNext()) {
+            PooledTransport pooled = iterator.next();
+            if (now - pooled.lastUsed > idleTimeoutMillis && idle.remove(pooled)) {
+                closeQuietly(pooled.transport);
+                log.debug("Evicted idle SMTP connection");
+            }
+        }
+    }
+
+    private Object original(MimeMessage[] mimeMessages, Object[] originalMessages, int index) {
+        return originalMessages != null ? originalMessages[index] : mimeMessages[index];
+    }
+
+    private void closeQuietly(Transport transport) {
+        try {
+            transport.close();
+        } catch (Exception ex) {
+            log.debug("Failed to close SMTP transport: {}", ex.getMessage());
+        }
+    }
+
+    public Map<String, Object> getPoolStats() {
+        return Map.of(
+                "maxPoolSize", maxPoolSize,
+                "idleConnections", idle.size(),
+                "activeConnections", maxPoolSize - permits.availablePermits(),
+                "connectionsOpened", connectionsOpened.get(),
+                "connectionsReused", connectionsReused.get(),
+                "messagesSent", messagesSent.get());
+    }
+
+    @Override
+    public void destroy() {
+        evictor.shutdownNow();
+        PooledTransport pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            closeQuietly(pooled.transport);
+        }
+    }
+
+    private static final class PooledTransport {
+        private Transport transport;
+        private long lastUsed = System.currentTimeMillis();
+
+        private PooledTransport(Transport transport) {
+            this.transport = transport;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
@@ -15,6 +16,8 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "notes")
+// Index cho danh sách shared notes: lọc theo shares, keyset theo (updated_at, _id)
+@CompoundIndex(name = "shares_updated_at_id", def = "{'shares': 1, 'updated_at': -1, '_id': -1}")
 public class Note {
     
     @Id
@@ -27,6 +30,10 @@ public class Note {
     
     @Field("content")
     private String content;
+
+    // Do note-service quản lý: có giá trị khi content lớn nằm trong GridFS (content = null), collab chỉ đọc
+    @Field("content_ref")
+    private String contentRef;
     
     @Field("content_type")
     private String contentType = "markdown";
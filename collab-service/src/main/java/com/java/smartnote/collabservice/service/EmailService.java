@@ -1,29 +1,42 @@
 package com.java.smartnote.collabservice.service;
 
 import com.java.smartnote.collabservice.model.Invitation;
-import com.java.smartnote.collabservice.model.Note;
+import com.java.smartnote.collabservice.template.EmailTemplateEngine;
+import com.java.smartnote.collabservice.template.EmailTemplateEngine.CompiledEmail;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.MailSendException;
 import org.springframework.mail.SimpleMailMessage;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
 @Service
 public class EmailService {
+
+    private static final String INVITATION_TEMPLATE = "invitation";
+    private static final int INVITATION_EXPIRY_DAYS = 7;
     
     private final JavaMailSender mailSender;
     private final NoteService noteService;
+    private final EmailTemplateEngine templateEngine;
     private final String frontendUrl;
     private final String fromEmail;
     private final String gmailAppPassword; // Thêm field này
     
     // Chỉ dùng constructor injection, không dùng field injection
-    public EmailService(JavaMailSender mailSender, NoteService noteService,
+    public EmailService(JavaMailSender mailSender, NoteService noteService, EmailTemplateEngine templateEngine,
                        @Value("${app.frontend.url:http://localhost:3000}") String frontendUrl,
                        @Value("${spring.mail.username}") String fromEmail,
                        @Value("${GMAIL_APP_PASSWORD:}") String gmailAppPassword) { // Thêm parameter này
         this.mailSender = mailSender;
         this.noteService = noteService;
+        this.templateEngine = templateEngine;
         this.frontendUrl = frontendUrl;
         this.fromEmail = fromEmail;
         this.gmailAppPassword = gmailAppPassword; // Gán giá trị
@@ -55,34 +68,20 @@ public class EmailService {
      * Gửi email mời collaboration
      */
     public void sendInvitationEmail(Invitation invitation) {
+        sendInvitationEmail(invitation, null);
+    }
+
+    /**
+     * Gửi email mời collaboration theo locale (null = default locale)
+     */
+    public void sendInvitationEmail(Invitation invitation, String locale) {
         System.out.println("📧 STARTING EMAIL SEND PROCESS");
         System.out.println("📧 To: " + invitation.getInviteeEmail());
         System.out.println("📧 From: " + fromEmail);
-        System.out.println("📧 Frontend URL: " + frontendUrl);
-        
+
         try {
-            // Kiểm tra note
-            Note note = noteService.getNoteById(invitation.getNoteId());
-            String noteTitle = note != null ? note.getTitle() : "Untitled Document";
-            System.out.println("📧 Note title: " + noteTitle);
-            
-            String invitationLink = frontendUrl + "/invitation/accept?token=" + invitation.getToken();
-            System.out.println("📧 Invitation link: " + invitationLink);
-            
-            SimpleMailMessage message = new SimpleMailMessage();
-            message.setFrom(fromEmail);
-            message.setTo(invitation.getInviteeEmail());
-            message.setSubject("You're invited to collaborate on \"" + noteTitle + "\"");
-            message.setText(
-                "Hello,\n\n" +
-                invitation.getInviterEmail() + " has invited you to collaborate on the document \"" + noteTitle + "\".\n\n" +
-                "Click the link below to accept the invitation:\n" +
-                invitationLink + "\n\n" +
-                "This invitation will expire in 7 days.\n\n" +
-                "Best regards,\n" +
-                "Aeternus Team"
-            );
-            
+            SimpleMailMessage message = buildInvitationMessage(invitation, bindInvitation(invitation.getNoteId(), locale));
+
             System.out.println("📧 Attempting to send email via SMTP...");
             mailSender.send(message);
             
@@ -97,4 +96,81 @@ public class EmailService {
             throw new RuntimeException("Failed to send invitation email: " + e.getMessage(), e);
         }
     }
+
+    /**
+     * Gửi nhiều email mời trong một lần send
+     * Với pooled mail sender, tất cả messages đi chung một SMTP connection
+     * @return danh sách invitations gửi thất bại
+     */
+    public List<Invitation> sendInvitationEmails(List<Invitation> invitations, String locale) {
+        if (invitations.isEmpty()) {
+            return new ArrayList<>();
+        }
+        System.out.println("📧 SENDING " + invitations.size() + " INVITATION EMAILS");
+
+        Map<SimpleMailMessage, Invitation> byMessage = new IdentityHashMap<>();
+        List<Invitation> failed = new ArrayList<>();
+        // Title chỉ load và gắn vào template một lần cho mỗi note trong batch
+        Map<String, CompiledEmail> boundByNote = new HashMap<>();
+        for (Invitation invitation : invitations) {
+            try {
+                CompiledEmail email = boundByNote.computeIfAbsent(invitation.getNoteId(),
+                        noteId -> bindInvitation(noteId, locale));
+                byMessage.put(buildInvitationMessage(invitation, email), invitation);
+            } catch (Exception e) {
+                System.err.println("❌ Failed to render email for: " + invitation.getInviteeEmail() + " - " + e.getMessage());
+                failed.add(invitation);
+            }
+        }
+
+        try {
+            mailSender.send(byMessage.keySet().toArray(new SimpleMailMessage[0]));
+        } catch (MailSendException e) {
+            Map<Object, Exception> failedMessages = e.getFailedMessages();
+            if (failedMessages.isEmpty()) {
+                // Không biết message nào lỗi, coi như tất cả đều lỗi
+                failed.addAll(byMessage.values());
+            } else {
+                failedMessages.forEach((message, error) -> {
+                    Invitation invitation = byMessage.get(message);
+                    if (invitation != null) {
+                        System.err.println("❌ EMAIL SEND FAILED to: " + invitation.getInviteeEmail() + " - " + error.getMessage());
+                        failed.add(invitation);
+                    }
+                });
+            }
+        } catch (Exception e) {
+            System.err.println("❌ BULK EMAIL SEND FAILED: " + e.getMessage());
+            failed.addAll(byMessage.values());
+        }
+
+        System.out.println("✅ EMAILS SENT: " + (invitations.size() - failed.size()) + "/" + invitations.size());
+        return failed;
+    }
+
+    /**
+     * Template mời đã gắn title hiện tại của note (projection, không load content)
+     */
+    private CompiledEmail bindInvitation(String noteId, String locale) {
+        String noteTitle = noteService.getNoteTitle(noteId);
+        return templateEngine.bind(INVITATION_TEMPLATE, locale, Map.of(
+                "noteTitle", noteTitle != null ? noteTitle : "Untitled Document",
+                "expiryDays", String.valueOf(INVITATION_EXPIRY_DAYS)));
+    }
+
+    /**
+     * Render email mời từ template đã gắn biến theo note
+     */
+    private SimpleMailMessage buildInvitationMessage(Invitation invitation, CompiledEmail email) {
+        Map<String, String> values = Map.of(
+                "inviterEmail", invitation.getInviterEmail() != null ? invitation.getInviterEmail() : "",
+                "invitationLink", frontendUrl + "/invitation/accept?token=" + invitation.getToken());
+
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setFrom(fromEmail);
+        message.setTo(invitation.getInviteeEmail());
+        message.setSubject(email.renderSubject(values));
+        message.setText(email.renderBody(values));
+        return message;
+    }
 }
\ No newline at end of file
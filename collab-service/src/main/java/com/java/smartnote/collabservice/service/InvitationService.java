@@ -10,6 +10,8 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -79,6 +81,14 @@ public class InvitationService {
      * Tạo invitation và gửi email
      */
     public Invitation createInvitation(String noteId, String inviterEmail, String inviteeEmail, String currentUserId) {
+        return createInvitation(noteId, inviterEmail, inviteeEmail, currentUserId, null);
+    }
+
+    /**
+     * Tạo invitation và gửi email theo locale
+     */
+    public Invitation createInvitation(String noteId, String inviterEmail, String inviteeEmail, String currentUserId,
+            String locale) {
         System.out.println("========================================");
         System.out.println("📧 CREATING INVITATION");
         System.out.println("========================================");
@@ -120,7 +130,7 @@ public class InvitationService {
 
         // Gửi email
         try {
-            emailService.sendInvitationEmail(savedInvitation);
+            emailService.sendInvitationEmail(savedInvitation, locale);
             System.out.println("✅ Invitation email sent successfully to: " + inviteeEmail);
         } catch (Exception e) {
             System.err.println("❌ CRITICAL: Failed to send invitation email to: " + inviteeEmail);
@@ -164,6 +174,76 @@ public class InvitationService {
         return savedInvitation;
     }
 
+    /**
+     * Tạo invitations cho nhiều người cùng lúc và gửi email theo batch
+     * Invitations gửi email thất bại sẽ bị xóa, giống createInvitation
+     */
+    public BulkInvitationResult createInvitations(String noteId, String inviterEmail, List<String> inviteeEmails,
+            String currentUserId, String locale) {
+        System.out.println("📧 CREATING " + inviteeEmails.size() + " INVITATIONS for note " + noteId);
+
+        com.java.smartnote.collabservice.model.Note note = noteService.getNoteById(noteId);
+        if (note == null) {
+            throw new RuntimeException("Note not found");
+        }
+
+        if (!note.getCreatedBy().equals(currentUserId)) {
+            throw new RuntimeException("Only the note owner can send invitations");
+        }
+
+        List<Invitation> existing = new ArrayList<>();
+        List<Invitation> toCreate = new ArrayList<>();
+        for (String inviteeEmail : new LinkedHashSet<>(inviteeEmails)) {
+            List<Invitation> pending = invitationRepository
+                    .findByNoteIdAndInviteeEmailAndStatus(noteId, inviteeEmail, InvitationStatus.PENDING);
+            if (!pending.isEmpty()) {
+                existing.add(pending.get(0));
+                continue;
+            }
+
+            Invitation invitation = new Invitation();
+            invitation.setNoteId(noteId);
+            invitation.setInviterEmail(inviterEmail);
+            invitation.setInviteeEmail(inviteeEmail);
+            invitation.setToken(UUID.randomUUID().toString());
+            invitation.setStatus(InvitationStatus.PENDING);
+            invitation.setCreatedAt(LocalDateTime.now());
+            invitation.setExpiresAt(LocalDateTime.now().plusDays(7));
+            toCreate.add(invitation);
+        }
+
+        List<Invitation> saved = invitationRepository.saveAll(toCreate);
+        List<Invitation> failed = emailService.sendInvitationEmails(saved, locale);
+        if (!failed.isEmpty()) {
+            invitationRepository.deleteAll(failed);
+            System.err.println("🗑️ " + failed.size() + " invitations deleted due to email failure");
+        }
+
+        List<Invitation> sent = new ArrayList<>(saved);
+        sent.removeAll(failed);
+        for (Invitation invitation : sent) {
+            String inviteeUserId = getUserIdFromEmail(invitation.getInviteeEmail());
+            if (inviteeUserId != null) {
+                createNotification(
+                        inviteeUserId,
+                        "NOTE_SHARED",
+                        "Lời mời cộng tác",
+                        inviterEmail + " đã mời bạn cộng tác trên tài liệu: " + note.getTitle(),
+                        noteId,
+                        "note",
+                        inviterEmail);
+            }
+        }
+
+        List<Invitation> invitations = new ArrayList<>(existing);
+        invitations.addAll(sent);
+        List<String> failedEmails = failed.stream().map(Invitation::getInviteeEmail).toList();
+        return new BulkInvitationResult(invitations, failedEmails);
+    }
+
+    public record BulkInvitationResult(List<Invitation> invitations, List<String> failedEmails) {
+    }
+
     /**
      * Accept invitation
      * FIX: Actually share the note with the user when they accept
@@ -214,50 +294,38 @@ public class InvitationService {
                 userId = userEmail; // Fallback to email
             }
 
-            com.java.smartnote.collabservice.model.Note note = noteService.getNoteById(invitation.getNoteId());
-            if (note != null) {
-                List<Object> currentShares = note.getShares();
-                if (currentShares == null) {
-                    currentShares = new java.util.ArrayList<>();
-                }
-
-                // Add userId to shares if not already present
-                boolean isNewlyAdded = false;
-                if (!currentShares.contains(userId)) {
-                    currentShares.add(userId);
-                    note.setShares(currentShares);
-                    note.setUpdatedAt(LocalDateTime.now());
-                    noteService.updateNoteShares(invitation.getNoteId(), currentShares);
-                    System.out.println("✅ User added to note shares: " + userId);
-                    isNewlyAdded = true;
-                } else {
-                    System.out.println("ℹ️ User already in note shares: " + userId);
-                }
+            // $addToSet atomic: hai người accept cùng lúc không ghi đè shares của nhau
+            boolean isNewlyAdded = noteService.addShare(invitation.getNoteId(), userId);
+            if (isNewlyAdded) {
+                System.out.println("✅ User added to note shares: " + userId);
+            } else {
+                System.out.println("ℹ️ User already in note shares: " + userId);
+            }
 
-                // Tạo notification cho người mời (inviter) CHỈ KHI user mới được thêm vào
-                // Tránh duplicate notification khi accept 2 lần
-                if (isNewlyAdded) {
-                    try {
-                        System.out.println("📬 Creating notification for inviter...");
-                        String inviterUserId = getUserIdFromEmail(invitation.getInviterEmail());
-                        if (inviterUserId != null) {
-                            createNotification(
-                                    inviterUserId,
-                                    "NOTE_SHARED",
-                                    "Lời mời được chấp nhận",
-                                    userEmail + " đã chấp nhận lời mời cộng tác trên tài liệu: " + note.getTitle(),
-                                    invitation.getNoteId(),
-                                    "note",
-                                    userEmail);
-                            System.out.println("✅ Notification created for inviter");
-                        }
-                    } catch (Exception e) {
-                        System.err.println("⚠️ Failed to create notification for inviter: " + e.getMessage());
-                        // Don't fail if notification fails
+            // Tạo notification cho người mời (inviter) CHỈ KHI user mới được thêm vào
+            // Tránh duplicate notification khi accept 2 lần
+            if (isNewlyAdded) {
+                try {
+                    System.out.println("📬 Creating notification for inviter...");
+                    String inviterUserId = getUserIdFromEmail(invitation.getInviterEmail());
+                    if (inviterUserId != null) {
+                        createNotification(
+                                inviterUserId,
+                                "NOTE_SHARED",
+                                "Lời mời được chấp nhận",
+                                userEmail + " đã chấp nhận lời mời cộng tác trên tài liệu: "
+                                        + noteService.getNoteTitle(invitation.getNoteId()),
+                                invitation.getNoteId(),
+                                "note",
+                                userEmail);
+                        System.out.println("✅ Notification created for inviter");
                     }
-                } else {
-                    System.out.println("⏭️ Skipping notification - user already had access");
+                } catch (Exception e) {
+                    System.err.println("⚠️ Failed to create notification for inviter: " + e.getMessage());
+                    // Don't fail if notification fails
                 }
+            } else {
+                System.out.println("⏭️ Skipping notification - user already had access");
             }
         } catch (Exception e) {
             System.err.println("⚠️ Failed to add user to shares: " + e.getMessage());
@@ -1,9 +1,21 @@
 package com.java.smartnote.collabservice.service;
 
+import com.java.smartnote.collabservice.dto.SharedNoteSummary;
+import com.java.smartnote.collabservice.dto.SharedNotesPage;
+import com.java.smartnote.collabservice.exception.NoteVersionConflictException;
 import com.java.smartnote.collabservice.model.Note;
 import com.java.smartnote.collabservice.repository.NoteRepository;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
@@ -11,18 +23,40 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
 public class NoteService {
 
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 100;
+
+    // Tên field trong API -> tên field trong MongoDB, cho tham số "fields"
+    private static final Map<String, String> OPTIONAL_SUMMARY_FIELDS = Map.of(
+            "folderId", "folderId",
+            "content", "content",
+            "contentType", "content_type",
+            "createdAt", "created_at",
+            "version", "version",
+            "tags", "tags",
+            "shares", "shares",
+            "isImportant", "is_important");
+
     @Autowired
     private NoteRepository noteRepository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
     @Autowired
     private RestTemplate restTemplate;
 
@@ -43,47 +77,130 @@ public class NoteService {
             return new ArrayList<>();
         }
 
-        List<Note> allNotes = noteRepository.findAll();
-        System.out.println("📊 Total notes in collab-service DB: " + allNotes.size());
-
-        // Debug từng note
-        int notesWithShares = 0;
-        for (int i = 0; i < allNotes.size(); i++) {
-            Note note = allNotes.get(i);
-            boolean hasShares = note.getShares() != null && !note.getShares().isEmpty();
-
-            if (hasShares) {
-                notesWithShares++;
-                System.out.println("📝 Note " + (i + 1) + " (has shares): " + note.getId() + " - " + note.getTitle());
-                System.out.println("   - Shares: " + note.getShares());
-                System.out.println("   - Shares size: " + note.getShares().size());
-                boolean containsUserId = note.getShares().contains(userId);
-                System.out.println("   - Contains userId '" + userId + "': " + containsUserId);
-                System.out.println("   - Accessible by current user: " + containsUserId);
+        // Lọc ngay trong MongoDB (index shares + updated_at) thay vì findAll rồi lọc trong Java
+        Query query = new Query(Criteria.where("shares").is(userId).and("isDeleted").ne(true))
+                .with(Sort.by(Sort.Direction.DESC, "updatedAt", "id"));
+        List<Note> filteredNotes = mongoTemplate.find(query, Note.class);
+
+        System.out.println("✅ Found " + filteredNotes.size() + " shared notes for user: " + userId);
+        System.out.println("🔍 [SERVICE] ===== SERVICE COMPLETED =====");
+
+        return filteredNotes;
+    }
+
+    /**
+     * Lấy một trang notes được share với user (keyset pagination trên updated_at, _id)
+     * Chỉ trả về summary (id, title, owner, updatedAt, shareCount) + các field được yêu cầu
+     */
+    public SharedNotesPage getSharedNotesPage(String userId, String cursor, Integer limit, Set<String> fields) {
+        if (userId == null || userId.trim().isEmpty()) {
+            return new SharedNotesPage(new ArrayList<>(), null, false);
+        }
+
+        int pageSize = limit == null ? DEFAULT_PAGE_SIZE : Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+
+        Document match = new Document("shares", userId).append("is_deleted", new Document("$ne", true))
+                // null sẽ bị encode thành epoch 0 trong cursor và lặp/bỏ sót trang (note-service backfill khi start)
+                .append("updated_at", new Document("$ne", null));
+        if (cursor != null && !cursor.isBlank()) {
+            SharedNotesCursor position = SharedNotesCursor.decode(cursor);
+            match.append("$or", List.of(
+                    new Document("updated_at", new Document("$lt", position.updatedAt())),
+                    new Document("updated_at", position.updatedAt())
+                            .append("_id", new Document("$lt", position.id()))));
+        }
+
+        Document projection = new Document("title", 1)
+                .append("created_by", 1)
+                .append("updated_at", 1)
+                .append("shareCount", new Document("$size", new Document("$ifNull", List.of("$shares", List.of()))));
+        if (fields != null) {
+            for (String field : fields) {
+                String mongoField = OPTIONAL_SUMMARY_FIELDS.get(field);
+                if (mongoField == null) {
+                    throw new IllegalArgumentException("Unknown field: " + field
+                            + ". Allowed: " + OPTIONAL_SUMMARY_FIELDS.keySet());
+                }
+                projection.append(mongoField, 1);
             }
         }
 
-        System.out.println("📊 Summary: " + notesWithShares + "/" + allNotes.size() + " notes have shares");
+        List<Document> pipeline = List.of(
+                new Document("$match", match),
+                new Document("$sort", new Document("updated_at", -1).append("_id", -1)),
+                new Document("$limit", pageSize + 1),
+                new Document("$project", projection));
 
-        // FIX: CHỈ trả về notes mà userId nằm trong shares list
-        // KHÔNG có logic "all_users" nữa - chỉ share khi được mời cụ thể
-        List<Note> filteredNotes = allNotes.stream()
-                .filter(note -> note.getShares() != null && !note.getShares().isEmpty())
-                .filter(note -> {
-                    // Chỉ check xem userId có trong shares list không
-                    // KHÔNG check "all_users" - logic này gây bug
-                    boolean isSharedWithUser = note.getShares().contains(userId);
-                    System.out
-                            .println("   ↳ Note " + note.getId() + " shared with " + userId + ": " + isSharedWithUser);
-                    return isSharedWithUser;
-                })
-                .filter(note -> !Boolean.TRUE.equals(note.getIsDeleted()))
+        List<Document> documents = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Note.class))
+                .aggregate(pipeline)
+                .into(new ArrayList<>());
+
+        boolean hasMore = documents.size() > pageSize;
+        if (hasMore) {
+            documents = documents.subList(0, pageSize);
+        }
+
+        List<SharedNoteSummary> items = documents.stream()
+                .map(this::toSharedNoteSummary)
                 .collect(Collectors.toList());
 
-        System.out.println("✅ Filtered to " + filteredNotes.size() + " shared notes for user: " + userId);
-        System.out.println("🔍 [SERVICE] ===== SERVICE COMPLETED =====");
+        String nextCursor = null;
+        if (hasMore) {
+            Document last = documents.get(documents.size() - 1);
+            nextCursor = new SharedNotesCursor(last.getDate("updated_at"), last.get("_id")).encode();
+        }
 
-        return filteredNotes;
+        return new SharedNotesPage(items, nextCursor, hasMore);
+    }
+
+    @SuppressWarnings("unchecked")
+    private SharedNoteSummary toSharedNoteSummary(Document document) {
+        SharedNoteSummary summary = new SharedNoteSummary();
+        summary.setId(document.get("_id").toString());
+        summary.setTitle(document.getString("title"));
+        summary.setCreatedBy(document.getString("created_by"));
+        summary.setUpdatedAt(toLocalDateTime(document.getDate("updated_at")));
+        summary.setShareCount(document.getInteger("shareCount"));
+
+        summary.setFolderId(document.getString("folderId"));
+        summary.setContent(document.getString("content"));
+        summary.setContentType(document.getString("content_type"));
+        summary.setCreatedAt(toLocalDateTime(document.getDate("created_at")));
+        summary.setVersion(document.getInteger("version"));
+        summary.setTags((List<String>) document.get("tags"));
+        summary.setShares((List<Object>) document.get("shares"));
+        summary.setIsImportant(document.getBoolean("is_important"));
+        return summary;
+    }
+
+    private LocalDateTime toLocalDateTime(Date date) {
+        // Spring Data lưu LocalDateTime theo system default zone, đọc lại theo cùng zone
+        return date != null ? LocalDateTime.ofInstant(date.toInstant(), ZoneId.systemDefault()) : null;
+    }
+
+    /**
+     * Vị trí keyset (updated_at, _id) của item cuối trang, encode base64 cho client
+     */
+    private record SharedNotesCursor(Date updatedAt, Object id) {
+
+        String encode() {
+            String idPart = id instanceof ObjectId ? "o" + id : "s" + id;
+            String raw = updatedAt.getTime() + ":" + idPart;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static SharedNotesCursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.indexOf(':');
+                Date updatedAt = new Date(Long.parseLong(raw.substring(0, separator)));
+                String idPart = raw.substring(separator + 1);
+                Object id = idPart.charAt(0) == 'o' ? new ObjectId(idPart.substring(1)) : idPart.substring(1);
+                return new SharedNotesCursor(updatedAt, id);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
     }
 
     /**
@@ -119,23 +236,20 @@ public class NoteService {
 
             // Bước 1: Tìm note trong collab-service DB
             System.out.println("🔍 Finding note in collab-service DB...");
-            Note note = noteRepository.findById(noteId).orElse(null);
-            System.out.println("Note found: " + (note != null));
+            boolean exists = mongoTemplate.exists(byId(noteId), Note.class);
+            System.out.println("Note found: " + exists);
 
-            if (note == null) {
+            if (!exists) {
                 System.out.println("⚠️ Note not found in collab-service, attempting sync...");
-                note = syncNoteFromNoteService(noteId);
-
-                if (note == null) {
+                if (syncNoteFromNoteService(noteId) == null) {
                     System.err.println("❌ Failed to sync note from note-service");
                     throw new RuntimeException("Note not found in note-service: " + noteId);
                 }
             } else {
                 System.out.println("✅ Note found in collab-service DB");
-                System.out.println("Current shares: " + note.getShares());
             }
 
-            // Bước 2: Cập nhật shares
+            // Bước 2: Cập nhật shares bằng $set, không ghi lại toàn bộ document
             System.out.println("✅ Note found, updating shares...");
             System.out.println("New user IDs to add: " + userIds);
 
@@ -146,12 +260,9 @@ public class NoteService {
 
             System.out.println("Converted shares: " + sharesAsObjects);
 
-            note.setShares(sharesAsObjects);
-            note.setUpdatedAt(LocalDateTime.now());
-
             // Bước 3: Lưu vào DB
-            System.out.println("💾 Saving note to database...");
-            Note savedNote = noteRepository.save(note);
+            System.out.println("💾 Saving shares to database...");
+            Note savedNote = updateNoteShares(noteId, sharesAsObjects);
 
             System.out.println("========================================");
             System.out.println("✅ SHARE SUCCESSFUL");
@@ -181,20 +292,22 @@ public class NoteService {
         System.out.println("========================================");
         System.out.println("Note ID: " + noteId);
 
-        return noteRepository.findById(noteId).map(note -> {
-            note.setShares(new ArrayList<>());
-            note.setUpdatedAt(LocalDateTime.now());
-            Note savedNote = noteRepository.save(note);
+        Note savedNote = mongoTemplate.findAndModify(
+                byId(noteId),
+                new Update().set("shares", new ArrayList<>()).set("updated_at", LocalDateTime.now()),
+                FindAndModifyOptions.options().returnNew(true),
+                Note.class);
 
-            System.out.println("✅ UNSHARE SUCCESSFUL");
-            System.out.println("========================================");
-
-            return savedNote;
-        }).orElseThrow(() -> {
+        if (savedNote == null) {
             System.err.println("❌ Note not found: " + noteId);
             System.err.println("========================================");
-            return new RuntimeException("Note not found: " + noteId);
-        });
+            throw new RuntimeException("Note not found: " + noteId);
+        }
+
+        System.out.println("✅ UNSHARE SUCCESSFUL");
+        System.out.println("========================================");
+
+        return savedNote;
     }
 
     /**
@@ -290,7 +403,12 @@ public class NoteService {
 
         // Timestamps
         note.setCreatedAt(parseDateTime(data, "createdAt", "created_at"));
-        note.setUpdatedAt(parseDateTime(data, "updatedAt", "updated_at"));
+        // updated_at là khóa keyset của danh sách shared notes, không được để null
+        LocalDateTime updatedAt = parseDateTime(data, "updatedAt", "updated_at");
+        if (updatedAt == null) {
+            updatedAt = note.getCreatedAt() != null ? note.getCreatedAt() : LocalDateTime.now();
+        }
+        note.setUpdatedAt(updatedAt);
 
         // Version
         Integer version = getIntegerValue(data, "version");
@@ -374,24 +492,140 @@ public class NoteService {
 
     /**
      * Cập nhật shares list của note
+     * Chỉ $set field shares, không đọc/ghi lại content
      */
     public Note updateNoteShares(String noteId, List<Object> shares) {
-        return noteRepository.findById(noteId).map(note -> {
-            note.setShares(shares);
-            note.setUpdatedAt(LocalDateTime.now());
-            return noteRepository.save(note);
-        }).orElseThrow(() -> new RuntimeException("Note not found: " + noteId));
+        Note note = mongoTemplate.findAndModify(
+                byId(noteId),
+                new Update().set("shares", shares).set("updated_at", LocalDateTime.now()),
+                FindAndModifyOptions.options().returnNew(true),
+                Note.class);
+        if (note == null) {
+            throw new RuntimeException("Note not found: " + noteId);
+        }
+        return note;
+    }
+
+    /**
+     * Thêm một user vào shares bằng $addToSet (atomic, an toàn khi nhiều người accept cùng lúc)
+     * @return true nếu user vừa được thêm, false nếu đã có sẵn trong shares
+     */
+    public boolean addShare(String noteId, String userId) {
+        // Chỉ match note chưa chứa userId, nên modifiedCount = 1 nghĩa là vừa được thêm
+        UpdateResult result = mongoTemplate.updateFirst(
+                byId(noteId).addCriteria(Criteria.where("shares").ne(userId)),
+                new Update().addToSet("shares", userId).set("updated_at", LocalDateTime.now()),
+                Note.class);
+
+        if (result.getModifiedCount() > 0) {
+            return true;
+        }
+        if (mongoTemplate.exists(byId(noteId), Note.class)) {
+            return false;
+        }
+
+        // Note chưa có trong collab-service DB, sync rồi thử lại
+        if (syncNoteFromNoteService(noteId) == null) {
+            throw new RuntimeException("Note not found: " + noteId);
+        }
+        return mongoTemplate.updateFirst(
+                byId(noteId).addCriteria(Criteria.where("shares").ne(userId)),
+                new Update().addToSet("shares", userId).set("updated_at", LocalDateTime.now()),
+                Note.class).getModifiedCount() > 0;
+    }
+
+    /**
+     * Share nhiều notes với nhiều users trong một lệnh updateMulti ($addToSet + $each)
+     * Notes chưa có trong collab-service DB sẽ được sync trước
+     * @return số notes đã thay đổi
+     */
+    public long bulkShareNotes(List<String> noteIds, List<String> userIds) {
+        if (noteIds == null || noteIds.isEmpty() || userIds == null || userIds.isEmpty()) {
+            throw new IllegalArgumentException("noteIds and userIds cannot be empty");
+        }
+
+        Query existingQuery = new Query(Criteria.where("id").in(noteIds));
+        existingQuery.fields().include("id");
+        Set<String> existingIds = mongoTemplate.find(existingQuery, Note.class).stream()
+                .map(Note::getId)
+                .collect(Collectors.toSet());
+        noteIds.stream()
+                .filter(id -> !existingIds.contains(id))
+                .forEach(this::syncNoteFromNoteService);
+
+        UpdateResult result = mongoTemplate.updateMulti(
+                new Query(Criteria.where("id").in(noteIds)),
+                new Update().addToSet("shares").each(userIds.toArray()).set("updated_at", LocalDateTime.now()),
+                Note.class);
+
+        System.out.println("✅ Bulk share: " + result.getModifiedCount() + "/" + noteIds.size() + " notes updated");
+        return result.getModifiedCount();
+    }
+
+    /**
+     * Bỏ share nhiều notes với nhiều users trong một lệnh updateMulti ($pullAll)
+     * @return số notes đã thay đổi
+     */
+    public long bulkUnshareNotes(List<String> noteIds, List<String> userIds) {
+        if (noteIds == null || noteIds.isEmpty() || userIds == null || userIds.isEmpty()) {
+            throw new IllegalArgumentException("noteIds and userIds cannot be empty");
+        }
+
+        UpdateResult result = mongoTemplate.updateMulti(
+                new Query(Criteria.where("id").in(noteIds).and("shares").in(userIds)),
+                new Update().pullAll("shares", userIds.toArray()).set("updated_at", LocalDateTime.now()),
+                Note.class);
+
+        System.out.println("✅ Bulk unshare: " + result.getModifiedCount() + "/" + noteIds.size() + " notes updated");
+        return result.getModifiedCount();
+    }
+
+    /**
+     * Lấy title của note (projection, không load content)
+     */
+    public String getNoteTitle(String noteId) {
+        Query query = byId(noteId);
+        query.fields().include("title");
+        Note note = mongoTemplate.findOne(query, Note.class);
+        return note != null ? note.getTitle() : null;
+    }
+
+    private Query byId(String noteId) {
+        return new Query(Criteria.where("id").is(noteId));
     }
 
     /**
      * Cập nhật nội dung note (được gọi từ WebSocket)
+     * Note có content lớn (content_ref, lưu trong GridFS của note-service) không sửa realtime được:
+     * ghi content inline ở đây sẽ bị note-service bỏ qua khi đọc/export
+     * @param expectedVersion version client đang sửa; chỉ ghi khi DB vẫn ở version này (null = client cũ, không kiểm tra)
+     * @throws IllegalStateException note có content lớn
+     * @throws NoteVersionConflictException note đã bị ghi sau expectedVersion
      */
-    public Note updateNoteContent(String noteId, String content) {
-        return noteRepository.findById(noteId).map(note -> {
-            note.setContent(content);
-            note.setUpdatedAt(LocalDateTime.now());
-            note.setVersion(note.getVersion() + 1);
-            return noteRepository.save(note);
-        }).orElseThrow(() -> new RuntimeException("Note not found: " + noteId));
+    public Note updateNoteContent(String noteId, String content, Integer expectedVersion) {
+        // $set content + $inc version trong một lệnh: không ghi đè title/tags/shares do REST path vừa sửa,
+        // và version luôn tăng để update có điều kiện bên note-service phát hiện được conflict
+        Criteria criteria = Criteria.where("id").is(noteId).and("contentRef").is(null);
+        if (expectedVersion != null) {
+            criteria = criteria.and("version").is(expectedVersion);
+        }
+        Note updated = mongoTemplate.findAndModify(
+                new Query(criteria),
+                new Update().set("content", content).set("updated_at", LocalDateTime.now()).inc("version", 1),
+                FindAndModifyOptions.options().returnNew(true),
+                Note.class);
+        if (updated == null) {
+            Query query = byId(noteId);
+            query.fields().include("contentRef", "version", "content");
+            Note existing = mongoTemplate.findOne(query, Note.class);
+            if (existing == null) {
+                throw new RuntimeException("Note not found: " + noteId);
+            }
+            if (existing.getContentRef() != null) {
+                throw new IllegalStateException("Note " + noteId + " is too large for realtime editing");
+            }
+            throw new NoteVersionConflictException(noteId, expectedVersion, existing.getVersion(), existing.getContent());
+        }
+        return updated;
     }
 }
\ No newline at end of file
@@ -0,0 +1,132 @@
+package com.java.smartnote.collabservice.template;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Template đã được compile: chuỗi literal xen kẽ với tên biến {{name}}
+ * Parse một lần, render nhiều lần không cần scan lại chuỗi nguồn
+ */
+public final class EmailTemplate {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+
+    // Buffer dùng lại cho mỗi thread, tránh cấp phát StringBuilder mới mỗi lần render
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(1024));
+
+    private final String name;
+    // literals.length == variables.length + 1
+    private final String[] literals;
+    private final String[] variables;
+    private final int literalLength;
+
+    private EmailTemplate(String name, String[] literals, String[] variables) {
+        this.name = name;
+        this.literals = literals;
+        this.variables = variables;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * Compile chuỗi nguồn thành danh sách literal/biến
+     */
+    public static EmailTemplate compile(String name, String source) {
+        List<String> literals = new ArrayList<>();
+        List<String> variables = new ArrayList<>();
+
+        int pos = 0;
+        while (true) {
+            int open = source.indexOf(OPEN, pos);
+            if (open < 0) {
+                break;
+            }
+            int close = source.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder in template '" + name + "' at " + open);
+            }
+            String variable = source.substring(open + OPEN.length(), close).trim();
+            if (variable.isEmpty()) {
+                throw new IllegalArgumentException("Empty placeholder in template '" + name + "' at " + open);
+            }
+            literals.add(source.substring(pos, open));
+            variables.add(variable);
+            pos = close + CLOSE.length();
+        }
+        literals.add(source.substring(pos));
+
+        return new EmailTemplate(name, literals.toArray(new String[0]), variables.toArray(new String[0]));
+    }
+
+    /**
+     * Gắn sẵn các biến đã biết vào literal (partial evaluation)
+     * Ví dụ: gắn noteTitle một lần cho mỗi note, các biến theo người nhận vẫn để trống
+     */
+    public EmailTemplate bind(Map<String, String> values) {
+        List<String> newLiterals = new ArrayList<>();
+        List<String> newVariables = new ArrayList<>();
+
+        StringBuilder current = new StringBuilder(literals[0]);
+        for (int i = 0; i < variables.length; i++) {
+            String value = values.get(variables[i]);
+            if (value != null) {
+                current.append(value).append(literals[i + 1]);
+            } else {
+                newLiterals.add(current.toString());
+                newVariables.add(variables[i]);
+                current.setLength(0);
+                current.append(literals[i + 1]);
+            }
+        }
+        newLiterals.add(current.toString());
+
+        return new EmailTemplate(name, newLiterals.toArray(new String[0]), newVariables.toArray(new String[0]));
+    }
+
+    /**
+     * Render template, biến không có giá trị sẽ thành chuỗi rỗng
+     */
+    public String render(Map<String, String> values) {
+        if (variables.length == 0) {
+            return literals[0];
+        }
+
+        StringBuilder buffer = BUFFER.get();
+        buffer.setLength(0);
+        buffer.ensureCapacity(literalLength + variables.length * 32);
+
+        buffer.append(literals[0]);
+        for (int i = 0; i < variables.length; i++) {
+            String value = values.get(variables[i]);
+            if (value != null) {
+                buffer.append(value);
+            }
+            buffer.append(literals[i + 1]);
+        }
+
+        String result = buffer.toString();
+        if (buffer.capacity() > MAX_RETAINED_BUFFER) {
+            BUFFER.remove();
+        }
+        return result;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Set<String> getVariables() {
+        Set<String> names = new LinkedHashSet<>();
+        Collections.addAll(names, variables);
+        return names;
+    }
+}
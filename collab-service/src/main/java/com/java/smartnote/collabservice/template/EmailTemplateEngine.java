@@ -0,0 +1,97 @@
+package com.java.smartnote.collabservice.template;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Load và compile email templates một lần khi khởi động
+ *
+ * File template: classpath:email-templates/{name}_{locale}.txt
+ * - Dòng đầu tiên là subject
+ * - Từ sau dòng trống đầu tiên là body
+ */
+@Component
+public class EmailTemplateEngine {
+
+    private static final String TEMPLATE_LOCATION = "classpath*:email-templates/*.txt";
+
+    private final Map<String, CompiledEmail> templates = new ConcurrentHashMap<>();
+    private final String defaultLocale;
+
+    public EmailTemplateEngine(@Value("${app.email.default-locale:en}") String defaultLocale) {
+        this.defaultLocale = defaultLocale;
+    }
+
+    @PostConstruct
+    public void loadTemplates() throws IOException {
+        Resource[] resources = new PathMatchingResourcePatternResolver().getResources(TEMPLATE_LOCATION);
+        for (Resource resource : resources) {
+            String filename = resource.getFilename();
+            if (filename == null) {
+                continue;
+            }
+            String key = filename.substring(0, filename.length() - ".txt".length());
+            String source = resource.getContentAsString(StandardCharsets.UTF_8).replace("\r\n", "\n");
+            templates.put(key, compileEmail(key, source));
+        }
+        System.out.println("✅ Email templates compiled: " + templates.keySet());
+    }
+
+    private CompiledEmail compileEmail(String key, String source) {
+        int newline = source.indexOf('\n');
+        if (newline < 0) {
+            throw new IllegalArgumentException("Email template '" + key + "' has no body");
+        }
+        String subject = source.substring(0, newline).trim();
+        String body = source.substring(newline + 1);
+        if (body.startsWith("\n")) {
+            body = body.substring(1);
+        }
+        return new CompiledEmail(
+                EmailTemplate.compile(key + ".subject", subject),
+                EmailTemplate.compile(key + ".body", body));
+    }
+
+    /**
+     * Lấy template đã compile, fallback về default locale
+     */
+    public CompiledEmail getTemplate(String name, String locale) {
+        String effectiveLocale = locale != null && !locale.isBlank() ? locale : defaultLocale;
+        CompiledEmail email = templates.get(name + "_" + effectiveLocale);
+        if (email == null) {
+            email = templates.get(name + "_" + defaultLocale);
+        }
+        if (email == null) {
+            throw new IllegalArgumentException("Email template not found: " + name + " (" + effectiveLocale + ")");
+        }
+        return email;
+    }
+
+    /**
+     * Template đã gắn sẵn các biến chung (ví dụ theo note), chỉ còn biến theo người nhận.
+     * Không cache theo note: title do note-service sửa, collab-service không biết khi nào nó đổi
+     */
+    public CompiledEmail bind(String name, String locale, Map<String, String> values) {
+        CompiledEmail template = getTemplate(name, locale);
+        return new CompiledEmail(template.subject().bind(values), template.body().bind(values));
+    }
+
+    public record CompiledEmail(EmailTemplate subject, EmailTemplate body) {
+
+        public String renderSubject(Map<String, String> values) {
+            return subject.render(values);
+        }
+
+        public String renderBody(Map<String, String> values) {
+            return body.render(values);
+        }
+    }
+}
@@ -1,4 +1,5 @@
 package com.java.smartnote.collabservice.websocket;
+import com.java.smartnote.collabservice.config.StartupMetrics;
 import org.springframework.web.socket.BinaryMessage; 
 import org.springframework.web.socket.CloseStatus;
 import org.springframework.stereotype.Component;
@@ -20,8 +21,15 @@ public class YjsWebSocketHandler extends BinaryWebSocketHandler {
     // Lưu trữ các session theo room (documentId)
     private final Map<String, Map<String, WebSocketSession>> rooms = new ConcurrentHashMap<>();
 
+    private final StartupMetrics startupMetrics;
+
+    public YjsWebSocketHandler(StartupMetrics startupMetrics) {
+        this.startupMetrics = startupMetrics;
+    }
+
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        startupMetrics.recordWebSocketAccept("yjs");
         String documentId = extractDocumentId(session);
         
         if (documentId != null) {
@@ -0,0 +1,74 @@
+package com.java.smartnote.collabservice.mail;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mail.SimpleMailMessage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Gửi qua FakeSmtpServer thật (socket local): các lần send liên tiếp phải dùng lại cùng một SMTP connection
+ */
+class PooledJavaMailSenderTest {
+
+    private FakeSmtpServer server;
+    private PooledJavaMailSender mailSender;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        server = new FakeSmtpServer(0);
+        server.start();
+
+        mailSender = new PooledJavaMailSender(2, 60_000, 5_000, 10_000);
+        mailSender.setHost("localhost");
+        mailSender.setPort(server.getPort());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        mailSender.destroy();
+        server.stop();
+    }
+
+    @Test
+    void reusesConnectionAcrossSends() {
+        mailSender.send(message("a@example.com"), message("b@example.com"), message("c@example.com"));
+        mailSender.send(message("d@example.com"));
+        mailSender.send(message("e@example.com"));
+
+        assertThat(server.getMessagesReceived()).isEqualTo(5);
+        assertThat(server.getConnections()).isEqualTo(1);
+        assertThat(mailSender.getPoolStats())
+                .containsEntry("connectionsOpened", 1L)
+                .containsEntry("connectionsReused", 2L)
+                .containsEntry("messagesSent", 5L)
+                .containsEntry("idleConnections", 1)
+                .containsEntry("activeConnections", 0);
+    }
+
+    @Test
+    void opensNewConnectionWhenPooledOneIdledOut() throws Exception {
+        mailSender.destroy();
+        mailSender = new PooledJavaMailSender(2, 0, 5_000, 0);
+        mailSender.setHost("localhost");
+        mailSender.setPort(server.getPort());
+
+        mailSender.send(message("a@example.com"));
+        Thread.sleep(5);
+        mailSender.send(message("b@example.com"));
+
+        assertThat(server.getMessagesReceived()).isEqualTo(2);
+        assertThat(server.getConnections()).isEqualTo(2);
+        assertThat(mailSender.getPoolStats()).containsEntry("connectionsReused", 0L);
+    }
+
+    private SimpleMailMessage message(String to) {
+        SimpleMailMessage message = new SimpleMailMessage();
+        message.setFrom("noreply@example.com");
+        message.setTo(to);
+        message.setSubject("Invitation");
+        message.setText("Hello");
+        return message;
+    }
+}
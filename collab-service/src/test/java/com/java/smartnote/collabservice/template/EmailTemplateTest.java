@@ -0,0 +1,91 @@
+package com.java.smartnote.collabservice.template;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class EmailTemplateTest {
+
+    @Test
+    void rendersLiteralsAndVariables() {
+        EmailTemplate template = EmailTemplate.compile("t", "Hi {{ name }}, see {{link}}!");
+
+        assertThat(template.getVariables()).containsExactly("name", "link");
+        assertThat(template.render(Map.of("name", "An", "link", "http://x")))
+                .isEqualTo("Hi An, see http://x!");
+    }
+
+    @Test
+    void missingValueRendersAsEmpty() {
+        EmailTemplate template = EmailTemplate.compile("t", "[{{a}}][{{b}}]");
+
+        assertThat(template.render(Map.of("a", "1"))).isEqualTo("[1][]");
+    }
+
+    @Test
+    void templateWithoutPlaceholdersRendersSource() {
+        EmailTemplate template = EmailTemplate.compile("t", "plain text");
+
+        assertThat(template.getVariables()).isEmpty();
+        assertThat(template.render(Map.of())).isEqualTo("plain text");
+    }
+
+    @Test
+    void bindSubstitutesKnownValuesAndKeepsTheRest() {
+        EmailTemplate template = EmailTemplate.compile("t", "{{title}} by {{inviter}} ({{title}})");
+
+        EmailTemplate bound = template.bind(Map.of("title", "Plan"));
+
+        assertThat(bound.getVariables()).containsExactly("inviter");
+        assertThat(bound.render(Map.of("inviter", "a@b.c"))).isEqualTo("Plan by a@b.c (Plan)");
+        // Template gốc không bị thay đổi
+        assertThat(template.render(Map.of("title", "X", "inviter", "y"))).isEqualTo("X by y (X)");
+    }
+
+    @Test
+    void rejectsUnclosedPlaceholder() {
+        assertThatThrownBy(() -> EmailTemplate.compile("t", "Hi {{name"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Unclosed");
+    }
+
+    @Test
+    void rejectsEmptyPlaceholder() {
+        assertThatThrownBy(() -> EmailTemplate.compile("t", "Hi {{ }}"))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Empty");
+    }
+
+    @Test
+    void engineLoadsTemplatesAndFallsBackToDefaultLocale() throws Exception {
+        EmailTemplateEngine engine = new EmailTemplateEngine("en");
+        engine.loadTemplates();
+
+        Map<String, String> values = Map.of("noteTitle", "Plan", "inviterEmail", "a@b.c");
+        EmailTemplateEngine.CompiledEmail en = engine.getTemplate("invitation", "en");
+        EmailTemplateEngine.CompiledEmail vi = engine.getTemplate("invitation", "vi");
+
+        assertThat(en.renderSubject(values)).isEqualTo("You're invited to collaborate on \"Plan\"");
+        assertThat(vi.renderSubject(values)).isEqualTo("Bạn được mời cộng tác trên \"Plan\"");
+        assertThat(en.renderBody(values)).startsWith("Hello,").contains("a@b.c");
+        assertThat(engine.getTemplate("invitation", "fr")).isSameAs(en);
+        assertThat(engine.getTemplate("invitation", null)).isSameAs(en);
+        assertThatThrownBy(() -> engine.getTemplate("missing", "en"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void engineBindLeavesOnlyRecipientVariables() throws Exception {
+        EmailTemplateEngine engine = new EmailTemplateEngine("en");
+        engine.loadTemplates();
+
+        EmailTemplateEngine.CompiledEmail bound = engine.bind("invitation", "en",
+                Map.of("noteTitle", "Plan", "expiryDays", "7"));
+
+        assertThat(bound.body().getVariables()).doesNotContain("noteTitle", "expiryDays");
+        assertThat(bound.renderSubject(Map.of())).isEqualTo("You're invited to collaborate on \"Plan\"");
+    }
+}
@@ -14,6 +14,19 @@ export interface NoteUpdateMessage {
   senderName: string;
   type: "EDIT" | "CURSOR";
   timestamp: number;
+  // Gửi lên: version đang sửa; nhận về: version sau khi server lưu
+  version?: number;
+}
+
+// Edit bị từ chối vì note đã đổi version: lấy currentContent/currentVersion rồi áp lại thay đổi
+export interface NoteConflictMessage {
+  noteId: string;
+  senderId: string;
+  expectedVersion: number | null;
+  currentVersion: number;
+  currentContent: string;
+  type: "CONFLICT";
+  timestamp: number;
 }
 
 export interface UserJoinMessage {
@@ -74,6 +87,7 @@ class CollabSocketService {
   private onPresenceCallback: (message: PresenceMessage) => void = () => {};
   private onTypingCallback: (message: TypingMessage) => void = () => {};
   private onSelectionCallback: (message: SelectionMessage) => void = () => {};
+  private onConflictCallback: (message: NoteConflictMessage) => void = () => {};
 
   private heartbeatInterval: number | null = null;
   private typingTimeout: number | null = null;
@@ -163,6 +177,21 @@ class CollabSocketService {
       const data = JSON.parse(message.body);
       this.onSelectionCallback(data);
     });
+
+    // Conflict được gửi cho cả topic: chỉ xử lý conflict của edit do mình gửi
+    this.client.subscribe(`/topic/note/${noteId}/conflict`, (message) => {
+      const data: NoteConflictMessage = JSON.parse(message.body);
+      if (data.senderId === this.getCurrentUserId()) {
+        this.onConflictCallback(data);
+      }
+    });
+  }
+
+  /**
+   * Register handler for rejected edits (version conflict)
+   */
+  onConflict(callback: (message: NoteConflictMessage) => void) {
+    this.onConflictCallback = callback;
   }
 
   private startHeartbeat(noteId: string) {
@@ -180,7 +209,8 @@ class CollabSocketService {
     content: string,
     senderId: string,
     senderEmail: string,
-    senderName: string
+    senderName: string,
+    version?: number
   ) {
     if (this.client && this.client.connected) {
       const payload: NoteUpdateMessage = {
@@ -191,6 +221,7 @@ class CollabSocketService {
         senderName,
         type: "EDIT",
         timestamp: Date.now(),
+        version,
       };
 
       this.client.publish({
@@ -1,4 +1,4 @@
-import { handleResponse, NOTE_SERVICE_URL, COLLAB_SERVICE_URL } from './utils';
+import { handleResponse, fetchAllPages, NOTE_SERVICE_URL, COLLAB_SERVICE_URL } from './utils';
 
 /**
  * Lấy tất cả các ghi chú từ server với validation nghiêm ngặt.
@@ -22,7 +22,7 @@ export const getAllNotes = async () => {
 
     console.log(`🌐 [FRONTEND] Sending request for user: ${userId} (${user.email})`);
 
-    const response = await fetch(`${NOTE_SERVICE_URL}/api/notes`, {
+    const notes = await fetchAllPages(`${NOTE_SERVICE_URL}/api/notes`, {
       method: 'GET',
       headers: {
         'Content-Type': 'application/json',
@@ -31,7 +31,11 @@ export const getAllNotes = async () => {
       credentials: 'include',
     });
 
-    const data = await handleResponse(response);
+    // Danh sách chỉ trả về summary (không có content), dùng snippet làm content preview
+    const data = notes.map((note: any) => ({
+      ...note,
+      content: note.content ?? note.snippet ?? '',
+    }));
     
     // Tạm thời disable validation để test
     console.log(`🔍 [FRONTEND] Checking notes for user: ${userId}`);
@@ -188,7 +192,7 @@ export const restoreNoteFromHistory = async (id: string, historyId: string) => {
  * Lấy danh sách ghi chú quan trọng.
  */
 export const getImportantNotes = async (userId: string = 'user_001') => {
-  const response = await fetch(`${NOTE_SERVICE_URL}/api/notes/important`, {
+  return fetchAllPages(`${NOTE_SERVICE_URL}/api/notes/important`, {
     method: 'GET',
     headers: {
       'Content-Type': 'application/json',
@@ -196,8 +200,6 @@ export const getImportantNotes = async (userId: string = 'user_001') => {
     },
     credentials: 'include',
   });
-
-  return handleResponse(response);
 };
 
 /**
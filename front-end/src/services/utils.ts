@@ -42,4 +42,18 @@ export const handleResponse = async (response: Response): Promise<any> => {
   }
 };
 
+// Endpoint danh sách summary luôn phân trang (keyset): đọc lần lượt các trang theo next_cursor
+export const fetchAllPages = async (url: string, init: RequestInit, limit: number = 100): Promise<any[]> => {
+  const items: any[] = [];
+  let cursor: string | null = null;
+  do {
+    const params = new URLSearchParams({ limit: String(limit) });
+    if (cursor) params.set('cursor', cursor);
+    const page = await handleResponse(await fetch(`${url}?${params}`, init));
+    items.push(...(page.items ?? []));
+    cursor = page.has_more ? page.next_cursor : null;
+  } while (cursor);
+  return items;
+};
+
 export { NOTE_SERVICE_URL, COLLAB_SERVICE_URL };
\ No newline at end of file
@@ -27,5 +27,5 @@ public class MongoConfig {
             }
         };
     }
-    
+
 }
\ No newline at end of file
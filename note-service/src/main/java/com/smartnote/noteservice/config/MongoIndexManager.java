@@ -0,0 +1,269 @@
+package com.smartnote.noteservice.config;
+
+import com.smartnote.noteservice.model.DataJob;
+import com.smartnote.noteservice.model.Folder;
+import com.smartnote.noteservice.model.Note;
+import com.smartnote.noteservice.model.NoteHistory;
+import com.smartnote.noteservice.model.TrashItem;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Quản lý index của note-service (auto-index-creation đang tắt)
+ *
+ * - Tạo các index khai báo bằng @CompoundIndex trên model khi service ready
+ * - So với database thật: index còn thiếu, index không do service quản lý, index chưa được dùng ($indexStats)
+ * - Chạy explain() cho từng query shape của repository, báo query nào còn COLLSCAN hoặc sort trong memory
+ */
+@Component
+public class MongoIndexManager {
+
+    private static final List<Class<?>> MANAGED_ENTITIES = List.of(
+            Note.class, Folder.class, TrashItem.class, NoteHistory.class, DataJob.class);
+
+    private static final Document UPDATED_DESC = new Document("updated_at", -1).append("_id", -1);
+    private static final Document HAS_UPDATED_AT = new Document("$ne", null);
+
+    // Query shape của các finder trong repository và các query MongoTemplate, giá trị chỉ là placeholder
+    // MongoIndexManagerTest kiểm tra mỗi shape có index khai báo phục vụ được (equality, sort, range)
+    static final List<QueryShape> QUERY_SHAPES = List.of(
+            new QueryShape("NoteRepository.findByCreatedByAndIsDeletedFalse", "notes",
+                    new Document("created_by", "u").append("is_deleted", false), null),
+            new QueryShape("NoteRepository.findByIsDeletedTrueAndCreatedBy", "notes",
+                    new Document("is_deleted", true).append("created_by", "u"), null),
+            new QueryShape("NoteRepository.findByCreatedBy", "notes",
+                    new Document("created_by", "u"), null),
+            new QueryShape("NoteRepository.findByFolderIdAndIsDeletedFalse", "notes",
+                    new Document("folderId", "f").append("is_deleted", false), null),
+            new QueryShape("NoteRepository.findByFolderId", "notes",
+                    new Document("folderId", "f"), null),
+            new QueryShape("NoteRepository.findByIsImportantTrueAndCreatedByAndIsDeletedFalse", "notes",
+                    new Document("is_important", true).append("created_by", "u").append("is_deleted", false), null),
+            new QueryShape("NoteService.getNoteSummariesByUser", "notes",
+                    new Document("created_by", "u").append("is_deleted", false).append("updated_at", HAS_UPDATED_AT), UPDATED_DESC),
+            new QueryShape("NoteService.getImportantNoteSummaries", "notes",
+                    new Document("created_by", "u").append("is_important", true).append("is_deleted", false)
+                            .append("updated_at", HAS_UPDATED_AT), UPDATED_DESC),
+            new QueryShape("NoteService.getNoteSummariesByFolder", "notes",
+                    new Document("folderId", "f").append("is_deleted", false).append("updated_at", HAS_UPDATED_AT), UPDATED_DESC),
+            new QueryShape("NoteSearchIndex.syncChanges", "notes",
+                    new Document("updated_at", new Document("$gte", new Date(0))), new Document("updated_at", 1).append("_id", 1)),
+            new QueryShape("FolderRepository.findByUserIdAndIsDeletedFalse", "folders",
+                    new Document("user_id", "u").append("is_deleted", false), null),
+            new QueryShape("FolderRepository.findByUserIdAndIsDeletedTrue", "folders",
+                    new Document("user_id", "u").append("is_deleted", true), null),
+            new QueryShape("FolderRepository.findByParentFolderIdAndIsDeletedFalse", "folders",
+                    new Document("parent_folder_id", "p").append("is_deleted", false), null),
+            new QueryShape("FolderRepository.findByParentFolderId", "folders",
+                    new Document("parent_folder_id", "p"), null),
+            new QueryShape("FolderRepository.findByWorkspaceIdAndIsDeletedFalse", "folders",
+                    new Document("workspace_id", "w").append("is_deleted", false), null),
+            new QueryShape("TrashRepository.findByUserId", "trash_items",
+                    new Document("user_id", "u"), null),
+            new QueryShape("TrashRepository.findByItemTypeAndUserId", "trash_items",
+                    new Document("item_type", "NOTE").append("user_id", "u"), null),
+            new QueryShape("TrashRepository.findByWorkspaceId", "trash_items",
+                    new Document("workspace_id", "w"), null),
+            new QueryShape("TrashRepository.findByDeletedAtBefore", "trash_items",
+                    new Document("deleted_at", new Document("$lt", new Date(0))), null),
+            new QueryShape("NoteHistoryService.getHistoryPage", "note_history",
+                    new Document("original_note_id", "n"), new Document("version", -1).append("_id", -1)),
+            new QueryShape("DataJobRepository.findByUserIdAndTypeOrderByCreatedAtDesc", "data_jobs",
+                    new Document("user_id", "u").append("type", "IMPORT"), new Document("created_at", -1)),
+            new QueryShape("DataJobRepository.findByTypeAndStatusIn", "data_jobs",
+                    new Document("type", "IMPORT").append("status", new Document("$in", List.of("QUEUED", "RUNNING"))), null),
+            new QueryShape("DataJobRepository.findByTypeAndStatusInAndFinishedAtBefore", "data_jobs",
+                    new Document("type", "IMPORT").append("status", new Document("$in", List.of("DONE", "FAILED")))
+                            .append("finished_at", new Document("$lt", new Date(0))), null));
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean enabled;
+    private final boolean createMissing;
+    private final boolean explainOnStartup;
+
+    public MongoIndexManager(MongoTemplate mongoTemplate,
+                             @Value("${app.mongo.index-manager.enabled:true}") boolean enabled,
+                             @Value("${app.mongo.index-manager.create-missing:true}") boolean createMissing,
+                             @Value("${app.mongo.index-manager.explain-on-startup:true}") boolean explainOnStartup) {
+        this.mongoTemplate = mongoTemplate;
+        this.enabled = enabled;
+        this.createMissing = createMissing;
+        this.explainOnStartup = explainOnStartup;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            if (createMissing) {
+                ensureIndexes();
+            }
+            Map<String, Object> report = verify(explainOnStartup);
+            System.out.println("📇 Mongo index report: " + report);
+        } catch (Exception e) {
+            System.err.println("❌ Mongo index manager failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Tạo các index khai báo trên model, index đã có thì createIndex không làm gì
+     */
+    public List<String> ensureIndexes() {
+        MongoPersistentEntityIndexResolver resolver =
+                new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext());
+        List<String> created = new ArrayList<>();
+        for (Class<?> entity : MANAGED_ENTITIES) {
+            IndexOperations indexOps = mongoTemplate.indexOps(entity);
+            for (IndexDefinition definition : resolver.resolveIndexFor(entity)) {
+                try {
+                    created.add(mongoTemplate.getCollectionName(entity) + "." + indexOps.createIndex(definition));
+                } catch (Exception e) {
+                    // Thường là cùng key nhưng khác tên/options: index vẫn dùng được, chỉ báo lại
+                    System.err.println("⚠️ Could not create index " + definition.getIndexKeys()
+                            + " on " + mongoTemplate.getCollectionName(entity) + ": " + e.getMessage());
+                }
+            }
+        }
+        System.out.println("✅ Mongo indexes ensured: " + created);
+        return created;
+    }
+
+    /**
+     * So khớp index khai báo với database, kèm thống kê sử dụng và explain() của từng query shape
+     */
+    public Map<String, Object> verify(boolean explain) {
+        MongoPersistentEntityIndexResolver resolver =
+                new MongoPersistentEntityIndexResolver(mongoTemplate.getConverter().getMappingContext());
+
+        List<String> missing = new ArrayList<>();
+        List<String> unmanaged = new ArrayList<>();
+        List<String> unused = new ArrayList<>();
+
+        for (Class<?> entity : MANAGED_ENTITIES) {
+            String collection = mongoTemplate.getCollectionName(entity);
+            List<Document> existing = mongoTemplate.getCollection(collection).listIndexes().into(new ArrayList<>());
+            Set<Document> existingKeys = existing.stream()
+                    .map(index -> (Document) index.get("key"))
+                    .collect(Collectors.toSet());
+
+            List<Document> declaredKeys = new ArrayList<>();
+            for (IndexDefinition definition : resolver.resolveIndexFor(entity)) {
+                Document keys = new Document(definition.getIndexKeys());
+                declaredKeys.add(keys);
+                if (!existingKeys.contains(keys)) {
+                    missing.add(collection + " " + keys.toJson());
+                }
+            }
+
+            for (Document index : existing) {
+                String name = index.getString("name");
+                if (!"_id_".equals(name) && !declaredKeys.contains((Document) index.get("key"))) {
+                    unmanaged.add(collection + "." + name);
+                }
+            }
+
+            unused.addAll(findUnused(collection));
+        }
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("missing", missing);
+        report.put("unmanaged", unmanaged);
+        report.put("unused", unused);
+        if (explain) {
+            report.put("queryPlans", explainQueryShapes());
+        }
+        return report;
+    }
+
+    // Index chưa có lượt truy cập nào kể từ lần restart mongod gần nhất
+    private List<String> findUnused(String collection) {
+        List<String> unused = new ArrayList<>();
+        try {
+            List<Document> stats = mongoTemplate.getCollection(collection)
+                    .aggregate(List.of(new Document("$indexStats", new Document())))
+                    .into(new ArrayList<>());
+            for (Document stat : stats) {
+                Document accesses = (Document) stat.get("accesses");
+                Number ops = accesses != null ? (Number) accesses.get("ops") : null;
+                if (!"_id_".equals(stat.getString("name")) && ops != null && ops.longValue() == 0) {
+                    unused.add(collection + "." + stat.getString("name") + " (since " + accesses.get("since") + ")");
+                }
+            }
+        } catch (Exception e) {
+            unused.add(collection + ": $indexStats unavailable (" + e.getMessage() + ")");
+        }
+        return unused;
+    }
+
+    /**
+     * explain() từng query shape, thay cho test regression: query nào không dùng index hoặc phải sort trong memory
+     * sẽ có status khác "ok"
+     */
+    private List<Map<String, Object>> explainQueryShapes() {
+        List<Map<String, Object>> plans = new ArrayList<>();
+        for (QueryShape shape : QUERY_SHAPES) {
+            Map<String, Object> plan = new LinkedHashMap<>();
+            plan.put("query", shape.name());
+            try {
+                Document find = new Document("find", shape.collection()).append("filter", shape.filter());
+                if (shape.sort() != null) {
+                    find.append("sort", shape.sort());
+                }
+                Document result = mongoTemplate.getDb().runCommand(
+                        new Document("explain", find).append("verbosity", "queryPlanner"));
+                Document winningPlan = (Document) ((Document) result.get("queryPlanner")).get("winningPlan");
+
+                List<String> stages = new ArrayList<>();
+                List<String> indexes = new ArrayList<>();
+                collectStages(winningPlan, stages, indexes);
+                plan.put("stages", stages);
+                plan.put("indexes", indexes);
+                plan.put("status", stages.contains("COLLSCAN") ? "COLLSCAN"
+                        : stages.contains("SORT") ? "IN_MEMORY_SORT" : "ok");
+            } catch (Exception e) {
+                plan.put("status", "error: " + e.getMessage());
+            }
+            plans.add(plan);
+        }
+        return plans;
+    }
+
+    // Duyệt cây plan (inputStage/inputStages, cả dạng queryPlan của SBE)
+    private void collectStages(Object node, List<String> stages, List<String> indexes) {
+        if (node instanceof Document document) {
+            if (document.get("stage") instanceof String stage) {
+                stages.add(stage);
+            }
+            if (document.get("indexName") instanceof String indexName) {
+                indexes.add(indexName);
+            }
+            for (Object value : document.values()) {
+                collectStages(value, stages, indexes);
+            }
+        } else if (node instanceof List<?> list) {
+            for (Object item : list) {
+                collectStages(item, stages, indexes);
+            }
+        }
+    }
+
+    record QueryShape(String name, String collection, Document filter, Document sort) {
+    }
+}
@@ -1,20 +1,36 @@
 package com.smartnote.noteservice.controller;
+import com.smartnote.noteservice.dto.ExportJobResponse;
+import com.smartnote.noteservice.dto.ImportJobResponse;
 import com.smartnote.noteservice.dto.NoteResponse;
-import com.smartnote.noteservice.service.ExportService;
+import com.smartnote.noteservice.exception.JobQueueFullException;
+import com.smartnote.noteservice.service.BulkExportService;
+import com.smartnote.noteservice.service.BulkImportService;
 import com.smartnote.noteservice.service.ImportService;
 import com.smartnote.noteservice.service.NoteService;
+import com.smartnote.noteservice.service.PdfExportJobService;
 import lombok.RequiredArgsConstructor;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.context.request.async.WebAsyncUtils;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 @RestController
 @RequestMapping("/api/data") 
@@ -22,8 +38,13 @@ import java.nio.charset.StandardCharsets;
 @CrossOrigin(origins = {"http://localhost:3000", "http://localhost:5173"}) // Sửa dòng này
 public class DataIOController {
 
+    private static final String CACHE_LEASE_ATTRIBUTE = DataIOController.class.getName() + ".cacheLease";
+    private static final String BULK_EXPORT_SLOT_ATTRIBUTE = DataIOController.class.getName() + ".bulkExportSlot";
+
     private final ImportService importService;
-    private final ExportService exportService;
+    private final PdfExportJobService pdfExportJobService;
+    private final BulkExportService bulkExportService;
+    private final BulkImportService bulkImportService;
     private final NoteService noteService; 
 
     @PostMapping("/import")
@@ -43,39 +64,242 @@ public class DataIOController {
         }
     }
 
+    /**
+     * Import hàng loạt: một file ZIP (giữ cây thư mục) hoặc nhiều file markdown, xử lý nền và trả 202 kèm jobId
+     */
+    @PostMapping("/import/bulk")
+    public ResponseEntity<ImportJobResponse> importBulk(
+            @RequestParam("files") List<MultipartFile> files,
+            @RequestParam(value = "folderId", required = false) String folderId,
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId) {
+        try {
+            ImportJobResponse job = bulkImportService.submit(userId, folderId, files);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/data/import/jobs/" + job.getJobId()))
+                    .body(job);
+        } catch (JobQueueFullException e) {
+            return tooManyRequests(e);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().build();
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @GetMapping("/import/jobs")
+    public ResponseEntity<List<ImportJobResponse>> listImportJobs(
+            @RequestParam(required = false) Integer limit,
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId) {
+        return ResponseEntity.ok(bulkImportService.listJobs(userId, limit));
+    }
+
+    @GetMapping("/import/jobs/{jobId}")
+    public ResponseEntity<ImportJobResponse> getImportJob(
+            @PathVariable String jobId,
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId) {
+        try {
+            return ResponseEntity.ok(bulkImportService.getJob(userId, jobId));
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * Hủy import: job đang chờ dừng ngay, job đang chạy dừng ở entry tiếp theo và bỏ batch chưa ghi
+     */
+    @DeleteMapping("/import/jobs/{jobId}")
+    public ResponseEntity<ImportJobResponse> cancelImportJob(
+            @PathVariable String jobId,
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId) {
+        try {
+            return ResponseEntity.ok(bulkImportService.cancel(userId, jobId));
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * Content stream thẳng ra response (note lớn đọc theo chunk từ GridFS)
+     */
     @GetMapping("/export/md/{id}")
-    public ResponseEntity<Resource> exportNoteAsMarkdown(@PathVariable String id) {
+    public ResponseEntity<StreamingResponseBody> exportNoteAsMarkdown(@PathVariable String id) {
         try {
             NoteResponse note = noteService.getNoteById(id);
-            String content = note.getContent() != null ? note.getContent() : "";
-            
-            ByteArrayResource resource = new ByteArrayResource(content.getBytes(StandardCharsets.UTF_8));
             String filename = note.getTitle() + ".md";
 
-            return ResponseEntity.ok()
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
                     .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                    .contentType(MediaType.parseMediaType("text/markdown"))
-                    .body(resource);
+                    .contentType(MediaType.parseMediaType("text/markdown"));
+            if (note.getContentSize() != null) {
+                response.contentLength(note.getContentSize());
+            }
+            return response.body(out -> noteService.writeContent(id, out));
         } catch (RuntimeException e) {
             return ResponseEntity.notFound().build();
         }
     }
 
+    /**
+     * Export đồng bộ: render qua worker pool, render lâu quá sync-timeout-ms thì trả 202 kèm link poll job
+     * Note chưa đổi thì If-None-Match trả 304, hoặc đọc thẳng file đã cache, không render lại
+     */
     @GetMapping("/export/pdf/{id}")
-    public ResponseEntity<Resource> exportNoteAsPdf(@PathVariable String id) {
+    public ResponseEntity<Resource> exportNoteAsPdf(
+            @PathVariable String id,
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId,
+            WebRequest webRequest) {
         try {
-            NoteResponse note = noteService.getNoteById(id);
-            byte[] pdfBytes = exportService.exportNoteToPdf(note);
-            ByteArrayResource resource = new ByteArrayResource(pdfBytes);
-            String filename = note.getTitle() + ".pdf"; 
+            // 304 và cache hit chỉ cần (id, title, version), không load content
+            NoteResponse header = noteService.getNoteExportHeader(id);
+            String artifactKey = pdfExportJobService.artifactKey(header);
+            String etag = "\"" + artifactKey + "\"";
+            if (webRequest.checkNotModified(etag)) {
+                return null;
+            }
+            PdfExportJobService.CachedExport cached = pdfExportJobService.findCached(header, artifactKey);
+            if (cached != null) {
+                // Giữ file cache tới khi request xong (body được ghi trước đó), put() đồng thời không xóa được
+                webRequest.registerDestructionCallback(CACHE_LEASE_ATTRIBUTE, cached::close,
+                        RequestAttributes.SCOPE_REQUEST);
+                return pdfFile(cached.file(), etag);
+            }
 
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + filename + "\"")
-                    .contentType(MediaType.APPLICATION_PDF)
-                    .body(resource);
+            NoteResponse note = noteService.getNoteWithContent(id);
+            // Note có thể vừa đổi sau khi đọc header: ETag theo đúng bản được render
+            etag = "\"" + pdfExportJobService.artifactKey(note) + "\"";
+            ExportJobResponse job = pdfExportJobService.submitAndWait(userId, note);
+            if (job.getDownloadUrl() == null) {
+                return ResponseEntity.accepted()
+                        .location(URI.create("/api/data/export/jobs/" + job.getJobId()))
+                        .build();
+            }
+            return pdfFile(pdfExportJobService.getResult(userId, job.getJobId()), etag);
+        } catch (JobQueueFullException e) {
+            return tooManyRequests(e);
         } catch (Exception e) {
             e.printStackTrace();
             return ResponseEntity.internalServerError().build();
         }
     }
+
+    @PostMapping("/export/pdf/{id}/jobs")
+    public ResponseEntity<ExportJobResponse> createPdfExportJob(
+            @PathVariable String id,
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId) {
+        try {
+            ExportJobResponse job = pdfExportJobService.submit(userId, id);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/data/export/jobs/" + job.getJobId()))
+                    .body(job);
+        } catch (JobQueueFullException e) {
+            return tooManyRequests(e);
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @GetMapping("/export/jobs")
+    public ResponseEntity<List<ExportJobResponse>> listExportJobs(
+            @RequestParam(required = false) Integer limit,
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId) {
+        return ResponseEntity.ok(pdfExportJobService.listJobs(userId, limit));
+    }
+
+    @GetMapping("/export/jobs/{jobId}")
+    public ResponseEntity<ExportJobResponse> getExportJob(
+            @PathVariable String jobId,
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId) {
+        try {
+            return ResponseEntity.ok(pdfExportJobService.getJob(userId, jobId));
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @DeleteMapping("/export/jobs/{jobId}")
+    public ResponseEntity<ExportJobResponse> cancelExportJob(
+            @PathVariable String jobId,
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId) {
+        try {
+            return ResponseEntity.ok(pdfExportJobService.cancel(userId, jobId));
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * Download kết quả, stream từ file; Spring tự xử lý header Range (206 Partial Content) cho Resource
+     */
+    @GetMapping("/export/jobs/{jobId}/file")
+    public ResponseEntity<Resource> downloadExportJob(
+            @PathVariable String jobId,
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId) {
+        try {
+            return pdfFile(pdfExportJobService.getResult(userId, jobId), null);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @GetMapping("/export/jobs/stats")
+    public ResponseEntity<Map<String, Object>> getExportJobStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(pdfExportJobService.getStats());
+        stats.put("bulk", bulkExportService.getStats());
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * Export cả cây folder (hoặc mọi note của user khi không có folderId) thành ZIP stream thẳng ra response
+     */
+    @GetMapping("/export/zip")
+    public ResponseEntity<StreamingResponseBody> exportZip(
+            @RequestParam(value = "folderId", required = false) String folderId,
+            @RequestParam(value = "includePdf", defaultValue = "false") boolean includePdf,
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId,
+            NativeWebRequest webRequest) {
+        try {
+            BulkExportService.ExportScope scope = bulkExportService.prepare(userId, folderId);
+            // Body có thể không bao giờ chạy (client ngắt trước, executor từ chối, timeout):
+            // trả slot khi async request kết thúc theo bất kỳ cách nào
+            WebAsyncUtils.getAsyncManager(webRequest).registerCallableInterceptor(BULK_EXPORT_SLOT_ATTRIBUTE,
+                    new CallableProcessingInterceptor() {
+                        @Override
+                        public <T> void afterCompletion(NativeWebRequest request, Callable<T> task) {
+                            bulkExportService.release(scope);
+                        }
+                    });
+            StreamingResponseBody body = out -> bulkExportService.writeZip(userId, scope, includePdf, out);
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + scope.rootName() + ".zip\"")
+                    .contentType(MediaType.parseMediaType("application/zip"))
+                    .body(body);
+        } catch (JobQueueFullException e) {
+            return tooManyRequests(e);
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    private ResponseEntity<Resource> pdfFile(PdfExportJobService.ExportFile file, String etag) {
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file.filename() + "\"")
+                .contentType(MediaType.APPLICATION_PDF)
+                .contentLength(file.sizeBytes());
+        if (etag != null) {
+            // Bắt browser hỏi lại bằng If-None-Match mỗi lần thay vì dùng bản cũ khi note đã sửa
+            response.eTag(etag).cacheControl(CacheControl.noCache().cachePrivate());
+        }
+        return response.body(new FileSystemResource(file.path()));
+    }
+
+    private static <T> ResponseEntity<T> tooManyRequests(JobQueueFullException e) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .build();
+    }
 }
\ No newline at end of file
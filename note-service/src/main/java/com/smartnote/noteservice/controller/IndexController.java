@@ -0,0 +1,39 @@
+package com.smartnote.noteservice.controller;
+
+import com.smartnote.noteservice.config.MongoIndexManager;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("/api/admin/indexes")
+@RequiredArgsConstructor
+@CrossOrigin(origins = "*")
+public class IndexController {
+
+    private final MongoIndexManager mongoIndexManager;
+
+    // Báo cáo index: thiếu, không được quản lý, chưa dùng, và query plan của từng query shape
+    @GetMapping
+    public ResponseEntity<Map<String, Object>> getIndexReport(
+            @RequestParam(defaultValue = "true") boolean explain) {
+        try {
+            return ResponseEntity.ok(mongoIndexManager.verify(explain));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    // Tạo lại các index khai báo trên model rồi trả về báo cáo mới
+    @PostMapping("/ensure")
+    public ResponseEntity<Map<String, Object>> ensureIndexes() {
+        try {
+            mongoIndexManager.ensureIndexes();
+            return ResponseEntity.ok(mongoIndexManager.verify(false));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+}
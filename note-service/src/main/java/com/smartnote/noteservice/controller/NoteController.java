@@ -1,15 +1,25 @@
 package com.smartnote.noteservice.controller;
 
+import com.smartnote.noteservice.dto.MoveNotesRequest;
+import com.smartnote.noteservice.dto.NoteHistoryPage;
+import com.smartnote.noteservice.dto.NotePatchRequest;
 import com.smartnote.noteservice.dto.NoteRequest;
 import com.smartnote.noteservice.dto.NoteResponse;
+import com.smartnote.noteservice.dto.NoteSummaryPage;
+import com.smartnote.noteservice.dto.VersionConflictResponse;
+import com.smartnote.noteservice.exception.NoteVersionConflictException;
 import com.smartnote.noteservice.model.NoteHistory;
+import com.smartnote.noteservice.service.NoteHistoryPruner;
 import com.smartnote.noteservice.service.NoteService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/notes")
@@ -17,6 +27,7 @@ import java.util.List;
 public class NoteController {
 
     private final NoteService noteService;
+    private final NoteHistoryPruner noteHistoryPruner;
 
     @PostMapping
     public ResponseEntity<NoteResponse> createNote(
@@ -43,18 +54,65 @@ public class NoteController {
         }
     }
 
+    /**
+     * Content của note dạng text, stream theo chunk với note lớn (content_chunked = true trong GET /{id})
+     */
+    @GetMapping("/{id}/content")
+    public ResponseEntity<StreamingResponseBody> getNoteContent(@PathVariable String id) {
+        try {
+            NoteResponse note = noteService.getNoteById(id);
+            ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                    .contentType(new MediaType("text", "markdown", StandardCharsets.UTF_8));
+            if (note.getContentSize() != null) {
+                response.contentLength(note.getContentSize());
+            }
+            return response.body(out -> noteService.writeContent(id, out));
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
     @PutMapping("/{id}")
-    public ResponseEntity<NoteResponse> updateNote(
+    public ResponseEntity<?> updateNote(
             @PathVariable String id,
             @RequestBody NoteRequest request) {
         try {
             NoteResponse response = noteService.updateNote(id, request);
             return ResponseEntity.ok(response);
+        } catch (NoteVersionConflictException e) {
+            return versionConflict(e);
         } catch (RuntimeException e) {
             return ResponseEntity.notFound().build();
         }
     }
 
+    @PatchMapping("/{id}")
+    public ResponseEntity<NoteResponse> patchNote(
+            @PathVariable String id,
+            @RequestBody NotePatchRequest request,
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId) {
+        try {
+            NoteResponse response = noteService.patchNote(id, request, userId);
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @PatchMapping("/move")
+    public ResponseEntity<Map<String, Object>> moveNotes(
+            @RequestBody MoveNotesRequest request,
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId) {
+        try {
+            long moved = noteService.moveNotes(request.getNoteIds(), request.getFolderId(), userId);
+            return ResponseEntity.ok(Map.of("moved", moved));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
     @DeleteMapping("/{id}")
     public ResponseEntity<Void> deleteNote(@PathVariable String id) {
         try {
@@ -65,24 +123,31 @@ public class NoteController {
         }
     }
 
+    /**
+     * Danh sách note dạng summary (không có content), luôn phân trang: client đi tiếp theo next_cursor
+     */
     @GetMapping
-    public ResponseEntity<List<NoteResponse>> getAllNotes(
-            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId) {
-        System.out.println("🌐 [CONTROLLER] Received request for user: " + userId);
-        List<NoteResponse> notes = noteService.getAllNotesByUser(userId);
-        System.out.println("📤 [CONTROLLER] Returning " + notes.size() + " notes for user: " + userId);
-        return ResponseEntity.ok(notes);
+    public ResponseEntity<?> getAllNotes(
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor) {
+        try {
+            NoteSummaryPage page = noteService.getNoteSummariesByUser(userId, cursor, limit);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
     }
-    
-    
 
     @PostMapping("/{id}/restore/{historyId}")
-    public ResponseEntity<NoteResponse> restoreNote(
+    public ResponseEntity<?> restoreNote(
             @PathVariable String id,
             @PathVariable String historyId) {
         try {
             NoteResponse restoredNote = noteService.restoreNoteFromHistory(id, historyId);
             return ResponseEntity.ok(restoredNote);
+        } catch (NoteVersionConflictException e) {
+            return versionConflict(e);
         } catch (RuntimeException e) {
            
             return ResponseEntity.notFound().build();
@@ -90,14 +155,51 @@ public class NoteController {
     }
     
     @GetMapping("/{id}/history")
-    public ResponseEntity<List<NoteHistory>> getNoteHistory(@PathVariable String id) {
+    public ResponseEntity<NoteHistoryPage> getNoteHistory(
+            @PathVariable String id,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit) {
         try {
-            List<NoteHistory> history = noteService.getNoteHistory(id);
+            NoteHistoryPage history = noteService.getNoteHistory(id, cursor, limit);
             return ResponseEntity.ok(history);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
         } catch (Exception e) {
             return ResponseEntity.notFound().build();
         }
     }
+
+    @GetMapping("/{id}/history/{historyId}")
+    public ResponseEntity<NoteHistory> getNoteHistoryVersion(
+            @PathVariable String id,
+            @PathVariable String historyId) {
+        try {
+            NoteHistory version = noteService.getNoteHistoryVersion(id, historyId);
+            return ResponseEntity.ok(version);
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    @GetMapping("/history/stats")
+    public ResponseEntity<Map<String, Object>> getHistoryStats() {
+        return ResponseEntity.ok(noteService.getHistoryStats());
+    }
+
+    @GetMapping("/content/stats")
+    public ResponseEntity<Map<String, Object>> getContentStoreStats() {
+        return ResponseEntity.ok(noteService.getContentStoreStats());
+    }
+
+    @GetMapping("/history/retention")
+    public ResponseEntity<Map<String, Object>> getHistoryRetention() {
+        return ResponseEntity.ok(noteHistoryPruner.getLastRun());
+    }
+
+    @PostMapping("/history/prune")
+    public ResponseEntity<Map<String, Object>> pruneHistory() {
+        return ResponseEntity.ok(noteHistoryPruner.prune());
+    }
 //danh dau quan trong
      @PostMapping("/{id}/important")
     public ResponseEntity<NoteResponse> markAsImportant(
@@ -124,13 +226,23 @@ public class NoteController {
     }
 //lay danh sach quan trong
     @GetMapping("/important")
-    public ResponseEntity<List<NoteResponse>> getImportantNotes(
-            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId) {
+    public ResponseEntity<?> getImportantNotes(
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor) {
         try {
-            List<NoteResponse> importantNotes = noteService.getImportantNotes(userId);
-            return ResponseEntity.ok(importantNotes);
+            NoteSummaryPage page = noteService.getImportantNoteSummaries(userId, cursor, limit);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
         }
     }
-}
\ No newline at end of file
+
+    // 409 kèm version hiện tại để client retry mà không cần load lại cả note
+    private ResponseEntity<VersionConflictResponse> versionConflict(NoteVersionConflictException e) {
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(new VersionConflictResponse(
+                e.getNoteId(), e.getExpectedVersion(), e.getCurrentVersion(), e.getUpdatedAt(), e.getMessage()));
+    }
+}
@@ -1,12 +1,19 @@
 package com.smartnote.noteservice.controller;
 
-import com.smartnote.noteservice.dto.NoteResponse;
+import com.smartnote.noteservice.dto.NoteSearchResult;
+import com.smartnote.noteservice.dto.NoteSummaryPage;
+import com.smartnote.noteservice.dto.TitleSuggestion;
+import com.smartnote.noteservice.search.SearchFilter;
 import com.smartnote.noteservice.service.SearchService;
+import com.smartnote.noteservice.service.SearchStreamService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.util.List;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/notes")
@@ -15,16 +22,75 @@ import java.util.List;
 public class SearchController {
     
     private final SearchService searchService;
+    private final SearchStreamService searchStreamService;
     
     @GetMapping("/folder/{folderId}")
-    public ResponseEntity<List<NoteResponse>> getNotesByFolder(@PathVariable String folderId) {
+    public ResponseEntity<?> getNotesByFolder(
+            @PathVariable String folderId,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor) {
         try {
-            List<NoteResponse> notes = searchService.getNotesByFolder(folderId);
-            return ResponseEntity.ok(notes);
+            NoteSummaryPage page = searchService.getNotesByFolder(folderId, cursor, limit);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
     }
 
+    @GetMapping("/search")
+    public ResponseEntity<NoteSearchResult> searchNotes(
+            @RequestParam("q") String query,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String tag,
+            @RequestParam(required = false) String folderId,
+            @RequestParam(required = false) String contentType,
+            @RequestParam(required = false) Boolean important,
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId) {
+        try {
+            SearchFilter filter = new SearchFilter(tag, folderId, contentType, important);
+            return ResponseEntity.ok(searchService.searchNotes(userId, query, filter, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Search streaming qua SSE: event "hits" mỗi khi top đổi, event "done" ở cuối.
+     * Request mới cùng session hủy stream cũ (search-as-you-type)
+     */
+    @GetMapping(value = "/search/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamSearch(
+            @RequestParam("q") String query,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String session,
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId) {
+        try {
+            return ResponseEntity.ok(searchStreamService.stream(userId, session, query, limit));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    @GetMapping("/autocomplete")
+    public ResponseEntity<List<TitleSuggestion>> autocomplete(
+            @RequestParam("q") String query,
+            @RequestParam(required = false) Integer limit,
+            @RequestHeader(value = "X-User-Id", defaultValue = "user_001") String userId) {
+        try {
+            return ResponseEntity.ok(searchService.suggestTitles(userId, query, limit));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    @GetMapping("/search/stats")
+    public ResponseEntity<Map<String, Object>> getSearchStats() {
+        return ResponseEntity.ok(searchService.getIndexStats());
+    }
+
     
 }
\ No newline at end of file
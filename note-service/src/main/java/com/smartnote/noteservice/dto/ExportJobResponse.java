@@ -0,0 +1,28 @@
+package com.smartnote.noteservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Trạng thái một export job: QUEUED -> RUNNING -> DONE | FAILED | CANCELLED
+ * downloadUrl chỉ có khi DONE; attempts > 1 nghĩa là job được render lại sau restart
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ExportJobResponse {
+    private String jobId;
+    private String noteId;
+    private String status;
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+    private Long sizeBytes;
+    private String error;
+    private int attempts;
+    private boolean cancelRequested;
+    private String downloadUrl;
+}
@@ -0,0 +1,13 @@
+package com.smartnote.noteservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class FacetCount {
+    private String value; // folder null = note ở thư mục gốc
+    private long count;
+}
@@ -0,0 +1,37 @@
+package com.smartnote.noteservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Tiến độ một lần import hàng loạt: QUEUED -> RUNNING -> DONE | FAILED | CANCELLED
+ * progress tính theo số byte upload đã đọc (0..1); cursor là số entry đã ghi xong ở checkpoint cuối,
+ * attempts > 1 nghĩa là job đã được chạy tiếp sau restart
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImportJobResponse {
+    private String jobId;
+    private String folderId;
+    private String status;
+    private double progress;
+    private long bytesRead;
+    private long totalBytes;
+    private long entriesProcessed;
+    private long notesImported;
+    private long foldersCreated;
+    private long skipped;
+    private long failed;
+    private List<String> errors;
+    private long cursor;
+    private int attempts;
+    private boolean cancelRequested;
+    private LocalDateTime createdAt;
+    private LocalDateTime startedAt;
+    private LocalDateTime finishedAt;
+}
@@ -0,0 +1,18 @@
+package com.smartnote.noteservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class MoveNotesRequest {
+    @JsonProperty("noteIds")
+    private List<String> noteIds;
+    @JsonProperty("folderId")
+    private String folderId;
+}
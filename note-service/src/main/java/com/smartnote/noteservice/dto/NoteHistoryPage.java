@@ -0,0 +1,16 @@
+package com.smartnote.noteservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class NoteHistoryPage {
+    private List<NoteHistorySummary> items;
+    private String nextCursor; // null khi đã hết
+    private boolean hasMore;
+}
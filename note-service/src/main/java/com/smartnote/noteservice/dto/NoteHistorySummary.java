@@ -0,0 +1,26 @@
+package com.smartnote.noteservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Metadata của một version trong history, không kèm content
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class NoteHistorySummary {
+    private String id;
+    private Integer version;
+    private String title;
+    private LocalDateTime updatedAt;
+    private String author;
+    private String action;
+    private Integer contentSize;
+    private Integer linesAdded;
+    private Integer linesRemoved;
+    private Boolean keyframe;
+}
@@ -0,0 +1,25 @@
+package com.smartnote.noteservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Cập nhật metadata của note, chỉ field khác null được ghi
+ * tags thay cả danh sách, addTags/removeTags thêm/bớt từng tag (không dùng chung với nhau)
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class NotePatchRequest {
+    @JsonProperty("folderId")
+    private String folderId;
+    private String title;
+    private List<String> tags;
+    private List<String> addTags;
+    private List<String> removeTags;
+    private Boolean isImportant;
+}
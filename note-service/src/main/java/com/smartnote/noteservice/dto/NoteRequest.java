@@ -18,4 +18,6 @@ public class NoteRequest {
     private String contentType;
     private List<String> tags;
     private Boolean isImportant;
+    // Version client đang sửa, khác version hiện tại thì update bị từ chối (409)
+    private Integer version;
 }
@@ -16,6 +16,9 @@ public class NoteResponse {
     private String folderId;
     private String title;
     private String content;
+    // true: content không kèm trong response, đọc qua GET /api/notes/{id}/content
+    private Boolean contentChunked;
+    private Long contentSize;
     private String contentType;
     private String createdBy;
     private LocalDateTime createdAt;
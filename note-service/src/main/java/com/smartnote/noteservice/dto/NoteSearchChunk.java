@@ -0,0 +1,21 @@
+package com.smartnote.noteservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Một event của search streaming: items là top hiện tại (client thay cả danh sách), done = event cuối
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class NoteSearchChunk {
+    private String query;
+    private List<NoteSummary> items;
+    private boolean done;
+    private long elapsedMs; // tính từ lúc nhận request
+    private boolean terminatedEarly; // chỉ có ý nghĩa ở event cuối: các segment còn lại không thể đổi top
+}
@@ -0,0 +1,19 @@
+package com.smartnote.noteservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class NoteSearchResult {
+    private String query;
+    private List<NoteSummary> items; // xếp theo độ liên quan (BM25)
+    private long total; // tổng số note match (sau filter), items chỉ là top limit
+    private SearchFacets facets;
+    private long tookMs;
+    private boolean indexReady; // false khi index đang build lúc service mới start, kết quả có thể thiếu
+}
@@ -0,0 +1,26 @@
+package com.smartnote.noteservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Note trong danh sách: không có content, chỉ snippet ngắn ở đầu
+ * Full NoteResponse chỉ lấy qua GET /api/notes/{id}
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class NoteSummary {
+    private String id;
+    private String title;
+    private String folderId;
+    private List<String> tags;
+    private LocalDateTime updatedAt;
+    private Boolean isImportant;
+    private String snippet;
+    private String createdBy;
+}
@@ -0,0 +1,21 @@
+package com.smartnote.noteservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Số note match query theo từng giá trị facet, tính trên toàn bộ kết quả (không chỉ trang đang trả về)
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SearchFacets {
+    private long total;
+    private List<FacetCount> tags; // nhiều nhất trước
+    private List<FacetCount> folders;
+    private List<FacetCount> contentTypes;
+    private long important;
+}
@@ -0,0 +1,17 @@
+package com.smartnote.noteservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class TitleSuggestion {
+    private String id;
+    private String title;
+    private String folderId;
+    private LocalDateTime updatedAt;
+}
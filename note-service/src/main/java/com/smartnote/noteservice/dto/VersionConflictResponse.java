@@ -0,0 +1,18 @@
+package com.smartnote.noteservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class VersionConflictResponse {
+    private String id;
+    private Integer expectedVersion;
+    private Integer currentVersion;
+    private LocalDateTime updatedAt;
+    private String message;
+}
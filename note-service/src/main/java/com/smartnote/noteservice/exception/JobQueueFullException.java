@@ -0,0 +1,19 @@
+package com.smartnote.noteservice.exception;
+
+import lombok.Getter;
+
+/**
+ * Hàng đợi job (render PDF, import/export hàng loạt) đã đầy, client nên thử lại sau retryAfterSeconds
+ */
+@Getter
+public class JobQueueFullException extends RuntimeException {
+
+    private final int queueCapacity;
+    private final int retryAfterSeconds;
+
+    public JobQueueFullException(int queueCapacity, int retryAfterSeconds) {
+        super("Job queue is full (" + queueCapacity + " jobs waiting)");
+        this.queueCapacity = queueCapacity;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,26 @@
+package com.smartnote.noteservice.exception;
+
+import lombok.Getter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Note đã bị ghi bởi request khác (REST hoặc collab) sau khi client đọc version expectedVersion
+ */
+@Getter
+public class NoteVersionConflictException extends RuntimeException {
+
+    private final String noteId;
+    private final Integer expectedVersion;
+    private final Integer currentVersion;
+    private final LocalDateTime updatedAt;
+
+    public NoteVersionConflictException(String noteId, Integer expectedVersion, Integer currentVersion,
+                                        LocalDateTime updatedAt) {
+        super("Version conflict on note " + noteId + ": expected " + expectedVersion + ", current " + currentVersion);
+        this.noteId = noteId;
+        this.expectedVersion = expectedVersion;
+        this.currentVersion = currentVersion;
+        this.updatedAt = updatedAt;
+    }
+}
@@ -0,0 +1,25 @@
+package com.smartnote.noteservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Một đoạn thay đổi trong delta của NoteHistory:
+ * thay base[position, position + deleteLength) bằng insert
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ContentHunk {
+
+    @Field("p")
+    private int position;
+
+    @Field("d")
+    private int deleteLength;
+
+    @Field("i")
+    private String insert;
+}
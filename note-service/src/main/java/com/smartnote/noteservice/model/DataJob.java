@@ -0,0 +1,107 @@
+package com.smartnote.noteservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Job import/export chạy nền, lưu trong Mongo để poll/cancel và chạy tiếp sau khi service restart
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "data_jobs")
+@CompoundIndexes({
+    // Danh sách job của user theo loại, mới nhất trước
+    @CompoundIndex(name = "user_id_type_created_at", def = "{'user_id': 1, 'type': 1, 'created_at': -1}"),
+    // Resume job dở khi start và dọn job đã xong quá TTL
+    @CompoundIndex(name = "type_status_finished_at", def = "{'type': 1, 'status': 1, 'finished_at': 1}")
+})
+public class DataJob {
+
+    @Id
+    private String id;
+
+    @Field("type")
+    private DataJobType type;
+
+    @Field("user_id")
+    private String userId;
+
+    @Field("status")
+    private DataJobStatus status;
+
+    // Import: folder đích; export PDF: note cần render
+    @Field("folder_id")
+    private String folderId;
+
+    @Field("note_id")
+    private String noteId;
+
+    // Import: thư mục staging chứa file upload; export: file kết quả
+    @Field("work_path")
+    private String workPath;
+
+    @Field("filename")
+    private String filename;
+
+    // Checkpoint: số entry (file upload / entry trong ZIP) đã xử lý và đã ghi xong vào DB,
+    // chạy lại thì bỏ qua chừng này entry
+    @Field("cursor")
+    private long cursor;
+
+    @Field("bytes_read")
+    private long bytesRead;
+
+    @Field("total_bytes")
+    private long totalBytes;
+
+    @Field("size_bytes")
+    private Long sizeBytes;
+
+    @Field("entries_processed")
+    private long entriesProcessed;
+
+    @Field("notes_imported")
+    private long notesImported;
+
+    @Field("folders_created")
+    private long foldersCreated;
+
+    @Field("skipped")
+    private long skipped;
+
+    @Field("failed")
+    private long failed;
+
+    @Field("errors")
+    private List<String> errors = new ArrayList<>();
+
+    @Field("cancel_requested")
+    private boolean cancelRequested;
+
+    // Số lần worker nhận job, > 1 nghĩa là job đã được chạy tiếp sau restart
+    @Field("attempts")
+    private int attempts;
+
+    @Field("created_at")
+    private LocalDateTime createdAt;
+
+    @Field("started_at")
+    private LocalDateTime startedAt;
+
+    @Field("checkpoint_at")
+    private LocalDateTime checkpointAt;
+
+    @Field("finished_at")
+    private LocalDateTime finishedAt;
+}
@@ -0,0 +1,9 @@
+package com.smartnote.noteservice.model;
+
+public enum DataJobStatus {
+    QUEUED,
+    RUNNING,
+    DONE,
+    FAILED,
+    CANCELLED
+}
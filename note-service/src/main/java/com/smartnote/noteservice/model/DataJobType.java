@@ -0,0 +1,6 @@
+package com.smartnote.noteservice.model;
+
+public enum DataJobType {
+    IMPORT,
+    EXPORT_PDF
+}
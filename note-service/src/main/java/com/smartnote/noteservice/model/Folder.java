@@ -1,6 +1,8 @@
 package com.smartnote.noteservice.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field; 
 
@@ -9,6 +11,11 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Document(collection = "folders")
+@CompoundIndexes({
+    @CompoundIndex(name = "user_id_is_deleted", def = "{'user_id': 1, 'is_deleted': 1}"),
+    @CompoundIndex(name = "parent_folder_id_is_deleted", def = "{'parent_folder_id': 1, 'is_deleted': 1}"),
+    @CompoundIndex(name = "workspace_id_is_deleted", def = "{'workspace_id': 1, 'is_deleted': 1}")
+})
 public class Folder {
 
     @Id
@@ -4,6 +4,8 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
@@ -15,6 +17,14 @@ import java.util.List;
 @NoArgsConstructor
 @AllArgsConstructor
 @Document(collection = "notes")
+@CompoundIndexes({
+    // findByCreatedBy*, trash của user và danh sách summary sort theo (updated_at, _id)
+    @CompoundIndex(name = "created_by_is_deleted_updated_at", def = "{'created_by': 1, 'is_deleted': 1, 'updated_at': -1, '_id': -1}"),
+    @CompoundIndex(name = "created_by_is_important_updated_at", def = "{'created_by': 1, 'is_important': 1, 'is_deleted': 1, 'updated_at': -1, '_id': -1}"),
+    @CompoundIndex(name = "folder_id_is_deleted_updated_at", def = "{'folderId': 1, 'is_deleted': 1, 'updated_at': -1, '_id': -1}"),
+    // Search index sync quét các note đổi updated_at kể từ lần sync trước
+    @CompoundIndex(name = "updated_at_id", def = "{'updated_at': 1, '_id': 1}")
+})
 public class Note {
     
     @Id
@@ -27,6 +37,16 @@ public class Note {
     
     @Field("content")
     private String content;
+
+    // Content lớn (NoteContentStore): content = null, body nằm trong GridFS, document chỉ giữ ref + preview
+    @Field("content_ref")
+    private String contentRef;
+
+    @Field("content_size")
+    private Long contentSize;
+
+    @Field("content_preview")
+    private String contentPreview;
     
     @Field("content_type")
     private String contentType = "markdown";
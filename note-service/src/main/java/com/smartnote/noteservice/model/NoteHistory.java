@@ -1,8 +1,10 @@
 package com.smartnote.noteservice.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
@@ -12,6 +14,7 @@ import java.util.List;
 @Data
 @NoArgsConstructor
 @Document(collection = "note_history")
+@CompoundIndex(name = "original_note_id_version", def = "{'original_note_id': 1, 'version': -1, '_id': -1}")
 public class NoteHistory {
 
     @Id
@@ -40,6 +43,26 @@ public class NoteHistory {
     private String action; 
     private String description;
 
+    // Delta storage: keyframe lưu full content, các version khác chỉ lưu delta so với base_id
+    @JsonIgnore
+    private List<ContentHunk> delta;
+    @Field("base_id")
+    private String baseId;
+    // Keyframe của note lớn: content nằm trong GridFS (file riêng của history), field content để trống
+    @JsonIgnore
+    @Field("content_ref")
+    private String contentRef;
+    @Field("chain_length")
+    private Integer chainLength;
+    @Field("content_size")
+    private Integer contentSize;
+    @Field("stored_size")
+    private Integer storedSize;
+    @Field("lines_added")
+    private Integer linesAdded;
+    @Field("lines_removed")
+    private Integer linesRemoved;
+
     public NoteHistory(Note note) {
         this.originalNoteId = note.getId();
         this.folderId = note.getFolderId();
@@ -55,4 +78,9 @@ public class NoteHistory {
         this.tags = note.getTags();
         this.isImportant = note.getIsImportant();
     }
-}
\ No newline at end of file
+
+    // Document cũ (trước khi có delta) không có field delta nên cũng là keyframe
+    public boolean isKeyframe() {
+        return delta == null;
+    }
+}
@@ -0,0 +1,35 @@
+package com.smartnote.noteservice.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+import java.time.LocalDateTime;
+
+/**
+ * Watermark dọn history của từng note: note chỉ được dọn lại khi có version mới
+ * hoặc khi tới lúc một version còn giữ rời khỏi bucket retention hiện tại
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Document(collection = "note_history_prune_state")
+public class NoteHistoryPruneState {
+
+    // = id của note
+    @Id
+    private String id;
+
+    // _id (ObjectId hex) của version mới nhất đã xét ở lần dọn gần nhất
+    @Field("pruned_through")
+    private String prunedThrough;
+
+    // Lúc sớm nhất cần dọn lại; null = chỉ dọn lại khi có version mới
+    @Indexed
+    @Field("next_prune_at")
+    private LocalDateTime nextPruneAt;
+}
@@ -1,12 +1,20 @@
 package com.smartnote.noteservice.model;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
 import java.time.LocalDateTime;
 
 @Document(collection = "trash_items")
+@CompoundIndexes({
+    @CompoundIndex(name = "user_id_item_type", def = "{'user_id': 1, 'item_type': 1}"),
+    @CompoundIndex(name = "workspace_id", def = "{'workspace_id': 1}"),
+    // Dọn trash hết hạn: findByDeletedAtBefore
+    @CompoundIndex(name = "deleted_at", def = "{'deleted_at': 1}")
+})
 public class TrashItem {
     
     @Id
@@ -0,0 +1,21 @@
+package com.smartnote.noteservice.repository;
+
+import com.smartnote.noteservice.model.DataJob;
+import com.smartnote.noteservice.model.DataJobStatus;
+import com.smartnote.noteservice.model.DataJobType;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface DataJobRepository extends MongoRepository<DataJob, String> {
+    List<DataJob> findByUserIdAndTypeOrderByCreatedAtDesc(String userId, DataJobType type, Pageable pageable);
+    List<DataJob> findByTypeAndStatusIn(DataJobType type, Collection<DataJobStatus> statuses);
+    List<DataJob> findByTypeAndStatusInAndFinishedAtBefore(DataJobType type, Collection<DataJobStatus> statuses,
+                                                          LocalDateTime cutoff);
+    long countByType(DataJobType type);
+}
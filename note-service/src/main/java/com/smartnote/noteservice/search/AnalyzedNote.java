@@ -0,0 +1,199 @@
+package com.smartnote.noteservice.search;
+
+import com.smartnote.noteservice.model.Note;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Note đã tách từ, sẵn sàng đưa vào SegmentedIndex
+ * Phân tích (render markdown, tách từ) làm ngoài lock của index
+ * Kèm các giá trị facet (folder, contentType, tags nguyên bản, isImportant) để lưu thành doc-value
+ */
+public final class AnalyzedNote {
+
+    public static final int TITLE = 0;
+    public static final int TAGS = 1;
+    public static final int CONTENT = 2;
+    // Dạng có dấu của mọi field, chỉ dùng để cộng điểm khi query gõ đúng dấu
+    public static final int EXACT = 3;
+    public static final int FIELD_COUNT = 4;
+
+    // Content lớn được phân tích theo từng đoạn cỡ này (ngắt ở dòng trống nếu được)
+    private static final int CONTENT_CHUNK_CHARS = 64 * 1024;
+
+    private final String noteId;
+    private final String userId;
+    private final String folderId;
+    private final long updatedAt;
+    private final String contentType;
+    private final boolean important;
+    private final List<String> tags = new ArrayList<>();
+    private final Map<String, Integer> termFreqs = new HashMap<>();
+    private final int[] fieldLengths = new int[FIELD_COUNT];
+
+    private AnalyzedNote(String noteId, String userId, String folderId, long updatedAt, String contentType,
+                         boolean important) {
+        this.noteId = noteId;
+        this.userId = userId;
+        this.folderId = folderId;
+        this.updatedAt = updatedAt;
+        this.contentType = contentType;
+        this.important = important;
+    }
+
+    public static AnalyzedNote of(Note note) {
+        return of(note, note.getContent());
+    }
+
+    /**
+     * content thay cho note.getContent(), vd. content_preview của note lớn
+     */
+    public static AnalyzedNote of(Note note, String content) {
+        AnalyzedNote analyzed = withoutContent(note);
+        analyzed.addContent(note, content);
+        return analyzed;
+    }
+
+    /**
+     * Note có content lớn (GridFS): đọc content từ reader theo từng đoạn, không giữ cả văn bản trong memory.
+     * Đoạn được cắt ở dòng trống để không tách đôi một block markdown
+     */
+    public static AnalyzedNote of(Note note, Reader content) throws IOException {
+        AnalyzedNote analyzed = withoutContent(note);
+        BufferedReader reader = new BufferedReader(content);
+        StringBuilder chunk = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            chunk.append(line).append('\n');
+            if (chunk.length() >= CONTENT_CHUNK_CHARS && (line.isBlank() || chunk.length() >= 2 * CONTENT_CHUNK_CHARS)) {
+                analyzed.addContent(note, chunk.toString());
+                chunk.setLength(0);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            analyzed.addContent(note, chunk.toString());
+        }
+        return analyzed;
+    }
+
+    private static AnalyzedNote withoutContent(Note note) {
+        LocalDateTime updatedAt = note.getUpdatedAt() != null ? note.getUpdatedAt() : note.getCreatedAt();
+        AnalyzedNote analyzed = new AnalyzedNote(note.getId(), note.getCreatedBy(), note.getFolderId(),
+                epochMillis(updatedAt),
+                note.getContentType() != null ? note.getContentType() : "markdown",
+                Boolean.TRUE.equals(note.getIsImportant()));
+
+        analyzed.addField(TITLE, note.getTitle());
+        if (note.getTags() != null) {
+            for (String tag : note.getTags()) {
+                analyzed.addField(TAGS, tag);
+            }
+            analyzed.tags.addAll(facetTags(note.getTags()));
+        }
+        return analyzed;
+    }
+
+    private void addContent(Note note, String content) {
+        addField(CONTENT, note.getContentType() == null || "markdown".equalsIgnoreCase(note.getContentType())
+                ? TextAnalyzer.markdownToText(content)
+                : content);
+    }
+
+    static long epochMillis(LocalDateTime time) {
+        return time != null ? time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : 0L;
+    }
+
+    private void addField(int field, String text) {
+        List<TextAnalyzer.Token> tokens = TextAnalyzer.analyze(text);
+        for (TextAnalyzer.Token token : tokens) {
+            termFreqs.merge(key(field, token.term()), 1, Integer::sum);
+            if (token.exact() != null) {
+                termFreqs.merge(key(EXACT, token.exact()), 1, Integer::sum);
+                fieldLengths[EXACT]++;
+            }
+        }
+        fieldLengths[field] += tokens.size();
+    }
+
+    /**
+     * Giá trị facet tag của note: bỏ tag rỗng và tag trùng, giữ thứ tự
+     */
+    static List<String> facetTags(List<String> tags) {
+        List<String> values = new ArrayList<>();
+        if (tags != null) {
+            for (String tag : tags) {
+                if (tag != null && !tag.isBlank() && !values.contains(tag)) {
+                    values.add(tag);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Term của riêng field tags (key đã prefix số field), dùng khi chỉ đổi tag mà không phân tích lại cả note.
+     * Dạng đúng dấu của tag không có ở đây: field EXACT giữ bản cũ tới khi note được index lại
+     */
+    static Map<String, Integer> tagTermFreqs(List<String> tags) {
+        Map<String, Integer> freqs = new HashMap<>();
+        if (tags != null) {
+            for (String tag : tags) {
+                for (TextAnalyzer.Token token : TextAnalyzer.analyze(tag)) {
+                    freqs.merge(key(TAGS, token.term()), 1, Integer::sum);
+                }
+            }
+        }
+        return freqs;
+    }
+
+    /**
+     * Term trong dictionary được prefix bằng số field: "0ghi" là "ghi" trong title
+     */
+    public static String key(int field, String term) {
+        return (char) ('0' + field) + term;
+    }
+
+    public String getNoteId() {
+        return noteId;
+    }
+
+    public String getUserId() {
+        return userId;
+    }
+
+    public String getFolderId() {
+        return folderId;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public boolean isImportant() {
+        return important;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public Map<String, Integer> getTermFreqs() {
+        return termFreqs;
+    }
+
+    public int[] getFieldLengths() {
+        return fieldLengths;
+    }
+}
@@ -0,0 +1,271 @@
+package com.smartnote.noteservice.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Segment đang ghi trong memory, nhận mọi thay đổi mới cho tới khi được flush ra DiskSegment
+ * Không tự đồng bộ: SegmentedIndex chỉ gọi khi đang giữ lock
+ */
+final class BufferSegment implements Segment {
+
+    private final TreeMap<String, PostingList> dictionary = new TreeMap<>();
+    private final List<DocEntry> docs = new ArrayList<>();
+    private final Map<String, Integer> liveDocIds = new HashMap<>();
+    private final Map<String, long[]> userStats = new HashMap<>();
+    private final BitSet deleted = new BitSet();
+    private final BitSet important = new BitSet();
+    // Dictionary facet của buffer đánh ordinal theo thứ tự gặp, không cần sắp xếp
+    private final List<List<String>> facetValues = new ArrayList<>();
+    private final List<Map<String, Integer>> facetOrdinals = new ArrayList<>();
+
+    /**
+     * values[facet] = ordinal của doc trong facet đó
+     */
+    private record DocEntry(String noteId, String userId, long updatedAt, int[] fieldLengths, int[][] values) {
+    }
+
+    BufferSegment() {
+        for (int facet = 0; facet < FACET_COUNT; facet++) {
+            facetValues.add(new ArrayList<>());
+            facetOrdinals.add(new HashMap<>());
+        }
+    }
+
+    void add(AnalyzedNote note) {
+        int doc = docs.size();
+        int[] lengths = note.getFieldLengths().clone();
+        int[][] values = new int[FACET_COUNT][];
+        values[FACET_FOLDER] = ordinals(FACET_FOLDER, note.getFolderId() == null ? List.of() : List.of(note.getFolderId()));
+        values[FACET_CONTENT_TYPE] = ordinals(FACET_CONTENT_TYPE,
+                note.getContentType() == null ? List.of() : List.of(note.getContentType()));
+        values[FACET_TAG] = ordinals(FACET_TAG, note.getTags());
+        docs.add(new DocEntry(note.getNoteId(), note.getUserId(), note.getUpdatedAt(), lengths, values));
+        liveDocIds.put(note.getNoteId(), doc);
+        important.set(doc, note.isImportant());
+
+        long[] stats = userStats.computeIfAbsent(note.getUserId(), id -> new long[1 + AnalyzedNote.FIELD_COUNT]);
+        stats[0]++;
+        for (int field = 0; field < lengths.length; field++) {
+            stats[1 + field] += lengths[field];
+        }
+        for (Map.Entry<String, Integer> entry : note.getTermFreqs().entrySet()) {
+            dictionary.computeIfAbsent(Segment.termKey(note.getUserId(), entry.getKey()), key -> new PostingList())
+                    .add(doc, entry.getValue());
+        }
+    }
+
+    /**
+     * Đổi doc-value của doc tại chỗ; field tags được tách từ lại từ danh sách tag mới, title/content giữ nguyên
+     */
+    void update(int doc, DocValues values) {
+        DocEntry entry = docs.get(doc);
+        String userId = entry.userId();
+        for (String key : AnalyzedNote.tagTermFreqs(Segment.docValues(this, doc).tags()).keySet()) {
+            String termKey = Segment.termKey(userId, key);
+            PostingList postings = dictionary.get(termKey);
+            if (postings != null && postings.remove(doc) && postings.size() == 0) {
+                dictionary.remove(termKey);
+            }
+        }
+        Map<String, Integer> tagTerms = AnalyzedNote.tagTermFreqs(values.tags());
+        int tagLength = 0;
+        for (Map.Entry<String, Integer> term : tagTerms.entrySet()) {
+            dictionary.computeIfAbsent(Segment.termKey(userId, term.getKey()), key -> new PostingList())
+                    .insert(doc, term.getValue());
+            tagLength += term.getValue();
+        }
+        userStats.get(userId)[1 + AnalyzedNote.TAGS] += tagLength - entry.fieldLengths()[AnalyzedNote.TAGS];
+        entry.fieldLengths()[AnalyzedNote.TAGS] = tagLength;
+
+        int[][] ordinals = entry.values();
+        ordinals[FACET_FOLDER] = ordinals(FACET_FOLDER,
+                values.folderId() == null ? List.of() : List.of(values.folderId()));
+        ordinals[FACET_TAG] = ordinals(FACET_TAG, values.tags());
+        important.set(doc, values.important());
+        docs.set(doc, new DocEntry(entry.noteId(), userId, values.updatedAt(), entry.fieldLengths(), ordinals));
+    }
+
+    private int[] ordinals(int facet, List<String> values) {
+        int[] ordinals = new int[values.size()];
+        for (int i = 0; i < ordinals.length; i++) {
+            ordinals[i] = facetOrdinals.get(facet).computeIfAbsent(values.get(i), value -> {
+                facetValues.get(facet).add(value);
+                return facetValues.get(facet).size() - 1;
+            });
+        }
+        return ordinals;
+    }
+
+    @Override
+    public int maxDoc() {
+        return docs.size();
+    }
+
+    @Override
+    public int liveDocs() {
+        return liveDocIds.size();
+    }
+
+    @Override
+    public boolean isDeleted(int doc) {
+        return deleted.get(doc);
+    }
+
+    @Override
+    public void delete(int doc) {
+        if (!deleted.get(doc)) {
+            deleted.set(doc);
+            liveDocIds.remove(docs.get(doc).noteId());
+        }
+    }
+
+    @Override
+    public int findDoc(String noteId) {
+        return liveDocIds.getOrDefault(noteId, -1);
+    }
+
+    @Override
+    public String noteId(int doc) {
+        return docs.get(doc).noteId();
+    }
+
+    @Override
+    public String userId(int doc) {
+        return docs.get(doc).userId();
+    }
+
+    @Override
+    public long updatedAt(int doc) {
+        return docs.get(doc).updatedAt();
+    }
+
+    @Override
+    public int fieldLength(int doc, int field) {
+        return docs.get(doc).fieldLengths()[field];
+    }
+
+    @Override
+    public boolean isImportant(int doc) {
+        return important.get(doc);
+    }
+
+    @Override
+    public int valueCount(int doc, int facet) {
+        return docs.get(doc).values()[facet].length;
+    }
+
+    @Override
+    public int ordinal(int doc, int facet, int index) {
+        return docs.get(doc).values()[facet][index];
+    }
+
+    @Override
+    public int dictionarySize(int facet) {
+        return facetValues.get(facet).size();
+    }
+
+    @Override
+    public String dictionaryValue(int facet, int ordinal) {
+        return facetValues.get(facet).get(ordinal);
+    }
+
+    @Override
+    public int lookupOrdinal(int facet, String value) {
+        return facetOrdinals.get(facet).getOrDefault(value, -1);
+    }
+
+    @Override
+    public UserStats userStats(String userId) {
+        long[] stats = userStats.get(userId);
+        return stats == null ? null : new UserStats((int) stats[0], Arrays.copyOfRange(stats, 1, stats.length));
+    }
+
+    @Override
+    public TermIterator terms(String fromKey) {
+        Iterator<Map.Entry<String, PostingList>> iterator = dictionary.tailMap(fromKey, true).entrySet().iterator();
+        return new TermIterator() {
+            private Map.Entry<String, PostingList> current;
+
+            @Override
+            public boolean next() {
+                current = iterator.hasNext() ? iterator.next() : null;
+                return current != null;
+            }
+
+            @Override
+            public String key() {
+                return current.getKey();
+            }
+
+            @Override
+            public Postings postings() {
+                return current.getValue();
+            }
+        };
+    }
+
+    /**
+     * Postings của một term: doc tăng dần, kèm term frequency
+     */
+    private static final class PostingList implements Postings {
+        private int[] docs = new int[2];
+        private int[] freqs = new int[2];
+        private int size;
+
+        void add(int doc, int freq) {
+            insert(doc, freq);
+        }
+
+        /**
+         * Chèn giữ doc tăng dần (doc mới luôn ở cuối, chỉ update tag mới chèn vào giữa)
+         */
+        void insert(int doc, int freq) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            int position = size;
+            while (position > 0 && docs[position - 1] > doc) {
+                position--;
+            }
+            System.arraycopy(docs, position, docs, position + 1, size - position);
+            System.arraycopy(freqs, position, freqs, position + 1, size - position);
+            docs[position] = doc;
+            freqs[position] = freq;
+            size++;
+        }
+
+        boolean remove(int doc) {
+            int position = Arrays.binarySearch(docs, 0, size, doc);
+            if (position < 0) {
+                return false;
+            }
+            System.arraycopy(docs, position + 1, docs, position, size - position - 1);
+            System.arraycopy(freqs, position + 1, freqs, position, size - position - 1);
+            size--;
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int doc(int index) {
+            return docs[index];
+        }
+
+        @Override
+        public int freq(int index) {
+            return freqs[index];
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.smartnote.noteservice.search;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+/**
+ * Segment bất biến trên disk, được memory-map khi mở nên mở segment gần như không tốn thời gian
+ * dù index lớn tới đâu: chỉ header và file tombstone được đọc vào heap.
+ *
+ * File _N.dic (big-endian):
+ *   header       MAGIC, VERSION, docCount, userCount, termCount, offset của từng phần
+ *   docs         docCount x [noteId, userId (string ref), updatedAt, độ dài 4 field,
+ *                ordinal folder, ordinal contentType (-1 = null), vị trí + số tag trong tagOrdinals]
+ *   ids          docCount x doc, sắp theo noteId (tìm doc theo noteId bằng binary search)
+ *   users        userCount x [userId, docCount, tổng độ dài 4 field], sắp theo userId
+ *   terms        termCount x [key, offset trong _N.pst, df], sắp theo key
+ *   strings      [độ dài byte][UTF-8]
+ *   important    bitset isImportant (long[])
+ *   tagOrdinals  ordinal tag của mọi doc nối liền nhau
+ *   dictionaries số giá trị của từng facet, rồi string ref của từng facet sắp theo giá trị
+ * File _N.pst: postings của từng term, df x [doc, freq]
+ * File _N.del: tombstone bitset (long[]), ghi lại mỗi lần commit nếu có thay đổi
+ * File _N.dvu: doc-value đã đổi tại chỗ (DocValueOverlay), ghi lại mỗi lần commit nếu có thay đổi
+ *
+ * Mọi đọc từ buffer đều dùng absolute get nên nhiều thread search cùng lúc được.
+ */
+final class DiskSegment implements Segment {
+
+    static final int MAGIC = 0x4E534547; // "NSEG"
+    static final int VERSION = 2;
+    static final int HEADER_BYTES = 4 * 5 + 8 * 8;
+    static final int DOC_BYTES = 4 * 2 + 8 + 4 * AnalyzedNote.FIELD_COUNT + 4 * 4;
+    private static final int DOC_VALUES = 16 + 4 * AnalyzedNote.FIELD_COUNT;
+    static final int USER_BYTES = 4 + 4 + 8 * AnalyzedNote.FIELD_COUNT;
+    static final int TERM_BYTES = 4 + 8 + 4;
+
+    private final long generation;
+    private final Path directory;
+    private final MappedByteBuffer dic;
+    private final MappedByteBuffer pst;
+    private final int docCount;
+    private final int userCount;
+    private final int termCount;
+    private final int docsOffset;
+    private final int idsOffset;
+    private final int usersOffset;
+    private final int termsOffset;
+    private final int stringsOffset;
+    private final int importantOffset;
+    private final int tagOrdinalsOffset;
+    private final int[] dictionarySizes = new int[FACET_COUNT];
+    private final int[] dictionaryOffsets = new int[FACET_COUNT];
+    private final long sizeInBytes;
+
+    private final BitSet deleted;
+    private int deletedCount;
+    private boolean deletesDirty;
+
+    private DiskSegment(long generation, Path directory, MappedByteBuffer dic, MappedByteBuffer pst, BitSet deleted) {
+        this.generation = generation;
+        this.directory = directory;
+        this.dic = dic;
+        this.pst = pst;
+        if (dic.getInt(0) != MAGIC || dic.getInt(4) != VERSION) {
+            throw new IllegalStateException("Not a search segment: " + dicPath(directory, generation));
+        }
+        this.docCount = dic.getInt(8);
+        this.userCount = dic.getInt(12);
+        this.termCount = dic.getInt(16);
+        this.docsOffset = (int) dic.getLong(20);
+        this.idsOffset = (int) dic.getLong(28);
+        this.usersOffset = (int) dic.getLong(36);
+        this.termsOffset = (int) dic.getLong(44);
+        this.stringsOffset = (int) dic.getLong(52);
+        this.importantOffset = (int) dic.getLong(60);
+        this.tagOrdinalsOffset = (int) dic.getLong(68);
+        int dictionariesOffset = (int) dic.getLong(76);
+        int offset = dictionariesOffset + 4 * FACET_COUNT;
+        for (int facet = 0; facet < FACET_COUNT; facet++) {
+            dictionarySizes[facet] = dic.getInt(dictionariesOffset + facet * 4);
+            dictionaryOffsets[facet] = offset;
+            offset += dictionarySizes[facet] * 4;
+        }
+        this.sizeInBytes = (long) dic.capacity() + pst.capacity();
+        this.deleted = deleted;
+        this.deletedCount = deleted.cardinality();
+    }
+
+    static DiskSegment open(Path directory, long generation) throws IOException {
+        MappedByteBuffer dic = map(dicPath(directory, generation));
+        MappedByteBuffer pst = map(pstPath(directory, generation));
+        Path delPath = delPath(directory, generation);
+        BitSet deleted = Files.exists(delPath)
+                ? BitSet.valueOf(ByteBuffer.wrap(Files.readAllBytes(delPath)))
+                : new BitSet();
+        return new DiskSegment(generation, directory, dic, pst, deleted);
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    static Path dicPath(Path directory, long generation) {
+        return directory.resolve("_" + generation + ".dic");
+    }
+
+    static Path pstPath(Path directory, long generation) {
+        return directory.resolve("_" + generation + ".pst");
+    }
+
+    static Path delPath(Path directory, long generation) {
+        return directory.resolve("_" + generation + ".del");
+    }
+
+    static Path dvuPath(Path directory, long generation) {
+        return directory.resolve("_" + generation + ".dvu");
+    }
+
+    long generation() {
+        return generation;
+    }
+
+    long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    int deletedCount() {
+        return deletedCount;
+    }
+
+    /**
+     * Ghi tombstone nếu có thay đổi từ lần commit trước (ghi file tạm rồi rename)
+     */
+    void writeDeletesIfDirty() throws IOException {
+        if (!deletesDirty) {
+            return;
+        }
+        Path target = delPath(directory, generation);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(temp, deleted.toByteArray());
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        deletesDirty = false;
+    }
+
+    @Override
+    public int maxDoc() {
+        return docCount;
+    }
+
+    @Override
+    public int liveDocs() {
+        return docCount - deletedCount;
+    }
+
+    @Override
+    public boolean isDeleted(int doc) {
+        return deleted.get(doc);
+    }
+
+    @Override
+    public void delete(int doc) {
+        if (!deleted.get(doc)) {
+            deleted.set(doc);
+            deletedCount++;
+            deletesDirty = true;
+        }
+    }
+
+    @Override
+    public int findDoc(String noteId) {
+        int low = 0;
+        int high = docCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int doc = dic.getInt(idsOffset + mid * 4);
+            int cmp = noteId(doc).compareTo(noteId);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return deleted.get(doc) ? -1 : doc;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public String noteId(int doc) {
+        return string(dic.getInt(docsOffset + doc * DOC_BYTES));
+    }
+
+    @Override
+    public String userId(int doc) {
+        return string(dic.getInt(docsOffset + doc * DOC_BYTES + 4));
+    }
+
+    @Override
+    public long updatedAt(int doc) {
+        return dic.getLong(docsOffset + doc * DOC_BYTES + 8);
+    }
+
+    @Override
+    public int fieldLength(int doc, int field) {
+        return dic.getInt(docsOffset + doc * DOC_BYTES + 16 + field * 4);
+    }
+
+    @Override
+    public boolean isImportant(int doc) {
+        return (dic.getLong(importantOffset + (doc >>> 6) * 8) & (1L << doc)) != 0;
+    }
+
+    @Override
+    public int valueCount(int doc, int facet) {
+        int position = docsOffset + doc * DOC_BYTES + DOC_VALUES;
+        if (facet == FACET_TAG) {
+            return dic.getInt(position + 12);
+        }
+        return dic.getInt(position + facet * 4) < 0 ? 0 : 1;
+    }
+
+    @Override
+    public int ordinal(int doc, int facet, int index) {
+        int position = docsOffset + doc * DOC_BYTES + DOC_VALUES;
+        if (facet == FACET_TAG) {
+            return dic.getInt(tagOrdinalsOffset + (dic.getInt(position + 8) + index) * 4);
+        }
+        return dic.getInt(position + facet * 4);
+    }
+
+    @Override
+    public int dictionarySize(int facet) {
+        return dictionarySizes[facet];
+    }
+
+    @Override
+    public String dictionaryValue(int facet, int ordinal) {
+        return string(dic.getInt(dictionaryOffsets[facet] + ordinal * 4));
+    }
+
+    @Override
+    public int lookupOrdinal(int facet, String value) {
+        int low = 0;
+        int high = dictionarySizes[facet] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = dictionaryValue(facet, mid).compareTo(value);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public UserStats userStats(String userId) {
+        int low = 0;
+        int high = userCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int position = usersOffset + mid * USER_BYTES;
+            int cmp = string(dic.getInt(position)).compareTo(userId);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                long[] sums = new long[AnalyzedNote.FIELD_COUNT];
+                for (int field = 0; field < sums.length; field++) {
+                    sums[field] = dic.getLong(position + 8 + field * 8);
+                }
+                return new UserStats(dic.getInt(position + 4), sums);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public TermIterator terms(String fromKey) {
+        // Lower bound: term đầu tiên >= fromKey
+        int low = 0;
+        int high = termCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (termKey(mid).compareTo(fromKey) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int first = low;
+        return new TermIterator() {
+            private int index = first - 1;
+
+            @Override
+            public boolean next() {
+                return ++index < termCount;
+            }
+
+            @Override
+            public String key() {
+                return termKey(index);
+            }
+
+            @Override
+            public Postings postings() {
+                int position = termsOffset + index * TERM_BYTES;
+                return new MappedPostings((int) dic.getLong(position + 4), dic.getInt(position + 12));
+            }
+        };
+    }
+
+    private String termKey(int index) {
+        return string(dic.getInt(termsOffset + index * TERM_BYTES));
+    }
+
+    private String string(int reference) {
+        if (reference < 0) {
+            return null;
+        }
+        int position = stringsOffset + reference;
+        byte[] bytes = new byte[dic.getInt(position)];
+        dic.get(position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private final class MappedPostings implements Postings {
+        private final int offset;
+        private final int size;
+
+        MappedPostings(int offset, int size) {
+            this.offset = offset;
+            this.size = size;
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int doc(int index) {
+            return pst.getInt(offset + index * 8);
+        }
+
+        @Override
+        public int freq(int index) {
+            return pst.getInt(offset + index * 8 + 4);
+        }
+    }
+}
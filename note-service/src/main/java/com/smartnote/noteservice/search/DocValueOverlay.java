@@ -0,0 +1,388 @@
+package com.smartnote.noteservice.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Segment bất biến kèm các doc-value đã đổi tại chỗ (folder, isImportant, tags, updatedAt), giống updatable
+ * doc values của Lucene: move/đánh dấu/đổi tag không phải đọc lại note và phân tích lại title/content
+ *
+ * - Giá trị facet chưa có trong dictionary của segment gốc được cấp ordinal nối tiếp sau dictionary gốc
+ * - Field tags được tách từ lại từ danh sách tag mới: postings tags gốc của doc đã đổi bị ẩn,
+ *   thay bằng postings của overlay. Field đúng dấu và thống kê BM25 của user giữ giá trị cũ
+ *   tới khi note được index lại (giống doc đã xóa vẫn được tính vào thống kê)
+ * - Flush/merge đọc qua overlay nên giá trị mới được ghi hẳn vào segment mới
+ * - File _N.dvu: giá trị mới của các doc đã đổi, ghi lại mỗi lần commit nếu có thay đổi
+ *
+ * Không tự đồng bộ: SegmentedIndex chỉ sửa khi giữ write lock
+ */
+final class DocValueOverlay implements Segment {
+
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * sequence: thứ tự thay đổi trong overlay, để chuyển các thay đổi xảy ra trong lúc flush/merge sang segment mới
+     */
+    private record Entry(DocValues values, int folderOrdinal, int[] tagOrdinals, Map<String, Integer> tagTerms,
+                         int tagLength, long sequence) {
+    }
+
+    private final Segment base;
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    private final List<List<String>> extraValues = new ArrayList<>();
+    private final List<Map<String, Integer>> extraOrdinals = new ArrayList<>();
+    // Term tags (đã kèm userId) -> doc -> freq, chỉ của các doc đã đổi
+    private final TreeMap<String, TreeMap<Integer, Integer>> tagPostings = new TreeMap<>();
+    private long sequence;
+    private boolean dirty;
+
+    DocValueOverlay(Segment base) {
+        this.base = base;
+        for (int facet = 0; facet < FACET_COUNT; facet++) {
+            extraValues.add(new ArrayList<>());
+            extraOrdinals.add(new HashMap<>());
+        }
+    }
+
+    Segment base() {
+        return base;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long sequence() {
+        return sequence;
+    }
+
+    void set(int doc, DocValues values) {
+        clear(doc);
+        int folderOrdinal = values.folderId() == null ? -1 : ordinalOf(FACET_FOLDER, values.folderId());
+        int[] tagOrdinals = values.tags().stream().mapToInt(tag -> ordinalOf(FACET_TAG, tag)).toArray();
+        Map<String, Integer> tagTerms = new HashMap<>();
+        int tagLength = 0;
+        for (Map.Entry<String, Integer> term : AnalyzedNote.tagTermFreqs(values.tags()).entrySet()) {
+            String key = Segment.termKey(base.userId(doc), term.getKey());
+            tagTerms.put(key, term.getValue());
+            tagPostings.computeIfAbsent(key, k -> new TreeMap<>()).put(doc, term.getValue());
+            tagLength += term.getValue();
+        }
+        entries.put(doc, new Entry(values, folderOrdinal, tagOrdinals, tagTerms, tagLength, ++sequence));
+        dirty = true;
+    }
+
+    private void clear(int doc) {
+        Entry previous = entries.remove(doc);
+        if (previous == null) {
+            return;
+        }
+        for (String key : previous.tagTerms().keySet()) {
+            TreeMap<Integer, Integer> postings = tagPostings.get(key);
+            postings.remove(doc);
+            if (postings.isEmpty()) {
+                tagPostings.remove(key);
+            }
+        }
+        dirty = true;
+    }
+
+    private int ordinalOf(int facet, String value) {
+        int ordinal = base.lookupOrdinal(facet, value);
+        if (ordinal >= 0) {
+            return ordinal;
+        }
+        return base.dictionarySize(facet) + extraOrdinals.get(facet).computeIfAbsent(value, v -> {
+            extraValues.get(facet).add(v);
+            return extraValues.get(facet).size() - 1;
+        });
+    }
+
+    /**
+     * Các doc đổi sau sequence (doc -> giá trị mới)
+     */
+    Map<Integer, DocValues> changedSince(long since) {
+        Map<Integer, DocValues> changed = new HashMap<>();
+        entries.forEach((doc, entry) -> {
+            if (entry.sequence() > since) {
+                changed.put(doc, entry.values());
+            }
+        });
+        return changed;
+    }
+
+    /**
+     * Bản chụp để flush/merge đọc ngoài lock trong khi overlay gốc vẫn nhận thay đổi
+     */
+    DocValueOverlay snapshot() {
+        DocValueOverlay copy = new DocValueOverlay(base);
+        entries.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue((a, b) -> Long.compare(a.sequence(), b.sequence())))
+                .forEach(entry -> copy.set(entry.getKey(), entry.getValue().values()));
+        copy.sequence = sequence;
+        return copy;
+    }
+
+    void writeIfDirty(Path target) throws IOException {
+        if (!dirty) {
+            return;
+        }
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<Integer, Entry> entry : entries.entrySet()) {
+                DocValues values = entry.getValue().values();
+                out.writeInt(entry.getKey());
+                out.writeBoolean(values.folderId() != null);
+                if (values.folderId() != null) {
+                    out.writeUTF(values.folderId());
+                }
+                out.writeBoolean(values.important());
+                out.writeLong(values.updatedAt());
+                out.writeInt(values.tags().size());
+                for (String tag : values.tags()) {
+                    out.writeUTF(tag);
+                }
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    /**
+     * Đọc _N.dvu của segment, null nếu segment chưa có doc nào bị đổi
+     */
+    static DocValueOverlay read(Segment base, Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        DocValueOverlay overlay = new DocValueOverlay(base);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != FILE_VERSION) {
+                throw new IOException("Unsupported doc-value updates in " + path);
+            }
+            for (int count = in.readInt(); count > 0; count--) {
+                int doc = in.readInt();
+                String folderId = in.readBoolean() ? in.readUTF() : null;
+                boolean important = in.readBoolean();
+                long updatedAt = in.readLong();
+                List<String> tags = new ArrayList<>();
+                for (int tagCount = in.readInt(); tagCount > 0; tagCount--) {
+                    tags.add(in.readUTF());
+                }
+                overlay.set(doc, new DocValues(folderId, important, tags, updatedAt));
+            }
+        }
+        overlay.dirty = false;
+        return overlay;
+    }
+
+    @Override
+    public int maxDoc() {
+        return base.maxDoc();
+    }
+
+    @Override
+    public int liveDocs() {
+        return base.liveDocs();
+    }
+
+    @Override
+    public boolean isDeleted(int doc) {
+        return base.isDeleted(doc);
+    }
+
+    @Override
+    public void delete(int doc) {
+        base.delete(doc);
+        clear(doc);
+    }
+
+    @Override
+    public int findDoc(String noteId) {
+        return base.findDoc(noteId);
+    }
+
+    @Override
+    public String noteId(int doc) {
+        return base.noteId(doc);
+    }
+
+    @Override
+    public String userId(int doc) {
+        return base.userId(doc);
+    }
+
+    @Override
+    public long updatedAt(int doc) {
+        Entry entry = entries.get(doc);
+        return entry != null ? entry.values().updatedAt() : base.updatedAt(doc);
+    }
+
+    @Override
+    public int fieldLength(int doc, int field) {
+        Entry entry = entries.get(doc);
+        return entry != null && field == AnalyzedNote.TAGS ? entry.tagLength() : base.fieldLength(doc, field);
+    }
+
+    @Override
+    public boolean isImportant(int doc) {
+        Entry entry = entries.get(doc);
+        return entry != null ? entry.values().important() : base.isImportant(doc);
+    }
+
+    @Override
+    public int valueCount(int doc, int facet) {
+        Entry entry = entries.get(doc);
+        if (entry == null || facet == FACET_CONTENT_TYPE) {
+            return base.valueCount(doc, facet);
+        }
+        return facet == FACET_TAG ? entry.tagOrdinals().length : entry.folderOrdinal() < 0 ? 0 : 1;
+    }
+
+    @Override
+    public int ordinal(int doc, int facet, int index) {
+        Entry entry = entries.get(doc);
+        if (entry == null || facet == FACET_CONTENT_TYPE) {
+            return base.ordinal(doc, facet, index);
+        }
+        return facet == FACET_TAG ? entry.tagOrdinals()[index] : entry.folderOrdinal();
+    }
+
+    @Override
+    public int dictionarySize(int facet) {
+        return base.dictionarySize(facet) + extraValues.get(facet).size();
+    }
+
+    @Override
+    public String dictionaryValue(int facet, int ordinal) {
+        int baseSize = base.dictionarySize(facet);
+        return ordinal < baseSize ? base.dictionaryValue(facet, ordinal) : extraValues.get(facet).get(ordinal - baseSize);
+    }
+
+    @Override
+    public int lookupOrdinal(int facet, String value) {
+        int ordinal = base.lookupOrdinal(facet, value);
+        if (ordinal >= 0) {
+            return ordinal;
+        }
+        Integer extra = extraOrdinals.get(facet).get(value);
+        return extra != null ? base.dictionarySize(facet) + extra : -1;
+    }
+
+    @Override
+    public UserStats userStats(String userId) {
+        return base.userStats(userId);
+    }
+
+    /**
+     * Term của segment gốc và term tags của overlay, theo thứ tự key
+     */
+    @Override
+    public TermIterator terms(String fromKey) {
+        TermIterator baseTerms = base.terms(fromKey);
+        Iterator<Map.Entry<String, TreeMap<Integer, Integer>>> overlayTerms =
+                tagPostings.tailMap(fromKey, true).entrySet().iterator();
+        return new TermIterator() {
+            private String baseKey = baseTerms.next() ? baseTerms.key() : null;
+            private Map.Entry<String, TreeMap<Integer, Integer>> overlayTerm = overlayTerms.hasNext() ? overlayTerms.next() : null;
+            private String key;
+            private Postings postings;
+
+            @Override
+            public boolean next() {
+                if (baseKey == null && overlayTerm == null) {
+                    return false;
+                }
+                int cmp = baseKey == null ? 1 : overlayTerm == null ? -1 : baseKey.compareTo(overlayTerm.getKey());
+                Postings basePostings = null;
+                TreeMap<Integer, Integer> added = null;
+                if (cmp <= 0) {
+                    key = baseKey;
+                    basePostings = baseTerms.postings();
+                    baseKey = baseTerms.next() ? baseTerms.key() : null;
+                }
+                if (cmp >= 0) {
+                    key = overlayTerm.getKey();
+                    added = overlayTerm.getValue();
+                    overlayTerm = overlayTerms.hasNext() ? overlayTerms.next() : null;
+                }
+                postings = Segment.isTagTerm(key) ? merge(basePostings, added) : basePostings;
+                return true;
+            }
+
+            @Override
+            public String key() {
+                return key;
+            }
+
+            @Override
+            public Postings postings() {
+                return postings;
+            }
+        };
+    }
+
+    /**
+     * Postings tags gốc bỏ các doc đã đổi, cộng postings của overlay; doc tăng dần
+     */
+    private Postings merge(Postings basePostings, TreeMap<Integer, Integer> added) {
+        int baseSize = basePostings != null ? basePostings.size() : 0;
+        int addedSize = added != null ? added.size() : 0;
+        int[] docs = new int[baseSize + addedSize];
+        int[] freqs = new int[docs.length];
+        Iterator<Map.Entry<Integer, Integer>> extra = added != null ? added.entrySet().iterator() : null;
+        Map.Entry<Integer, Integer> next = extra != null && extra.hasNext() ? extra.next() : null;
+        int size = 0;
+        for (int i = 0; i < baseSize; i++) {
+            int doc = basePostings.doc(i);
+            while (next != null && next.getKey() < doc) {
+                docs[size] = next.getKey();
+                freqs[size++] = next.getValue();
+                next = extra.hasNext() ? extra.next() : null;
+            }
+            if (!entries.containsKey(doc)) {
+                docs[size] = doc;
+                freqs[size++] = basePostings.freq(i);
+            }
+        }
+        while (next != null) {
+            docs[size] = next.getKey();
+            freqs[size++] = next.getValue();
+            next = extra.hasNext() ? extra.next() : null;
+        }
+        if (addedSize == 0 && size == baseSize) {
+            return basePostings; // không doc nào của term này bị đổi
+        }
+        int count = size;
+        return new Postings() {
+            @Override
+            public int size() {
+                return count;
+            }
+
+            @Override
+            public int doc(int index) {
+                return docs[index];
+            }
+
+            @Override
+            public int freq(int index) {
+                return freqs[index];
+            }
+        };
+    }
+}
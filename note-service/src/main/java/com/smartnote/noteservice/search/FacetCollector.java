@@ -0,0 +1,78 @@
+package com.smartnote.noteservice.search;
+
+import com.smartnote.noteservice.dto.FacetCount;
+import com.smartnote.noteservice.dto.SearchFacets;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Đếm facet trên tập doc match của từng segment
+ *
+ * Trong một segment chỉ cộng vào mảng int theo ordinal (không tạo String, không tra map);
+ * ordinal có count > 0 mới được đổi ra giá trị và cộng dồn giữa các segment.
+ */
+final class FacetCollector {
+
+    private final int maxValues;
+    private final List<Map<String, Long>> counts = List.of(new HashMap<>(), new HashMap<>(), new HashMap<>());
+    private long total;
+    private long important;
+    private long withoutFolder; // note ở thư mục gốc
+
+    FacetCollector(int maxValues) {
+        this.maxValues = maxValues;
+    }
+
+    void collect(Segment segment, BitSet docs) {
+        int[][] ordinalCounts = new int[Segment.FACET_COUNT][];
+        for (int facet = 0; facet < Segment.FACET_COUNT; facet++) {
+            ordinalCounts[facet] = new int[segment.dictionarySize(facet)];
+        }
+        for (int doc = docs.nextSetBit(0); doc >= 0; doc = docs.nextSetBit(doc + 1)) {
+            total++;
+            if (segment.isImportant(doc)) {
+                important++;
+            }
+            for (int facet = 0; facet < Segment.FACET_COUNT; facet++) {
+                int values = segment.valueCount(doc, facet);
+                for (int i = 0; i < values; i++) {
+                    ordinalCounts[facet][segment.ordinal(doc, facet, i)]++;
+                }
+                if (values == 0 && facet == Segment.FACET_FOLDER) {
+                    withoutFolder++;
+                }
+            }
+        }
+        for (int facet = 0; facet < Segment.FACET_COUNT; facet++) {
+            for (int ordinal = 0; ordinal < ordinalCounts[facet].length; ordinal++) {
+                if (ordinalCounts[facet][ordinal] > 0) {
+                    counts.get(facet).merge(segment.dictionaryValue(facet, ordinal), (long) ordinalCounts[facet][ordinal], Long::sum);
+                }
+            }
+        }
+    }
+
+    SearchFacets result() {
+        List<FacetCount> folders = top(Segment.FACET_FOLDER);
+        if (withoutFolder > 0) {
+            folders = new ArrayList<>(folders);
+            folders.add(new FacetCount(null, withoutFolder));
+            folders.sort(Comparator.comparingLong(FacetCount::getCount).reversed());
+        }
+        return new SearchFacets(total, top(Segment.FACET_TAG), folders, top(Segment.FACET_CONTENT_TYPE), important);
+    }
+
+    private List<FacetCount> top(int facet) {
+        return counts.get(facet).entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder())
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(maxValues)
+                .map(entry -> new FacetCount(entry.getKey(), entry.getValue()))
+                .toList();
+    }
+}
@@ -0,0 +1,327 @@
+package com.smartnote.noteservice.search;
+
+import com.smartnote.noteservice.dto.SearchFacets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Chấm điểm BM25 một query trên các segment của index, chỉ trong term của một user
+ *
+ * Thống kê (số doc, độ dài trung bình field, df) cộng dồn trên mọi segment nên điểm không phụ thuộc
+ * doc nằm ở segment nào. Doc đã xóa vẫn được tính vào thống kê cho tới khi segment được merge (giống Lucene).
+ * Vì thế mỗi segment chấm điểm độc lập được (Plan.collect), dùng cho search streaming theo từng segment.
+ */
+final class IndexSearcher {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // BM25F đơn giản: tổng điểm BM25 của từng field nhân boost (title, tags, content, đúng dấu)
+    private static final double[] FIELD_BOOSTS = {3.0, 2.0, 1.0, 0.5};
+    // Term mở rộng từ prefix điểm thấp hơn term gõ đầy đủ
+    private static final double PREFIX_EXPANSION_WEIGHT = 0.7;
+    private static final int MAX_PREFIX_EXPANSIONS = 64;
+    private static final int MAX_FACET_VALUES = 50;
+
+    private IndexSearcher() {
+    }
+
+    record Hit(String noteId, double score, long updatedAt) {
+    }
+
+    /**
+     * @param total  số doc match query + filter
+     * @param facets null nếu không yêu cầu facet
+     */
+    record Result(List<Hit> hits, long total, SearchFacets facets, long facetNanos) {
+    }
+
+    static Result search(List<? extends Segment> segments, String userId, SearchQuery query, SearchFilter filter,
+                         int limit, boolean withFacets) {
+        Plan plan = Plan.create(segments, userId, query);
+        if (plan == null) {
+            return empty(withFacets);
+        }
+
+        // Filter và facet chạy trên toàn bộ doc match, không chỉ top limit
+        FacetCollector facets = withFacets ? new FacetCollector(MAX_FACET_VALUES) : null;
+        long facetNanos = 0;
+        long total = 0;
+        PriorityQueue<Hit> top = new PriorityQueue<>(IndexSearcher::compareHits);
+        for (int s = 0; s < segments.size(); s++) {
+            Segment segment = segments.get(s);
+            Map<Integer, Double> scores = new HashMap<>();
+            BitSet candidates = plan.match(s, scores);
+            filter.apply(segment, candidates);
+            total += candidates.cardinality();
+            if (facets != null) {
+                long start = System.nanoTime();
+                facets.collect(segment, candidates);
+                facetNanos += System.nanoTime() - start;
+            }
+            offer(top, segment, candidates, scores, limit);
+        }
+        return new Result(ranked(top), total, facets != null ? facets.result() : null, facetNanos);
+    }
+
+    private static Result empty(boolean withFacets) {
+        return new Result(List.of(), 0, withFacets ? new FacetCollector(MAX_FACET_VALUES).result() : null, 0);
+    }
+
+    /**
+     * @return true nếu có doc của segment lọt vào top
+     */
+    private static boolean offer(PriorityQueue<Hit> top, Segment segment, BitSet candidates, Map<Integer, Double> scores,
+                                 int limit) {
+        boolean changed = false;
+        for (int doc = candidates.nextSetBit(0); doc >= 0; doc = candidates.nextSetBit(doc + 1)) {
+            double score = scores.getOrDefault(doc, 0.0);
+            if (top.size() == limit && score < top.peek().score()) {
+                continue; // khỏi đọc noteId của doc chắc chắn không vào top
+            }
+            Hit hit = new Hit(segment.noteId(doc), score, segment.updatedAt(doc));
+            if (top.size() < limit || compareHits(hit, top.peek()) > 0) {
+                top.add(hit);
+                if (top.size() > limit) {
+                    top.poll();
+                }
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    static List<Hit> ranked(PriorityQueue<Hit> top) {
+        Hit[] hits = top.toArray(new Hit[0]);
+        Arrays.sort(hits, (a, b) -> compareHits(b, a));
+        return List.of(hits);
+    }
+
+    /**
+     * Postings của key (hoặc mọi term bắt đầu bằng key khi prefix) trên từng segment,
+     * list postings đúng thứ tự segment, null ở segment không có term
+     */
+    private static Map<String, List<Segment.Postings>> expand(List<? extends Segment> segments, String key, boolean prefix) {
+        Map<String, List<Segment.Postings>> terms = new HashMap<>();
+        for (int s = 0; s < segments.size(); s++) {
+            Segment.TermIterator iterator = segments.get(s).terms(key);
+            while (iterator.next() && (prefix ? iterator.key().startsWith(key) : iterator.key().equals(key))) {
+                List<Segment.Postings> perSegment = terms.computeIfAbsent(iterator.key(),
+                        k -> new ArrayList<>(Collections.nCopies(segments.size(), null)));
+                perSegment.set(s, iterator.postings());
+                if (!prefix) {
+                    break;
+                }
+            }
+        }
+        if (terms.size() <= MAX_PREFIX_EXPANSIONS) {
+            return terms;
+        }
+        // Prefix quá ngắn: giữ term đầy đủ (nếu có) và các term phổ biến nhất
+        Map<String, List<Segment.Postings>> limited = new LinkedHashMap<>();
+        if (terms.containsKey(key)) {
+            limited.put(key, terms.get(key));
+        }
+        terms.entrySet().stream()
+                .sorted((a, b) -> Integer.compare(docFreq(b.getValue()), docFreq(a.getValue())))
+                .limit(MAX_PREFIX_EXPANSIONS)
+                .forEach(entry -> limited.putIfAbsent(entry.getKey(), entry.getValue()));
+        return limited;
+    }
+
+    private static int docFreq(List<Segment.Postings> postings) {
+        int df = 0;
+        for (Segment.Postings perSegment : postings) {
+            if (perSegment != null) {
+                df += perSegment.size();
+            }
+        }
+        return df;
+    }
+
+    // Điểm bằng nhau thì note mới sửa gần đây xếp trước
+    static int compareHits(Hit a, Hit b) {
+        int byScore = Double.compare(a.score(), b.score());
+        return byScore != 0 ? byScore : Long.compare(a.updatedAt(), b.updatedAt());
+    }
+
+    /**
+     * Query đã tra dictionary trên mọi segment: thống kê BM25 toàn cục và postings của từng term/field,
+     * chưa đọc postings nào. Sau đó mỗi segment được chấm điểm riêng.
+     */
+    static final class Plan {
+        private final List<? extends Segment> segments;
+        private final long docCount;
+        private final double[] avgLengths;
+        private final List<List<TermField>> terms = new ArrayList<>();
+
+        /**
+         * Một term (hoặc term mở rộng từ prefix) trong một field
+         * @param required false với field đúng dấu: chỉ cộng điểm, không bắt buộc match
+         */
+        private record TermField(int field, double weight, double idf, List<Segment.Postings> postings, boolean required) {
+        }
+
+        private Plan(List<? extends Segment> segments, long docCount, double[] avgLengths) {
+            this.segments = segments;
+            this.docCount = docCount;
+            this.avgLengths = avgLengths;
+        }
+
+        /**
+         * @return null nếu user không có doc nào hoặc query rỗng
+         */
+        static Plan create(List<? extends Segment> segments, String userId, SearchQuery query) {
+            if (query.isEmpty()) {
+                return null;
+            }
+            long docCount = 0;
+            long[] lengthSums = new long[AnalyzedNote.FIELD_COUNT];
+            for (Segment segment : segments) {
+                Segment.UserStats stats = segment.userStats(userId);
+                if (stats != null) {
+                    docCount += stats.docCount();
+                    for (int field = 0; field < lengthSums.length; field++) {
+                        lengthSums[field] += stats.fieldLengthSums()[field];
+                    }
+                }
+            }
+            if (docCount == 0) {
+                return null;
+            }
+            double[] avgLengths = new double[lengthSums.length];
+            for (int field = 0; field < avgLengths.length; field++) {
+                avgLengths[field] = Math.max(1.0, (double) lengthSums[field] / docCount);
+            }
+            Plan plan = new Plan(segments, docCount, avgLengths);
+
+            for (SearchQuery.Term term : query.terms()) {
+                List<TermField> fields = new ArrayList<>();
+                for (int field = AnalyzedNote.TITLE; field <= AnalyzedNote.CONTENT; field++) {
+                    String key = Segment.termKey(userId, AnalyzedNote.key(field, term.term()));
+                    for (Map.Entry<String, List<Segment.Postings>> entry : expand(segments, key, term.prefix()).entrySet()) {
+                        double weight = entry.getKey().equals(key) ? 1.0 : PREFIX_EXPANSION_WEIGHT;
+                        fields.add(plan.termField(field, weight, entry.getValue(), true));
+                    }
+                }
+                if (term.exact() != null) {
+                    // Đúng dấu chỉ cộng điểm, không bắt buộc
+                    String key = Segment.termKey(userId, AnalyzedNote.key(AnalyzedNote.EXACT, term.exact()));
+                    List<Segment.Postings> exact = expand(segments, key, false).get(key);
+                    if (exact != null) {
+                        fields.add(plan.termField(AnalyzedNote.EXACT, 1.0, exact, false));
+                    }
+                }
+                plan.terms.add(fields);
+            }
+            return plan;
+        }
+
+        private TermField termField(int field, double weight, List<Segment.Postings> postings, boolean required) {
+            int df = docFreq(postings);
+            double idf = Math.log(1 + (docCount - df + 0.5) / (df + 0.5));
+            return new TermField(field, weight, idf, postings, required);
+        }
+
+        /**
+         * Điểm tối đa một doc của segment s có thể đạt (tf bão hòa ở K1 + 1 trên mọi term/field segment có postings),
+         * 0 nếu segment thiếu hẳn một term nên không doc nào match được
+         */
+        double upperBound(int s) {
+            double bound = 0;
+            for (List<TermField> fields : terms) {
+                boolean present = false;
+                for (TermField termField : fields) {
+                    if (termField.postings().get(s) != null) {
+                        present |= termField.required();
+                        bound += FIELD_BOOSTS[termField.field()] * termField.weight() * termField.idf() * (K1 + 1);
+                    }
+                }
+                if (!present) {
+                    return 0;
+                }
+            }
+            return bound;
+        }
+
+        /**
+         * AND mọi term trong segment s, điểm của doc match được cộng vào scores
+         */
+        BitSet match(int s, Map<Integer, Double> scores) {
+            BitSet candidates = null;
+            for (List<TermField> fields : terms) {
+                BitSet matched = new BitSet();
+                for (TermField termField : fields) {
+                    score(s, termField, candidates, termField.required() ? matched : null, scores);
+                }
+                candidates = matched;
+                if (candidates.isEmpty()) {
+                    break;
+                }
+            }
+            return candidates != null ? candidates : new BitSet();
+        }
+
+        /**
+         * Chấm segment s và đưa doc vào top
+         * @return true nếu top thay đổi
+         */
+        boolean collect(int s, PriorityQueue<Hit> top, int limit) {
+            Map<Integer, Double> scores = new HashMap<>();
+            return offer(top, segments.get(s), match(s, scores), scores, limit);
+        }
+
+        /**
+         * Thứ tự chấm segment cho streaming: bỏ segment không thể match, segment có cận trên cao trước
+         * (rồi segment nhỏ trước để kết quả đầu tiên ra nhanh)
+         */
+        List<Integer> segmentOrder() {
+            List<Integer> order = new ArrayList<>();
+            double[] bounds = new double[segments.size()];
+            for (int s = 0; s < segments.size(); s++) {
+                bounds[s] = upperBound(s);
+                if (bounds[s] > 0) {
+                    order.add(s);
+                }
+            }
+            order.sort(Comparator.<Integer>comparingDouble(s -> -bounds[s])
+                    .thenComparingInt(s -> segments.get(s).maxDoc()));
+            return order;
+        }
+
+        int segmentCount() {
+            return segments.size();
+        }
+
+        private void score(int s, TermField termField, BitSet candidates, BitSet matched, Map<Integer, Double> scores) {
+            Segment.Postings postings = termField.postings().get(s);
+            if (postings == null) {
+                return;
+            }
+            Segment segment = segments.get(s);
+            int field = termField.field();
+            double factor = FIELD_BOOSTS[field] * termField.weight() * termField.idf();
+            for (int i = 0; i < postings.size(); i++) {
+                int doc = postings.doc(i);
+                if (segment.isDeleted(doc) || (candidates != null && !candidates.get(doc))) {
+                    continue;
+                }
+                int freq = postings.freq(i);
+                double norm = K1 * (1 - B + B * segment.fieldLength(doc, field) / avgLengths[field]);
+                scores.merge(doc, factor * (freq * (K1 + 1)) / (freq + norm), Double::sum);
+                if (matched != null) {
+                    matched.set(doc);
+                }
+            }
+        }
+    }
+}
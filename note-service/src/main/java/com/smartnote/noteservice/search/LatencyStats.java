@@ -0,0 +1,40 @@
+package com.smartnote.noteservice.search;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Giữ độ trễ của 1024 lần đo gần nhất (ring buffer, không lock) để báo p50/p99 trong stats
+ */
+public final class LatencyStats {
+
+    private static final int SAMPLES = 1024;
+
+    private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+    private final AtomicLong count = new AtomicLong();
+
+    public void record(long nanos) {
+        long index = count.getAndIncrement();
+        samples.set((int) (index % SAMPLES), nanos);
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * @return micro giây, 0 nếu chưa có mẫu nào
+     */
+    public long percentileMicros(double quantile) {
+        long[] sorted = new long[(int) Math.min(count.get(), SAMPLES)];
+        if (sorted.length == 0) {
+            return 0;
+        }
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = samples.get(i);
+        }
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1)] / 1000;
+    }
+}
@@ -0,0 +1,432 @@
+package com.smartnote.noteservice.search;
+
+import com.smartnote.noteservice.dto.SearchFacets;
+import com.smartnote.noteservice.model.Note;
+import com.smartnote.noteservice.service.NoteContentStore;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Full-text search index cho note, nằm trong process, lưu thành các segment trên disk (SegmentedIndex)
+ *
+ * - Start: mở commit gần nhất (memory-map, không đọc lại dữ liệu) rồi chỉ sync các note đổi sau watermark
+ *   của commit đó. Chỉ build lại toàn bộ từ Mongo khi chưa có commit đầy đủ.
+ * - NoteService gọi index/remove/reindex sau mỗi thay đổi
+ * - Job sync định kỳ bắt các thay đổi ghi thẳng vào Mongo từ service khác (collab-service sửa content)
+ *   dựa trên updated_at
+ * - Flush/merge/commit chạy trên một thread nền riêng
+ */
+@Component
+public class NoteSearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(NoteSearchIndex.class);
+
+    private static final int SYNC_BATCH_SIZE = 1000;
+    // Lùi watermark một chút để không lỡ các write có updated_at cũ hơn nhưng commit sau
+    private static final long SYNC_OVERLAP_SECONDS = 5;
+
+    private final MongoTemplate mongoTemplate;
+    private final TitleAutocomplete titleAutocomplete;
+    private final NoteContentStore noteContentStore;
+    private final boolean enabled;
+    private final Path indexDir;
+    private final int flushDocs;
+    private final int mergeFactor;
+    private final long maxMergedSegmentBytes;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("search-index-writer").daemon().factory());
+    private final AtomicBoolean flushPending = new AtomicBoolean();
+
+    private volatile SegmentedIndex index;
+    private volatile boolean ready;
+    private volatile LocalDateTime syncWatermark;
+    // Note đã sync nằm trong khoảng overlap (id -> updated_at): lần sync sau không index lại lần nữa
+    private final Map<String, LocalDateTime> recentlySynced = new ConcurrentHashMap<>();
+    private final AtomicLong indexedCount = new AtomicLong();
+    private final AtomicLong searchCount = new AtomicLong();
+    private final AtomicLong facetNanos = new AtomicLong();
+
+    /**
+     * noteIds theo thứ tự điểm BM25 giảm dần; total và facets tính trên mọi note match
+     */
+    public record Results(List<String> noteIds, long total, SearchFacets facets) {
+    }
+
+    /**
+     * Kết quả của một lần search streaming: segmentsScored / segmentCount cho thấy dừng sớm tiết kiệm được bao nhiêu
+     */
+    public record StreamSummary(int segmentsScored, int segmentCount, boolean terminatedEarly, boolean cancelled) {
+    }
+
+    public NoteSearchIndex(MongoTemplate mongoTemplate,
+                           TitleAutocomplete titleAutocomplete,
+                           NoteContentStore noteContentStore,
+                           @Value("${app.search.enabled:true}") boolean enabled,
+                           @Value("${app.search.index-dir:./data/search-index}") String indexDir,
+                           @Value("${app.search.flush-docs:5000}") int flushDocs,
+                           @Value("${app.search.merge-factor:8}") int mergeFactor,
+                           @Value("${app.search.max-merged-segment-mb:512}") long maxMergedSegmentMb) {
+        this.mongoTemplate = mongoTemplate;
+        this.titleAutocomplete = titleAutocomplete;
+        this.noteContentStore = noteContentStore;
+        this.enabled = enabled;
+        this.indexDir = Paths.get(indexDir);
+        this.flushDocs = flushDocs;
+        this.mergeFactor = mergeFactor;
+        this.maxMergedSegmentBytes = maxMergedSegmentMb * 1024 * 1024;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            index = SegmentedIndex.open(indexDir, mergeFactor, maxMergedSegmentBytes);
+        } catch (IOException | RuntimeException e) {
+            // Index hỏng hoặc khác version: bỏ đi và build lại từ Mongo
+            log.warn("Search index at {} unreadable, rebuilding: {}", indexDir, e.getMessage());
+            SegmentedIndex.wipe(indexDir);
+            index = SegmentedIndex.open(indexDir, mergeFactor, maxMergedSegmentBytes);
+        }
+        if (index.committedWatermark() != null) {
+            syncWatermark = index.committedWatermark();
+            ready = true;
+        }
+        log.info("🔎 Search index opened in {} ms: {}", System.currentTimeMillis() - start, index.getStats());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        if (!enabled) {
+            return;
+        }
+        if (ready) {
+            // Bắt kịp các thay đổi trong lúc service tắt
+            Thread.ofVirtual().name("search-index-catch-up").start(this::syncChanges);
+        } else {
+            Thread.ofVirtual().name("search-index-build").start(this::rebuild);
+        }
+    }
+
+    /**
+     * Build lại toàn bộ index từ Mongo (khi chưa có commit đầy đủ)
+     */
+    public void rebuild() {
+        long start = System.currentTimeMillis();
+        LocalDateTime startedAt = LocalDateTime.now();
+        try {
+            index.clear();
+            Query query = Query.query(Criteria.where("isDeleted").ne(true));
+            query.fields().exclude("shares", "metadata");
+            AtomicLong count = new AtomicLong();
+            try (Stream<Note> notes = mongoTemplate.stream(query, Note.class)) {
+                notes.forEach(note -> {
+                    index(note);
+                    count.incrementAndGet();
+                });
+            }
+            syncWatermark = startedAt;
+            ready = true;
+            requestFlush();
+            log.info("🔎 Search index built: {} notes in {} ms", count.get(), System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("Search index build failed: {}", e.getMessage());
+        }
+    }
+
+    public void index(Note note) {
+        if (!enabled || note == null || note.getId() == null) {
+            return;
+        }
+        if (Boolean.TRUE.equals(note.getIsDeleted()) || note.getCreatedBy() == null) {
+            remove(note.getId());
+            return;
+        }
+        index.upsert(analyze(note));
+        titleAutocomplete.update(note);
+        indexedCount.incrementAndGet();
+        if (index.bufferedDocs() >= flushDocs) {
+            requestFlush();
+        }
+    }
+
+    /**
+     * Note có content lớn: content nằm trong GridFS, phân tích thẳng từ stream.
+     * Không đọc được file thì ít nhất index content_preview
+     */
+    private AnalyzedNote analyze(Note note) {
+        if (note.getContentRef() == null || note.getContent() != null) {
+            return AnalyzedNote.of(note);
+        }
+        try (Reader content = new InputStreamReader(noteContentStore.open(note.getContentRef()), StandardCharsets.UTF_8)) {
+            return AnalyzedNote.of(note, content);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot read content of note {} for search, indexing preview: {}", note.getId(), e.getMessage());
+            return AnalyzedNote.of(note, note.getContentPreview());
+        }
+    }
+
+    public void remove(String noteId) {
+        if (enabled) {
+            index.delete(noteId);
+            titleAutocomplete.remove(noteId);
+        }
+    }
+
+    /**
+     * Đọc lại note từ Mongo rồi index, dùng sau các update không trả về content (patch, move)
+     */
+    public void reindex(Collection<String> noteIds) {
+        if (!enabled || noteIds.isEmpty()) {
+            return;
+        }
+        Query query = Query.query(Criteria.where("id").in(noteIds));
+        query.fields().exclude("shares", "metadata");
+        Set<String> missing = new HashSet<>(noteIds);
+        for (Note note : mongoTemplate.find(query, Note.class)) {
+            missing.remove(note.getId());
+            index(note);
+        }
+        missing.forEach(this::remove);
+    }
+
+    /**
+     * PATCH không đổi title/content (star, tags, folder): chỉ đổi doc-value của note đã index,
+     * không đọc lại content và không phân tích lại text. note là kết quả update (không cần content)
+     */
+    public void updateDocValues(Note note) {
+        if (!enabled || note == null || note.getId() == null) {
+            return;
+        }
+        long updatedAt = AnalyzedNote.epochMillis(note.getUpdatedAt());
+        Segment.DocValues values = new Segment.DocValues(note.getFolderId(),
+                Boolean.TRUE.equals(note.getIsImportant()),
+                note.getTags() != null ? AnalyzedNote.facetTags(note.getTags()) : List.of(), updatedAt);
+        if (!index.updateDocValues(note.getId(), note.getCreatedBy(), current -> values)) {
+            reindex(List.of(note.getId()));
+            return;
+        }
+        titleAutocomplete.updateFolder(note.getCreatedBy(), note.getId(), note.getFolderId(), note.getUpdatedAt());
+        markSynced(note.getId(), note.getUpdatedAt());
+    }
+
+    /**
+     * Move nhiều note: chỉ đổi folder và updatedAt trong index, giữ nguyên tags/isImportant
+     */
+    public void updateFolder(String userId, Collection<String> noteIds, String folderId, LocalDateTime updatedAt) {
+        if (!enabled || noteIds.isEmpty()) {
+            return;
+        }
+        long updated = AnalyzedNote.epochMillis(updatedAt);
+        List<String> missing = new ArrayList<>();
+        for (String noteId : noteIds) {
+            if (index.updateDocValues(noteId, userId, current ->
+                    new Segment.DocValues(folderId, current.important(), current.tags(), updated))) {
+                titleAutocomplete.updateFolder(userId, noteId, folderId, updatedAt);
+                markSynced(noteId, updatedAt);
+            } else {
+                missing.add(noteId);
+            }
+        }
+        // Note chưa có trong index (hoặc không thuộc user): đọc lại từ Mongo như trước
+        reindex(missing);
+    }
+
+    /**
+     * Sync định kỳ sẽ thấy updated_at mới của note vừa đổi tại chỗ: ghi lại để không index lại lần nữa
+     */
+    private void markSynced(String noteId, LocalDateTime updatedAt) {
+        if (updatedAt != null) {
+            recentlySynced.put(noteId, updatedAt);
+        }
+    }
+
+    /**
+     * Bắt các note đổi updated_at kể từ lần sync trước (kể cả note bị xóa mềm).
+     * Duyệt theo keyset (updated_at, _id) nên các note trùng updated_at ở ranh giới batch không bị bỏ sót;
+     * watermark tiến tới updated_at lớn nhất đã thấy sau mỗi batch
+     * @return số note được index lại
+     */
+    @Scheduled(fixedDelayString = "${app.search.sync-interval-ms:10000}",
+            initialDelayString = "${app.search.sync-interval-ms:10000}")
+    public synchronized int syncChanges() {
+        if (!enabled || !ready) {
+            return 0;
+        }
+        LocalDateTime from = syncWatermark.minusSeconds(SYNC_OVERLAP_SECONDS);
+        int synced = 0;
+        try {
+            LocalDateTime lastUpdatedAt = null;
+            String lastId = null;
+            while (true) {
+                Criteria criteria = lastId == null
+                        ? Criteria.where("updatedAt").gte(from)
+                        : new Criteria().orOperator(
+                                Criteria.where("updatedAt").gt(lastUpdatedAt),
+                                Criteria.where("updatedAt").is(lastUpdatedAt).and("id").gt(lastId));
+                Query query = Query.query(criteria)
+                        .with(Sort.by(Sort.Direction.ASC, "updatedAt", "id"))
+                        .limit(SYNC_BATCH_SIZE);
+                query.fields().exclude("shares", "metadata");
+                List<Note> changed = mongoTemplate.find(query, Note.class);
+                for (Note note : changed) {
+                    if (!note.getUpdatedAt().equals(recentlySynced.get(note.getId()))) {
+                        index(note);
+                        recentlySynced.put(note.getId(), note.getUpdatedAt());
+                        synced++;
+                    }
+                }
+                if (!changed.isEmpty()) {
+                    Note last = changed.get(changed.size() - 1);
+                    lastUpdatedAt = last.getUpdatedAt();
+                    lastId = last.getId();
+                    if (lastUpdatedAt.isAfter(syncWatermark)) {
+                        syncWatermark = lastUpdatedAt;
+                    }
+                }
+                if (changed.size() < SYNC_BATCH_SIZE) {
+                    break;
+                }
+            }
+            LocalDateTime overlapStart = syncWatermark.minusSeconds(SYNC_OVERLAP_SECONDS);
+            recentlySynced.values().removeIf(updatedAt -> updatedAt.isBefore(overlapStart));
+            if (synced > 0) {
+                log.debug("Search index synced {} changed notes", synced);
+            }
+        } catch (Exception e) {
+            log.warn("Search index sync failed: {}", e.getMessage());
+        }
+        return synced;
+    }
+
+    /**
+     * Flush buffer + commit định kỳ để restart chỉ phải sync một khoảng ngắn
+     */
+    @Scheduled(fixedDelayString = "${app.search.commit-interval-ms:30000}",
+            initialDelayString = "${app.search.commit-interval-ms:30000}")
+    public void scheduledCommit() {
+        if (enabled && ready) {
+            requestFlush();
+        }
+    }
+
+    private void requestFlush() {
+        if (flushPending.compareAndSet(false, true)) {
+            writer.submit(this::flushAndMerge);
+        }
+    }
+
+    private void flushAndMerge() {
+        flushPending.set(false);
+        try {
+            index.flush(() -> ready ? syncWatermark : null);
+            while (index.maybeMerge()) {
+                // merge tiếp cho tới khi không còn segment cần merge
+            }
+        } catch (Exception e) {
+            log.error("Search index flush failed: {}", e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void close() throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        // Flush lần cuối để lần start sau không phải sync lại
+        writer.submit(this::flushAndMerge);
+        writer.shutdown();
+        if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+            log.warn("Search index writer did not finish before shutdown");
+        }
+    }
+
+    /**
+     * Search trong note của userId, kèm facet (tag, folder, contentType, isImportant) của toàn bộ kết quả
+     */
+    public Results search(String userId, String query, SearchFilter filter, int limit) {
+        searchCount.incrementAndGet();
+        SearchQuery parsed = SearchQuery.parse(query);
+        if (!enabled || parsed.isEmpty()) {
+            return new Results(List.of(), 0, null);
+        }
+        IndexSearcher.Result result = index.search(userId, parsed, filter, limit, true);
+        facetNanos.addAndGet(result.facetNanos());
+        return new Results(result.hits().stream().map(IndexSearcher.Hit::noteId).toList(), result.total(), result.facets());
+    }
+
+    /**
+     * Search từng segment, gọi onUpdate với top hiện tại (noteId theo điểm giảm dần) mỗi khi top đổi.
+     * Không tính facet vì facet cần duyệt hết mọi segment.
+     * @param cancelled được kiểm tra giữa các segment, true thì dừng ngay
+     */
+    public StreamSummary searchStream(String userId, String query, int limit,
+                                      Consumer<List<String>> onUpdate, BooleanSupplier cancelled) {
+        searchCount.incrementAndGet();
+        SearchQuery parsed = SearchQuery.parse(query);
+        if (!enabled || parsed.isEmpty()) {
+            return new StreamSummary(0, 0, false, false);
+        }
+        SegmentedIndex.StreamResult result = index.searchStream(userId, parsed, limit,
+                // Note sửa trong lúc stream có thể có cả bản cũ lẫn bản mới trong top
+                hits -> onUpdate.accept(hits.stream().map(IndexSearcher.Hit::noteId).distinct().toList()),
+                cancelled);
+        return new StreamSummary(result.segmentsScored(), result.segmentCount(), result.terminatedEarly(), result.cancelled());
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("ready", ready);
+        stats.put("indexed", indexedCount.get());
+        stats.put("searches", searchCount.get());
+        stats.put("avgFacetMicros", searchCount.get() == 0 ? 0 : facetNanos.get() / searchCount.get() / 1000);
+        stats.put("syncWatermark", syncWatermark);
+        if (index != null) {
+            stats.putAll(index.getStats());
+        }
+        return stats;
+    }
+}
@@ -0,0 +1,62 @@
+package com.smartnote.noteservice.search;
+
+import java.util.BitSet;
+
+/**
+ * Filter của sidebar đi kèm query, áp lên doc-value của segment (không query lại Mongo)
+ * Field null = không lọc theo field đó
+ */
+public record SearchFilter(String tag, String folderId, String contentType, Boolean important) {
+
+    public static final SearchFilter NONE = new SearchFilter(null, null, null, null);
+
+    public boolean isEmpty() {
+        return tag == null && folderId == null && contentType == null && important == null;
+    }
+
+    /**
+     * Bỏ khỏi docs các doc không thỏa filter. Giá trị được đổi sang ordinal một lần cho cả segment,
+     * sau đó mỗi doc chỉ là so sánh int
+     */
+    void apply(Segment segment, BitSet docs) {
+        if (isEmpty()) {
+            return;
+        }
+        int tagOrdinal = ordinal(segment, Segment.FACET_TAG, tag);
+        int folderOrdinal = ordinal(segment, Segment.FACET_FOLDER, folderId);
+        int contentTypeOrdinal = ordinal(segment, Segment.FACET_CONTENT_TYPE, contentType);
+        if (tagOrdinal == -1 || folderOrdinal == -1 || contentTypeOrdinal == -1) {
+            docs.clear(); // segment không có giá trị cần lọc
+            return;
+        }
+        for (int doc = docs.nextSetBit(0); doc >= 0; doc = docs.nextSetBit(doc + 1)) {
+            if ((important != null && segment.isImportant(doc) != important)
+                    || !single(segment, doc, Segment.FACET_FOLDER, folderOrdinal)
+                    || !single(segment, doc, Segment.FACET_CONTENT_TYPE, contentTypeOrdinal)
+                    || !hasTag(segment, doc, tagOrdinal)) {
+                docs.clear(doc);
+            }
+        }
+    }
+
+    // -2 = không lọc theo facet này
+    private static int ordinal(Segment segment, int facet, String value) {
+        return value == null ? -2 : segment.lookupOrdinal(facet, value);
+    }
+
+    private static boolean single(Segment segment, int doc, int facet, int ordinal) {
+        return ordinal == -2 || (segment.valueCount(doc, facet) == 1 && segment.ordinal(doc, facet, 0) == ordinal);
+    }
+
+    private static boolean hasTag(Segment segment, int doc, int ordinal) {
+        if (ordinal == -2) {
+            return true;
+        }
+        for (int i = segment.valueCount(doc, Segment.FACET_TAG) - 1; i >= 0; i--) {
+            if (segment.ordinal(doc, Segment.FACET_TAG, i) == ordinal) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
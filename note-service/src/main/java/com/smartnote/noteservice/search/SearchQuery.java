@@ -0,0 +1,44 @@
+package com.smartnote.noteservice.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Query đã phân tích: mọi term đều phải match (AND), term có prefix=true match mọi term bắt đầu bằng nó
+ *
+ * - "abc*" là prefix query
+ * - Term cuối cũng là prefix nếu query không kết thúc bằng khoảng trắng (search-as-you-type)
+ */
+public record SearchQuery(List<Term> terms) {
+
+    public record Term(String term, String exact, boolean prefix) {
+    }
+
+    public static SearchQuery parse(String query) {
+        Map<String, Term> terms = new LinkedHashMap<>();
+        if (query == null || query.isBlank()) {
+            return new SearchQuery(List.of());
+        }
+        boolean trailingSpace = Character.isWhitespace(query.charAt(query.length() - 1));
+        String[] parts = query.trim().split("\\s+");
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            boolean prefix = part.endsWith("*") || (i == parts.length - 1 && !trailingSpace);
+            List<TextAnalyzer.Token> tokens = TextAnalyzer.analyze(part);
+            for (int j = 0; j < tokens.size(); j++) {
+                TextAnalyzer.Token token = tokens.get(j);
+                // "e-mail" -> "e", "mail": chỉ token cuối của phần đó mới là prefix
+                boolean tokenPrefix = prefix && j == tokens.size() - 1;
+                terms.merge(token.term(), new Term(token.term(), token.exact(), tokenPrefix),
+                        (a, b) -> new Term(a.term(), a.exact() != null ? a.exact() : b.exact(), a.prefix() && b.prefix()));
+            }
+        }
+        return new SearchQuery(new ArrayList<>(terms.values()));
+    }
+
+    public boolean isEmpty() {
+        return terms.isEmpty();
+    }
+}
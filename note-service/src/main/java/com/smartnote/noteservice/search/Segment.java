@@ -0,0 +1,131 @@
+package com.smartnote.noteservice.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Một segment của search index: buffer trong memory (BufferSegment) hoặc segment bất biến trên disk (DiskSegment)
+ *
+ * Term key = userId + '\0' + số field + term, dictionary sắp theo String.compareTo nên mọi term của
+ * một user (và mọi term cùng prefix) nằm liền nhau.
+ * Doc bị xóa chỉ được đánh dấu (tombstone), dữ liệu và thống kê vẫn còn cho tới khi segment được merge.
+ *
+ * Facet (folder, contentType, tag) lưu dạng doc-value: mỗi segment có dictionary giá trị riêng,
+ * doc chỉ giữ ordinal trong dictionary đó nên đếm facet chỉ là cộng mảng int. isImportant là một bitset.
+ * Folder, tag, isImportant và updatedAt đổi được tại chỗ (BufferSegment sửa trực tiếp, DiskSegment qua DocValueOverlay).
+ */
+interface Segment {
+
+    int FACET_FOLDER = 0;
+    int FACET_CONTENT_TYPE = 1;
+    int FACET_TAG = 2;
+    int FACET_COUNT = 3;
+
+    int maxDoc();
+
+    int liveDocs();
+
+    boolean isDeleted(int doc);
+
+    void delete(int doc);
+
+    /**
+     * @return doc còn sống của noteId, -1 nếu không có
+     */
+    int findDoc(String noteId);
+
+    String noteId(int doc);
+
+    String userId(int doc);
+
+    long updatedAt(int doc);
+
+    int fieldLength(int doc, int field);
+
+    boolean isImportant(int doc);
+
+    /**
+     * Số giá trị của doc trong facet: folder/contentType 0 hoặc 1 (0 = null), tag nhiều giá trị
+     */
+    int valueCount(int doc, int facet);
+
+    int ordinal(int doc, int facet, int index);
+
+    int dictionarySize(int facet);
+
+    String dictionaryValue(int facet, int ordinal);
+
+    /**
+     * @return ordinal của value trong dictionary của segment, -1 nếu không có
+     */
+    int lookupOrdinal(int facet, String value);
+
+    /**
+     * @return null nếu segment không có doc nào của userId
+     */
+    UserStats userStats(String userId);
+
+    /**
+     * Duyệt dictionary theo thứ tự từ fromKey (inclusive)
+     */
+    TermIterator terms(String fromKey);
+
+    /**
+     * Số doc và tổng độ dài từng field của một user trong segment, dùng cho BM25
+     */
+    record UserStats(int docCount, long[] fieldLengthSums) {
+    }
+
+    /**
+     * Các doc-value đổi được mà không phải phân tích lại title/content; tags là danh sách nguyên bản (đã bỏ trùng)
+     */
+    record DocValues(String folderId, boolean important, List<String> tags, long updatedAt) {
+    }
+
+    interface TermIterator {
+
+        boolean next();
+
+        String key();
+
+        Postings postings();
+    }
+
+    interface Postings {
+
+        int size();
+
+        int doc(int index);
+
+        int freq(int index);
+    }
+
+    static String termKey(String userId, String fieldTerm) {
+        return userId + '\0' + fieldTerm;
+    }
+
+    /**
+     * Giá trị đơn của folder/contentType, null nếu doc không có
+     */
+    static String singleValue(Segment segment, int doc, int facet) {
+        return segment.valueCount(doc, facet) == 0 ? null
+                : segment.dictionaryValue(facet, segment.ordinal(doc, facet, 0));
+    }
+
+    static DocValues docValues(Segment segment, int doc) {
+        List<String> tags = new ArrayList<>();
+        for (int i = 0; i < segment.valueCount(doc, FACET_TAG); i++) {
+            tags.add(segment.dictionaryValue(FACET_TAG, segment.ordinal(doc, FACET_TAG, i)));
+        }
+        return new DocValues(singleValue(segment, doc, FACET_FOLDER), segment.isImportant(doc), tags,
+                segment.updatedAt(doc));
+    }
+
+    /**
+     * Term thuộc field tags (key = userId + '\0' + số field + term)
+     */
+    static boolean isTagTerm(String key) {
+        int separator = key.indexOf('\0');
+        return separator >= 0 && separator + 1 < key.length() && key.charAt(separator + 1) == '0' + AnalyzedNote.TAGS;
+    }
+}
@@ -0,0 +1,328 @@
+package com.smartnote.noteservice.search;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+/**
+ * Ghi một hoặc nhiều segment nguồn thành một DiskSegment (flush buffer, hoặc merge các segment nhỏ)
+ *
+ * Doc mới được đánh số theo thứ tự segment nguồn rồi doc cũ, nên nối postings của các nguồn
+ * theo đúng thứ tự đó vẫn giữ doc tăng dần. Term dictionary được merge k-way từ các nguồn đã sắp sẵn.
+ * Dictionary facet là hợp các dictionary nguồn (sắp theo giá trị), ordinal của nguồn được ánh xạ sang ordinal mới.
+ */
+final class SegmentWriter {
+
+    private SegmentWriter() {
+    }
+
+    /**
+     * @param dropDeleted true khi merge: bỏ hẳn doc đã xóa. Khi flush giữ nguyên doc id để chuyển tombstone
+     * @return docMaps[nguồn][doc cũ] = doc mới, -1 nếu doc bị bỏ
+     */
+    static int[][] write(Path directory, long generation, List<? extends Segment> sources, boolean dropDeleted)
+            throws IOException {
+        int[][] docMaps = new int[sources.size()][];
+        List<int[]> order = new ArrayList<>(); // doc mới -> [nguồn, doc cũ]
+        for (int s = 0; s < sources.size(); s++) {
+            Segment source = sources.get(s);
+            docMaps[s] = new int[source.maxDoc()];
+            for (int doc = 0; doc < source.maxDoc(); doc++) {
+                if (dropDeleted && source.isDeleted(doc)) {
+                    docMaps[s][doc] = -1;
+                } else {
+                    docMaps[s][doc] = order.size();
+                    order.add(new int[]{s, doc});
+                }
+            }
+        }
+        int docCount = order.size();
+
+        // ordinalMaps[facet][nguồn][ordinal cũ] = ordinal mới
+        List<List<String>> dictionaries = new ArrayList<>();
+        int[][][] ordinalMaps = new int[Segment.FACET_COUNT][][];
+        for (int facet = 0; facet < Segment.FACET_COUNT; facet++) {
+            TreeMap<String, Integer> values = new TreeMap<>();
+            for (Segment source : sources) {
+                for (int ordinal = 0; ordinal < source.dictionarySize(facet); ordinal++) {
+                    values.put(source.dictionaryValue(facet, ordinal), 0);
+                }
+            }
+            int next = 0;
+            for (Map.Entry<String, Integer> entry : values.entrySet()) {
+                entry.setValue(next++);
+            }
+            dictionaries.add(new ArrayList<>(values.keySet()));
+            ordinalMaps[facet] = new int[sources.size()][];
+            for (int s = 0; s < sources.size(); s++) {
+                Segment source = sources.get(s);
+                ordinalMaps[facet][s] = new int[source.dictionarySize(facet)];
+                for (int ordinal = 0; ordinal < ordinalMaps[facet][s].length; ordinal++) {
+                    ordinalMaps[facet][s][ordinal] = values.get(source.dictionaryValue(facet, ordinal));
+                }
+            }
+        }
+
+        StringTable strings = new StringTable();
+        ByteBuffer docs = ByteBuffer.allocate(docCount * DiskSegment.DOC_BYTES);
+        ByteBuffer important = ByteBuffer.allocate((docCount + 63) / 64 * 8);
+        long[] importantBits = new long[(docCount + 63) / 64];
+        ByteArrayOutputStream tagOrdinalBytes = new ByteArrayOutputStream();
+        DataOutputStream tagOrdinals = new DataOutputStream(tagOrdinalBytes);
+        int tagOrdinalCount = 0;
+        String[] noteIds = new String[docCount];
+        TreeMap<String, long[]> users = new TreeMap<>();
+        for (int newDoc = 0; newDoc < docCount; newDoc++) {
+            int s = order.get(newDoc)[0];
+            Segment source = sources.get(s);
+            int doc = order.get(newDoc)[1];
+            noteIds[newDoc] = source.noteId(doc);
+            String userId = source.userId(doc);
+
+            docs.putInt(strings.add(noteIds[newDoc], false));
+            docs.putInt(strings.add(userId, true));
+            docs.putLong(source.updatedAt(doc));
+            long[] stats = users.computeIfAbsent(userId, id -> new long[1 + AnalyzedNote.FIELD_COUNT]);
+            stats[0]++;
+            for (int field = 0; field < AnalyzedNote.FIELD_COUNT; field++) {
+                int length = source.fieldLength(doc, field);
+                docs.putInt(length);
+                stats[1 + field] += length;
+            }
+            for (int facet : new int[]{Segment.FACET_FOLDER, Segment.FACET_CONTENT_TYPE}) {
+                docs.putInt(source.valueCount(doc, facet) == 0 ? -1
+                        : ordinalMaps[facet][s][source.ordinal(doc, facet, 0)]);
+            }
+            int tagCount = source.valueCount(doc, Segment.FACET_TAG);
+            docs.putInt(tagOrdinalCount);
+            docs.putInt(tagCount);
+            for (int i = 0; i < tagCount; i++) {
+                tagOrdinals.writeInt(ordinalMaps[Segment.FACET_TAG][s][source.ordinal(doc, Segment.FACET_TAG, i)]);
+            }
+            tagOrdinalCount += tagCount;
+            if (source.isImportant(doc)) {
+                importantBits[newDoc >>> 6] |= 1L << newDoc;
+            }
+        }
+        important.asLongBuffer().put(importantBits);
+
+        ByteBuffer dictionaryTable = ByteBuffer.allocate(4 * Segment.FACET_COUNT
+                + 4 * dictionaries.stream().mapToInt(List::size).sum());
+        for (List<String> dictionary : dictionaries) {
+            dictionaryTable.putInt(dictionary.size());
+        }
+        for (List<String> dictionary : dictionaries) {
+            for (String value : dictionary) {
+                dictionaryTable.putInt(strings.add(value, true));
+            }
+        }
+
+        Integer[] byNoteId = new Integer[docCount];
+        for (int i = 0; i < docCount; i++) {
+            byNoteId[i] = i;
+        }
+        Arrays.sort(byNoteId, Comparator.comparing(doc -> noteIds[doc]));
+        ByteBuffer ids = ByteBuffer.allocate(docCount * 4);
+        for (Integer doc : byNoteId) {
+            ids.putInt(doc);
+        }
+
+        ByteBuffer userTable = ByteBuffer.allocate(users.size() * DiskSegment.USER_BYTES);
+        for (Map.Entry<String, long[]> entry : users.entrySet()) {
+            userTable.putInt(strings.add(entry.getKey(), true));
+            userTable.putInt((int) entry.getValue()[0]);
+            for (int field = 0; field < AnalyzedNote.FIELD_COUNT; field++) {
+                userTable.putLong(entry.getValue()[1 + field]);
+            }
+        }
+
+        // Postings ghi thẳng ra file, term table giữ trong memory tới cuối
+        ByteArrayOutputStream termBytes = new ByteArrayOutputStream();
+        DataOutputStream termTable = new DataOutputStream(termBytes);
+        int termCount = 0;
+        try (CountingOutputStream pstFile = new CountingOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(DiskSegment.pstPath(directory, generation)), 1 << 16));
+             DataOutputStream pst = new DataOutputStream(pstFile)) {
+
+            PriorityQueue<SourceTerms> queue = new PriorityQueue<>(
+                    Comparator.comparing((SourceTerms terms) -> terms.key).thenComparingInt(terms -> terms.source));
+            for (int s = 0; s < sources.size(); s++) {
+                SourceTerms terms = new SourceTerms(s, sources.get(s).terms(""));
+                if (terms.advance()) {
+                    queue.add(terms);
+                }
+            }
+            while (!queue.isEmpty()) {
+                String key = queue.peek().key;
+                long offset = pstFile.count;
+                if (offset > Integer.MAX_VALUE) {
+                    throw new IOException("Segment postings exceed 2GB, lower the merge size limit");
+                }
+                int df = 0;
+                while (!queue.isEmpty() && queue.peek().key.equals(key)) {
+                    SourceTerms terms = queue.poll();
+                    Segment.Postings postings = terms.iterator.postings();
+                    int[] docMap = docMaps[terms.source];
+                    for (int i = 0; i < postings.size(); i++) {
+                        int newDoc = docMap[postings.doc(i)];
+                        if (newDoc >= 0) {
+                            pst.writeInt(newDoc);
+                            pst.writeInt(postings.freq(i));
+                            df++;
+                        }
+                    }
+                    if (terms.advance()) {
+                        queue.add(terms);
+                    }
+                }
+                if (df > 0) {
+                    termTable.writeInt(strings.add(key, false));
+                    termTable.writeLong(offset);
+                    termTable.writeInt(df);
+                    termCount++;
+                }
+            }
+        }
+
+        long docsOffset = DiskSegment.HEADER_BYTES;
+        long idsOffset = docsOffset + docs.capacity();
+        long usersOffset = idsOffset + ids.capacity();
+        long termsOffset = usersOffset + userTable.capacity();
+        long stringsOffset = termsOffset + termBytes.size();
+        long importantOffset = stringsOffset + strings.bytes.size();
+        long tagOrdinalsOffset = importantOffset + important.capacity();
+        long dictionariesOffset = tagOrdinalsOffset + tagOrdinalBytes.size();
+        if (dictionariesOffset + dictionaryTable.capacity() > Integer.MAX_VALUE) {
+            throw new IOException("Segment dictionary exceeds 2GB, lower the merge size limit");
+        }
+
+        try (DataOutputStream dic = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(DiskSegment.dicPath(directory, generation)), 1 << 16))) {
+            dic.writeInt(DiskSegment.MAGIC);
+            dic.writeInt(DiskSegment.VERSION);
+            dic.writeInt(docCount);
+            dic.writeInt(users.size());
+            dic.writeInt(termCount);
+            dic.writeLong(docsOffset);
+            dic.writeLong(idsOffset);
+            dic.writeLong(usersOffset);
+            dic.writeLong(termsOffset);
+            dic.writeLong(stringsOffset);
+            dic.writeLong(importantOffset);
+            dic.writeLong(tagOrdinalsOffset);
+            dic.writeLong(dictionariesOffset);
+            dic.write(docs.array());
+            dic.write(ids.array());
+            dic.write(userTable.array());
+            termBytes.writeTo(dic);
+            strings.bytes.writeTo(dic);
+            dic.write(important.array());
+            tagOrdinalBytes.writeTo(dic);
+            dic.write(dictionaryTable.array());
+        }
+        fsync(DiskSegment.pstPath(directory, generation));
+        fsync(DiskSegment.dicPath(directory, generation));
+        return docMaps;
+    }
+
+    static void fsync(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static final class SourceTerms {
+        final int source;
+        final Segment.TermIterator iterator;
+        String key;
+
+        SourceTerms(int source, Segment.TermIterator iterator) {
+            this.source = source;
+            this.iterator = iterator;
+        }
+
+        boolean advance() {
+            if (!iterator.next()) {
+                return false;
+            }
+            key = iterator.key();
+            return true;
+        }
+    }
+
+    /**
+     * Vùng string của segment; userId và giá trị facet lặp lại nhiều nên được dùng chung một bản
+     */
+    private static final class StringTable {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        final Map<String, Integer> shared = new HashMap<>();
+
+        int add(String value, boolean dedupe) throws IOException {
+            if (value == null) {
+                return -1;
+            }
+            if (dedupe) {
+                Integer existing = shared.get(value);
+                if (existing != null) {
+                    return existing;
+                }
+            }
+            int reference = bytes.size();
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(utf8.length);
+            out.write(utf8);
+            if (dedupe) {
+                shared.put(value, reference);
+            }
+            return reference;
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream delegate;
+        long count;
+
+        CountingOutputStream(OutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
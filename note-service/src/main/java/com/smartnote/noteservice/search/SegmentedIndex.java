@@ -0,0 +1,539 @@
+package com.smartnote.noteservice.search;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+/**
+ * Index gồm một BufferSegment nhận thay đổi mới và các DiskSegment bất biến
+ *
+ * - flush: buffer đầy (hoặc định kỳ) được ghi thành segment mới, tombstone giữ nguyên doc id
+ * - updateDocValues: đổi folder/isImportant/tags tại chỗ, không phân tích lại note (buffer sửa trực tiếp,
+ *   segment bất biến qua DocValueOverlay); flush/merge ghi giá trị mới vào segment mới
+ * - merge: gom các segment nhỏ / nhiều doc đã xóa thành một segment, bỏ hẳn doc đã xóa
+ * - commit: file "segments" liệt kê segment hiện tại và watermark sync (updated_at) tại thời điểm flush,
+ *   ghi file tạm rồi rename nên restart luôn thấy một trạng thái đầy đủ
+ *
+ * upsert/delete/search an toàn giữa nhiều thread; flush, merge và commit phải chạy trên một thread.
+ */
+final class SegmentedIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentedIndex.class);
+
+    private static final String COMMIT_FILE = "segments";
+    private static final int COMMIT_VERSION = 1;
+    // Segment có quá tỉ lệ này doc đã xóa thì được ghi lại một mình để thu hồi chỗ
+    private static final double MAX_DELETED_RATIO = 0.3;
+
+    private final Path directory;
+    private final int mergeFactor;
+    private final long maxMergedSegmentBytes;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private BufferSegment buffer = new BufferSegment();
+    private BufferSegment flushing; // buffer đang được ghi ra disk, vẫn search được
+    private List<DiskSegment> segments = new ArrayList<>();
+    // Doc-value đã đổi của DiskSegment và của buffer đang flush (không còn nhận doc mới)
+    private final Map<Segment, DocValueOverlay> overlays = new IdentityHashMap<>();
+    private long nextGeneration;
+    private LocalDateTime committedWatermark;
+
+    private SegmentedIndex(Path directory, int mergeFactor, long maxMergedSegmentBytes) {
+        this.directory = directory;
+        this.mergeFactor = mergeFactor;
+        this.maxMergedSegmentBytes = maxMergedSegmentBytes;
+    }
+
+    /**
+     * Mở index từ commit gần nhất; file không thuộc commit (flush/merge dở dang) bị xóa
+     */
+    static SegmentedIndex open(Path directory, int mergeFactor, long maxMergedSegmentBytes) throws IOException {
+        Files.createDirectories(directory);
+        SegmentedIndex index = new SegmentedIndex(directory, mergeFactor, maxMergedSegmentBytes);
+
+        Path commitFile = directory.resolve(COMMIT_FILE);
+        Set<Long> generations = new HashSet<>();
+        if (Files.exists(commitFile)) {
+            Properties commit = new Properties();
+            try (Reader reader = Files.newBufferedReader(commitFile)) {
+                commit.load(reader);
+            }
+            if (Integer.parseInt(commit.getProperty("version", "0")) != COMMIT_VERSION) {
+                throw new IOException("Unsupported search index version in " + commitFile);
+            }
+            for (String generation : commit.getProperty("segments", "").split(",")) {
+                if (!generation.isBlank()) {
+                    generations.add(Long.parseLong(generation.trim()));
+                }
+            }
+            String watermark = commit.getProperty("watermark");
+            index.committedWatermark = watermark != null && !watermark.isBlank() ? LocalDateTime.parse(watermark) : null;
+            index.nextGeneration = Long.parseLong(commit.getProperty("nextGeneration", "0"));
+        }
+
+        for (long generation : generations.stream().sorted().toList()) {
+            DiskSegment segment = DiskSegment.open(directory, generation);
+            index.segments.add(segment);
+            DocValueOverlay overlay = DocValueOverlay.read(segment, DiskSegment.dvuPath(directory, generation));
+            if (overlay != null) {
+                index.overlays.put(segment, overlay);
+            }
+            index.nextGeneration = Math.max(index.nextGeneration, generation + 1);
+        }
+        index.deleteUnreferencedFiles(generations);
+        return index;
+    }
+
+    /**
+     * Xóa commit và mọi file segment trong thư mục
+     */
+    static void wipe(Path directory) throws IOException {
+        Files.deleteIfExists(directory.resolve(COMMIT_FILE));
+        if (Files.isDirectory(directory)) {
+            new SegmentedIndex(directory, 0, 0).deleteUnreferencedFiles(Set.of());
+        }
+    }
+
+    /**
+     * Watermark sync của commit đang mở, null nếu index chưa từng được build đầy đủ
+     */
+    LocalDateTime committedWatermark() {
+        return committedWatermark;
+    }
+
+    void upsert(AnalyzedNote note) {
+        lock.writeLock().lock();
+        try {
+            deleteLocked(note.getNoteId());
+            buffer.add(note);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    boolean delete(String noteId) {
+        lock.writeLock().lock();
+        try {
+            return deleteLocked(noteId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Đổi doc-value của note tại chỗ: change nhận giá trị hiện tại và trả về giá trị mới.
+     * Title/content không bị phân tích lại; tags được tách từ lại từ danh sách mới
+     * @return false nếu note không có trong index hoặc không thuộc userId
+     */
+    boolean updateDocValues(String noteId, String userId, UnaryOperator<Segment.DocValues> change) {
+        lock.writeLock().lock();
+        try {
+            int doc = buffer.findDoc(noteId);
+            if (doc >= 0) {
+                if (!buffer.userId(doc).equals(userId)) {
+                    return false;
+                }
+                buffer.update(doc, change.apply(Segment.docValues(buffer, doc)));
+                return true;
+            }
+            List<Segment> frozen = new ArrayList<>(segments);
+            if (flushing != null) {
+                frozen.add(flushing);
+            }
+            for (Segment segment : frozen) {
+                Segment view = view(segment);
+                doc = view.findDoc(noteId);
+                if (doc >= 0) {
+                    if (!view.userId(doc).equals(userId)) {
+                        return false;
+                    }
+                    overlays.computeIfAbsent(segment, DocValueOverlay::new)
+                            .set(doc, change.apply(Segment.docValues(view, doc)));
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private Segment view(Segment segment) {
+        DocValueOverlay overlay = overlays.get(segment);
+        return overlay != null ? overlay : segment;
+    }
+
+    private boolean deleteLocked(String noteId) {
+        boolean deleted = false;
+        for (Segment segment : searchableLocked()) {
+            int doc = segment.findDoc(noteId);
+            if (doc >= 0) {
+                segment.delete(doc);
+                deleted = true;
+            }
+        }
+        return deleted;
+    }
+
+    IndexSearcher.Result search(String userId, SearchQuery query, SearchFilter filter, int limit, boolean withFacets) {
+        lock.readLock().lock();
+        try {
+            return IndexSearcher.search(searchableLocked(), userId, query, filter, limit, withFacets);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Search từng segment một, gọi onUpdate (ngoài lock) mỗi khi top thay đổi
+     *
+     * Segment chấm theo cận trên điểm giảm dần; khi điểm thấp nhất của top đủ limit đã cao hơn cận trên
+     * của segment kế tiếp thì các segment còn lại không thể đổi top nên dừng sớm.
+     * Danh sách segment chụp lúc bắt đầu: segment bị merge trong lúc stream vẫn đọc được qua mapping cũ.
+     */
+    StreamResult searchStream(String userId, SearchQuery query, int limit,
+                              Consumer<List<IndexSearcher.Hit>> onUpdate, BooleanSupplier cancelled) {
+        IndexSearcher.Plan plan;
+        lock.readLock().lock();
+        try {
+            plan = IndexSearcher.Plan.create(searchableLocked(), userId, query);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (plan == null) {
+            return new StreamResult(0, 0, false, false);
+        }
+        List<Integer> order = plan.segmentOrder();
+        PriorityQueue<IndexSearcher.Hit> top = new PriorityQueue<>(IndexSearcher::compareHits);
+        int scored = 0;
+        for (int s : order) {
+            if (cancelled.getAsBoolean()) {
+                return new StreamResult(scored, plan.segmentCount(), false, true);
+            }
+            if (top.size() == limit && top.peek().score() > plan.upperBound(s)) {
+                return new StreamResult(scored, plan.segmentCount(), true, false);
+            }
+            boolean changed;
+            lock.readLock().lock();
+            try {
+                // Buffer và tombstone chỉ bị sửa khi giữ write lock
+                changed = plan.collect(s, top, limit);
+            } finally {
+                lock.readLock().unlock();
+            }
+            scored++;
+            if (changed) {
+                onUpdate.accept(IndexSearcher.ranked(top));
+            }
+        }
+        return new StreamResult(scored, plan.segmentCount(), false, false);
+    }
+
+    /**
+     * @param segmentsScored   số segment đã chấm (segment thiếu term hoặc sau điểm dừng sớm không tính)
+     * @param terminatedEarly  dừng vì top không thể đổi nữa
+     */
+    record StreamResult(int segmentsScored, int segmentCount, boolean terminatedEarly, boolean cancelled) {
+    }
+
+    private List<Segment> searchableLocked() {
+        List<Segment> searchable = new ArrayList<>(segments.size() + 2);
+        for (DiskSegment segment : segments) {
+            searchable.add(view(segment));
+        }
+        if (flushing != null) {
+            searchable.add(view(flushing));
+        }
+        searchable.add(buffer);
+        return searchable;
+    }
+
+    int bufferedDocs() {
+        lock.readLock().lock();
+        try {
+            return buffer.maxDoc();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Ghi buffer thành segment mới rồi commit
+     * @param watermark đọc ngay lúc tách buffer: mọi thay đổi trước watermark đã nằm trong buffer hoặc segment cũ.
+     *                  null = index chưa build xong, commit không được coi là đầy đủ
+     */
+    void flush(Supplier<LocalDateTime> watermark) throws IOException {
+        BufferSegment frozen;
+        LocalDateTime flushWatermark;
+        long generation;
+        lock.writeLock().lock();
+        try {
+            flushWatermark = watermark.get();
+            if (buffer.maxDoc() == 0) {
+                frozen = null;
+                generation = -1;
+            } else {
+                frozen = buffer;
+                flushing = frozen;
+                buffer = new BufferSegment();
+                generation = nextGeneration++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        if (frozen != null) {
+            long start = System.currentTimeMillis();
+            SegmentWriter.write(directory, generation, List.of(frozen), false);
+            DiskSegment segment = DiskSegment.open(directory, generation);
+            lock.writeLock().lock();
+            try {
+                // Doc id giữ nguyên nên tombstone của buffer (kể cả xóa trong lúc ghi) chuyển thẳng sang
+                for (int doc = 0; doc < frozen.maxDoc(); doc++) {
+                    if (frozen.isDeleted(doc)) {
+                        segment.delete(doc);
+                    }
+                }
+                // Doc-value đổi trong lúc ghi (buffer đã tách nên đổi qua overlay): chuyển sang segment mới
+                DocValueOverlay updatedWhileWriting = overlays.remove(frozen);
+                if (updatedWhileWriting != null && updatedWhileWriting.size() > 0) {
+                    DocValueOverlay overlay = new DocValueOverlay(segment);
+                    updatedWhileWriting.changedSince(0).forEach(overlay::set);
+                    overlays.put(segment, overlay);
+                }
+                segments.add(segment);
+                flushing = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.debug("Flushed search segment _{} ({} docs) in {} ms",
+                    generation, frozen.maxDoc(), System.currentTimeMillis() - start);
+        }
+        commit(flushWatermark);
+    }
+
+    /**
+     * Merge một lần nếu có segment cần merge
+     * @return false nếu không còn gì để merge
+     */
+    boolean maybeMerge() throws IOException {
+        List<DiskSegment> sources = selectMerge();
+        if (sources.isEmpty()) {
+            return false;
+        }
+        long generation;
+        // Merge đọc bản chụp doc-value đã đổi; thay đổi sau lúc chụp được chuyển sang segment mới
+        List<Segment> readers = new ArrayList<>();
+        long[] snapshotSequences = new long[sources.size()];
+        lock.writeLock().lock();
+        try {
+            generation = nextGeneration++;
+            for (int s = 0; s < sources.size(); s++) {
+                DocValueOverlay overlay = overlays.get(sources.get(s));
+                readers.add(overlay != null ? overlay.snapshot() : sources.get(s));
+                snapshotSequences[s] = overlay != null ? overlay.sequence() : 0;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        long start = System.currentTimeMillis();
+        int[][] docMaps = SegmentWriter.write(directory, generation, readers, true);
+        DiskSegment merged = DiskSegment.open(directory, generation);
+        lock.writeLock().lock();
+        try {
+            // Doc bị xóa trong lúc merge: đánh dấu lại trên segment mới
+            for (int s = 0; s < sources.size(); s++) {
+                DiskSegment source = sources.get(s);
+                for (int doc = 0; doc < docMaps[s].length; doc++) {
+                    if (docMaps[s][doc] >= 0 && source.isDeleted(doc)) {
+                        merged.delete(docMaps[s][doc]);
+                    }
+                }
+                DocValueOverlay overlay = overlays.remove(source);
+                if (overlay != null) {
+                    int[] docMap = docMaps[s];
+                    overlay.changedSince(snapshotSequences[s]).forEach((doc, values) -> {
+                        if (docMap[doc] >= 0 && !merged.isDeleted(docMap[doc])) {
+                            overlays.computeIfAbsent(merged, DocValueOverlay::new).set(docMap[doc], values);
+                        }
+                    });
+                }
+            }
+            segments.removeAll(sources);
+            if (merged.maxDoc() > 0) {
+                segments.add(merged);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        commit(committedWatermark);
+
+        // Search đang chạy vẫn đọc được qua mapping cũ, file chỉ biến mất khỏi thư mục
+        for (DiskSegment source : sources) {
+            deleteSegmentFiles(source.generation());
+        }
+        if (merged.maxDoc() == 0) {
+            deleteSegmentFiles(generation);
+        }
+        log.debug("Merged {} search segments into _{} ({} docs) in {} ms",
+                sources.size(), generation, merged.maxDoc(), System.currentTimeMillis() - start);
+        return true;
+    }
+
+    /**
+     * Nhiều hơn mergeFactor segment: merge các segment nhỏ nhất (tổng không quá giới hạn dung lượng)
+     * Ngược lại: ghi lại segment có quá nhiều doc đã xóa
+     */
+    private List<DiskSegment> selectMerge() {
+        lock.readLock().lock();
+        try {
+            List<DiskSegment> bySize = segments.stream()
+                    .sorted(Comparator.comparingLong(DiskSegment::sizeInBytes))
+                    .collect(Collectors.toList());
+            if (bySize.size() >= mergeFactor) {
+                List<DiskSegment> smallest = new ArrayList<>();
+                long bytes = 0;
+                for (DiskSegment segment : bySize) {
+                    if (smallest.size() == mergeFactor || bytes + segment.sizeInBytes() > maxMergedSegmentBytes) {
+                        break;
+                    }
+                    smallest.add(segment);
+                    bytes += segment.sizeInBytes();
+                }
+                if (smallest.size() > 1) {
+                    return smallest;
+                }
+            }
+            return bySize.stream()
+                    .filter(segment -> segment.deletedCount() > segment.maxDoc() * MAX_DELETED_RATIO)
+                    .limit(1)
+                    .toList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void commit(LocalDateTime watermark) throws IOException {
+        Properties commit = new Properties();
+        lock.readLock().lock();
+        try {
+            // Tombstone chỉ bị sửa khi giữ write lock, read lock đủ để ghi ra một bản nhất quán
+            for (DiskSegment segment : segments) {
+                segment.writeDeletesIfDirty();
+                DocValueOverlay overlay = overlays.get(segment);
+                if (overlay != null) {
+                    overlay.writeIfDirty(DiskSegment.dvuPath(directory, segment.generation()));
+                }
+            }
+            commit.setProperty("version", String.valueOf(COMMIT_VERSION));
+            commit.setProperty("segments", segments.stream()
+                    .map(segment -> String.valueOf(segment.generation()))
+                    .collect(Collectors.joining(",")));
+            commit.setProperty("nextGeneration", String.valueOf(nextGeneration));
+            if (watermark != null) {
+                commit.setProperty("watermark", watermark.toString());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Path target = directory.resolve(COMMIT_FILE);
+        Path temp = directory.resolve(COMMIT_FILE + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            commit.store(out, "note-service search index");
+        }
+        SegmentWriter.fsync(temp);
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committedWatermark = watermark;
+    }
+
+    /**
+     * Bỏ toàn bộ index (trước khi build lại từ đầu)
+     */
+    void clear() throws IOException {
+        lock.writeLock().lock();
+        try {
+            segments = new ArrayList<>();
+            overlays.clear();
+            buffer = new BufferSegment();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        commit(null);
+        deleteUnreferencedFiles(Set.of());
+    }
+
+    Map<String, Object> getStats() {
+        lock.readLock().lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            List<Segment> searchable = searchableLocked();
+            stats.put("notes", searchable.stream().mapToLong(Segment::liveDocs).sum());
+            stats.put("bufferedDocs", buffer.maxDoc());
+            stats.put("docValueUpdates", overlays.values().stream().mapToInt(DocValueOverlay::size).sum());
+            stats.put("segments", segments.stream()
+                    .map(segment -> Map.of(
+                            "generation", segment.generation(),
+                            "docs", segment.maxDoc(),
+                            "deleted", segment.deletedCount(),
+                            "bytes", segment.sizeInBytes()))
+                    .toList());
+            stats.put("committedWatermark", committedWatermark);
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void deleteSegmentFiles(long generation) {
+        for (Path path : List.of(DiskSegment.dicPath(directory, generation),
+                DiskSegment.pstPath(directory, generation),
+                DiskSegment.delPath(directory, generation),
+                DiskSegment.dvuPath(directory, generation))) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                log.warn("Could not delete search segment file {}: {}", path, e.getMessage());
+            }
+        }
+    }
+
+    private void deleteUnreferencedFiles(Set<Long> generations) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "_*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                int dot = name.indexOf('.');
+                String generation = dot > 1 ? name.substring(1, dot) : "";
+                if (!generation.chars().allMatch(Character::isDigit) || generation.isEmpty()
+                        || !generations.contains(Long.parseLong(generation))) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+}
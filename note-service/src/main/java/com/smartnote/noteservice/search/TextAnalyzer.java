@@ -0,0 +1,87 @@
+package com.smartnote.noteservice.search;
+
+import org.commonmark.parser.Parser;
+import org.commonmark.renderer.text.TextContentRenderer;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Tách từ cho search index
+ *
+ * - Markdown được render về plain text (commonmark) trước khi tách từ
+ * - Token = dãy chữ/số liên tiếp, lowercase
+ * - Tiếng Việt: term được bỏ dấu (diacritic folding, đ -> d) để "ghi chu" vẫn tìm ra "ghi chú";
+ *   token gốc có dấu được giữ riêng để ưu tiên kết quả khớp đúng dấu
+ */
+public final class TextAnalyzer {
+
+    public static final int MAX_TOKEN_LENGTH = 40;
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    // Parser và renderer của commonmark đều thread-safe
+    private static final Parser MARKDOWN_PARSER = Parser.builder().build();
+    private static final TextContentRenderer TEXT_RENDERER = TextContentRenderer.builder().build();
+
+    private TextAnalyzer() {
+    }
+
+    /**
+     * Một token sau khi phân tích: term đã bỏ dấu dùng để match, exact là dạng lowercase có dấu
+     * (null nếu giống term)
+     */
+    public record Token(String term, String exact) {
+    }
+
+    public static String markdownToText(String markdown) {
+        if (markdown == null || markdown.isEmpty()) {
+            return "";
+        }
+        return TEXT_RENDERER.render(MARKDOWN_PARSER.parse(markdown));
+    }
+
+    public static List<Token> analyze(String text) {
+        List<Token> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); ) {
+            int codePoint = i < text.length() ? text.codePointAt(i) : -1;
+            boolean wordChar = codePoint != -1 && (Character.isLetterOrDigit(codePoint)
+                    || (start != -1 && Character.getType(codePoint) == Character.NON_SPACING_MARK));
+            if (wordChar) {
+                if (start == -1) {
+                    start = i;
+                }
+            } else if (start != -1) {
+                addToken(tokens, text.substring(start, i));
+                start = -1;
+            }
+            i += codePoint == -1 ? 1 : Character.charCount(codePoint);
+        }
+        return tokens;
+    }
+
+    /**
+     * Bỏ dấu và lowercase: "Đường" -> "duong"
+     */
+    public static String fold(String word) {
+        String lower = word.toLowerCase(Locale.ROOT);
+        String stripped = COMBINING_MARKS.matcher(Normalizer.normalize(lower, Normalizer.Form.NFD)).replaceAll("");
+        return stripped.replace('đ', 'd');
+    }
+
+    private static void addToken(List<Token> tokens, String word) {
+        String exact = Normalizer.normalize(word.toLowerCase(Locale.ROOT), Normalizer.Form.NFC);
+        if (exact.length() > MAX_TOKEN_LENGTH) {
+            return; // hash, base64, URL dài... không đáng index
+        }
+        String term = fold(exact);
+        tokens.add(new Token(term, term.equals(exact) ? null : exact));
+    }
+}
@@ -0,0 +1,404 @@
+package com.smartnote.noteservice.search;
+
+import com.smartnote.noteservice.dto.TitleSuggestion;
+import com.smartnote.noteservice.model.Note;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Autocomplete title note theo từng user, chịu được 1 lỗi gõ
+ *
+ * - Title của user được load từ Mongo lần đầu user gõ (chỉ projection title), giữ tối đa max-users user gần nhất
+ * - Mỗi user có một TitleSnapshot bất biến + danh sách note đổi sau snapshot; đổi quá nhiều thì build lại
+ *   snapshot trên thread nền, query không bao giờ phải chờ build
+ * - NoteSearchIndex chuyển mọi thay đổi note (NoteService, sync) sang đây
+ */
+@Component
+public class TitleAutocomplete {
+
+    private static final Logger log = LoggerFactory.getLogger(TitleAutocomplete.class);
+
+    // Số note đổi sau snapshot trước khi build lại snapshot
+    private static final int MAX_CHANGES_BEFORE_REBUILD = 256;
+
+    private final MongoTemplate mongoTemplate;
+    private final int maxUsers;
+
+    private final Map<String, UserTitles> users;
+    private final LatencyStats latencies = new LatencyStats();
+
+    public TitleAutocomplete(MongoTemplate mongoTemplate,
+                             @Value("${app.search.autocomplete.max-users:1000}") int maxUsers) {
+        this.mongoTemplate = mongoTemplate;
+        this.maxUsers = maxUsers;
+        this.users = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UserTitles> eldest) {
+                return size() > TitleAutocomplete.this.maxUsers;
+            }
+        });
+    }
+
+    public List<TitleSuggestion> suggest(String userId, String query, int limit) {
+        long start = System.nanoTime();
+        String[] tokens = TextAnalyzer.analyze(query).stream().map(TextAnalyzer.Token::term).toArray(String[]::new);
+        if (tokens.length == 0) {
+            return List.of();
+        }
+        boolean lastIsPrefix = !Character.isWhitespace(query.charAt(query.length() - 1));
+        String foldedQuery = String.join(" ", tokens);
+
+        UserTitles titles = loadedUser(userId);
+        List<TitleSuggestion> result = titles.suggest(tokens, lastIsPrefix, foldedQuery, limit);
+
+        latencies.record(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Cập nhật title nếu user đang được load, user chưa load sẽ đọc bản mới nhất từ Mongo khi cần
+     */
+    public void update(Note note) {
+        UserTitles titles = users.get(note.getCreatedBy());
+        if (titles != null) {
+            titles.put(entryOf(note.getId(), note.getTitle(), note.getFolderId(), note.getUpdatedAt()));
+        }
+    }
+
+    /**
+     * Đổi folder/updatedAt khi title không đổi (move, PATCH metadata): giữ title và các từ đã tách của entry hiện có
+     */
+    public void updateFolder(String userId, String noteId, String folderId, LocalDateTime updatedAt) {
+        UserTitles titles = users.get(userId);
+        if (titles != null) {
+            titles.updateFolder(noteId, folderId,
+                    updatedAt != null ? updatedAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : 0L);
+        }
+    }
+
+    public void remove(String noteId) {
+        synchronized (users) {
+            for (UserTitles titles : users.values()) {
+                titles.remove(noteId);
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("loadedUsers", users.size());
+        stats.put("queries", latencies.count());
+        stats.put("p50Micros", latencies.percentileMicros(0.50));
+        stats.put("p99Micros", latencies.percentileMicros(0.99));
+        return stats;
+    }
+
+    private UserTitles loadedUser(String userId) {
+        UserTitles titles;
+        boolean created = false;
+        synchronized (users) {
+            titles = users.get(userId);
+            if (titles == null) {
+                titles = new UserTitles();
+                users.put(userId, titles);
+                created = true;
+            }
+        }
+        if (created) {
+            load(userId, titles);
+        } else {
+            titles.awaitLoaded();
+        }
+        return titles;
+    }
+
+    private void load(String userId, UserTitles titles) {
+        long start = System.currentTimeMillis();
+        try {
+            Query query = Query.query(Criteria.where("createdBy").is(userId).and("isDeleted").is(false));
+            query.fields().include("title", "folderId", "updatedAt");
+            List<TitleSnapshot.TitleEntry> entries = new ArrayList<>();
+            try (Stream<Note> notes = mongoTemplate.stream(query, Note.class)) {
+                notes.forEach(note -> entries.add(entryOf(note.getId(), note.getTitle(), note.getFolderId(), note.getUpdatedAt())));
+            }
+            titles.initialize(entries);
+            log.debug("Loaded {} titles for autocomplete of user {} in {} ms",
+                    entries.size(), userId, System.currentTimeMillis() - start);
+        } catch (RuntimeException e) {
+            users.remove(userId);
+            titles.initialize(List.of());
+            throw e;
+        }
+    }
+
+    private static TitleSnapshot.TitleEntry entryOf(String noteId, String title, String folderId, LocalDateTime updatedAt) {
+        String safeTitle = title != null ? title : "";
+        String[] words = TextAnalyzer.analyze(safeTitle).stream().map(TextAnalyzer.Token::term).toArray(String[]::new);
+        long updated = updatedAt != null ? updatedAt.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() : 0L;
+        return new TitleSnapshot.TitleEntry(noteId, safeTitle, folderId, updated, String.join(" ", words), words);
+    }
+
+    /**
+     * Điểm của một title với query, -1 nếu không match (note đổi sau snapshot; entry trong snapshot chấm từ TitleSnapshot.Match)
+     * Mỗi token: khớp đúng (hoặc đúng prefix với token cuối) 2 điểm, là một trong fuzzyWords của token 1 điểm.
+     * Title bắt đầu bằng chính query được cộng thêm.
+     */
+    private static int score(TitleSnapshot.TitleEntry entry, String[] tokens, boolean lastIsPrefix, String foldedQuery,
+                             List<Set<String>> fuzzyWords) {
+        int total = 0;
+        for (int i = 0; i < tokens.length; i++) {
+            boolean prefix = lastIsPrefix && i == tokens.length - 1;
+            String token = tokens[i];
+            int best = 0;
+            for (String word : entry.words()) {
+                if (prefix ? word.startsWith(token) : word.equals(token)) {
+                    best = 2;
+                    break;
+                }
+                if (fuzzyWords != null && fuzzyWords.get(i).contains(word)) {
+                    best = 1;
+                }
+            }
+            if (best == 0) {
+                return -1;
+            }
+            total += best;
+        }
+        if (entry.folded().startsWith(foldedQuery)) {
+            total += 2;
+        }
+        return total;
+    }
+
+    // Điểm cao trước, rồi title ngắn hơn, rồi note sửa gần đây hơn
+    private static final Comparator<Scored> RANKING = Comparator.comparingInt(Scored::score)
+            .thenComparingInt(scored -> -scored.entry().title().length())
+            .thenComparingLong(scored -> scored.entry().updatedAt());
+
+    private record Scored(TitleSnapshot.TitleEntry entry, int score) {
+    }
+
+    /**
+     * Title của một user: snapshot + các note đổi sau snapshot (changed: noteId -> số thứ tự thay đổi)
+     */
+    private static final class UserTitles {
+        private final Map<String, TitleSnapshot.TitleEntry> live = new ConcurrentHashMap<>();
+        private final Set<String> removedWhileLoading = new HashSet<>();
+        private volatile State state = new State(TitleSnapshot.EMPTY, Map.of(), new BitSet());
+        private long changeSequence;
+        private boolean loaded;
+        private boolean rebuilding;
+
+        /**
+         * stale: vị trí trong snapshot của các note đã đổi, bỏ qua khi duyệt snapshot
+         */
+        private record State(TitleSnapshot snapshot, Map<String, Long> changed, BitSet stale) {
+        }
+
+        synchronized void initialize(List<TitleSnapshot.TitleEntry> entries) {
+            for (TitleSnapshot.TitleEntry entry : entries) {
+                // Thay đổi đến trong lúc load mới hơn bản đọc từ Mongo
+                if (!removedWhileLoading.contains(entry.noteId())) {
+                    live.merge(entry.noteId(), entry, (current, loadedEntry) ->
+                            current.updatedAt() >= loadedEntry.updatedAt() ? current : loadedEntry);
+                }
+            }
+            removedWhileLoading.clear();
+            state = new State(TitleSnapshot.build(new ArrayList<>(live.values())), Map.of(), new BitSet());
+            loaded = true;
+            notifyAll();
+        }
+
+        synchronized void awaitLoaded() {
+            while (!loaded) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        boolean contains(String noteId) {
+            return live.containsKey(noteId);
+        }
+
+        synchronized void put(TitleSnapshot.TitleEntry entry) {
+            live.put(entry.noteId(), entry);
+            removedWhileLoading.remove(entry.noteId());
+            markChanged(entry.noteId());
+        }
+
+        synchronized void updateFolder(String noteId, String folderId, long updatedAt) {
+            TitleSnapshot.TitleEntry entry = live.get(noteId);
+            if (entry != null) {
+                put(new TitleSnapshot.TitleEntry(noteId, entry.title(), folderId, updatedAt,
+                        entry.folded(), entry.words()));
+            }
+        }
+
+        synchronized void remove(String noteId) {
+            if (!loaded) {
+                removedWhileLoading.add(noteId);
+            }
+            if (live.remove(noteId) != null) {
+                markChanged(noteId);
+            }
+        }
+
+        private void markChanged(String noteId) {
+            if (!loaded) {
+                return; // snapshot đầu tiên được build từ live khi load xong
+            }
+            Map<String, Long> changed = new HashMap<>(state.changed());
+            changed.put(noteId, ++changeSequence);
+            BitSet stale = state.stale();
+            int position = state.snapshot().position(noteId);
+            if (position >= 0 && !stale.get(position)) {
+                stale = (BitSet) stale.clone();
+                stale.set(position);
+            }
+            state = new State(state.snapshot(), changed, stale);
+            if (changed.size() > MAX_CHANGES_BEFORE_REBUILD && !rebuilding) {
+                rebuilding = true;
+                long upTo = changeSequence;
+                List<TitleSnapshot.TitleEntry> entries = new ArrayList<>(live.values());
+                Thread.ofVirtual().name("autocomplete-rebuild").start(() -> rebuild(entries, upTo));
+            }
+        }
+
+        private void rebuild(List<TitleSnapshot.TitleEntry> entries, long upTo) {
+            TitleSnapshot snapshot = TitleSnapshot.build(entries);
+            synchronized (this) {
+                // Chỉ giữ các thay đổi xảy ra sau lúc chụp entries
+                Map<String, Long> remaining = new HashMap<>();
+                BitSet stale = new BitSet();
+                state.changed().forEach((noteId, sequence) -> {
+                    if (sequence > upTo) {
+                        remaining.put(noteId, sequence);
+                        int position = snapshot.position(noteId);
+                        if (position >= 0) {
+                            stale.set(position);
+                        }
+                    }
+                });
+                state = new State(snapshot, remaining, stale);
+                rebuilding = false;
+            }
+        }
+
+        List<TitleSuggestion> suggest(String[] tokens, boolean lastIsPrefix, String foldedQuery, int limit) {
+            State current = state;
+            List<TitleSuggestion> result = rank(current, tokens, lastIsPrefix, foldedQuery, limit, null);
+            if (result.size() < limit) {
+                // Chưa đủ kết quả khớp đúng: thử thêm các word lệch 1 lỗi gõ
+                result = rank(current, tokens, lastIsPrefix, foldedQuery, limit, fuzzyWords(current, tokens, lastIsPrefix));
+            }
+            return result;
+        }
+
+        /**
+         * Word lệch từng token 1 lỗi gõ, tính một lần cho cả query: từ snapshot qua trigram,
+         * từ các note đổi sau snapshot thì kiểm tra trực tiếp
+         */
+        private List<Set<String>> fuzzyWords(State current, String[] tokens, boolean lastIsPrefix) {
+            List<Set<String>> result = new ArrayList<>(tokens.length);
+            for (int i = 0; i < tokens.length; i++) {
+                boolean prefix = lastIsPrefix && i == tokens.length - 1;
+                Set<String> words = current.snapshot().fuzzyTerms(tokens[i], prefix);
+                for (String noteId : current.changed().keySet()) {
+                    TitleSnapshot.TitleEntry entry = live.get(noteId);
+                    if (entry != null) {
+                        for (String word : entry.words()) {
+                            if (TitleSnapshot.fuzzyMatch(tokens[i], word, prefix)) {
+                                words.add(word);
+                            }
+                        }
+                    }
+                }
+                result.add(words);
+            }
+            return result;
+        }
+
+        private List<TitleSuggestion> rank(State current, String[] tokens, boolean lastIsPrefix, String foldedQuery,
+                                           int limit, List<Set<String>> fuzzyWords) {
+            PriorityQueue<Scored> top = new PriorityQueue<>(RANKING);
+            // Candidates duyệt theo thứ tự xếp hạng phụ: entry sau chỉ vào top khi điểm cao hơn hẳn,
+            // và đủ limit kết quả điểm tối đa thì dừng
+            int maxScore = 2 * tokens.length + 2;
+            TitleSnapshot snapshot = current.snapshot();
+            TitleSnapshot.Match match = snapshot.match(tokens, lastIsPrefix, fuzzyWords);
+            BitSet candidates = match.candidates();
+            candidates.andNot(current.stale());
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                // Cùng cách tính với score(), nhưng từ bitset nên chỉ đọc title khi entry có thể vào top
+                int score = 0;
+                boolean allExact = true;
+                for (BitSet exact : match.exact()) {
+                    boolean hit = exact.get(i);
+                    score += hit ? 2 : 1;
+                    allExact &= hit;
+                }
+                if (top.size() == limit && (allExact ? score + 2 : score) <= top.peek().score()) {
+                    continue;
+                }
+                TitleSnapshot.TitleEntry entry = snapshot.entry(i);
+                if (allExact && entry.folded().startsWith(foldedQuery)) {
+                    score += 2;
+                }
+                if (top.size() == limit && score <= top.peek().score()) {
+                    continue;
+                }
+                offer(top, new Scored(entry, score), limit);
+                if (top.size() == limit && top.peek().score() == maxScore) {
+                    break;
+                }
+            }
+            for (String noteId : current.changed().keySet()) {
+                TitleSnapshot.TitleEntry entry = live.get(noteId);
+                int score = entry != null ? score(entry, tokens, lastIsPrefix, foldedQuery, fuzzyWords) : -1;
+                if (score >= 0) {
+                    offer(top, new Scored(entry, score), limit);
+                }
+            }
+            List<Scored> ranked = new ArrayList<>(top);
+            ranked.sort(RANKING.reversed());
+            return ranked.stream()
+                    .map(scored -> new TitleSuggestion(scored.entry().noteId(), scored.entry().title(),
+                            scored.entry().folderId(),
+                            LocalDateTime.ofInstant(Instant.ofEpochMilli(scored.entry().updatedAt()), ZoneId.systemDefault())))
+                    .toList();
+        }
+
+        private static void offer(PriorityQueue<Scored> top, Scored scored, int limit) {
+            top.add(scored);
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+    }
+}
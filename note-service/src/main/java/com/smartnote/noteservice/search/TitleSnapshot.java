@@ -0,0 +1,234 @@
+package com.smartnote.noteservice.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Index title bất biến của một user cho autocomplete
+ *
+ * - Term dictionary: mảng word (đã bỏ dấu) sắp xếp, prefix query = binary search ra một khoảng liên tục
+ * - Trigram của từng word ("^" đánh dấu đầu word) để tìm word cách query 1 lỗi gõ
+ * Mảng primitive thay cho TreeMap/trie node nên 50k title chỉ tốn vài MB và không tạo object khi query.
+ */
+final class TitleSnapshot {
+
+    static final TitleSnapshot EMPTY = build(List.of());
+
+    private final TitleEntry[] entries;
+    private final String[] terms;
+    private final int[][] termEntries;
+    private final Map<String, int[]> trigramTerms;
+    private final Map<String, Integer> positions;
+
+    /**
+     * Title của một note, words là các token đã bỏ dấu
+     */
+    record TitleEntry(String noteId, String title, String folderId, long updatedAt, String folded, String[] words) {
+    }
+
+    private TitleSnapshot(TitleEntry[] entries, String[] terms, int[][] termEntries, Map<String, int[]> trigramTerms) {
+        this.entries = entries;
+        this.terms = terms;
+        this.termEntries = termEntries;
+        this.trigramTerms = trigramTerms;
+        this.positions = new HashMap<>(entries.length * 2);
+        for (int i = 0; i < entries.length; i++) {
+            positions.put(entries[i].noteId(), i);
+        }
+    }
+
+    static TitleSnapshot build(List<TitleEntry> source) {
+        // Entry đánh số theo thứ tự xếp hạng phụ (title ngắn, rồi mới sửa) để query dừng sớm được
+        TitleEntry[] entries = source.toArray(new TitleEntry[0]);
+        Arrays.sort(entries, Comparator.comparingInt((TitleEntry entry) -> entry.title().length())
+                .thenComparing(Comparator.comparingLong(TitleEntry::updatedAt).reversed()));
+        TreeMap<String, List<Integer>> words = new TreeMap<>();
+        Map<String, String> canonical = new HashMap<>();
+        for (int i = 0; i < entries.length; i++) {
+            String[] entryWords = entries[i].words();
+            for (int w = 0; w < entryWords.length; w++) {
+                // Dùng chung một String cho mỗi word: hash đã cache sẵn, tra set khi chấm điểm không phải đọc từng String rời rạc
+                String word = canonical.computeIfAbsent(entryWords[w], k -> k);
+                entryWords[w] = word;
+                List<Integer> postings = words.computeIfAbsent(word, k -> new ArrayList<>());
+                if (postings.isEmpty() || postings.get(postings.size() - 1) != i) {
+                    postings.add(i);
+                }
+            }
+        }
+
+        String[] terms = words.keySet().toArray(new String[0]);
+        int[][] termEntries = new int[terms.length][];
+        Map<String, List<Integer>> trigrams = new HashMap<>();
+        for (int t = 0; t < terms.length; t++) {
+            termEntries[t] = words.get(terms[t]).stream().mapToInt(Integer::intValue).toArray();
+            for (String gram : trigrams(terms[t])) {
+                trigrams.computeIfAbsent(gram, g -> new ArrayList<>()).add(t);
+            }
+        }
+        Map<String, int[]> trigramTerms = new HashMap<>(trigrams.size() * 2);
+        trigrams.forEach((gram, list) -> trigramTerms.put(gram, list.stream().mapToInt(Integer::intValue).distinct().toArray()));
+        return new TitleSnapshot(entries, terms, termEntries, trigramTerms);
+    }
+
+    int size() {
+        return entries.length;
+    }
+
+    TitleEntry entry(int index) {
+        return entries[index];
+    }
+
+    /**
+     * Vị trí của note trong snapshot, -1 nếu snapshot không có
+     */
+    int position(String noteId) {
+        return positions.getOrDefault(noteId, -1);
+    }
+
+    /**
+     * candidates: entry match mọi token (AND), duyệt theo thứ tự index là đúng thứ tự xếp hạng phụ
+     * exact[i]: entry có word khớp đúng token i (không tính fuzzy), đủ để chấm điểm mà không phải đọc lại title
+     */
+    record Match(BitSet candidates, BitSet[] exact) {
+    }
+
+    /**
+     * Token cuối là prefix khi lastIsPrefix.
+     * fuzzyWords (null = không fuzzy): với mỗi token, các word lệch 1 lỗi gõ cũng được tính là match
+     */
+    Match match(String[] tokens, boolean lastIsPrefix, List<Set<String>> fuzzyWords) {
+        BitSet result = null;
+        BitSet[] exact = new BitSet[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            boolean prefix = lastIsPrefix && i == tokens.length - 1;
+            BitSet matched = new BitSet(entries.length);
+            int from = lowerBound(tokens[i]);
+            if (prefix) {
+                for (int t = from; t < terms.length && terms[t].startsWith(tokens[i]); t++) {
+                    addEntries(matched, t, result);
+                }
+            } else if (from < terms.length && terms[from].equals(tokens[i])) {
+                addEntries(matched, from, result);
+            }
+            exact[i] = fuzzyWords != null ? (BitSet) matched.clone() : matched;
+            if (fuzzyWords != null) {
+                for (String word : fuzzyWords.get(i)) {
+                    int t = Arrays.binarySearch(terms, word);
+                    if (t >= 0) {
+                        addEntries(matched, t, result);
+                    }
+                }
+            }
+            result = matched;
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return new Match(result, exact);
+    }
+
+    private void addEntries(BitSet matched, int term, BitSet filter) {
+        for (int entry : termEntries[term]) {
+            if (filter == null || filter.get(entry)) {
+                matched.set(entry);
+            }
+        }
+    }
+
+    /**
+     * Các word trong snapshot lệch token 1 lỗi gõ (chỉ token từ 3 ký tự).
+     * Một lỗi gõ phá tối đa 4 trigram (đảo 2 ký tự cạnh nhau; thiếu/thừa/sai 1 ký tự chỉ phá 3),
+     * nên word hợp lệ phải chung ít nhất (số trigram - 4) trigram với token;
+     * các ứng viên này được kiểm tra lại bằng edit distance
+     */
+    Set<String> fuzzyTerms(String token, boolean prefix) {
+        Set<String> result = new HashSet<>();
+        if (token.length() < 3) {
+            return result;
+        }
+        List<String> grams = trigrams(token);
+        int threshold = Math.max(1, grams.size() - 4);
+        Map<Integer, Integer> shared = new HashMap<>();
+        for (String gram : grams) {
+            int[] postings = trigramTerms.get(gram);
+            if (postings != null) {
+                for (int term : postings) {
+                    shared.merge(term, 1, Integer::sum);
+                }
+            }
+        }
+        shared.forEach((term, count) -> {
+            if (count >= threshold && fuzzyMatch(token, terms[term], prefix)) {
+                result.add(terms[term]);
+            }
+        });
+        return result;
+    }
+
+    private int lowerBound(String key) {
+        int index = Arrays.binarySearch(terms, key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    static List<String> trigrams(String word) {
+        String padded = "^" + word;
+        List<String> grams = new ArrayList<>(Math.max(1, padded.length() - 2));
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        if (grams.isEmpty()) {
+            grams.add(padded);
+        }
+        return grams;
+    }
+
+    static boolean fuzzyMatch(String token, String word, boolean prefix) {
+        return token.length() >= 3 && (prefix ? fuzzyPrefix(token, word) : withinOneEdit(token, word));
+    }
+
+    /**
+     * word bắt đầu bằng một chuỗi cách token tối đa 1 lỗi (thiếu, thừa, sai, đảo 2 ký tự)
+     */
+    static boolean fuzzyPrefix(String token, String word) {
+        for (int length = token.length() - 1; length <= token.length() + 1; length++) {
+            if (length > 0 && length <= word.length() && withinOneEdit(token, word.substring(0, length))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Damerau-Levenshtein <= 1
+     */
+    static boolean withinOneEdit(String a, String b) {
+        int lengthDiff = a.length() - b.length();
+        if (Math.abs(lengthDiff) > 1) {
+            return false;
+        }
+        int i = 0;
+        while (i < a.length() && i < b.length() && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        if (i == a.length() && i == b.length()) {
+            return true;
+        }
+        if (lengthDiff == 0) {
+            if (a.substring(i + 1).equals(b.substring(i + 1))) {
+                return true; // thay 1 ký tự
+            }
+            return i + 1 < a.length() && a.charAt(i) == b.charAt(i + 1) && a.charAt(i + 1) == b.charAt(i)
+                    && a.substring(i + 2).equals(b.substring(i + 2)); // đảo 2 ký tự cạnh nhau
+        }
+        return lengthDiff > 0 ? a.substring(i + 1).equals(b.substring(i)) : a.substring(i).equals(b.substring(i + 1));
+    }
+}
@@ -0,0 +1,251 @@
+package com.smartnote.noteservice.service;
+
+import com.smartnote.noteservice.dto.NoteResponse;
+import com.smartnote.noteservice.exception.JobQueueFullException;
+import com.smartnote.noteservice.model.Folder;
+import com.smartnote.noteservice.model.Note;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Export hàng loạt thành file ZIP, ghi thẳng vào response
+ *
+ * - Note đọc bằng Mongo cursor (cursorBatchSize) và ghi từng entry ngay, không giữ list note trong memory;
+ *   content lớn được stream từ GridFS vào entry
+ * - Cây thư mục trong ZIP giống cây folder; folder rỗng vẫn có entry thư mục
+ * - PDF (tùy chọn) lấy từ export cache nếu có, không thì render tuần tự ngay trong stream;
+ *   số bulk export chạy cùng lúc bị giới hạn như PDF job (hết slot thì 429)
+ */
+@Service
+public class BulkExportService {
+
+    private static final int RETRY_AFTER_SECONDS = 10;
+    private static final int MAX_NAME_LENGTH = 100;
+
+    private final MongoTemplate mongoTemplate;
+    private final FolderService folderService;
+    private final NoteService noteService;
+    private final ExportService exportService;
+    private final ExportArtifactCache artifactCache;
+    private final int batchSize;
+    private final int maxConcurrent;
+    private final Semaphore slots;
+
+    private final AtomicLong exportCount = new AtomicLong();
+    private final AtomicLong noteCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    public BulkExportService(MongoTemplate mongoTemplate,
+                             FolderService folderService,
+                             NoteService noteService,
+                             ExportService exportService,
+                             ExportArtifactCache artifactCache,
+                             @Value("${app.export.bulk.batch-size:200}") int batchSize,
+                             @Value("${app.export.bulk.max-concurrent:2}") int maxConcurrent) {
+        this.mongoTemplate = mongoTemplate;
+        this.folderService = folderService;
+        this.noteService = noteService;
+        this.exportService = exportService;
+        this.artifactCache = artifactCache;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.slots = new Semaphore(this.maxConcurrent);
+    }
+
+    /**
+     * Phạm vi export đã kiểm tra quyền: folderPaths là đường dẫn trong ZIP của từng folder
+     * slotHeld = scope này còn giữ slot export (trả đúng một lần qua release)
+     */
+    public record ExportScope(String rootName, Map<String, String> folderPaths, boolean wholeUser,
+                              AtomicBoolean slotHeld) {
+    }
+
+    /**
+     * Kiểm tra folder, dựng đường dẫn và giữ một slot export trước khi bắt đầu stream,
+     * để lỗi (404, 429) còn trả được status code.
+     * Slot được trả khi writeZip xong, hoặc qua release() nếu body không bao giờ chạy
+     * (client ngắt, executor từ chối, async timeout)
+     * @param folderId null = toàn bộ note của user
+     */
+    public ExportScope prepare(String userId, String folderId) {
+        ExportScope scope = resolveScope(userId, folderId);
+        if (!slots.tryAcquire()) {
+            rejectedCount.incrementAndGet();
+            throw new JobQueueFullException(maxConcurrent, RETRY_AFTER_SECONDS);
+        }
+        scope.slotHeld().set(true);
+        return scope;
+    }
+
+    /**
+     * Trả slot của scope; gọi nhiều lần (writeZip và callback hoàn tất của request) chỉ trả một lần
+     */
+    public void release(ExportScope scope) {
+        if (scope.slotHeld().compareAndSet(true, false)) {
+            slots.release();
+        }
+    }
+
+    private ExportScope resolveScope(String userId, String folderId) {
+        List<Folder> folders = folderService.getUserFolders(userId);
+        Map<String, List<Folder>> children = new HashMap<>();
+        for (Folder folder : folders) {
+            children.computeIfAbsent(folder.getParentFolderId(), k -> new ArrayList<>()).add(folder);
+        }
+        Map<String, String> paths = new HashMap<>();
+        if (folderId == null) {
+            addChildren(children, null, "", paths);
+            return new ExportScope("notes-" + userId, paths, true, new AtomicBoolean());
+        }
+        Folder root = folders.stream()
+                .filter(folder -> folder.getId().equals(folderId))
+                .findFirst()
+                .orElseThrow(() -> new RuntimeException("Folder not found with id: " + folderId));
+        paths.put(root.getId(), "");
+        addChildren(children, root.getId(), "", paths);
+        return new ExportScope(safeName(root.getName()), paths, false, new AtomicBoolean());
+    }
+
+    private static void addChildren(Map<String, List<Folder>> children, String parentId, String parentPath,
+                                    Map<String, String> paths) {
+        List<Folder> siblings = new ArrayList<>(children.getOrDefault(parentId, List.of()));
+        siblings.sort(Comparator.comparingInt(Folder::getPosition));
+        Set<String> used = new HashSet<>();
+        for (Folder folder : siblings) {
+            String path = parentPath + unique(safeName(folder.getName()), "", used) + "/";
+            paths.put(folder.getId(), path);
+            addChildren(children, folder.getId(), path, paths);
+        }
+    }
+
+    /**
+     * Ghi ZIP ra out (response stream); chỉ giữ một note trong memory tại một thời điểm
+     */
+    public void writeZip(String userId, ExportScope scope, boolean includePdf, OutputStream out) throws IOException {
+        long start = System.currentTimeMillis();
+        long written = 0;
+        try (ZipOutputStream zip = new ZipOutputStream(out, StandardCharsets.UTF_8)) {
+            for (String path : scope.folderPaths().values()) {
+                if (!path.isEmpty()) {
+                    zip.putNextEntry(new ZipEntry(path));
+                    zip.closeEntry();
+                }
+            }
+
+            Criteria criteria = scope.wholeUser()
+                    ? Criteria.where("createdBy").is(userId)
+                    : Criteria.where("folderId").in(scope.folderPaths().keySet());
+            Query query = Query.query(criteria.and("isDeleted").ne(true)).cursorBatchSize(batchSize);
+            query.fields().exclude("shares", "metadata");
+
+            Map<String, Set<String>> usedNames = new HashMap<>();
+            try (Stream<Note> notes = mongoTemplate.stream(query, Note.class)) {
+                for (Note note : (Iterable<Note>) notes::iterator) {
+                    String folderPath = note.getFolderId() != null
+                            ? scope.folderPaths().getOrDefault(note.getFolderId(), "") : "";
+                    String name = folderPath + unique(safeName(note.getTitle()), ".md",
+                            usedNames.computeIfAbsent(folderPath, k -> new HashSet<>()));
+                    writeNote(zip, name, note, includePdf);
+                    written++;
+                }
+            }
+            zip.finish();
+        } finally {
+            release(scope);
+            exportCount.incrementAndGet();
+            noteCount.addAndGet(written);
+        }
+        System.out.println("📦 Bulk export " + scope.rootName() + ": " + written + " notes in "
+                + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private void writeNote(ZipOutputStream zip, String name, Note note, boolean includePdf) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        if (note.getUpdatedAt() != null) {
+            entry.setTimeLocal(note.getUpdatedAt());
+        }
+        zip.putNextEntry(entry);
+        noteService.writeContent(note, zip);
+        zip.closeEntry();
+
+        if (includePdf) {
+            ZipEntry pdfEntry = new ZipEntry(name.substring(0, name.length() - ".md".length()) + ".pdf");
+            pdfEntry.setTime(entry.getTime());
+            zip.putNextEntry(pdfEntry);
+            // Khóa chỉ cần id, title, version: cache hit không phải đọc content từ GridFS
+            boolean fromCache = false;
+            try (ExportArtifactCache.Lease cached = artifactCache.acquire(
+                    exportService.artifactKey(noteService.convertToResponse(note), "pdf"), "pdf")) {
+                if (cached != null) {
+                    Files.copy(cached.path(), zip);
+                    fromCache = true;
+                }
+            }
+            if (!fromCache) {
+                NoteResponse response = noteService.convertWithContent(note);
+                // Renderer đóng stream khi xong: chặn lại để không đóng luôn ZIP
+                exportService.writePdf(response, new FilterOutputStream(zip) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        flush();
+                    }
+                });
+            }
+            zip.closeEntry();
+        }
+    }
+
+    private static String safeName(String name) {
+        String cleaned = name == null ? "" : name.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_").trim();
+        if (cleaned.isEmpty() || cleaned.equals(".") || cleaned.equals("..")) {
+            cleaned = "Untitled";
+        }
+        return cleaned.length() > MAX_NAME_LENGTH ? cleaned.substring(0, MAX_NAME_LENGTH).trim() : cleaned;
+    }
+
+    /**
+     * Tên trùng trong cùng thư mục được thêm " (2)", " (3)"...
+     */
+    private static String unique(String base, String extension, Set<String> used) {
+        String candidate = base + extension;
+        for (int i = 2; !used.add(candidate.toLowerCase()); i++) {
+            candidate = base + " (" + i + ")" + extension;
+        }
+        return candidate;
+    }
+
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "exports", exportCount.get(),
+                "notes", noteCount.get(),
+                "active", maxConcurrent - slots.availablePermits(),
+                "rejected", rejectedCount.get());
+    }
+}
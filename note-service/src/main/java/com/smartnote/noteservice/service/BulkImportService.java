@@ -0,0 +1,758 @@
+package com.smartnote.noteservice.service;
+
+import com.smartnote.noteservice.dto.ImportJobResponse;
+import com.smartnote.noteservice.exception.JobQueueFullException;
+import com.smartnote.noteservice.model.DataJob;
+import com.smartnote.noteservice.model.DataJobStatus;
+import com.smartnote.noteservice.model.DataJobType;
+import com.smartnote.noteservice.model.Folder;
+import com.smartnote.noteservice.model.Note;
+import com.smartnote.noteservice.search.NoteSearchIndex;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Import hàng loạt từ ZIP hoặc nhiều file markdown
+ *
+ * - Upload được chuyển vào staging dir (transferTo, không đọc hết vào memory) rồi request trả 202 ngay;
+ *   worker đọc từng entry ZIP bằng stream, client poll tiến độ theo jobId
+ * - Đường dẫn trong ZIP (hoặc tên file có thư mục) dựng lại cây folder qua FolderService,
+ *   folder cùng tên đã có dưới cùng folder cha thì dùng lại
+ * - Note được gom thành batch (theo số note và tổng dung lượng) rồi insertMany một lần
+ * - File vượt threshold của NoteContentStore được stream tiếp từ entry vào GridFS, note trong batch chỉ giữ ref
+ * - Job lưu trong data_jobs (DataJobService); sau mỗi batch ghi checkpoint (cursor = số entry đã xong + các bộ đếm).
+ *   Service dừng giữa chừng thì lần start sau chạy tiếp từ cursor: staging dir vẫn còn, note có id cố định
+ *   theo (job, entry) nên batch dở dang được ghi lại chứ không bị trùng
+ */
+@Service
+public class BulkImportService {
+
+    private static final int RETRY_AFTER_SECONDS = 10;
+    private static final int MAX_ERRORS = 20;
+
+    private final MongoTemplate mongoTemplate;
+    private final FolderService folderService;
+    private final NoteSearchIndex noteSearchIndex;
+    private final NoteContentStore noteContentStore;
+    private final DataJobService dataJobService;
+    private final int batchSize;
+    private final long batchBytes;
+    private final long maxNoteBytes;
+    private final int queueCapacity;
+    private final Path stagingDir;
+    private final Duration jobTtl;
+    private final ThreadPoolExecutor executor;
+    private volatile boolean shuttingDown;
+
+    // Job đang chờ hoặc đang chạy trên instance này (tiến độ live); job đã xong chỉ còn trong data_jobs
+    private final Map<String, ImportJob> jobs = new ConcurrentHashMap<>();
+
+    private static final class ImportJob {
+        final String id;
+        final String userId;
+        final String folderId;
+        final Path directory;
+        final long totalBytes;
+        final LocalDateTime createdAt;
+        final AtomicLong bytesRead = new AtomicLong();
+        final List<String> errors = new ArrayList<>();
+        volatile DataJobStatus status = DataJobStatus.QUEUED;
+        volatile LocalDateTime startedAt;
+        volatile LocalDateTime finishedAt;
+        volatile long cursor;
+        volatile int attempts;
+        volatile boolean cancelRequested;
+        volatile long entriesProcessed;
+        volatile long notesImported;
+        volatile long foldersCreated;
+        volatile long skipped;
+        volatile long failed;
+
+        ImportJob(String id, String userId, String folderId, Path directory, long totalBytes, LocalDateTime createdAt) {
+            this.id = id;
+            this.userId = userId;
+            this.folderId = folderId;
+            this.directory = directory;
+            this.totalBytes = totalBytes;
+            this.createdAt = createdAt;
+        }
+
+        static ImportJob from(DataJob stored) {
+            ImportJob job = new ImportJob(stored.getId(), stored.getUserId(), stored.getFolderId(),
+                    Path.of(stored.getWorkPath()), stored.getTotalBytes(), stored.getCreatedAt());
+            job.status = stored.getStatus();
+            job.startedAt = stored.getStartedAt();
+            job.finishedAt = stored.getFinishedAt();
+            job.cursor = stored.getCursor();
+            job.attempts = stored.getAttempts();
+            job.cancelRequested = stored.isCancelRequested();
+            job.bytesRead.set(stored.getBytesRead());
+            job.entriesProcessed = stored.getEntriesProcessed();
+            job.notesImported = stored.getNotesImported();
+            job.foldersCreated = stored.getFoldersCreated();
+            job.skipped = stored.getSkipped();
+            job.failed = stored.getFailed();
+            if (stored.getErrors() != null) {
+                job.errors.addAll(stored.getErrors());
+            }
+            return job;
+        }
+
+        synchronized void error(String message) {
+            failed++;
+            if (errors.size() < MAX_ERRORS) {
+                errors.add(message);
+            }
+        }
+    }
+
+    public BulkImportService(MongoTemplate mongoTemplate,
+                             FolderService folderService,
+                             NoteSearchIndex noteSearchIndex,
+                             NoteContentStore noteContentStore,
+                             DataJobService dataJobService,
+                             @Value("${app.import.batch-size:500}") int batchSize,
+                             @Value("${app.import.batch-mb:8}") long batchMb,
+                             @Value("${app.import.max-note-mb:200}") long maxNoteMb,
+                             @Value("${app.import.workers:1}") int workers,
+                             @Value("${app.import.queue-capacity:4}") int queueCapacity,
+                             @Value("${app.import.staging-dir:${java.io.tmpdir}/smartnote-imports}") String stagingDir,
+                             @Value("${app.import.job-ttl-minutes:60}") long jobTtlMinutes) {
+        this.mongoTemplate = mongoTemplate;
+        this.folderService = folderService;
+        this.noteSearchIndex = noteSearchIndex;
+        this.noteContentStore = noteContentStore;
+        this.dataJobService = dataJobService;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchBytes = batchMb * 1024 * 1024;
+        this.maxNoteBytes = maxNoteMb * 1024 * 1024;
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.stagingDir = Path.of(stagingDir);
+        this.jobTtl = Duration.ofMinutes(jobTtlMinutes);
+        int threads = Math.max(1, workers);
+        AtomicLong threadIndex = new AtomicLong();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(this.queueCapacity),
+                task -> {
+                    Thread thread = new Thread(task, "bulk-import-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        try {
+            Files.createDirectories(this.stagingDir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create import staging directory " + stagingDir, e);
+        }
+    }
+
+    /**
+     * Lưu upload vào staging dir và xếp job vào hàng đợi
+     * @param folderId folder đích (null = gốc), phải thuộc về user
+     */
+    public ImportJobResponse submit(String userId, String folderId, List<MultipartFile> files) throws IOException {
+        if (files == null || files.stream().allMatch(MultipartFile::isEmpty)) {
+            throw new IllegalArgumentException("No files to import");
+        }
+        if (folderId != null && folderService.getFolderById(folderId)
+                .filter(folder -> !folder.isDeleted() && userId.equals(folder.getUserId()))
+                .isEmpty()) {
+            throw new RuntimeException("Folder not found with id: " + folderId);
+        }
+
+        String jobId = UUID.randomUUID().toString();
+        Path directory = stagingDir.resolve(jobId);
+        Files.createDirectories(directory);
+        long totalBytes = 0;
+        try {
+            int index = 0;
+            for (MultipartFile file : files) {
+                if (file.isEmpty()) {
+                    continue;
+                }
+                // Tên staging giữ thứ tự upload, tên gốc (có thể chứa đường dẫn thư mục) lưu ở file .name đi kèm
+                String original = file.getOriginalFilename() != null ? file.getOriginalFilename() : "file-" + index;
+                Path staged = directory.resolve(String.format("%05d", index++));
+                file.transferTo(staged);
+                Files.writeString(directory.resolve(staged.getFileName() + ".name"), original);
+                totalBytes += Files.size(staged);
+            }
+        } catch (IOException e) {
+            deleteDirectory(directory);
+            throw e;
+        }
+
+        // Có trong map trước khi có trong data_jobs để lần quét resume không chạy trùng job này
+        ImportJob job = new ImportJob(jobId, userId, folderId, directory, totalBytes, LocalDateTime.now());
+        jobs.put(jobId, job);
+        try {
+            DataJob stored = new DataJob();
+            stored.setId(jobId);
+            stored.setType(DataJobType.IMPORT);
+            stored.setUserId(userId);
+            stored.setFolderId(folderId);
+            stored.setWorkPath(directory.toString());
+            stored.setTotalBytes(totalBytes);
+            stored.setCreatedAt(job.createdAt);
+            dataJobService.create(stored);
+        } catch (RuntimeException e) {
+            jobs.remove(jobId);
+            deleteDirectory(directory);
+            throw e;
+        }
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(jobId);
+            dataJobService.delete(jobId);
+            deleteDirectory(directory);
+            throw new JobQueueFullException(queueCapacity, RETRY_AFTER_SECONDS);
+        }
+        return toResponse(job);
+    }
+
+    public ImportJobResponse getJob(String userId, String jobId) {
+        ImportJob live = jobs.get(jobId);
+        if (live != null && live.userId.equals(userId)) {
+            return toResponse(live);
+        }
+        return toResponse(ImportJob.from(dataJobService.find(userId, jobId, DataJobType.IMPORT)));
+    }
+
+    public List<ImportJobResponse> listJobs(String userId, Integer limit) {
+        return dataJobService.list(userId, DataJobType.IMPORT, limit).stream()
+                .map(stored -> {
+                    ImportJob live = jobs.get(stored.getId());
+                    return toResponse(live != null ? live : ImportJob.from(stored));
+                })
+                .toList();
+    }
+
+    /**
+     * Job đang chờ bị hủy ngay; job đang chạy dừng ở entry tiếp theo, giữ các note đã import và bỏ batch đang gom
+     */
+    public ImportJobResponse cancel(String userId, String jobId) {
+        DataJob stored = dataJobService.requestCancel(userId, jobId, DataJobType.IMPORT);
+        ImportJob live = jobs.get(jobId);
+        if (live == null) {
+            return toResponse(ImportJob.from(stored));
+        }
+        live.cancelRequested = stored.isCancelRequested();
+        if (stored.getStatus() == DataJobStatus.CANCELLED) {
+            live.status = DataJobStatus.CANCELLED;
+            live.finishedAt = stored.getFinishedAt();
+        }
+        return toResponse(live);
+    }
+
+    /**
+     * Chạy tiếp các job chưa xong từ lần chạy trước (service dừng giữa chừng), bắt đầu từ cursor đã checkpoint.
+     * Hàng đợi đầy thì phần còn lại đợi lần quét sau
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${app.import.resume-interval-ms:60000}",
+            initialDelayString = "${app.import.resume-interval-ms:60000}")
+    public synchronized void resumeUnfinished() {
+        int resumed = 0;
+        for (DataJob stored : dataJobService.findUnfinished(DataJobType.IMPORT)) {
+            if (shuttingDown || jobs.containsKey(stored.getId())) {
+                continue;
+            }
+            if (!Files.isDirectory(Path.of(stored.getWorkPath()))) {
+                dataJobService.finish(stored.getId(), DataJobStatus.FAILED,
+                        new Update().push("errors", "Import aborted: staged upload is gone, cannot resume"));
+                continue;
+            }
+            if (dataJobService.failIfExhausted(stored)) {
+                deleteDirectory(Path.of(stored.getWorkPath()));
+                continue;
+            }
+            ImportJob job = ImportJob.from(stored);
+            job.status = DataJobStatus.QUEUED;
+            jobs.put(job.id, job);
+            try {
+                executor.execute(() -> run(job));
+                resumed++;
+            } catch (RejectedExecutionException e) {
+                jobs.remove(job.id);
+                break;
+            }
+        }
+        if (resumed > 0) {
+            System.out.println("🔁 Resumed " + resumed + " unfinished import jobs");
+        }
+    }
+
+    private void run(ImportJob job) {
+        DataJob claimed = dataJobService.claim(job.id);
+        if (claimed == null) {
+            // Bị cancel khi còn trong hàng đợi
+            job.status = DataJobStatus.CANCELLED;
+            jobs.remove(job.id);
+            deleteDirectory(job.directory);
+            return;
+        }
+        job.status = DataJobStatus.RUNNING;
+        job.startedAt = claimed.getStartedAt();
+        job.attempts = claimed.getAttempts();
+        long start = System.currentTimeMillis();
+        DataJobStatus result = null;
+        ImportRun run = null;
+        try (Stream<Path> staged = Files.list(job.directory)) {
+            run = new ImportRun(job);
+            List<Path> uploads = staged.filter(path -> !path.getFileName().toString().endsWith(".name"))
+                    .sorted(Comparator.comparing(Path::getFileName))
+                    .toList();
+            for (Path upload : uploads) {
+                String name = Files.readString(upload.resolveSibling(upload.getFileName() + ".name"));
+                if (name.toLowerCase().endsWith(".zip")) {
+                    try (InputStream in = new CountingInputStream(Files.newInputStream(upload), job.bytesRead)) {
+                        run.importZip(new ZipInputStream(new BufferedInputStream(in), StandardCharsets.UTF_8));
+                    }
+                } else {
+                    run.importFile(name, upload);
+                }
+            }
+            run.flush();
+            result = DataJobStatus.DONE;
+            System.out.println("📥 Import " + job.id + ": " + job.notesImported + " notes, " + job.foldersCreated
+                    + " folders in " + (System.currentTimeMillis() - start) + " ms"
+                    + (job.attempts > 1 ? " (resumed, attempt " + job.attempts + ")" : ""));
+        } catch (ImportCancelledException e) {
+            run.discard();
+            result = DataJobStatus.CANCELLED;
+            System.out.println("🛑 Import " + job.id + " cancelled after " + job.notesImported + " notes");
+        } catch (Exception e) {
+            if (shuttingDown) {
+                // Giữ job RUNNING và staging dir: lần start sau chạy tiếp từ checkpoint cuối
+                System.out.println("⏸️ Import " + job.id + " stopped at entry " + job.cursor + ", will resume on restart");
+            } else {
+                job.error("Import aborted: " + e.getMessage());
+                result = DataJobStatus.FAILED;
+                System.err.println("❌ Import job " + job.id + " failed: " + e.getMessage());
+            }
+        } finally {
+            if (result != null) {
+                job.status = result;
+                job.finishedAt = LocalDateTime.now();
+                dataJobService.finish(job.id, result, progress(job));
+                deleteDirectory(job.directory);
+            }
+            jobs.remove(job.id);
+        }
+    }
+
+    private static Update progress(ImportJob job) {
+        List<String> errors;
+        synchronized (job) {
+            errors = List.copyOf(job.errors);
+        }
+        return new Update()
+                .set("cursor", job.cursor)
+                .set("bytesRead", job.bytesRead.get())
+                .set("entriesProcessed", job.entriesProcessed)
+                .set("notesImported", job.notesImported)
+                .set("foldersCreated", job.foldersCreated)
+                .set("skipped", job.skipped)
+                .set("failed", job.failed)
+                .set("errors", errors);
+    }
+
+    /**
+     * Id note cố định theo (job, vị trí entry): chạy lại một batch sau restart thay đúng các note đó, không tạo bản trùng
+     */
+    private static String noteId(ImportJob job, long position) {
+        ByteBuffer bytes = ByteBuffer.allocate(12);
+        bytes.putInt((int) job.createdAt.atZone(ZoneId.systemDefault()).toEpochSecond());
+        bytes.putInt(job.id.hashCode());
+        bytes.putInt((int) position);
+        return new ObjectId(bytes.array()).toHexString();
+    }
+
+    /**
+     * Trạng thái của một lần chạy: cache folder theo đường dẫn, batch note đang gom và vị trí entry hiện tại
+     */
+    private final class ImportRun {
+        private final ImportJob job;
+        private final long resumeFrom;
+        private final String workspaceId;
+        private final Map<String, String> folderByPath = new HashMap<>();
+        private final Map<String, String> existingFolders = new HashMap<>();
+        private final List<Note> batch = new ArrayList<>();
+        private long pendingBytes;
+        // Số entry đã đi qua (kể cả entry bị bỏ qua/lỗi); entry trước resumeFrom đã xong ở lần chạy trước
+        private long position;
+
+        ImportRun(ImportJob job) {
+            this.job = job;
+            this.resumeFrom = job.cursor;
+            // Staging dir luôn được đọc lại từ đầu, kể cả khi chạy tiếp
+            job.bytesRead.set(0);
+            List<Folder> folders = folderService.getUserFolders(job.userId);
+            String workspace = null;
+            for (Folder folder : folders) {
+                existingFolders.put(folderKey(folder.getParentFolderId(), folder.getName()), folder.getId());
+                if (folder.getId().equals(job.folderId)) {
+                    workspace = folder.getWorkspaceId();
+                }
+            }
+            this.workspaceId = workspace;
+            folderByPath.put("", job.folderId);
+        }
+
+        void importZip(ZipInputStream zip) throws IOException {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                if (position >= resumeFrom) {
+                    if (entry.isDirectory()) {
+                        String path = normalize(entry.getName());
+                        if (path != null) {
+                            ensureFolder(path);
+                        }
+                    } else {
+                        importEntry(entry.getName(), zip);
+                    }
+                }
+                zip.closeEntry();
+                advance();
+            }
+        }
+
+        void importFile(String name, Path upload) throws IOException {
+            if (position >= resumeFrom) {
+                try (InputStream in = new CountingInputStream(Files.newInputStream(upload), job.bytesRead)) {
+                    importEntry(name, in);
+                }
+            } else {
+                job.bytesRead.addAndGet(Files.size(upload));
+            }
+            advance();
+        }
+
+        /**
+         * Xong một entry: kiểm tra cancel, đủ batch thì ghi và checkpoint
+         */
+        private void advance() {
+            position++;
+            if (dataJobService.isCancelRequested(job.id)) {
+                throw new ImportCancelledException();
+            }
+            if (batch.size() >= batchSize || pendingBytes >= batchBytes) {
+                flush();
+            }
+        }
+
+        private void importEntry(String rawName, InputStream in) throws IOException {
+            job.entriesProcessed++;
+            String path = normalize(rawName);
+            String lower = path != null ? path.toLowerCase() : "";
+            if (path == null || !(lower.endsWith(".md") || lower.endsWith(".markdown") || lower.endsWith(".txt"))) {
+                job.skipped++;
+                return;
+            }
+            // Chỉ đọc vào memory tới threshold, phần còn lại (nếu có) đi thẳng vào GridFS
+            byte[] bytes = in.readNBytes((int) Math.min(noteContentStore.getThresholdBytes(), maxNoteBytes) + 1);
+            if (bytes.length > maxNoteBytes) {
+                job.error(tooLarge(path));
+                return;
+            }
+
+            int slash = path.lastIndexOf('/');
+            String fileName = path.substring(slash + 1);
+            Note note = new Note();
+            note.setId(noteId(job, position));
+            note.setFolderId(ensureFolder(slash > 0 ? path.substring(0, slash) : ""));
+            note.setTitle(fileName.substring(0, fileName.lastIndexOf('.')));
+            note.setCreatedBy(job.userId);
+            if (noteContentStore.isLarge(bytes.length)) {
+                try {
+                    noteContentStore.apply(note, new SequenceInputStream(new ByteArrayInputStream(bytes),
+                            new LimitedInputStream(in, maxNoteBytes - bytes.length)));
+                } catch (NoteTooLargeException e) {
+                    // GridFS đã hủy các chunk của file dở dang
+                    job.error(tooLarge(path));
+                    return;
+                }
+                pendingBytes += note.getContentPreview().length();
+            } else {
+                note.setContent(new String(bytes, StandardCharsets.UTF_8));
+                pendingBytes += bytes.length;
+            }
+            note.setContentType("markdown");
+            note.setCreatedAt(LocalDateTime.now());
+            note.setUpdatedAt(LocalDateTime.now());
+            note.setVersion(1);
+            note.setTags(new ArrayList<>(List.of("imported")));
+            note.setIsImportant(false);
+            note.setIsDeleted(false);
+            batch.add(note);
+        }
+
+        /**
+         * Ghi batch đang gom rồi checkpoint: mọi entry trước position đã nằm trong DB
+         */
+        void flush() {
+            if (!batch.isEmpty()) {
+                if (job.attempts > 1) {
+                    removePartialBatch();
+                }
+                Collection<Note> inserted;
+                try {
+                    inserted = mongoTemplate.insert(batch, Note.class);
+                } catch (RuntimeException e) {
+                    discard();
+                    throw e;
+                }
+                inserted.forEach(noteSearchIndex::index);
+                job.notesImported += inserted.size();
+                batch.clear();
+                pendingBytes = 0;
+            }
+            job.cursor = position;
+            if (!dataJobService.checkpoint(job.id, progress(job))) {
+                throw new ImportCancelledException();
+            }
+        }
+
+        /**
+         * Lần chạy trước có thể đã insert một phần batch sau checkpoint cuối: xóa các note đó (cùng id) để ghi lại
+         */
+        private void removePartialBatch() {
+            List<String> ids = batch.stream().map(Note::getId).toList();
+            Query query = Query.query(Criteria.where("id").in(ids));
+            query.fields().include("contentRef");
+            List<Note> existing = mongoTemplate.find(query, Note.class);
+            if (!existing.isEmpty()) {
+                existing.forEach(note -> noteContentStore.delete(note.getContentRef()));
+                mongoTemplate.remove(Query.query(Criteria.where("id").in(ids)), Note.class);
+            }
+        }
+
+        /**
+         * Bỏ batch chưa ghi (cancel hoặc lỗi ghi), kèm content đã đưa vào GridFS
+         */
+        void discard() {
+            batch.forEach(note -> noteContentStore.delete(note.getContentRef()));
+            batch.clear();
+            pendingBytes = 0;
+        }
+
+        /**
+         * Folder ứng với đường dẫn (tương đối so với folder đích), tạo từng cấp còn thiếu
+         */
+        String ensureFolder(String path) {
+            if (folderByPath.containsKey(path)) {
+                return folderByPath.get(path);
+            }
+            int slash = path.lastIndexOf('/');
+            String parentId = ensureFolder(slash > 0 ? path.substring(0, slash) : "");
+            String name = path.substring(slash + 1);
+            String id = existingFolders.get(folderKey(parentId, name));
+            if (id == null) {
+                id = folderService.createFolder(name, job.userId, workspaceId, parentId).getId();
+                existingFolders.put(folderKey(parentId, name), id);
+                job.foldersCreated++;
+            }
+            folderByPath.put(path, id);
+            return id;
+        }
+    }
+
+    private String tooLarge(String path) {
+        return path + ": larger than " + maxNoteBytes / (1024 * 1024) + " MB";
+    }
+
+    private static String folderKey(String parentId, String name) {
+        return parentId + "/" + name;
+    }
+
+    /**
+     * Đường dẫn entry dạng "a/b/c.md"; null nếu cần bỏ qua (file ẩn, __MACOSX, có "..")
+     */
+    private static String normalize(String name) {
+        String path = name.replace('\\', '/');
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        while (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        if (path.isEmpty()) {
+            return null;
+        }
+        for (String segment : path.split("/")) {
+            if (segment.isBlank() || segment.startsWith(".") || segment.equals("__MACOSX")) {
+                return null;
+            }
+        }
+        return path;
+    }
+
+    @Scheduled(fixedDelayString = "${app.import.cleanup-interval-ms:60000}")
+    public void removeExpired() {
+        dataJobService.removeFinishedBefore(DataJobType.IMPORT, LocalDateTime.now().minus(jobTtl));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shuttingDown = true;
+        executor.shutdownNow();
+    }
+
+    private ImportJobResponse toResponse(ImportJob job) {
+        long read = Math.min(job.bytesRead.get(), job.totalBytes);
+        double progress = job.status == DataJobStatus.DONE ? 1.0 : job.totalBytes > 0 ? (double) read / job.totalBytes : 0;
+        List<String> errors;
+        synchronized (job) {
+            errors = List.copyOf(job.errors);
+        }
+        return new ImportJobResponse(
+                job.id,
+                job.folderId,
+                job.status.name(),
+                progress,
+                read,
+                job.totalBytes,
+                job.entriesProcessed,
+                job.notesImported,
+                job.foldersCreated,
+                job.skipped,
+                job.failed,
+                errors,
+                job.cursor,
+                job.attempts,
+                job.cancelRequested,
+                job.createdAt,
+                job.startedAt,
+                job.finishedAt);
+    }
+
+    private static void deleteDirectory(Path directory) {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            System.err.println("❌ Cannot delete import staging " + directory + ": " + e.getMessage());
+        }
+    }
+
+    private static final class NoteTooLargeException extends RuntimeException {
+    }
+
+    private static final class ImportCancelledException extends RuntimeException {
+    }
+
+    /**
+     * Cho đọc tối đa limit byte, vượt thì ném NoteTooLargeException; close không đóng stream gốc
+     * (SequenceInputStream đóng stream đã đọc hết, còn ZIP phải đọc tiếp entry sau)
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0 && --remaining < 0) {
+                throw new NoteTooLargeException();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0 && (remaining -= n) < 0) {
+                throw new NoteTooLargeException();
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Đếm số byte upload đã đọc để báo tiến độ (với ZIP là byte nén)
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private final AtomicLong counter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            this.counter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                counter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                counter.addAndGet(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            counter.addAndGet(skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.smartnote.noteservice.service;
+
+import com.smartnote.noteservice.model.DataJob;
+import com.smartnote.noteservice.model.DataJobStatus;
+import com.smartnote.noteservice.model.DataJobType;
+import com.smartnote.noteservice.repository.DataJobRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Trạng thái job import/export trong collection data_jobs
+ *
+ * - Worker nhận job bằng claim (findAndModify), job đã bị cancel thì không chạy nữa
+ * - Tiến độ chỉ ghi ở checkpoint (sau mỗi batch đã ghi xong), không ghi theo từng entry;
+ *   checkpoint trả về cờ cancel để worker dừng kể cả khi cancel được gửi tới instance khác
+ * - Job QUEUED/RUNNING còn lại khi service dừng đột ngột được worker chạy tiếp từ cursor lúc start;
+ *   job đã được nhận max-attempts lần mà vẫn chưa xong thì bị đánh FAILED thay vì chạy lại mãi
+ */
+@Service
+public class DataJobService {
+
+    private static final List<DataJobStatus> ACTIVE = List.of(DataJobStatus.QUEUED, DataJobStatus.RUNNING);
+    private static final List<DataJobStatus> FINISHED =
+            List.of(DataJobStatus.DONE, DataJobStatus.FAILED, DataJobStatus.CANCELLED);
+    private static final int MAX_LIST_SIZE = 100;
+
+    private final DataJobRepository dataJobRepository;
+    private final MongoTemplate mongoTemplate;
+    private final int maxAttempts;
+
+    // Job bị cancel trên instance này: worker thấy ngay ở entry tiếp theo, không đợi checkpoint
+    private final Set<String> cancelled = ConcurrentHashMap.newKeySet();
+
+    public DataJobService(DataJobRepository dataJobRepository,
+                          MongoTemplate mongoTemplate,
+                          @Value("${app.jobs.max-attempts:3}") int maxAttempts) {
+        this.dataJobRepository = dataJobRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.maxAttempts = Math.max(1, maxAttempts);
+    }
+
+    public DataJob create(DataJob job) {
+        job.setStatus(DataJobStatus.QUEUED);
+        if (job.getCreatedAt() == null) {
+            job.setCreatedAt(LocalDateTime.now());
+        }
+        return dataJobRepository.insert(job);
+    }
+
+    public void delete(String id) {
+        dataJobRepository.deleteById(id);
+    }
+
+    /**
+     * Worker nhận job: job phải còn QUEUED, hoặc RUNNING khi chạy tiếp sau restart, và chưa bị cancel
+     * @return job mới nhất, null nếu job đã bị cancel/xóa trong lúc chờ
+     */
+    public DataJob claim(String id) {
+        Query query = Query.query(Criteria.where("id").is(id)
+                .and("status").in(ACTIVE)
+                .and("cancelRequested").ne(true));
+        Update update = new Update()
+                .set("status", DataJobStatus.RUNNING)
+                .set("startedAt", LocalDateTime.now())
+                .inc("attempts", 1);
+        DataJob job = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), DataJob.class);
+        if (job == null) {
+            // Job RUNNING bị cancel rồi service dừng trước khi worker kịp kết thúc: đóng lại để không resume mãi
+            mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("id").is(id).and("status").in(ACTIVE).and("cancelRequested").is(true)),
+                    new Update().set("status", DataJobStatus.CANCELLED).set("finishedAt", LocalDateTime.now()),
+                    DataJob.class);
+            cancelled.remove(id);
+        }
+        return job;
+    }
+
+    /**
+     * Ghi tiến độ của job đang chạy
+     * @return false nếu job đã bị yêu cầu cancel
+     */
+    public boolean checkpoint(String id, Update progress) {
+        progress.set("checkpointAt", LocalDateTime.now());
+        DataJob job = mongoTemplate.findAndModify(Query.query(Criteria.where("id").is(id)), progress,
+                FindAndModifyOptions.options().returnNew(true), DataJob.class);
+        return job != null && !job.isCancelRequested() && !cancelled.contains(id);
+    }
+
+    public boolean isCancelRequested(String id) {
+        return cancelled.contains(id);
+    }
+
+    public void finish(String id, DataJobStatus status, Update result) {
+        result.set("status", status).set("finishedAt", LocalDateTime.now());
+        mongoTemplate.updateFirst(Query.query(Criteria.where("id").is(id)), result, DataJob.class);
+        cancelled.remove(id);
+    }
+
+    /**
+     * Job đang chờ thì dừng luôn (CANCELLED); job đang chạy được đánh dấu, worker dừng ở entry/checkpoint tiếp theo.
+     * Job đã kết thúc thì giữ nguyên
+     */
+    public DataJob requestCancel(String userId, String id, DataJobType type) {
+        DataJob job = find(userId, id, type);
+        if (!ACTIVE.contains(job.getStatus())) {
+            return job;
+        }
+        FindAndModifyOptions returnNew = FindAndModifyOptions.options().returnNew(true);
+        DataJob queued = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("id").is(id).and("status").is(DataJobStatus.QUEUED)),
+                new Update().set("status", DataJobStatus.CANCELLED)
+                        .set("cancelRequested", true)
+                        .set("finishedAt", LocalDateTime.now()),
+                returnNew, DataJob.class);
+        if (queued != null) {
+            return queued;
+        }
+        cancelled.add(id);
+        DataJob running = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("id").is(id).and("status").is(DataJobStatus.RUNNING)),
+                new Update().set("cancelRequested", true),
+                returnNew, DataJob.class);
+        return running != null ? running : find(userId, id, type);
+    }
+
+    public DataJob find(String userId, String id, DataJobType type) {
+        return dataJobRepository.findById(id)
+                .filter(job -> job.getType() == type && job.getUserId().equals(userId))
+                .orElseThrow(() -> new RuntimeException("Job not found: " + id));
+    }
+
+    public List<DataJob> list(String userId, DataJobType type, Integer limit) {
+        int size = Math.max(1, Math.min(limit != null ? limit : 20, MAX_LIST_SIZE));
+        return dataJobRepository.findByUserIdAndTypeOrderByCreatedAtDesc(userId, type, PageRequest.of(0, size));
+    }
+
+    /**
+     * Job chưa xong, dùng khi start để chạy tiếp
+     */
+    public List<DataJob> findUnfinished(DataJobType type) {
+        return dataJobRepository.findByTypeAndStatusIn(type, ACTIVE);
+    }
+
+    /**
+     * Job chưa xong đã được nhận đủ maxAttempts lần (mỗi lần service đều dừng giữa chừng, vd. OOM vì chính job này):
+     * đánh FAILED để lần quét resume không nhận lại nữa
+     * @return true nếu job đã hết lượt (caller bỏ qua và dọn file của job), false nếu còn được chạy tiếp
+     */
+    public boolean failIfExhausted(DataJob job) {
+        if (job.getAttempts() < maxAttempts) {
+            return false;
+        }
+        // Chỉ đổi job vẫn còn chưa xong và chưa bị nhận thêm lần nào kể từ lúc đọc
+        DataJob failed = mongoTemplate.findAndModify(
+                Query.query(Criteria.where("id").is(job.getId())
+                        .and("status").in(ACTIVE)
+                        .and("attempts").is(job.getAttempts())),
+                new Update().set("status", DataJobStatus.FAILED)
+                        .set("finishedAt", LocalDateTime.now())
+                        .push("errors", "Job aborted: still unfinished after " + job.getAttempts() + " attempts"),
+                FindAndModifyOptions.options().returnNew(true), DataJob.class);
+        cancelled.remove(job.getId());
+        if (failed == null) {
+            // Job vừa kết thúc hoặc vừa được nhận ở nơi khác: để lần quét sau xem lại
+            return true;
+        }
+        System.err.println("❌ " + job.getType() + " job " + job.getId() + " failed after "
+                + job.getAttempts() + " attempts, not resuming");
+        return true;
+    }
+
+    /**
+     * Xóa job đã kết thúc trước cutoff, trả về các job đã xóa để caller dọn file
+     */
+    public List<DataJob> removeFinishedBefore(DataJobType type, LocalDateTime cutoff) {
+        List<DataJob> expired = dataJobRepository.findByTypeAndStatusInAndFinishedAtBefore(type, FINISHED, cutoff);
+        dataJobRepository.deleteAll(expired);
+        return expired;
+    }
+
+    public long count(DataJobType type) {
+        return dataJobRepository.countByType(type);
+    }
+}
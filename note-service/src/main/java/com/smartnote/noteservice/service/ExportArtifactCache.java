@@ -0,0 +1,231 @@
+package com.smartnote.noteservice.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Cache file export trên disk, khóa là ExportService.artifactKey (note + version + format + template)
+ *
+ * - LRU theo tổng dung lượng file (max-mb), vượt thì xóa file ít dùng nhất
+ * - Index trong memory dựng lại từ thư mục khi start, thứ tự LRU lấy theo last-modified
+ *   (được cập nhật mỗi lần hit)
+ * - File được copy vào cache rồi rename, nên không bao giờ đọc phải file ghi dở
+ * - Đọc file qua Lease: file bị evict trong lúc còn lease chỉ bị xóa khi lease cuối cùng đóng,
+ *   nên response/ZIP đang stream không bị cắt giữa chừng
+ */
+@Component
+public class ExportArtifactCache {
+
+    private final Path directory;
+    private final long maxBytes;
+
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+    // Số lease đang mở theo tên file, và các file đã evict nhưng còn lease (xóa khi lease cuối đóng)
+    private final Map<String, Integer> readers = new HashMap<>();
+    private final Set<String> pendingDelete = new HashSet<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ExportArtifactCache(@Value("${app.export.cache.dir:./data/export-cache}") String directory,
+                               @Value("${app.export.cache.max-mb:512}") long maxMb) {
+        this.directory = Path.of(directory);
+        this.maxBytes = maxMb * 1024 * 1024;
+        load();
+    }
+
+    private void load() {
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                List<Path> artifacts = files.filter(Files::isRegularFile).toList();
+                for (Path file : artifacts) {
+                    if (file.getFileName().toString().endsWith(".tmp")) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+                artifacts.stream()
+                        .filter(file -> !file.getFileName().toString().endsWith(".tmp"))
+                        .sorted(Comparator.comparing(ExportArtifactCache::lastModified))
+                        .forEach(file -> {
+                            long size = file.toFile().length();
+                            entries.put(file.getFileName().toString(), size);
+                            bytes += size;
+                        });
+            }
+            evict();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open export cache " + directory, e);
+        }
+    }
+
+    /**
+     * Mượn file đã cache, null nếu chưa có (hoặc đã bị xóa khỏi disk).
+     * File không bị xóa cho tới khi lease được đóng, kể cả khi bị evict trong lúc đang đọc
+     */
+    public Lease acquire(String key, String extension) {
+        String name = key + "." + extension;
+        Path file = directory.resolve(name);
+        long size;
+        synchronized (this) {
+            Long cached = entries.get(name);
+            if (cached == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            if (!Files.exists(file)) {
+                bytes -= entries.remove(name);
+                misses.incrementAndGet();
+                return null;
+            }
+            size = cached;
+            readers.merge(name, 1, Integer::sum);
+        }
+        hits.incrementAndGet();
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException ignored) {
+            // Chỉ ảnh hưởng thứ tự LRU sau restart
+        }
+        return new Lease(name, file, size);
+    }
+
+    private synchronized void release(String name) {
+        Integer left = readers.merge(name, -1, Integer::sum);
+        if (left != null && left > 0) {
+            return;
+        }
+        readers.remove(name);
+        if (pendingDelete.remove(name)) {
+            delete(name);
+        }
+    }
+
+    /**
+     * Copy file vừa render vào cache; file lớn hơn cả budget thì bỏ qua
+     */
+    public void put(String key, String extension, Path source) {
+        String name = key + "." + extension;
+        Path target = directory.resolve(name);
+        Path tmp = null;
+        try {
+            long size = Files.size(source);
+            if (size > maxBytes) {
+                return;
+            }
+            // Tên tạm riêng cho mỗi lần ghi: hai job cùng note có thể put cùng lúc
+            tmp = Files.createTempFile(directory, name, ".tmp");
+            Files.copy(source, tmp, StandardCopyOption.REPLACE_EXISTING);
+            synchronized (this) {
+                // Rename trong lock: release() của file cũ (đang chờ xóa) không được xóa nhầm file mới
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                pendingDelete.remove(name);
+                Long previous = entries.put(name, size);
+                bytes += size - (previous != null ? previous : 0);
+                evict();
+            }
+        } catch (IOException e) {
+            System.err.println("❌ Cannot cache export " + name + ": " + e.getMessage());
+            try {
+                if (tmp != null) {
+                    Files.deleteIfExists(tmp);
+                }
+            } catch (IOException ignored) {
+                // File tạm sẽ bị dọn khi start lại
+            }
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> iterator = entries.entrySet().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            bytes -= eldest.getValue();
+            evictions.incrementAndGet();
+            if (readers.containsKey(eldest.getKey())) {
+                pendingDelete.add(eldest.getKey());
+            } else {
+                delete(eldest.getKey());
+            }
+        }
+    }
+
+    private void delete(String name) {
+        try {
+            Files.deleteIfExists(directory.resolve(name));
+        } catch (IOException e) {
+            System.err.println("❌ Cannot evict export " + name + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("entries", entries.size());
+        stats.put("bytes", bytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("pendingDelete", pendingDelete.size());
+        return stats;
+    }
+
+    /**
+     * File cache đang được đọc; close() trả lại (gọi nhiều lần không sao)
+     */
+    public final class Lease implements AutoCloseable {
+        private final String name;
+        private final Path path;
+        private final long size;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Lease(String name, Path path, long size) {
+            this.name = name;
+            this.path = path;
+            this.size = size;
+        }
+
+        public Path path() {
+            return path;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release(name);
+            }
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
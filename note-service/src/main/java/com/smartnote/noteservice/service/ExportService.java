@@ -2,92 +2,278 @@ package com.smartnote.noteservice.service;
 
 import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
 import com.smartnote.noteservice.dto.NoteResponse;
-import org.commonmark.node.Node;
+import com.smartnote.noteservice.search.LatencyStats;
+import jakarta.annotation.PostConstruct;
 import org.commonmark.parser.Parser;
 import org.commonmark.renderer.html.HtmlRenderer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @Service
 public class ExportService {
 
-    public byte[] exportNoteToPdf(NoteResponse note) throws IOException {
-        String markdown = note.getContent();
-        if (markdown == null || markdown.isBlank()) {
-            markdown = "[Nội dung trống]";
+    // Parser và HtmlRenderer của commonmark là immutable, thread-safe: dùng chung thay vì build mỗi lần export
+    private static final Parser PARSER = Parser.builder().build();
+    private static final HtmlRenderer RENDERER = HtmlRenderer.builder().build();
+
+    // Phần <head> cố định, ghép sẵn một lần
+    private static final String HTML_HEAD = "<!DOCTYPE html>" +
+            "<html>" +
+            "<head>" +
+            "<meta charset=\"UTF-8\"/>" +
+            "<style>" +
+            "@page { size: A4; margin: 2cm; }" +
+            "body { " +
+            "  font-family: 'DejaVu Sans', Arial, sans-serif; " +
+            "  font-size: 12pt; " +
+            "  line-height: 1.6; " +
+            "  color: #333; " +
+            "}" +
+            "h1 { " +
+            "  font-size: 24pt; " +
+            "  color: #2c3e50; " +
+            "  margin-bottom: 20px; " +
+            "  border-bottom: 2px solid #3498db; " +
+            "  padding-bottom: 10px; " +
+            "}" +
+            "h2 { font-size: 18pt; color: #34495e; margin-top: 20px; }" +
+            "h3 { font-size: 14pt; color: #34495e; margin-top: 15px; }" +
+            "p { margin: 10px 0; }" +
+            "pre { " +
+            "  background-color: #f5f5f5; " +
+            "  border: 1px solid #ddd; " +
+            "  padding: 15px; " +
+            "  border-radius: 5px; " +
+            "  overflow-x: auto; " +
+            "}" +
+            "code { " +
+            "  font-family: 'DejaVu Sans Mono', 'Courier New', monospace; " +
+            "  font-size: 10pt; " +
+            "}" +
+            "ul, ol { margin: 10px 0; padding-left: 30px; }" +
+            "li { margin: 5px 0; }" +
+            "blockquote { " +
+            "  border-left: 4px solid #3498db; " +
+            "  margin: 15px 0; " +
+            "  padding-left: 15px; " +
+            "  color: #555; " +
+            "  font-style: italic; " +
+            "}" +
+            "</style>" +
+            "</head>" +
+            "<body>";
+
+    private static final String HTML_TAIL = "</body></html>";
+
+    private static final String TEMPLATE_HASH = Integer.toHexString((HTML_HEAD + HTML_TAIL).hashCode());
+
+    // Note mẫu cho lần render warm-up: đủ heading, list, code, quote, đậm/nghiêng và chữ có dấu
+    private static final String WARM_UP_MARKDOWN = """
+            # Khởi động bộ render PDF
+            ## Tiêu đề phụ
+            Đoạn văn có **chữ đậm**, *chữ nghiêng* và `code` tiếng Việt: ắ ằ ẳ ẵ ặ ố ồ ổ ỗ ộ ướ ừ ử ữ ự.
+
+            - Mục một
+            - Mục hai
+
+            1. Bước một
+            2. Bước hai
+
+            > Trích dẫn
+
+            ```
+            System.out.println("warm-up");
+            ```
+            """;
+
+    private final HtmlCache htmlCache;
+    private final PdfFontRegistry fontRegistry;
+    private final boolean warmUpEnabled;
+
+    private final LatencyStats renderLatency = new LatencyStats();
+    private volatile long warmUpMs = -1;
+    private volatile long firstRenderMs = -1;
+
+    public ExportService(PdfFontRegistry fontRegistry,
+                         @Value("${app.export.html-cache-mb:32}") long htmlCacheMb,
+                         @Value("${app.export.pdf.warm-up:true}") boolean warmUpEnabled) {
+        this.fontRegistry = fontRegistry;
+        this.htmlCache = new HtmlCache(htmlCacheMb * 1024 * 1024);
+        this.warmUpEnabled = warmUpEnabled;
+    }
+
+    /**
+     * Render một note mẫu trước khi web server nhận request: nạp class, parse CSS mặc định của openhtmltopdf,
+     * đo font vào metrics cache và cho JIT chạy qua đường render, để export đầu tiên của user không bị chậm
+     */
+    @PostConstruct
+    public void warmUp() {
+        if (!warmUpEnabled) {
+            return;
+        }
+        NoteResponse sample = new NoteResponse();
+        sample.setTitle("Warm-up");
+        sample.setContent(WARM_UP_MARKDOWN);
+        long start = System.nanoTime();
+        try {
+            render(buildHtml(sample.getTitle(), sample.getContent()), OutputStream.nullOutputStream());
+            warmUpMs = (System.nanoTime() - start) / 1_000_000;
+            System.out.println("🔥 PDF renderer warmed up in " + warmUpMs + " ms");
+        } catch (Exception e) {
+            System.err.println("❌ PDF warm-up failed: " + e.getMessage());
         }
+    }
+
+    /**
+     * Render PDF thẳng ra stream (file tạm của export job), không giữ cả file PDF trên heap
+     */
+    public void writePdf(NoteResponse note, OutputStream os) throws IOException {
+        String finalHtml = renderHtml(note);
 
-        Parser parser = Parser.builder().build();
-        Node document = parser.parse(markdown);
-        HtmlRenderer renderer = HtmlRenderer.builder().build();
-        String html = renderer.render(document);
-
-        // Thêm meta charset và CSS tốt hơn
-        String finalHtml = "<!DOCTYPE html>" +
-                "<html>" +
-                "<head>" +
-                "<meta charset=\"UTF-8\"/>" +
-                "<style>" +
-                "@page { size: A4; margin: 2cm; }" +
-                "body { " +
-                "  font-family: 'DejaVu Sans', Arial, sans-serif; " +
-                "  font-size: 12pt; " +
-                "  line-height: 1.6; " +
-                "  color: #333; " +
-                "}" +
-                "h1 { " +
-                "  font-size: 24pt; " +
-                "  color: #2c3e50; " +
-                "  margin-bottom: 20px; " +
-                "  border-bottom: 2px solid #3498db; " +
-                "  padding-bottom: 10px; " +
-                "}" +
-                "h2 { font-size: 18pt; color: #34495e; margin-top: 20px; }" +
-                "h3 { font-size: 14pt; color: #34495e; margin-top: 15px; }" +
-                "p { margin: 10px 0; }" +
-                "pre { " +
-                "  background-color: #f5f5f5; " +
-                "  border: 1px solid #ddd; " +
-                "  padding: 15px; " +
-                "  border-radius: 5px; " +
-                "  overflow-x: auto; " +
-                "}" +
-                "code { " +
-                "  font-family: 'Courier New', monospace; " +
-                "  font-size: 10pt; " +
-                "}" +
-                "ul, ol { margin: 10px 0; padding-left: 30px; }" +
-                "li { margin: 5px 0; }" +
-                "blockquote { " +
-                "  border-left: 4px solid #3498db; " +
-                "  margin: 15px 0; " +
-                "  padding-left: 15px; " +
-                "  color: #555; " +
-                "  font-style: italic; " +
-                "}" +
-                "</style>" +
-                "</head>" +
-                "<body>" +
-                "<h1>" + escapeHtml(note.getTitle()) + "</h1>" + 
-                html +
-                "</body></html>";
-
-        try (ByteArrayOutputStream os = new ByteArrayOutputStream()) {
-            PdfRendererBuilder builder = new PdfRendererBuilder();
-            builder.withHtmlContent(finalHtml, null);
-            builder.toStream(os);
-            builder.run();
-            return os.toByteArray();
+        long start = System.nanoTime();
+        try {
+            render(finalHtml, os);
         } catch (Exception e) {
             // Log chi tiết lỗi
             System.err.println("Error generating PDF: " + e.getMessage());
             e.printStackTrace();
             throw new IOException("Failed to generate PDF: " + e.getMessage(), e);
         }
+        long elapsed = System.nanoTime() - start;
+        if (renderLatency.count() == 0) {
+            firstRenderMs = elapsed / 1_000_000;
+        }
+        renderLatency.record(elapsed);
+    }
+
+    private void render(String html, OutputStream os) throws IOException {
+        PdfRendererBuilder builder = new PdfRendererBuilder();
+        fontRegistry.configure(builder);
+        builder.withHtmlContent(html, null);
+        builder.toStream(os);
+        builder.run();
+    }
+
+    /**
+     * So sánh độ trễ render lần đầu (cold, hoặc warm-up nếu bật) với các lần sau
+     */
+    public Map<String, Object> getRenderStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("fonts", fontRegistry.families());
+        stats.put("fontBytes", fontRegistry.loadedBytes());
+        stats.put("warmUpMs", warmUpMs);
+        stats.put("firstRenderMs", firstRenderMs);
+        stats.put("renders", renderLatency.count());
+        stats.put("renderP50Micros", renderLatency.percentileMicros(0.50));
+        stats.put("renderP99Micros", renderLatency.percentileMicros(0.99));
+        return stats;
+    }
+
+    /**
+     * HTML đầy đủ của note, lấy từ cache theo (noteId, version, title)
+     * Mọi thay đổi content (cả từ collab-service) đều tăng version; title đổi qua PATCH không tăng version nên phải nằm trong khóa
+     */
+    String renderHtml(NoteResponse note) {
+        String markdown = markdownOf(note);
+        String title = note.getTitle();
+        if (note.getId() == null) {
+            return buildHtml(title, markdown);
+        }
+
+        HtmlKey key = new HtmlKey(note.getId(), note.getVersion(), title);
+        String cached = htmlCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        String html = buildHtml(title, markdown);
+        htmlCache.put(key, html);
+        return html;
+    }
+
+    /**
+     * Khóa của file export: (noteId, version, title, format, template), không cần đọc content.
+     * Content chỉ đổi kèm version tăng; title đổi qua PATCH không tăng version nên nằm trong khóa.
+     * Đổi CSS/template thì TEMPLATE_HASH đổi, mọi file cũ tự thành miss; dùng luôn làm ETag
+     */
+    public String artifactKey(NoteResponse note, String format) {
+        String source = note.getId() + "|" + note.getVersion() + "|" + format + "|" + TEMPLATE_HASH + "|"
+                + note.getTitle();
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String markdownOf(NoteResponse note) {
+        String markdown = note.getContent();
+        if (markdown == null || markdown.isBlank()) {
+            markdown = "[Nội dung trống]";
+        }
+        return markdown;
+    }
+
+    private String buildHtml(String title, String markdown) {
+        String body = RENDERER.render(PARSER.parse(markdown));
+        return HTML_HEAD +
+                "<h1>" + escapeHtml(title) + "</h1>" +
+                body +
+                HTML_TAIL;
     }
-    
+
+    private record HtmlKey(String noteId, Integer version, String title) {
+    }
+
+    /**
+     * LRU giới hạn theo tổng dung lượng HTML (ước lượng 2 byte/char), không theo số entry:
+     * một note rất dài không được chiếm chỗ của hàng trăm note ngắn mà không bị tính
+     */
+    private static final class HtmlCache {
+        private final long maxBytes;
+        private final LinkedHashMap<HtmlKey, String> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private long bytes;
+
+        HtmlCache(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized String get(HtmlKey key) {
+            return entries.get(key);
+        }
+
+        synchronized void put(HtmlKey key, String html) {
+            long size = sizeOf(html);
+            if (size > maxBytes) {
+                return;
+            }
+            String previous = entries.put(key, html);
+            if (previous != null) {
+                bytes -= sizeOf(previous);
+            }
+            bytes += size;
+            var iterator = entries.entrySet().iterator();
+            while (bytes > maxBytes && iterator.hasNext()) {
+                Map.Entry<HtmlKey, String> eldest = iterator.next();
+                bytes -= sizeOf(eldest.getValue());
+                iterator.remove();
+            }
+        }
+
+        private static long sizeOf(String html) {
+            return 2L * html.length();
+        }
+    }
+
     // Helper method để escape HTML
     private String escapeHtml(String text) {
         if (text == null) return "";
@@ -97,4 +283,4 @@ public class ExportService {
                    .replace("\"", "&quot;")
                    .replace("'", "&#39;");
     }
-}
\ No newline at end of file
+}
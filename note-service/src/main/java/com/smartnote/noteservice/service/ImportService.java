@@ -7,6 +7,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 
@@ -17,6 +18,7 @@ import java.util.List;
 @RequiredArgsConstructor
 public class ImportService {
     private final NoteService noteService;
+    private final NoteContentStore noteContentStore;
 
     /**
      * Nhập một ghi chú từ một file (ví dụ: .md, .txt).
@@ -31,8 +33,6 @@ public class ImportService {
         if (file.isEmpty()) {
             throw new IllegalArgumentException("File is empty. Please select a file to upload.");
         }
-        String content = new String(file.getBytes(), StandardCharsets.UTF_8);
-
         String title = file.getOriginalFilename();
         if (title != null) {
             title = title.replaceAll("\\.md$", "").replaceAll("\\.txt$", "");
@@ -42,10 +42,17 @@ public class ImportService {
 
         NoteRequest request = new NoteRequest();
         request.setTitle(title);
-        request.setContent(content);
         request.setFolderId(folderId);
         request.setContentType("markdown"); 
         request.setTags(List.of("imported")); 
+
+        // File lớn (log, transcript...) đi thẳng từ upload vào GridFS, không đọc hết vào memory
+        if (noteContentStore.isLarge(file.getSize())) {
+            try (InputStream in = file.getInputStream()) {
+                return noteService.createNote(request, userId, in);
+            }
+        }
+        request.setContent(new String(file.getBytes(), StandardCharsets.UTF_8));
         return noteService.createNote(request, userId);
     }
 }
\ No newline at end of file
@@ -0,0 +1,197 @@
+package com.smartnote.noteservice.service;
+
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.smartnote.noteservice.model.Note;
+import com.smartnote.noteservice.util.TextDiff;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content lớn của note nằm trong GridFS thay vì trong document note
+ *
+ * - Content vượt threshold-kb được GridFS cắt thành chunk (255 KB), document note chỉ giữ
+ *   content_ref, content_size và content_preview (snippet cho danh sách), nên không chạm giới hạn 16 MB
+ *   và các lần đọc metadata không kéo theo content
+ * - Đọc/export stream từng chunk ra response; import file lớn ghi thẳng từ stream, không qua String
+ * - collab-service ghi thẳng field content vào cùng collection notes nên chỉ sửa note không có content_ref;
+ *   chỉ note-service tạo/xóa content_ref (chuyển inline <-> GridFS khi content đổi qua API của note-service)
+ */
+@Component
+public class NoteContentStore {
+
+    public static final int PREVIEW_LENGTH = 160;
+    private static final String CONTENT_TYPE = "text/markdown";
+
+    private final GridFsTemplate gridFsTemplate;
+    private final long thresholdBytes;
+
+    private final AtomicLong storedFiles = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong streamedReads = new AtomicLong();
+    private final AtomicLong deletedFiles = new AtomicLong();
+
+    public NoteContentStore(GridFsTemplate gridFsTemplate,
+                            @Value("${app.notes.chunked-content.threshold-kb:1024}") long thresholdKb) {
+        this.gridFsTemplate = gridFsTemplate;
+        this.thresholdBytes = thresholdKb * 1024;
+    }
+
+    public boolean isLarge(long sizeBytes) {
+        return sizeBytes > thresholdBytes;
+    }
+
+    public long getThresholdBytes() {
+        return thresholdBytes;
+    }
+
+    /**
+     * Gán content cho note mới: nhỏ thì để inline, lớn thì ghi vào GridFS
+     */
+    public void apply(Note note, String content) {
+        if (content == null || !isLarge(TextDiff.utf8Length(content))) {
+            note.setContent(content);
+            return;
+        }
+        store(note, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        note.setContentPreview(preview(content));
+    }
+
+    /**
+     * Ghi content từ stream (file import) vào GridFS, preview lấy từ phần đầu stream
+     */
+    public void apply(Note note, InputStream content) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(content);
+        // Preview tính theo ký tự, đọc dư byte cho ký tự nhiều byte (tiếng Việt tới 3 byte)
+        in.mark(PREVIEW_LENGTH * 4);
+        String head = new String(in.readNBytes(PREVIEW_LENGTH * 4), StandardCharsets.UTF_8);
+        in.reset();
+        store(note, in);
+        note.setContentPreview(preview(head));
+    }
+
+    /**
+     * Ghi một văn bản vào GridFS (keyframe lớn của history), trả về content_ref của file mới
+     */
+    public String storeText(String filename, String createdBy, String content) {
+        Note holder = new Note();
+        holder.setTitle(filename);
+        holder.setCreatedBy(createdBy);
+        store(holder, new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+        return holder.getContentRef();
+    }
+
+    private void store(Note note, InputStream in) {
+        CountingStream counting = new CountingStream(in);
+        ObjectId id = gridFsTemplate.store(counting, note.getTitle(), CONTENT_TYPE,
+                new Document("created_by", note.getCreatedBy()));
+        note.setContent(null);
+        note.setContentRef(id.toHexString());
+        note.setContentSize(counting.count);
+        storedFiles.incrementAndGet();
+        storedBytes.addAndGet(counting.count);
+    }
+
+    private static String preview(String content) {
+        String preview = content.length() > PREVIEW_LENGTH ? content.substring(0, PREVIEW_LENGTH) : content;
+        // Phần đầu stream có thể cắt ngang một ký tự nhiều byte
+        return preview.replace("\uFFFD", "");
+    }
+
+    /**
+     * Mở stream đọc content; caller đóng stream
+     */
+    public InputStream open(String ref) throws IOException {
+        GridFSFile file = gridFsTemplate.findOne(Query.query(Criteria.where("_id").is(new ObjectId(ref))));
+        if (file == null) {
+            throw new IOException("Note content not found: " + ref);
+        }
+        streamedReads.incrementAndGet();
+        return gridFsTemplate.getResource(file).getInputStream();
+    }
+
+    /**
+     * Copy content ra out theo từng chunk, không giữ cả content trong memory
+     */
+    public void transferTo(String ref, OutputStream out) throws IOException {
+        try (InputStream in = open(ref)) {
+            in.transferTo(out);
+        }
+    }
+
+    /**
+     * Đọc hết content thành String, chỉ dùng khi thật sự cần cả văn bản (render PDF)
+     */
+    public String read(String ref) {
+        try (InputStream in = open(ref)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void delete(String ref) {
+        if (ref == null) {
+            return;
+        }
+        try {
+            gridFsTemplate.delete(Query.query(Criteria.where("_id").is(new ObjectId(ref))));
+            deletedFiles.incrementAndGet();
+        } catch (RuntimeException e) {
+            // File mồ côi chỉ tốn chỗ, không ảnh hưởng note
+            System.err.println("❌ Cannot delete note content " + ref + ": " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("thresholdBytes", thresholdBytes);
+        stats.put("storedFiles", storedFiles.get());
+        stats.put("storedBytes", storedBytes.get());
+        stats.put("streamedReads", streamedReads.get());
+        stats.put("deletedFiles", deletedFiles.get());
+        return stats;
+    }
+
+    private static final class CountingStream extends InputStream {
+        private final InputStream in;
+        private long count;
+
+        CountingStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package com.smartnote.noteservice.service;
+
+import com.smartnote.noteservice.model.Note;
+import com.smartnote.noteservice.model.NoteHistory;
+import com.smartnote.noteservice.model.NoteHistoryPruneState;
+import com.smartnote.noteservice.util.TextDiff;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * Dọn note_history theo retention policy
+ *
+ * - Giữ tất cả version trong keep-all-hours gần nhất
+ * - Tới hourly-hours: mỗi giờ giữ version mới nhất
+ * - Tới daily-days: mỗi ngày giữ version mới nhất, cũ hơn thì xóa
+ * - Mỗi note giữ tối đa max-versions-per-note, version mới nhất luôn được giữ
+ *
+ * Version còn lại mà base delta bị xóa sẽ được rebase lên version còn lại liền trước
+ * (hoặc thành keyframe) trước khi xóa, để chain luôn dựng lại được.
+ * History của note không còn tồn tại (orphan) cũng bị xóa.
+ * Keyframe lớn nằm trong GridFS: file bị xóa cùng version, rebase thành keyframe lớn thì ghi file mới.
+ *
+ * Mỗi lần chạy chỉ xét note có version mới từ lần trước, hoặc note có version còn giữ
+ * vừa tới lúc rời bucket (next_prune_at trong note_history_prune_state).
+ * Lượt đầu chỉ đọc metadata để chọn version giữ lại; content/delta chỉ được đọc cho version bị xóa
+ * và version cần rebase.
+ */
+@Component
+public class NoteHistoryPruner {
+
+    private final MongoTemplate mongoTemplate;
+    private final NoteHistoryService noteHistoryService;
+
+    private final boolean enabled;
+    private final Duration keepAll;
+    private final Duration hourlyWindow;
+    private final Duration dailyWindow;
+    private final int maxVersionsPerNote;
+    private final int batchSize;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile Map<String, Object> lastRun = Map.of();
+    // _id history mới nhất đã thấy ở lần chạy trước; null = chưa chạy từ lúc start
+    private ObjectId lastSeenId;
+
+    public NoteHistoryPruner(MongoTemplate mongoTemplate,
+                             NoteHistoryService noteHistoryService,
+                             @Value("${app.history.retention.enabled:true}") boolean enabled,
+                             @Value("${app.history.retention.keep-all-hours:6}") long keepAllHours,
+                             @Value("${app.history.retention.hourly-hours:24}") long hourlyHours,
+                             @Value("${app.history.retention.daily-days:30}") long dailyDays,
+                             @Value("${app.history.retention.max-versions-per-note:200}") int maxVersionsPerNote,
+                             @Value("${app.history.retention.batch-size:500}") int batchSize) {
+        this.mongoTemplate = mongoTemplate;
+        this.noteHistoryService = noteHistoryService;
+        this.enabled = enabled;
+        this.keepAll = Duration.ofHours(keepAllHours);
+        this.hourlyWindow = Duration.ofHours(hourlyHours);
+        this.dailyWindow = Duration.ofDays(dailyDays);
+        this.maxVersionsPerNote = Math.max(1, maxVersionsPerNote);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    @Scheduled(initialDelayString = "${app.history.retention.initial-delay-ms:60000}",
+               fixedDelayString = "${app.history.retention.interval-ms:3600000}")
+    public void scheduledPrune() {
+        if (enabled) {
+            prune();
+        }
+    }
+
+    public Map<String, Object> prune() {
+        if (!running.compareAndSet(false, true)) {
+            return Map.of("skipped", "prune already running");
+        }
+        long start = System.currentTimeMillis();
+        try {
+            ObjectId newest = newestHistoryId();
+            PruneBatch batch = new PruneBatch();
+            int notesScanned = 0;
+            int notesFailed = 0;
+            for (String noteId : findCandidateNotes(newest)) {
+                notesScanned++;
+                try {
+                    pruneNote(noteId, batch);
+                } catch (RuntimeException e) {
+                    notesFailed++;
+                    batch.retry(noteId);
+                    System.err.println("❌ History prune failed for note " + noteId + ": " + e.getMessage());
+                }
+                if (batch.size() >= batchSize) {
+                    batch.flush();
+                }
+            }
+            batch.flush();
+            if (newest != null) {
+                lastSeenId = newest;
+            }
+            long orphans = removeOrphans();
+
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("finishedAt", LocalDateTime.now());
+            result.put("durationMs", System.currentTimeMillis() - start);
+            result.put("notesScanned", notesScanned);
+            result.put("notesFailed", notesFailed);
+            result.put("versionsDeleted", batch.deleted);
+            result.put("versionsRebased", batch.rebased);
+            result.put("contentsLoaded", batch.contentsLoaded);
+            result.put("orphansDeleted", orphans);
+            lastRun = result;
+            System.out.println("🧹 History prune: " + result);
+            return result;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    public Map<String, Object> getLastRun() {
+        return lastRun;
+    }
+
+    private ObjectId newestHistoryId() {
+        Query query = new Query().with(Sort.by(Sort.Direction.DESC, "_id")).limit(1);
+        query.fields().include("id");
+        NoteHistory newest = mongoTemplate.findOne(query, NoteHistory.class);
+        return newest != null && ObjectId.isValid(newest.getId()) ? new ObjectId(newest.getId()) : null;
+    }
+
+    /**
+     * Note có version mới từ lần chạy trước + note tới hạn next_prune_at.
+     * Lần chạy đầu sau khi start: note có version cũ hơn keep-all-hours hoặc vượt max-versions-per-note,
+     * trừ note đã dọn (watermark) mà chưa có version mới và chưa tới hạn
+     */
+    private Set<String> findCandidateNotes(ObjectId newest) {
+        Set<String> candidates = new LinkedHashSet<>();
+        if (lastSeenId == null) {
+            Date keepAllSince = Date.from(Instant.now().minus(keepAll));
+            Aggregation aggregation = Aggregation.newAggregation(
+                    Aggregation.group("original_note_id")
+                            .count().as("versions")
+                            .min("_id").as("oldest")
+                            .max("_id").as("latest"),
+                    Aggregation.match(new Criteria().orOperator(
+                            Criteria.where("versions").gt(maxVersionsPerNote),
+                            Criteria.where("oldest").lt(new ObjectId(keepAllSince)))));
+            Map<String, String> latest = new LinkedHashMap<>();
+            for (org.bson.Document document : mongoTemplate.aggregate(aggregation, "note_history", org.bson.Document.class)
+                    .getMappedResults()) {
+                if (document.getString("_id") != null) {
+                    latest.put(document.getString("_id"), document.getObjectId("latest").toHexString());
+                }
+            }
+            List<String> noteIds = new ArrayList<>(latest.keySet());
+            for (int from = 0; from < noteIds.size(); from += batchSize) {
+                List<String> chunk = noteIds.subList(from, Math.min(noteIds.size(), from + batchSize));
+                Map<String, NoteHistoryPruneState> states = mongoTemplate.find(
+                                Query.query(Criteria.where("id").in(chunk)), NoteHistoryPruneState.class).stream()
+                        .collect(Collectors.toMap(NoteHistoryPruneState::getId, state -> state));
+                for (String noteId : chunk) {
+                    NoteHistoryPruneState state = states.get(noteId);
+                    if (state == null || state.getPrunedThrough() == null
+                            || state.getPrunedThrough().compareTo(latest.get(noteId)) < 0) {
+                        candidates.add(noteId);
+                    }
+                }
+            }
+        } else if (newest != null && newest.compareTo(lastSeenId) > 0) {
+            Query changed = Query.query(Criteria.where("id").gt(lastSeenId).lte(newest));
+            candidates.addAll(mongoTemplate.findDistinct(changed, "original_note_id", NoteHistory.class, String.class));
+        }
+
+        Query due = Query.query(Criteria.where("nextPruneAt").lte(LocalDateTime.now()));
+        due.fields().include("id");
+        mongoTemplate.find(due, NoteHistoryPruneState.class).forEach(state -> candidates.add(state.getId()));
+        candidates.remove(null);
+        return candidates;
+    }
+
+    private void pruneNote(String noteId, PruneBatch batch) {
+        // Chỉ metadata: đủ để chọn version giữ lại và sửa chain_length
+        Query query = Query.query(Criteria.where("original_note_id").is(noteId))
+                .with(Sort.by(Sort.Direction.ASC, "version", "_id"));
+        query.fields().exclude("content", "delta", "shares", "metadata");
+        List<NoteHistory> entries = mongoTemplate.find(query, NoteHistory.class);
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        Retention retention = selectRetained(entries);
+        Set<String> keep = retention.keep();
+        batch.pruned(noteId, entries.get(entries.size() - 1).getId(), retention.nextPruneAt());
+        if (keep.size() == entries.size()) {
+            return;
+        }
+
+        // Content chỉ cần cho version giữ lại mà base bị xóa (rebase), version giữ lại liền trước nó,
+        // và các version bị xóa nằm giữa hai version đó (chain của delta)
+        Set<String> needContent = new HashSet<>();
+        List<String> deletedSinceKept = new ArrayList<>();
+        NoteHistory previousKept = null;
+        for (NoteHistory entry : entries) {
+            if (!keep.contains(entry.getId())) {
+                deletedSinceKept.add(entry.getId());
+                continue;
+            }
+            if (entry.getBaseId() != null && !keep.contains(entry.getBaseId())) {
+                needContent.add(entry.getId());
+                needContent.addAll(deletedSinceKept);
+                if (previousKept != null) {
+                    needContent.add(previousKept.getId());
+                }
+            }
+            deletedSinceKept.clear();
+            previousKept = entry;
+        }
+        Map<String, String> contents = loadContents(needContent, batch);
+
+        Map<String, Integer> chainLengths = new HashMap<>();
+        previousKept = null;
+        for (NoteHistory entry : entries) {
+            if (!keep.contains(entry.getId())) {
+                batch.delete(entry);
+                continue;
+            }
+
+            // Projection không có delta nên isKeyframe() không dùng được ở đây: keyframe không có base_id
+            if (entry.getBaseId() == null) {
+                chainLengths.put(entry.getId(), 0);
+            } else if (keep.contains(entry.getBaseId())) {
+                int chain = chainLengths.getOrDefault(entry.getBaseId(), 0) + 1;
+                chainLengths.put(entry.getId(), chain);
+                if (!Integer.valueOf(chain).equals(entry.getChainLength())) {
+                    batch.update(entry.getId(), new Update().set("chain_length", chain));
+                }
+            } else {
+                String content = contents.get(entry.getId());
+                TextDiff.Result diff = previousKept != null
+                        ? TextDiff.diff(contents.get(previousKept.getId()), content)
+                        : null;
+                int chain = previousKept != null ? chainLengths.get(previousKept.getId()) + 1 : 0;
+                Update update;
+                if (diff == null || noteHistoryService.shouldStoreKeyframe(chain, diff, TextDiff.utf8Length(content))) {
+                    chain = 0;
+                    String contentRef = noteHistoryService.storeKeyframeContent(entry, content);
+                    update = contentRef != null
+                            ? new Update().set("content_ref", contentRef)
+                            : new Update().set("content", content);
+                    update.set("chain_length", 0)
+                            .set("stored_size", TextDiff.utf8Length(content))
+                            .unset("delta")
+                            .unset("base_id");
+                } else {
+                    update = new Update()
+                            .set("delta", diff.hunks())
+                            .set("base_id", previousKept.getId())
+                            .set("chain_length", chain)
+                            .set("stored_size", diff.encodedSize());
+                }
+                chainLengths.put(entry.getId(), chain);
+                batch.update(entry.getId(), update);
+                batch.rebased++;
+            }
+            previousKept = entry;
+        }
+    }
+
+    /**
+     * Dựng content của các version cần cho rebase, đọc content/delta chỉ của các version đó.
+     * Chain đi qua version không được đọc (base nằm ngoài tập) thì dựng lại từ keyframe
+     */
+    private Map<String, String> loadContents(Set<String> ids, PruneBatch batch) {
+        Map<String, String> contents = new HashMap<>();
+        if (ids.isEmpty()) {
+            return contents;
+        }
+        Query query = Query.query(Criteria.where("id").in(ids))
+                .with(Sort.by(Sort.Direction.ASC, "version", "_id"));
+        query.fields().exclude("shares", "metadata");
+        for (NoteHistory entry : mongoTemplate.find(query, NoteHistory.class)) {
+            String content;
+            if (entry.isKeyframe()) {
+                content = noteHistoryService.keyframeContent(entry);
+            } else if (contents.containsKey(entry.getBaseId())) {
+                content = TextDiff.apply(contents.get(entry.getBaseId()), entry.getDelta());
+            } else {
+                content = noteHistoryService.reconstructContent(entry);
+            }
+            contents.put(entry.getId(), content);
+            batch.contentsLoaded++;
+        }
+        return contents;
+    }
+
+    /**
+     * keep: id version được giữ; nextPruneAt: lúc sớm nhất một version còn giữ (trừ version mới nhất)
+     * rời bucket hiện tại, null nếu không có
+     */
+    private record Retention(Set<String> keep, LocalDateTime nextPruneAt) {
+    }
+
+    /**
+     * Chọn version được giữ lại, duyệt từ mới tới cũ để version mới nhất của mỗi bucket được giữ
+     */
+    private Retention selectRetained(List<NoteHistory> entries) {
+        Instant now = Instant.now();
+        ZoneId zone = ZoneId.systemDefault();
+        Set<Long> hourBuckets = new HashSet<>();
+        Set<Long> dayBuckets = new HashSet<>();
+        List<String> retained = new ArrayList<>();
+        Instant nextPruneAt = null;
+
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            NoteHistory entry = entries.get(i);
+            Instant recordedAt = recordedAt(entry, zone);
+            Duration age = Duration.between(recordedAt, now);
+
+            boolean keep;
+            Duration window;
+            if (i == entries.size() - 1 || age.compareTo(keepAll) < 0) {
+                keep = true;
+                window = age.compareTo(keepAll) < 0 ? keepAll : null;
+            } else if (age.compareTo(hourlyWindow) < 0) {
+                keep = hourBuckets.add(recordedAt.truncatedTo(ChronoUnit.HOURS).getEpochSecond());
+                window = hourlyWindow;
+            } else if (age.compareTo(dailyWindow) < 0) {
+                keep = dayBuckets.add(recordedAt.atZone(zone).toLocalDate().toEpochDay());
+                window = dailyWindow;
+            } else {
+                keep = false;
+                window = null;
+            }
+
+            if (keep && retained.size() < maxVersionsPerNote) {
+                retained.add(entry.getId());
+                // Version mới nhất luôn được giữ: chỉ cần xét lại khi có version mới hơn
+                if (i < entries.size() - 1 && window != null) {
+                    Instant leavesBucket = recordedAt.plus(window);
+                    if (nextPruneAt == null || leavesBucket.isBefore(nextPruneAt)) {
+                        nextPruneAt = leavesBucket;
+                    }
+                }
+            }
+        }
+        return new Retention(new HashSet<>(retained),
+                nextPruneAt != null ? LocalDateTime.ofInstant(nextPruneAt, zone) : null);
+    }
+
+    // Thời điểm version được ghi vào history: timestamp của ObjectId, fallback updated_at
+    private Instant recordedAt(NoteHistory entry, ZoneId zone) {
+        if (entry.getId() != null && ObjectId.isValid(entry.getId())) {
+            return new ObjectId(entry.getId()).getDate().toInstant();
+        }
+        if (entry.getUpdatedAt() != null) {
+            return entry.getUpdatedAt().atZone(zone).toInstant();
+        }
+        return Instant.now();
+    }
+
+    private long removeOrphans() {
+        List<String> noteIds = mongoTemplate.findDistinct(new Query(), "original_note_id", NoteHistory.class, String.class);
+        long removed = 0;
+        for (int from = 0; from < noteIds.size(); from += batchSize) {
+            List<String> chunk = noteIds.subList(from, Math.min(noteIds.size(), from + batchSize));
+            Query existing = Query.query(Criteria.where("id").in(chunk));
+            existing.fields().include("id");
+            Set<String> found = mongoTemplate.find(existing, Note.class).stream()
+                    .map(Note::getId)
+                    .collect(Collectors.toSet());
+
+            List<String> orphaned = chunk.stream().filter(id -> !found.contains(id)).collect(Collectors.toList());
+            if (!orphaned.isEmpty()) {
+                removed += noteHistoryService.deleteHistory(orphaned);
+                mongoTemplate.remove(Query.query(Criteria.where("id").in(orphaned)), NoteHistoryPruneState.class);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Gom update/delete thành bulk write, update (rebase) luôn chạy trước delete
+     * để chain không bị hỏng nếu bị ngắt giữa chừng; watermark của note ghi sau cùng
+     */
+    private class PruneBatch {
+        private final List<Map.Entry<String, Update>> updates = new ArrayList<>();
+        private final List<Object> deletes = new ArrayList<>();
+        private final List<String> deletedContentRefs = new ArrayList<>();
+        private final List<Map.Entry<String, Update>> states = new ArrayList<>();
+        private long deleted;
+        private long rebased;
+        private long contentsLoaded;
+
+        void update(String id, Update update) {
+            updates.add(Map.entry(id, update));
+        }
+
+        void delete(NoteHistory entry) {
+            deletes.add(ObjectId.isValid(entry.getId()) ? new ObjectId(entry.getId()) : entry.getId());
+            if (entry.getContentRef() != null) {
+                deletedContentRefs.add(entry.getContentRef());
+            }
+        }
+
+        void pruned(String noteId, String prunedThrough, LocalDateTime nextPruneAt) {
+            states.add(Map.entry(noteId, new Update()
+                    .set("prunedThrough", prunedThrough)
+                    .set("nextPruneAt", nextPruneAt)));
+        }
+
+        // Dọn lỗi: giữ watermark cũ, thử lại ở lần chạy sau
+        void retry(String noteId) {
+            states.removeIf(state -> state.getKey().equals(noteId));
+            states.add(Map.entry(noteId, new Update().set("nextPruneAt", LocalDateTime.now())));
+        }
+
+        int size() {
+            return updates.size() + deletes.size() + states.size();
+        }
+
+        void flush() {
+            if (!updates.isEmpty()) {
+                BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, NoteHistory.class);
+                for (Map.Entry<String, Update> entry : updates) {
+                    bulk.updateOne(Query.query(Criteria.where("id").is(entry.getKey())), entry.getValue());
+                }
+                bulk.execute();
+                updates.clear();
+            }
+            for (int from = 0; from < deletes.size(); from += batchSize) {
+                List<Object> chunk = deletes.subList(from, Math.min(deletes.size(), from + batchSize));
+                deleted += mongoTemplate.remove(
+                        Query.query(Criteria.where("_id").in(chunk)), NoteHistory.class).getDeletedCount();
+            }
+            deletes.clear();
+            // File GridFS chỉ xóa sau khi version đã bị xóa
+            noteHistoryService.deleteContentFiles(deletedContentRefs);
+            deletedContentRefs.clear();
+            if (!states.isEmpty()) {
+                BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, NoteHistoryPruneState.class);
+                for (Map.Entry<String, Update> state : states) {
+                    bulk.upsert(Query.query(Criteria.where("id").is(state.getKey())), state.getValue());
+                }
+                bulk.execute();
+                states.clear();
+            }
+        }
+    }
+}
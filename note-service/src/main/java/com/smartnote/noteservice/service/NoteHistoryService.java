@@ -0,0 +1,396 @@
+package com.smartnote.noteservice.service;
+
+import com.smartnote.noteservice.dto.NoteHistoryPage;
+import com.smartnote.noteservice.dto.NoteHistorySummary;
+import com.smartnote.noteservice.model.Note;
+import com.smartnote.noteservice.model.NoteHistory;
+import com.smartnote.noteservice.repository.NoteHistoryRepository;
+import com.smartnote.noteservice.util.TextDiff;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.stream.Collectors;
+
+/**
+ * Lưu lịch sử note dưới dạng chuỗi delta
+ *
+ * Mỗi version lưu delta so với version liền trước (base_id), cứ keyframe-interval version
+ * thì lưu một bản full content (keyframe). Khi delta không nhỏ hơn đáng kể so với content
+ * (max-delta-ratio) thì cũng lưu keyframe luôn. Đọc một version = keyframe + replay các delta.
+ *
+ * Note lớn (content trong GridFS) cũng có history: delta so với version trước như note thường,
+ * keyframe lớn thì content nằm trong GridFS (content_ref) thay vì trong document history.
+ */
+@Service
+public class NoteHistoryService {
+
+    private static final int DEFAULT_PAGE_SIZE = 20;
+    private static final int MAX_PAGE_SIZE = 100;
+
+    // Chặn vòng lặp nếu dữ liệu base_id bị hỏng
+    private static final int MAX_CHAIN_STEPS = 10_000;
+
+    private final MongoTemplate mongoTemplate;
+    private final NoteHistoryRepository noteHistoryRepository;
+    private final NoteContentStore noteContentStore;
+    private final int keyframeInterval;
+    private final double maxDeltaRatio;
+
+    private final AtomicLong versionsRecorded = new AtomicLong();
+    private final AtomicLong keyframesWritten = new AtomicLong();
+    private final AtomicLong deltasWritten = new AtomicLong();
+    private final AtomicLong fullBytes = new AtomicLong();
+    private final AtomicLong storedBytes = new AtomicLong();
+    private final AtomicLong reconstructions = new AtomicLong();
+    private final AtomicLong deltasReplayed = new AtomicLong();
+    private final AtomicLong reconstructionNanos = new AtomicLong();
+    private final LongAccumulator reconstructionMaxNanos = new LongAccumulator(Math::max, 0);
+
+    public NoteHistoryService(MongoTemplate mongoTemplate,
+                              NoteHistoryRepository noteHistoryRepository,
+                              NoteContentStore noteContentStore,
+                              @Value("${app.history.keyframe-interval:20}") int keyframeInterval,
+                              @Value("${app.history.max-delta-ratio:0.5}") double maxDeltaRatio) {
+        this.mongoTemplate = mongoTemplate;
+        this.noteHistoryRepository = noteHistoryRepository;
+        this.noteContentStore = noteContentStore;
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+        this.maxDeltaRatio = maxDeltaRatio;
+    }
+
+    /**
+     * Lưu trạng thái hiện tại của note (trước khi update/restore) thành một version trong history
+     */
+    public NoteHistory recordVersion(Note note, String action) {
+        return recordVersion(note, action, null);
+    }
+
+    /**
+     * Như recordVersion(note, action); retiredContentRef là file GridFS của note vừa bị thay content.
+     * Keyframe lớn nhận luôn file đó (history.contentRef == retiredContentRef) thay vì copy,
+     * caller chỉ xóa file khi history không nhận
+     */
+    public NoteHistory recordVersion(Note note, String action, String retiredContentRef) {
+        NoteHistory history = new NoteHistory(note);
+        history.setAction(action);
+
+        String content = note.getContentRef() != null ? noteContentStore.read(note.getContentRef()) : note.getContent();
+        int contentSize = TextDiff.utf8Length(content);
+        history.setContentSize(contentSize);
+
+        NoteHistory previous = findLatest(note.getId());
+        TextDiff.Result diff = null;
+        if (previous != null) {
+            diff = TextDiff.diff(reconstructContent(previous), content);
+            history.setLinesAdded(diff.linesAdded());
+            history.setLinesRemoved(diff.linesRemoved());
+        }
+
+        int previousChain = previous != null && previous.getChainLength() != null ? previous.getChainLength() : 0;
+        boolean keyframe = diff == null || shouldStoreKeyframe(previousChain + 1, diff, contentSize);
+
+        String copiedRef = null;
+        if (keyframe) {
+            if (retiredContentRef != null && retiredContentRef.equals(note.getContentRef())
+                    && noteContentStore.isLarge(contentSize)) {
+                history.setContentRef(retiredContentRef);
+            } else {
+                copiedRef = storeKeyframeContent(history, content);
+                history.setContentRef(copiedRef);
+            }
+            history.setContent(history.getContentRef() == null ? content : null);
+            history.setChainLength(0);
+            history.setStoredSize(contentSize);
+            keyframesWritten.incrementAndGet();
+        } else {
+            history.setContent(null);
+            history.setDelta(diff.hunks());
+            history.setBaseId(previous.getId());
+            history.setChainLength(previousChain + 1);
+            history.setStoredSize(diff.encodedSize());
+            deltasWritten.incrementAndGet();
+        }
+
+        versionsRecorded.incrementAndGet();
+        fullBytes.addAndGet(contentSize);
+        storedBytes.addAndGet(history.getStoredSize());
+        try {
+            return noteHistoryRepository.save(history);
+        } catch (RuntimeException e) {
+            noteContentStore.delete(copiedRef);
+            throw e;
+        }
+    }
+
+    /**
+     * Lưu full content thay vì delta khi chain đã đủ dài hoặc delta không nhỏ hơn đáng kể so với content.
+     * Delta lớn tới mức phải nằm ngoài document (note lớn) cũng thành keyframe trong GridFS
+     */
+    public boolean shouldStoreKeyframe(int chainLength, TextDiff.Result diff, int contentSize) {
+        return chainLength >= keyframeInterval || diff.encodedSize() > contentSize * maxDeltaRatio
+                || noteContentStore.isLarge(diff.encodedSize());
+    }
+
+    /**
+     * Xóa toàn bộ history của một note (khi note bị xóa vĩnh viễn)
+     */
+    public long deleteHistory(String noteId) {
+        return deleteHistory(List.of(noteId));
+    }
+
+    /**
+     * Xóa history của các note cùng file GridFS của keyframe lớn
+     */
+    public long deleteHistory(Collection<String> noteIds) {
+        Query withContentRef = Query.query(Criteria.where("original_note_id").in(noteIds).and("content_ref").exists(true));
+        withContentRef.fields().include("content_ref");
+        deleteContentFiles(mongoTemplate.find(withContentRef, NoteHistory.class).stream()
+                .map(NoteHistory::getContentRef)
+                .toList());
+        return mongoTemplate.remove(
+                Query.query(Criteria.where("original_note_id").in(noteIds)), NoteHistory.class).getDeletedCount();
+    }
+
+    /**
+     * Xóa file GridFS của các keyframe đã bị xóa khỏi note_history
+     */
+    public void deleteContentFiles(Collection<String> contentRefs) {
+        contentRefs.forEach(noteContentStore::delete);
+    }
+
+    /**
+     * Keyframe lớn thì ghi content vào GridFS
+     * @return content_ref mới, null nếu content đủ nhỏ để lưu inline
+     */
+    public String storeKeyframeContent(NoteHistory entry, String content) {
+        if (content == null || !noteContentStore.isLarge(TextDiff.utf8Length(content))) {
+            return null;
+        }
+        return noteContentStore.storeText(entry.getTitle(), entry.getCreatedBy(), content);
+    }
+
+    /**
+     * Content của một keyframe: inline hoặc đọc từ GridFS
+     */
+    public String keyframeContent(NoteHistory keyframe) {
+        return keyframe.getContentRef() != null ? noteContentStore.read(keyframe.getContentRef()) : keyframe.getContent();
+    }
+
+    public NoteHistory getVersion(String historyId) {
+        return noteHistoryRepository.findById(historyId)
+                .orElseThrow(() -> new RuntimeException("History not found with id: " + historyId));
+    }
+
+    /**
+     * Dựng lại content của một version: keyframe gần nhất + replay các delta tới version đó
+     */
+    public String reconstructContent(NoteHistory target) {
+        if (target.isKeyframe()) {
+            return keyframeContent(target);
+        }
+
+        long start = System.nanoTime();
+        List<NoteHistory> chain = loadChain(target);
+        String content = keyframeContent(chain.get(0));
+        for (int i = 1; i < chain.size(); i++) {
+            content = TextDiff.apply(content, chain.get(i).getDelta());
+        }
+        long elapsed = System.nanoTime() - start;
+
+        reconstructions.incrementAndGet();
+        deltasReplayed.addAndGet(chain.size() - 1);
+        reconstructionNanos.addAndGet(elapsed);
+        reconstructionMaxNanos.accumulate(elapsed);
+        return content;
+    }
+
+    /**
+     * Danh sách version của note (mới nhất trước), chỉ metadata, phân trang keyset theo (version, _id)
+     * History cũ không có field version nằm cuối danh sách (sort giảm dần xếp field thiếu sau mọi số),
+     * cursor coi version của chúng là 0
+     */
+    public NoteHistoryPage getHistoryPage(String noteId, String cursor, Integer limit) {
+        int pageSize = limit == null || limit <= 0 ? DEFAULT_PAGE_SIZE : Math.min(limit, MAX_PAGE_SIZE);
+
+        Criteria criteria = Criteria.where("original_note_id").is(noteId);
+        if (cursor != null && !cursor.isBlank()) {
+            HistoryCursor position = HistoryCursor.decode(cursor);
+            ObjectId lastId = new ObjectId(position.id());
+            if (position.version() > 0) {
+                criteria = criteria.orOperator(
+                        Criteria.where("version").lt(position.version()),
+                        Criteria.where("version").is(position.version()).and("_id").lt(lastId),
+                        // $lt không match field thiếu
+                        Criteria.where("version").is(null));
+            } else {
+                criteria = criteria.and("version").is(null).and("_id").lt(lastId);
+            }
+        }
+
+        Query query = Query.query(criteria)
+                .with(Sort.by(Sort.Direction.DESC, "version", "_id"))
+                .limit(pageSize + 1);
+        query.fields().exclude("content", "delta", "shares", "metadata");
+
+        List<NoteHistory> entries = mongoTemplate.find(query, NoteHistory.class);
+        boolean hasMore = entries.size() > pageSize;
+        if (hasMore) {
+            entries = entries.subList(0, pageSize);
+        }
+
+        List<NoteHistorySummary> items = entries.stream()
+                .map(this::toSummary)
+                .collect(Collectors.toList());
+        String nextCursor = null;
+        if (hasMore) {
+            NoteHistory last = entries.get(entries.size() - 1);
+            nextCursor = new HistoryCursor(last.getVersion() != null ? last.getVersion() : 0, last.getId()).encode();
+        }
+        return new NoteHistoryPage(items, nextCursor, hasMore);
+    }
+
+    /**
+     * Một version đầy đủ với content đã dựng lại, chỉ load khi người dùng mở version đó
+     */
+    public NoteHistory getVersionWithContent(String noteId, String historyId) {
+        NoteHistory entry = getVersion(historyId);
+        if (!noteId.equals(entry.getOriginalNoteId())) {
+            throw new RuntimeException("History not found with id: " + historyId);
+        }
+        entry.setContent(reconstructContent(entry));
+        entry.setDelta(null);
+        return entry;
+    }
+
+    private NoteHistorySummary toSummary(NoteHistory entry) {
+        return new NoteHistorySummary(
+                entry.getId(),
+                entry.getVersion(),
+                entry.getTitle(),
+                entry.getUpdatedAt(),
+                entry.getCreatedBy(),
+                entry.getAction(),
+                entry.getContentSize(),
+                entry.getLinesAdded(),
+                entry.getLinesRemoved(),
+                // delta không được load trong projection, dựa vào chain_length
+                entry.getChainLength() == null || entry.getChainLength() == 0);
+    }
+
+    private NoteHistory findLatest(String noteId) {
+        Query query = Query.query(Criteria.where("original_note_id").is(noteId))
+                .with(Sort.by(Sort.Direction.DESC, "version", "_id"))
+                .limit(1);
+        return mongoTemplate.findOne(query, NoteHistory.class);
+    }
+
+    /**
+     * Trả về [keyframe, delta, ..., target] theo base_id
+     * Load các version cũ hơn theo batch (chain_length + 1) thay vì từng document một
+     */
+    private List<NoteHistory> loadChain(NoteHistory target) {
+        Deque<NoteHistory> chain = new ArrayDeque<>();
+        Map<String, NoteHistory> loaded = new HashMap<>();
+        NoteHistory current = target;
+        chain.push(current);
+
+        while (!current.isKeyframe()) {
+            if (chain.size() > MAX_CHAIN_STEPS) {
+                throw new IllegalStateException("History chain too long for note: " + target.getOriginalNoteId());
+            }
+            NoteHistory base = loaded.get(current.getBaseId());
+            if (base == null) {
+                int batch = current.getChainLength() != null ? current.getChainLength() + 1 : keyframeInterval;
+                Query query = Query.query(Criteria.where("original_note_id").is(current.getOriginalNoteId())
+                                .and("version").lte(current.getVersion()))
+                        .with(Sort.by(Sort.Direction.DESC, "version", "_id"))
+                        .limit(batch);
+                for (NoteHistory entry : mongoTemplate.find(query, NoteHistory.class)) {
+                    loaded.put(entry.getId(), entry);
+                }
+                base = loaded.get(current.getBaseId());
+            }
+            if (base == null) {
+                base = noteHistoryRepository.findById(current.getBaseId())
+                        .orElseThrow(() -> new IllegalStateException(
+                                "History chain broken for note " + target.getOriginalNoteId()
+                                        + " at version " + target.getVersion()));
+                loaded.put(base.getId(), base);
+            }
+            chain.push(base);
+            current = base;
+        }
+        return new ArrayList<>(chain);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("keyframeInterval", keyframeInterval);
+        stats.put("versionsRecorded", versionsRecorded.get());
+        stats.put("keyframesWritten", keyframesWritten.get());
+        stats.put("deltasWritten", deltasWritten.get());
+        stats.put("fullBytes", fullBytes.get());
+        stats.put("storedBytes", storedBytes.get());
+
+        long count = reconstructions.get();
+        stats.put("reconstructions", count);
+        stats.put("avgDeltasReplayed", count > 0 ? (double) deltasReplayed.get() / count : 0.0);
+        stats.put("avgReconstructionMicros", count > 0 ? reconstructionNanos.get() / count / 1000 : 0);
+        stats.put("maxReconstructionMicros", reconstructionMaxNanos.get() / 1000);
+
+        // Tổng dung lượng trên toàn collection (kể cả document cũ chưa có stored_size)
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.group()
+                        .count().as("versions")
+                        .sum("content_size").as("contentBytes")
+                        .sum("stored_size").as("storedBytes"));
+        Document totals = mongoTemplate.aggregate(aggregation, "note_history", Document.class).getUniqueMappedResult();
+        Map<String, Object> collection = new LinkedHashMap<>();
+        collection.put("versions", totals != null ? totals.get("versions") : 0);
+        collection.put("keyframes", mongoTemplate.count(
+                Query.query(Criteria.where("delta").exists(false)), NoteHistory.class));
+        collection.put("contentBytes", totals != null ? totals.get("contentBytes") : 0);
+        collection.put("storedBytes", totals != null ? totals.get("storedBytes") : 0);
+        stats.put("collection", collection);
+        return stats;
+    }
+
+    /**
+     * Cursor dạng "version:id" của phần tử cuối trang trước
+     */
+    private record HistoryCursor(int version, String id) {
+
+        String encode() {
+            return version + ":" + id;
+        }
+
+        static HistoryCursor decode(String cursor) {
+            int separator = cursor.indexOf(':');
+            if (separator <= 0 || !ObjectId.isValid(cursor.substring(separator + 1))) {
+                throw new IllegalArgumentException("Invalid history cursor: " + cursor);
+            }
+            try {
+                return new HistoryCursor(Integer.parseInt(cursor.substring(0, separator)), cursor.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid history cursor: " + cursor);
+            }
+        }
+    }
+}
@@ -1,16 +1,42 @@
 package com.smartnote.noteservice.service;
 
+import com.smartnote.noteservice.dto.NoteHistoryPage;
+import com.smartnote.noteservice.dto.NotePatchRequest;
 import com.smartnote.noteservice.dto.NoteRequest;
 import com.smartnote.noteservice.dto.NoteResponse;
+import com.smartnote.noteservice.dto.NoteSummary;
+import com.smartnote.noteservice.dto.NoteSummaryPage;
+import com.smartnote.noteservice.exception.NoteVersionConflictException;
 import com.smartnote.noteservice.model.Note;
 import com.smartnote.noteservice.model.NoteHistory;
 import com.smartnote.noteservice.repository.NoteRepository;
-import com.smartnote.noteservice.repository.NoteHistoryRepository;
+import com.smartnote.noteservice.search.NoteSearchIndex;
+import com.smartnote.noteservice.util.TextDiff;
 import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -18,9 +44,31 @@ import java.util.stream.Collectors;
 public class NoteService {
 
     private final NoteRepository noteRepository;
-    private final NoteHistoryRepository noteHistoryRepository;
+    private final NoteHistoryService noteHistoryService;
+    private final MongoTemplate mongoTemplate;
+    private final NoteSearchIndex noteSearchIndex;
+    private final NoteContentStore noteContentStore;
+
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int SNIPPET_LENGTH = 160;
 
     public NoteResponse createNote(NoteRequest request, String userId) {
+        Note note = newNote(request, userId);
+        noteContentStore.apply(note, request.getContent());
+        return saveNew(note, userId);
+    }
+
+    /**
+     * Tạo note với content đọc từ stream (file import lớn): ghi thẳng vào GridFS, không dựng String
+     */
+    public NoteResponse createNote(NoteRequest request, String userId, InputStream content) throws IOException {
+        Note note = newNote(request, userId);
+        noteContentStore.apply(note, content);
+        return saveNew(note, userId);
+    }
+
+    private Note newNote(NoteRequest request, String userId) {
         // Validate userId
         if (userId == null || userId.trim().isEmpty()) {
             throw new IllegalArgumentException("User ID cannot be null or empty");
@@ -31,7 +79,6 @@ public class NoteService {
         Note note = new Note();
         note.setFolderId(request.getFolderId());
         note.setTitle(request.getTitle());
-        note.setContent(request.getContent());
         note.setContentType(request.getContentType() != null ? request.getContentType() : "markdown");
         note.setCreatedBy(userId); // Ensure this is set correctly
         note.setCreatedAt(LocalDateTime.now());
@@ -40,8 +87,18 @@ public class NoteService {
         note.setTags(request.getTags());
         note.setIsImportant(request.getIsImportant() != null ? request.getIsImportant() : false);
         note.setIsDeleted(false); 
+        return note;
+    }
 
-        Note savedNote = noteRepository.save(note);
+    private NoteResponse saveNew(Note note, String userId) {
+        Note savedNote;
+        try {
+            savedNote = noteRepository.save(note);
+        } catch (RuntimeException e) {
+            noteContentStore.delete(note.getContentRef());
+            throw e;
+        }
+        noteSearchIndex.index(savedNote);
         
         System.out.println("✅ Note created with ID: " + savedNote.getId() + " for user: " + userId);
         return convertToResponse(savedNote);
@@ -53,38 +110,170 @@ public class NoteService {
         return convertToResponse(note);
     }
 
+    /**
+     * Chỉ id, title, version (projection, không đọc content/GridFS): đủ để tính khóa export và ETag
+     */
+    public NoteResponse getNoteExportHeader(String id) {
+        Query query = Query.query(Criteria.where("id").is(id).and("isDeleted").ne(true));
+        query.fields().include("title", "version");
+        Note note = mongoTemplate.findOne(query, Note.class);
+        if (note == null) {
+            throw new RuntimeException("Note not found with id: " + id);
+        }
+        NoteResponse response = new NoteResponse();
+        response.setId(note.getId());
+        response.setTitle(note.getTitle());
+        response.setVersion(note.getVersion());
+        return response;
+    }
+
+    /**
+     * Note kèm cả content, content lớn được đọc hết từ GridFS (dùng khi render PDF)
+     */
+    public NoteResponse getNoteWithContent(String id) {
+        Note note = noteRepository.findByIdAndIsDeletedFalse(id)
+                .orElseThrow(() -> new RuntimeException("Note not found with id: " + id));
+        return convertWithContent(note);
+    }
+
+    NoteResponse convertWithContent(Note note) {
+        NoteResponse response = convertToResponse(note);
+        if (note.getContentRef() != null) {
+            response.setContent(noteContentStore.read(note.getContentRef()));
+        }
+        return response;
+    }
+
+    /**
+     * Ghi content của note ra out, content lớn được stream theo chunk từ GridFS
+     */
+    public void writeContent(String id, OutputStream out) throws IOException {
+        Query query = Query.query(Criteria.where("id").is(id).and("isDeleted").ne(true));
+        query.fields().include("content", "contentRef");
+        Note note = mongoTemplate.findOne(query, Note.class);
+        if (note == null) {
+            throw new RuntimeException("Note not found with id: " + id);
+        }
+        writeContent(note, out);
+    }
+
+    void writeContent(Note note, OutputStream out) throws IOException {
+        if (note.getContentRef() != null) {
+            noteContentStore.transferTo(note.getContentRef(), out);
+        } else if (note.getContent() != null) {
+            out.write(note.getContent().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
     public NoteResponse updateNote(String id, NoteRequest request) {
         Note note = noteRepository.findByIdAndIsDeletedFalse(id)
                 .orElseThrow(() -> new RuntimeException("Note not found with id: " + id));
-        
+
         if (note.getIsDeleted()) {
             throw new RuntimeException("Cannot update note in trash");
         }
 
-        NoteHistory history = new NoteHistory(note);
-        noteHistoryRepository.save(history);
+        // Client gửi version cũ: conflict luôn, không cần round trip ghi
+        if (request.getVersion() != null && !request.getVersion().equals(note.getVersion())) {
+            throw new NoteVersionConflictException(id, request.getVersion(), note.getVersion(), note.getUpdatedAt());
+        }
 
+        Update update = new Update();
         if (request.getTitle() != null)
-            note.setTitle(request.getTitle());
-        if (request.getContent() != null)
-            note.setContent(request.getContent());
+            update.set("title", request.getTitle());
+        String contentRef = request.getContent() != null ? setContent(update, note, request.getContent()) : null;
         if (request.getContentType() != null)
-            note.setContentType(request.getContentType());
+            update.set("contentType", request.getContentType());
         if (request.getFolderId() != null)
-            note.setFolderId(request.getFolderId());
+            update.set("folderId", request.getFolderId());
         if (request.getTags() != null)
-            note.setTags(request.getTags());
+            update.set("tags", request.getTags());
 
         if (request.getIsImportant() != null)
-            note.setIsImportant(request.getIsImportant());
+            update.set("isImportant", request.getIsImportant());
 
-        note.setUpdatedAt(LocalDateTime.now());
-        note.setVersion(note.getVersion() + 1);
+        Note updatedNote = updateContentIfVersion(note, update, contentRef);
 
-        Note updatedNote = noteRepository.save(note);
+        // Chỉ ghi history khi update thành công, note lúc này là snapshot của version vừa bị thay
+        recordVersion(note, "UPDATE", request.getContent() != null);
+        noteSearchIndex.index(updatedNote);
         return convertToResponse(updatedNote);
     }
 
+    /**
+     * Set content vào update; content lớn được ghi vào GridFS trước
+     * @return content_ref mới, null nếu content để inline
+     */
+    private String setContent(Update update, Note current, String content) {
+        Note holder = new Note();
+        holder.setTitle(current.getTitle());
+        holder.setCreatedBy(current.getCreatedBy());
+        noteContentStore.apply(holder, content);
+        if (holder.getContentRef() == null) {
+            update.set("content", content).unset("contentRef").unset("contentSize").unset("contentPreview");
+        } else {
+            update.unset("content")
+                    .set("contentRef", holder.getContentRef())
+                    .set("contentSize", holder.getContentSize())
+                    .set("contentPreview", holder.getContentPreview());
+        }
+        return holder.getContentRef();
+    }
+
+    /**
+     * updateIfVersion, ghi lỗi thì xóa file GridFS vừa tạo
+     * File content cũ vẫn còn để recordVersion đọc (và có thể giữ làm keyframe của history)
+     */
+    private Note updateContentIfVersion(Note current, Update update, String newContentRef) {
+        try {
+            return updateIfVersion(current.getId(), current.getVersion(), update);
+        } catch (RuntimeException e) {
+            noteContentStore.delete(newContentRef);
+            throw e;
+        }
+    }
+
+    /**
+     * Ghi version vừa bị thay vào history, kể cả note lớn (delta, keyframe nằm trong GridFS).
+     * Content bị thay thì file GridFS cũ được xóa sau đó, trừ khi history giữ nó làm keyframe
+     */
+    private void recordVersion(Note note, String changeType, boolean contentReplaced) {
+        String retiredContentRef = contentReplaced ? note.getContentRef() : null;
+        NoteHistory history = null;
+        try {
+            history = noteHistoryService.recordVersion(note, changeType, retiredContentRef);
+        } finally {
+            if (retiredContentRef != null && (history == null || !retiredContentRef.equals(history.getContentRef()))) {
+                noteContentStore.delete(retiredContentRef);
+            }
+        }
+    }
+
+    /**
+     * Update có điều kiện theo version (optimistic concurrency)
+     * Chỉ ghi khi version trong DB vẫn là expectedVersion, đồng thời tăng version.
+     * Không match thì phân biệt note không tồn tại với conflict (kèm version hiện tại).
+     */
+    private Note updateIfVersion(String id, Integer expectedVersion, Update update) {
+        Query query = Query.query(Criteria.where("id").is(id)
+                .and("isDeleted").ne(true)
+                .and("version").is(expectedVersion));
+        update.set("updatedAt", LocalDateTime.now()).inc("version", 1);
+
+        Note updated = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Note.class);
+        if (updated != null) {
+            return updated;
+        }
+
+        Query current = Query.query(Criteria.where("id").is(id).and("isDeleted").ne(true));
+        current.fields().include("version", "updatedAt");
+        Note latest = mongoTemplate.findOne(current, Note.class);
+        if (latest == null) {
+            throw new RuntimeException("Note not found with id: " + id);
+        }
+        throw new NoteVersionConflictException(id, expectedVersion, latest.getVersion(), latest.getUpdatedAt());
+    }
+
     public void deleteNote(String id) {
         Note note = noteRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Note not found with id: " + id));
@@ -96,35 +285,165 @@ public class NoteService {
         note.setIsDeleted(true);
         note.setDeletedAt(LocalDateTime.now());
         noteRepository.save(note);
+        noteSearchIndex.remove(note.getId());
     }
 
-    public List<NoteResponse> getAllNotesByUser(String userId) {
-        System.out.println("🔍 [DEBUG] Getting notes for userId: " + userId);
-        System.out.println("🔍 [DEBUG] UserId type: " + (userId != null ? userId.getClass().getSimpleName() : "null"));
-        System.out.println("🔍 [DEBUG] UserId length: " + (userId != null ? userId.length() : 0));
-        
-        List<Note> notes = noteRepository.findByCreatedByAndIsDeletedFalse(userId);
-        System.out.println("📊 [DEBUG] Found " + notes.size() + " notes for user " + userId);
-        
-        // Log chi tiết từng note để debug
-        for (int i = 0; i < notes.size(); i++) {
-            Note note = notes.get(i);
-            System.out.println("📝 [DEBUG] Note " + (i+1) + ":");
-            System.out.println("   ID: " + note.getId());
-            System.out.println("   CreatedBy: '" + note.getCreatedBy() + "'");
-            System.out.println("   CreatedBy type: " + (note.getCreatedBy() != null ? note.getCreatedBy().getClass().getSimpleName() : "null"));
-            System.out.println("   CreatedBy length: " + (note.getCreatedBy() != null ? note.getCreatedBy().length() : 0));
-            System.out.println("   Title: " + note.getTitle());
-            if (note.getCreatedBy() != null) {
-                System.out.println("   Match check: " + note.getCreatedBy().equals(userId));
+    /**
+     * Note cũ (hoặc ghi từ ngoài service) thiếu updated_at không có vị trí trong keyset (updated_at, _id)
+     * và bị loại khỏi danh sách summary: lấy created_at (hoặc thời điểm hiện tại) điền vào khi start
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillMissingUpdatedAt() {
+        try {
+            long updated = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Note.class))
+                    .updateMany(new Document("updated_at", null), List.of(new Document("$set",
+                            new Document("updated_at", new Document("$ifNull", List.of("$created_at", "$$NOW"))))))
+                    .getModifiedCount();
+            if (updated > 0) {
+                System.out.println("🕒 Backfilled updated_at for " + updated + " notes");
             }
+        } catch (Exception e) {
+            System.err.println("❌ updated_at backfill failed: " + e.getMessage());
         }
-        
-        return notes.stream()
-                .map(this::convertToResponse)
+    }
+
+    public NoteSummaryPage getNoteSummariesByUser(String userId, String cursor, Integer limit) {
+        return findSummaries(new Document("created_by", userId), cursor, limit);
+    }
+
+    public NoteSummaryPage getImportantNoteSummaries(String userId, String cursor, Integer limit) {
+        return findSummaries(new Document("created_by", userId).append("is_important", true), cursor, limit);
+    }
+
+    public NoteSummaryPage getNoteSummariesByFolder(String folderId, String cursor, Integer limit) {
+        return findSummaries(new Document("folderId", folderId), cursor, limit);
+    }
+
+    /**
+     * Danh sách note dạng summary (projection, content chỉ còn snippet), sắp xếp theo updated_at mới nhất
+     * Phân trang keyset trên (updated_at, _id); không truyền limit thì dùng DEFAULT_PAGE_SIZE, không bao giờ trả hết
+     */
+    private NoteSummaryPage findSummaries(Document match, String cursor, Integer limit) {
+        // Equality (không dùng $ne) để index (..., is_deleted, updated_at, _id) phục vụ luôn phần sort
+        match.append("is_deleted", false);
+        // null sẽ bị encode thành epoch 0 trong cursor và lặp/bỏ sót trang; backfillMissingUpdatedAt điền các note này
+        match.append("updated_at", new Document("$ne", null));
+        if (cursor != null && !cursor.isBlank()) {
+            NoteListCursor position = NoteListCursor.decode(cursor);
+            match.append("$or", List.of(
+                    new Document("updated_at", new Document("$lt", position.updatedAt())),
+                    new Document("updated_at", position.updatedAt())
+                            .append("_id", new Document("$lt", position.id()))));
+        }
+
+        int pageSize = Math.max(1, Math.min(limit != null ? limit : DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE));
+
+        List<Document> pipeline = List.of(
+                new Document("$match", match),
+                new Document("$sort", new Document("updated_at", -1).append("_id", -1)),
+                new Document("$limit", pageSize + 1),
+                summaryProjection());
+
+        List<Document> documents = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Note.class))
+                .aggregate(pipeline)
+                .into(new ArrayList<>());
+
+        boolean hasMore = documents.size() > pageSize;
+        if (hasMore) {
+            documents = documents.subList(0, pageSize);
+        }
+
+        List<NoteSummary> items = documents.stream()
+                .map(this::toSummary)
+                .collect(Collectors.toList());
+
+        String nextCursor = null;
+        if (hasMore) {
+            Document last = documents.get(documents.size() - 1);
+            nextCursor = new NoteListCursor(last.getDate("updated_at"), last.get("_id")).encode();
+        }
+        return new NoteSummaryPage(items, nextCursor, hasMore);
+    }
+
+    /**
+     * Summary của các note theo đúng thứ tự ids (thứ tự xếp hạng của search), bỏ qua note đã xóa
+     */
+    public List<NoteSummary> getNoteSummariesByIds(List<String> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        List<Object> objectIds = ids.stream()
+                .map(id -> ObjectId.isValid(id) ? (Object) new ObjectId(id) : id)
+                .collect(Collectors.toList());
+        List<Document> pipeline = List.of(
+                new Document("$match", new Document("_id", new Document("$in", objectIds)).append("is_deleted", false)),
+                summaryProjection());
+
+        Map<String, NoteSummary> byId = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Note.class))
+                .aggregate(pipeline)
+                .into(new ArrayList<>())
+                .stream()
+                .map(this::toSummary)
+                .collect(Collectors.toMap(NoteSummary::getId, Function.identity()));
+        return ids.stream()
+                .map(byId::get)
+                .filter(summary -> summary != null)
                 .collect(Collectors.toList());
     }
 
+    private Document summaryProjection() {
+        return new Document("$project", new Document("title", 1)
+                .append("folderId", 1)
+                .append("tags", 1)
+                .append("updated_at", 1)
+                .append("is_important", 1)
+                .append("created_by", 1)
+                // Note lớn không có content trong document, snippet lấy từ content_preview
+                .append("snippet", new Document("$substrCP", List.of(
+                        new Document("$ifNull", List.of("$content", new Document("$ifNull", List.of("$content_preview", "")))),
+                        0, SNIPPET_LENGTH))));
+    }
+
+    @SuppressWarnings("unchecked")
+    private NoteSummary toSummary(Document document) {
+        Date updatedAt = document.getDate("updated_at");
+        return new NoteSummary(
+                document.get("_id").toString(),
+                document.getString("title"),
+                document.getString("folderId"),
+                (List<String>) document.get("tags"),
+                // Spring Data lưu LocalDateTime theo system default zone, đọc lại theo cùng zone
+                updatedAt != null ? LocalDateTime.ofInstant(updatedAt.toInstant(), ZoneId.systemDefault()) : null,
+                document.getBoolean("is_important"),
+                document.getString("snippet"),
+                document.getString("created_by"));
+    }
+
+    /**
+     * Vị trí keyset (updated_at, _id) của item cuối trang, encode base64 cho client
+     */
+    private record NoteListCursor(Date updatedAt, Object id) {
+
+        String encode() {
+            String idPart = id instanceof ObjectId ? "o" + id : "s" + id;
+            String raw = updatedAt.getTime() + ":" + idPart;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static NoteListCursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int separator = raw.indexOf(':');
+                Date updatedAt = new Date(Long.parseLong(raw.substring(0, separator)));
+                String idPart = raw.substring(separator + 1);
+                Object id = idPart.charAt(0) == 'o' ? new ObjectId(idPart.substring(1)) : idPart.substring(1);
+                return new NoteListCursor(updatedAt, id);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+    }
+
     public void internalMoveToTrash(String noteId) {
         Note note = noteRepository.findById(noteId)
                 .orElseThrow(() -> new RuntimeException("Note not found with id: " + noteId));
@@ -136,6 +455,7 @@ public class NoteService {
         note.setIsDeleted(true);
         note.setDeletedAt(LocalDateTime.now());
         noteRepository.save(note);
+        noteSearchIndex.remove(note.getId());
     }
 
     public void internalRestoreFromTrash(String noteId) {
@@ -154,6 +474,7 @@ public class NoteService {
         note.setIsDeleted(false);
         note.setDeletedAt(null);
         noteRepository.save(note);
+        noteSearchIndex.index(note);
     }
 
     public void internalPermanentDelete(String noteId) {
@@ -165,11 +486,15 @@ public class NoteService {
         }
 
         noteRepository.delete(note);
+        noteSearchIndex.remove(noteId);
+        noteContentStore.delete(note.getContentRef());
+
+        long removedVersions = noteHistoryService.deleteHistory(noteId);
+        System.out.println("🗑️ Permanently deleted note " + noteId + " and " + removedVersions + " history versions");
     }
 
     public NoteResponse restoreNoteFromHistory(String noteId, String historyId) {
-        NoteHistory historyVersion = noteHistoryRepository.findById(historyId)
-                .orElseThrow(() -> new RuntimeException("History not found with id: " + historyId));
+        NoteHistory historyVersion = noteHistoryService.getVersion(historyId);
 
         Note currentNote = noteRepository.findByIdAndIsDeletedFalse(noteId)
                 .orElseThrow(() -> new RuntimeException("Note not found with id: " + noteId));
@@ -178,71 +503,137 @@ public class NoteService {
             throw new IllegalArgumentException("History version does not belong to the specified note.");
         }
 
-        noteHistoryRepository.save(new NoteHistory(currentNote));
-
-        currentNote.setTitle(historyVersion.getTitle());
-        currentNote.setContent(historyVersion.getContent());
-        currentNote.setContentType(historyVersion.getContentType());
-        currentNote.setFolderId(historyVersion.getFolderId());
-        currentNote.setTags(historyVersion.getTags());
-        currentNote.setShares(historyVersion.getShares());
-        currentNote.setMetadata(historyVersion.getMetadata());
-        currentNote.setIsImportant(historyVersion.getIsImportant());
-        
-        currentNote.setVersion(currentNote.getVersion() + 1);
-        currentNote.setUpdatedAt(LocalDateTime.now());
-
-        Note restoredNote = noteRepository.save(currentNote);
+        // Dựng lại content trước khi ghi version mới vào chain
+        String restoredContent = noteHistoryService.reconstructContent(historyVersion);
+
+        Update update = new Update().set("title", historyVersion.getTitle());
+        String contentRef = setContent(update, currentNote, restoredContent);
+        update.set("contentType", historyVersion.getContentType())
+                .set("folderId", historyVersion.getFolderId())
+                .set("tags", historyVersion.getTags())
+                .set("shares", historyVersion.getShares())
+                .set("metadata", historyVersion.getMetadata())
+                .set("isImportant", historyVersion.getIsImportant());
+
+        Note restoredNote = updateContentIfVersion(currentNote, update, contentRef);
+        recordVersion(currentNote, "RESTORE", true);
+        noteSearchIndex.index(restoredNote);
         return convertToResponse(restoredNote);
     }
 
     public NoteResponse markAsImportant(String noteId, String userId) {
-        Note note = noteRepository.findByIdAndIsDeletedFalse(noteId)
-                .orElseThrow(() -> new RuntimeException("Note not found with id: " + noteId));
-        
-        if (!note.getCreatedBy().equals(userId)) {
-            throw new RuntimeException("Unauthorized to modify this note");
-        }
-        
-        note.setIsImportant(true);
-        note.setUpdatedAt(LocalDateTime.now());
-        
-        Note updatedNote = noteRepository.save(note);
-        return convertToResponse(updatedNote);
+        return convertToResponse(patchOwnedNote(noteId, userId, new Update().set("isImportant", true), false));
     }
 
     public NoteResponse removeAsImportant(String noteId, String userId) {
-        Note note = noteRepository.findByIdAndIsDeletedFalse(noteId)
-                .orElseThrow(() -> new RuntimeException("Note not found with id: " + noteId));
-        
-        if (!note.getCreatedBy().equals(userId)) {
+        return convertToResponse(patchOwnedNote(noteId, userId, new Update().set("isImportant", false), false));
+    }
+
+    /**
+     * PATCH metadata (star, tags, folder, title) bằng một lệnh update, không đọc note trước
+     * Không tăng version và không ghi history: đây không phải thay đổi nội dung
+     */
+    public NoteResponse patchNote(String noteId, NotePatchRequest request, String userId) {
+        boolean replaceTags = request.getTags() != null;
+        boolean addTags = request.getAddTags() != null && !request.getAddTags().isEmpty();
+        boolean removeTags = request.getRemoveTags() != null && !request.getRemoveTags().isEmpty();
+        if ((replaceTags ? 1 : 0) + (addTags ? 1 : 0) + (removeTags ? 1 : 0) > 1) {
+            throw new IllegalArgumentException("Use only one of tags, addTags, removeTags");
+        }
+
+        Update update = new Update();
+        if (request.getTitle() != null)
+            update.set("title", request.getTitle());
+        if (request.getFolderId() != null)
+            update.set("folderId", request.getFolderId());
+        if (request.getIsImportant() != null)
+            update.set("isImportant", request.getIsImportant());
+        if (replaceTags)
+            update.set("tags", request.getTags());
+        if (addTags)
+            update.addToSet("tags").each(request.getAddTags().toArray());
+        if (removeTags)
+            update.pullAll("tags", request.getRemoveTags().toArray());
+
+        if (update.getUpdateObject().isEmpty()) {
+            throw new IllegalArgumentException("Nothing to update");
+        }
+        return convertToResponse(patchOwnedNote(noteId, userId, update, request.getTitle() != null));
+    }
+
+    /**
+     * Chuyển nhiều note sang folder khác trong một lệnh updateMulti
+     * @return số note đã chuyển
+     */
+    public long moveNotes(List<String> noteIds, String folderId, String userId) {
+        if (noteIds == null || noteIds.isEmpty()) {
+            throw new IllegalArgumentException("noteIds cannot be empty");
+        }
+        Query query = Query.query(Criteria.where("id").in(noteIds)
+                .and("createdBy").is(userId)
+                .and("isDeleted").ne(true));
+        // Mongo lưu tới millisecond: index ghi đúng giá trị này để sync không index lại các note vừa chuyển
+        LocalDateTime updatedAt = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        Update update = new Update().set("folderId", folderId).set("updatedAt", updatedAt);
+        long moved = mongoTemplate.updateMulti(query, update, Note.class).getModifiedCount();
+        noteSearchIndex.updateFolder(userId, noteIds, folderId, updatedAt);
+        System.out.println("📁 Moved " + moved + "/" + noteIds.size() + " notes to folder " + folderId);
+        return moved;
+    }
+
+    /**
+     * findAndModify trên note của userId, trả về note mới không kèm content
+     * Chỉ khi không match mới query thêm để phân biệt not found và unauthorized
+     * @param titleChanged false = chỉ đổi star/tags/folder: index đổi doc-value tại chỗ, không phân tích lại text
+     */
+    private Note patchOwnedNote(String noteId, String userId, Update update, boolean titleChanged) {
+        Query query = Query.query(Criteria.where("id").is(noteId)
+                .and("isDeleted").ne(true)
+                .and("createdBy").is(userId));
+        query.fields().exclude("content");
+        update.set("updatedAt", LocalDateTime.now());
+
+        Note updated = mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), Note.class);
+        if (updated != null) {
+            if (titleChanged) {
+                // Kết quả không có content nên index đọc lại note đầy đủ
+                noteSearchIndex.reindex(List.of(noteId));
+            } else {
+                noteSearchIndex.updateDocValues(updated);
+            }
+            return updated;
+        }
+        if (mongoTemplate.exists(Query.query(Criteria.where("id").is(noteId).and("isDeleted").ne(true)), Note.class)) {
             throw new RuntimeException("Unauthorized to modify this note");
         }
-        
-        note.setIsImportant(false);
-        note.setUpdatedAt(LocalDateTime.now());
-        
-        Note updatedNote = noteRepository.save(note);
-        return convertToResponse(updatedNote);
+        throw new RuntimeException("Note not found with id: " + noteId);
     }
 
-    public List<NoteResponse> getImportantNotes(String userId) {
-    
-        return noteRepository.findByIsImportantTrueAndCreatedByAndIsDeletedFalse(userId).stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+    public NoteHistoryPage getNoteHistory(String noteId, String cursor, Integer limit) {
+        return noteHistoryService.getHistoryPage(noteId, cursor, limit);
+    }
+
+    public NoteHistory getNoteHistoryVersion(String noteId, String historyId) {
+        return noteHistoryService.getVersionWithContent(noteId, historyId);
+    }
+
+    public Map<String, Object> getHistoryStats() {
+        return noteHistoryService.getStats();
     }
 
-    public List<NoteHistory> getNoteHistory(String noteId) {
-        return noteHistoryRepository.findByOriginalNoteId(noteId);
+    public Map<String, Object> getContentStoreStats() {
+        return noteContentStore.getStats();
     }
 
-    private NoteResponse convertToResponse(Note note) {
+    NoteResponse convertToResponse(Note note) {
         NoteResponse response = new NoteResponse();
         response.setId(note.getId());
         response.setFolderId(note.getFolderId());
         response.setTitle(note.getTitle());
         response.setContent(note.getContent());
+        response.setContentChunked(note.getContentRef() != null);
+        response.setContentSize(note.getContentRef() != null ? note.getContentSize()
+                : note.getContent() != null ? (long) TextDiff.utf8Length(note.getContent()) : null);
         response.setContentType(note.getContentType());
         response.setCreatedBy(note.getCreatedBy());
         response.setCreatedAt(note.getCreatedAt() != null ? note.getCreatedAt() : LocalDateTime.now());
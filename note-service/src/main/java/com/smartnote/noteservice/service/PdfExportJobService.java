@@ -0,0 +1,454 @@
+package com.smartnote.noteservice.service;
+
+import com.smartnote.noteservice.dto.ExportJobResponse;
+import com.smartnote.noteservice.dto.NoteResponse;
+import com.smartnote.noteservice.exception.JobQueueFullException;
+import com.smartnote.noteservice.model.DataJob;
+import com.smartnote.noteservice.model.DataJobStatus;
+import com.smartnote.noteservice.model.DataJobType;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Render PDF bất đồng bộ
+ *
+ * - Số worker cố định + hàng đợi có giới hạn: tối đa workers bản render cùng lúc trên heap,
+ *   hàng đợi đầy thì từ chối ngay (429) thay vì để request dồn lại tới hết bộ nhớ
+ * - PDF được ghi thẳng ra file tạm trong result-dir, download stream từ file (hỗ trợ Range)
+ * - Job và file hết hạn sau result-ttl-minutes kể từ lúc xong
+ * - Job lưu trong data_jobs: poll/download/cancel vẫn dùng được sau restart, job chưa xong thì được render lại
+ *   (PDF render một lần, không có checkpoint giữa chừng)
+ */
+@Service
+public class PdfExportJobService {
+
+    private static final int RETRY_AFTER_SECONDS = 5;
+    private static final String PDF = "pdf";
+
+    private final ExportService exportService;
+    private final NoteService noteService;
+    private final ExportArtifactCache artifactCache;
+    private final DataJobService dataJobService;
+    private final int queueCapacity;
+    private final Path resultDir;
+    private final Duration resultTtl;
+    private final long syncTimeoutMs;
+    private final ThreadPoolExecutor executor;
+    private volatile boolean shuttingDown;
+
+    // Job đang chờ hoặc đang render trên instance này; job đã xong đọc từ data_jobs
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong completedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * File PDF đã render xong của một job
+     */
+    public record ExportFile(Path path, String filename, long sizeBytes) {
+    }
+
+    public record CachedExport(ExportFile file, ExportArtifactCache.Lease lease) implements AutoCloseable {
+        @Override
+        public void close() {
+            lease.close();
+        }
+    }
+
+    private static final class ExportJob {
+        final String id;
+        final String userId;
+        final String noteId;
+        final String filename;
+        final Path file;
+        final LocalDateTime createdAt;
+        final CompletableFuture<Void> finished = new CompletableFuture<>();
+        volatile DataJobStatus status = DataJobStatus.QUEUED;
+        volatile LocalDateTime startedAt;
+        volatile LocalDateTime finishedAt;
+        volatile long sizeBytes;
+        volatile String error;
+        volatile int attempts;
+        volatile boolean cancelRequested;
+
+        ExportJob(String id, String userId, String noteId, String filename, Path file, LocalDateTime createdAt) {
+            this.id = id;
+            this.userId = userId;
+            this.noteId = noteId;
+            this.filename = filename;
+            this.file = file;
+            this.createdAt = createdAt;
+        }
+
+        static ExportJob from(DataJob stored) {
+            ExportJob job = new ExportJob(stored.getId(), stored.getUserId(), stored.getNoteId(),
+                    stored.getFilename(), Path.of(stored.getWorkPath()), stored.getCreatedAt());
+            job.status = stored.getStatus();
+            job.startedAt = stored.getStartedAt();
+            job.finishedAt = stored.getFinishedAt();
+            job.sizeBytes = stored.getSizeBytes() != null ? stored.getSizeBytes() : 0;
+            job.error = stored.getErrors() != null && !stored.getErrors().isEmpty() ? stored.getErrors().get(0) : null;
+            job.attempts = stored.getAttempts();
+            job.cancelRequested = stored.isCancelRequested();
+            return job;
+        }
+    }
+
+    public PdfExportJobService(ExportService exportService,
+                               NoteService noteService,
+                               ExportArtifactCache artifactCache,
+                               DataJobService dataJobService,
+                               @Value("${app.export.pdf.workers:2}") int workers,
+                               @Value("${app.export.pdf.queue-capacity:16}") int queueCapacity,
+                               @Value("${app.export.pdf.result-dir:${java.io.tmpdir}/smartnote-exports}") String resultDir,
+                               @Value("${app.export.pdf.result-ttl-minutes:30}") long resultTtlMinutes,
+                               @Value("${app.export.pdf.sync-timeout-ms:60000}") long syncTimeoutMs) {
+        this.exportService = exportService;
+        this.noteService = noteService;
+        this.artifactCache = artifactCache;
+        this.dataJobService = dataJobService;
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.resultDir = Path.of(resultDir);
+        this.resultTtl = Duration.ofMinutes(resultTtlMinutes);
+        this.syncTimeoutMs = syncTimeoutMs;
+        int threads = Math.max(1, workers);
+        AtomicLong threadIndex = new AtomicLong();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(this.queueCapacity),
+                task -> {
+                    Thread thread = new Thread(task, "pdf-export-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        prepareResultDir();
+    }
+
+    /**
+     * File kết quả của job đã xong được giữ lại qua restart (job nằm trong data_jobs), chỉ xóa file ghi dở
+     */
+    private void prepareResultDir() {
+        try {
+            Files.createDirectories(resultDir);
+            try (Stream<Path> files = Files.list(resultDir)) {
+                for (Path file : files.filter(f -> f.getFileName().toString().endsWith(".tmp")).toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot prepare export directory " + resultDir, e);
+        }
+    }
+
+    public ExportJobResponse submit(String userId, String noteId) {
+        NoteResponse note = noteService.getNoteWithContent(noteId);
+        return toResponse(enqueue(userId, note));
+    }
+
+    /**
+     * Export đồng bộ cũng đi qua pool để chịu chung giới hạn.
+     * Chờ tối đa sync-timeout-ms; chưa xong thì trả job đang chạy để client poll theo jobId
+     */
+    public ExportJobResponse submitAndWait(String userId, NoteResponse note) throws IOException {
+        ExportJob job = enqueue(userId, note);
+        try {
+            job.finished.get(syncTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return toResponse(job);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for PDF export", e);
+        } catch (ExecutionException e) {
+            throw new IOException("PDF export failed", e.getCause());
+        }
+        if (job.status == DataJobStatus.FAILED) {
+            throw new IOException("PDF export failed: " + job.error);
+        }
+        return toResponse(job);
+    }
+
+    private ExportJob enqueue(String userId, NoteResponse note) {
+        String jobId = UUID.randomUUID().toString();
+        ExportJob job = new ExportJob(jobId, userId, note.getId(), note.getTitle() + ".pdf",
+                resultDir.resolve(jobId + ".pdf"), LocalDateTime.now());
+        jobs.put(jobId, job);
+        try {
+            DataJob stored = new DataJob();
+            stored.setId(jobId);
+            stored.setType(DataJobType.EXPORT_PDF);
+            stored.setUserId(userId);
+            stored.setNoteId(note.getId());
+            stored.setFilename(job.filename);
+            stored.setWorkPath(job.file.toString());
+            stored.setCreatedAt(job.createdAt);
+            dataJobService.create(stored);
+        } catch (RuntimeException e) {
+            jobs.remove(jobId);
+            throw e;
+        }
+        try {
+            executor.execute(() -> render(job, note));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(jobId);
+            dataJobService.delete(jobId);
+            rejectedCount.incrementAndGet();
+            throw new JobQueueFullException(queueCapacity, RETRY_AFTER_SECONDS);
+        }
+        return job;
+    }
+
+    /**
+     * Render lại các job chưa xong từ lần chạy trước; hàng đợi đầy thì phần còn lại đợi lần quét sau
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${app.export.pdf.resume-interval-ms:60000}",
+            initialDelayString = "${app.export.pdf.resume-interval-ms:60000}")
+    public synchronized void resumeUnfinished() {
+        int resumed = 0;
+        for (DataJob stored : dataJobService.findUnfinished(DataJobType.EXPORT_PDF)) {
+            if (shuttingDown || jobs.containsKey(stored.getId()) || dataJobService.failIfExhausted(stored)) {
+                continue;
+            }
+            ExportJob job = ExportJob.from(stored);
+            job.status = DataJobStatus.QUEUED;
+            jobs.put(job.id, job);
+            try {
+                // Note được đọc lại khi render: có thể đã sửa hoặc xóa trong lúc service dừng
+                executor.execute(() -> render(job, null));
+                resumed++;
+            } catch (RejectedExecutionException e) {
+                jobs.remove(job.id);
+                break;
+            }
+        }
+        if (resumed > 0) {
+            System.out.println("🔁 Resumed " + resumed + " unfinished PDF export jobs");
+        }
+    }
+
+    private void render(ExportJob job, NoteResponse note) {
+        DataJob claimed = dataJobService.claim(job.id);
+        if (claimed == null) {
+            // Bị cancel khi còn trong hàng đợi
+            job.status = DataJobStatus.CANCELLED;
+            jobs.remove(job.id);
+            job.finished.complete(null);
+            return;
+        }
+        job.status = DataJobStatus.RUNNING;
+        job.startedAt = claimed.getStartedAt();
+        job.attempts = claimed.getAttempts();
+        Path tmp = job.file.resolveSibling(job.id + ".pdf.tmp");
+        DataJobStatus result = null;
+        try {
+            NoteResponse source = note != null ? note : noteService.getNoteWithContent(job.noteId);
+            String key = artifactKey(source);
+            boolean fromCache = false;
+            try (ExportArtifactCache.Lease cached = artifactCache.acquire(key, PDF)) {
+                if (cached != null) {
+                    Files.copy(cached.path(), tmp, StandardCopyOption.REPLACE_EXISTING);
+                    fromCache = true;
+                }
+            }
+            if (!fromCache) {
+                try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                    exportService.writePdf(source, os);
+                }
+            }
+            Files.move(tmp, job.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            if (!fromCache) {
+                artifactCache.put(key, PDF, job.file);
+            }
+            if (dataJobService.isCancelRequested(job.id)) {
+                // Render không dừng giữa chừng được: cancel lúc đang chạy thì bỏ kết quả
+                deleteQuietly(job.file);
+                result = DataJobStatus.CANCELLED;
+            } else {
+                job.sizeBytes = Files.size(job.file);
+                result = DataJobStatus.DONE;
+                completedCount.incrementAndGet();
+            }
+        } catch (Exception e) {
+            deleteQuietly(tmp);
+            if (shuttingDown) {
+                // Job giữ RUNNING, lần start sau render lại
+                System.out.println("⏸️ PDF export job " + job.id + " interrupted, will resume on restart");
+            } else {
+                job.error = e.getMessage();
+                result = DataJobStatus.FAILED;
+                failedCount.incrementAndGet();
+                System.err.println("❌ PDF export job " + job.id + " failed: " + e.getMessage());
+            }
+        } finally {
+            if (result != null) {
+                job.status = result;
+                job.finishedAt = LocalDateTime.now();
+                Update update = new Update().set("sizeBytes", result == DataJobStatus.DONE ? job.sizeBytes : null);
+                if (job.error != null) {
+                    update.push("errors", job.error);
+                }
+                dataJobService.finish(job.id, result, update);
+            }
+            jobs.remove(job.id);
+            job.finished.complete(null);
+        }
+    }
+
+    /**
+     * Khóa cache của bản PDF hiện tại của note, controller dùng luôn làm ETag
+     */
+    public String artifactKey(NoteResponse note) {
+        return exportService.artifactKey(note, PDF);
+    }
+
+    /**
+     * PDF đã render cho đúng version này của note, null nếu chưa có trong cache.
+     * Caller phải close() sau khi stream xong file, trước đó cache không xóa file này
+     */
+    public CachedExport findCached(NoteResponse note, String artifactKey) {
+        ExportArtifactCache.Lease lease = artifactCache.acquire(artifactKey, PDF);
+        if (lease == null) {
+            return null;
+        }
+        return new CachedExport(new ExportFile(lease.path(), note.getTitle() + ".pdf", lease.size()), lease);
+    }
+
+    public ExportJobResponse getJob(String userId, String jobId) {
+        return toResponse(findJob(userId, jobId));
+    }
+
+    public List<ExportJobResponse> listJobs(String userId, Integer limit) {
+        return dataJobService.list(userId, DataJobType.EXPORT_PDF, limit).stream()
+                .map(stored -> {
+                    ExportJob live = jobs.get(stored.getId());
+                    return toResponse(live != null ? live : ExportJob.from(stored));
+                })
+                .toList();
+    }
+
+    /**
+     * Job đang chờ bị hủy ngay; job đang render vẫn chạy hết nhưng kết quả bị bỏ
+     */
+    public ExportJobResponse cancel(String userId, String jobId) {
+        DataJob stored = dataJobService.requestCancel(userId, jobId, DataJobType.EXPORT_PDF);
+        ExportJob live = jobs.get(jobId);
+        if (live == null) {
+            return toResponse(ExportJob.from(stored));
+        }
+        live.cancelRequested = stored.isCancelRequested();
+        if (stored.getStatus() == DataJobStatus.CANCELLED) {
+            live.status = DataJobStatus.CANCELLED;
+            live.finishedAt = stored.getFinishedAt();
+        }
+        return toResponse(live);
+    }
+
+    /**
+     * @throws IllegalStateException job chưa xong hoặc bị lỗi
+     */
+    public ExportFile getResult(String userId, String jobId) {
+        ExportJob job = findJob(userId, jobId);
+        if (job.status != DataJobStatus.DONE) {
+            throw new IllegalStateException("Export job " + jobId + " is " + job.status);
+        }
+        if (!Files.exists(job.file)) {
+            throw new RuntimeException("Export result expired: " + jobId);
+        }
+        return new ExportFile(job.file, job.filename, job.sizeBytes);
+    }
+
+    private ExportJob findJob(String userId, String jobId) {
+        ExportJob live = jobs.get(jobId);
+        if (live != null && live.userId.equals(userId)) {
+            return live;
+        }
+        return ExportJob.from(dataJobService.find(userId, jobId, DataJobType.EXPORT_PDF));
+    }
+
+    @Scheduled(fixedDelayString = "${app.export.pdf.cleanup-interval-ms:60000}")
+    public void removeExpired() {
+        List<DataJob> removed = dataJobService.removeFinishedBefore(DataJobType.EXPORT_PDF,
+                LocalDateTime.now().minus(resultTtl));
+        for (DataJob job : removed) {
+            deleteQuietly(Path.of(job.getWorkPath()));
+        }
+        if (!removed.isEmpty()) {
+            System.out.println("🧹 Removed " + removed.size() + " expired PDF export jobs");
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("workers", executor.getMaximumPoolSize());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("queued", executor.getQueue().size());
+        stats.put("running", executor.getActiveCount());
+        stats.put("completed", completedCount.get());
+        stats.put("failed", failedCount.get());
+        stats.put("rejected", rejectedCount.get());
+        stats.put("activeJobs", jobs.size());
+        stats.put("storedJobs", dataJobService.count(DataJobType.EXPORT_PDF));
+        stats.put("cache", artifactCache.getStats());
+        stats.put("render", exportService.getRenderStats());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        shuttingDown = true;
+        executor.shutdownNow();
+    }
+
+    private ExportJobResponse toResponse(ExportJob job) {
+        DataJobStatus status = job.status;
+        return new ExportJobResponse(
+                job.id,
+                job.noteId,
+                status.name(),
+                job.createdAt,
+                job.startedAt,
+                job.finishedAt,
+                status == DataJobStatus.DONE ? job.sizeBytes : null,
+                job.error,
+                job.attempts,
+                job.cancelRequested,
+                status == DataJobStatus.DONE ? "/api/data/export/jobs/" + job.id + "/file" : null);
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            System.err.println("❌ Cannot delete export file " + file + ": " + e.getMessage());
+        }
+    }
+}
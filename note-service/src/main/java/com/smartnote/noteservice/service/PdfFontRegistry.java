@@ -0,0 +1,101 @@
+package com.smartnote.noteservice.service;
+
+import com.openhtmltopdf.extend.FSCacheEx;
+import com.openhtmltopdf.extend.FSCacheValue;
+import com.openhtmltopdf.extend.impl.FSDefaultCacheStore;
+import com.openhtmltopdf.outputdevice.helper.BaseRendererBuilder.FontStyle;
+import com.openhtmltopdf.pdfboxout.PdfRendererBuilder;
+import org.apache.fontbox.ttf.NamingTable;
+import org.apache.fontbox.ttf.OS2WindowsMetricsTable;
+import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Font cho PDF export, nạp một lần khi start
+ *
+ * - File .ttf trong font-dirs được đọc vào memory, family/weight/style lấy từ bảng name/OS2 của font
+ *   nên CSS chỉ cần gọi đúng tên family (vd. 'DejaVu Sans'), không phụ thuộc tên file
+ * - Font metrics cache dùng chung cho mọi lần render: chỉ lần đầu mới phải parse font để đo chữ
+ * Không có font nào thì openhtmltopdf dùng font base-14 của PDF (không có dấu tiếng Việt).
+ */
+@Component
+public class PdfFontRegistry {
+
+    private final List<FontFace> fonts;
+    private final FSCacheEx<String, FSCacheValue> fontMetrics = new FSDefaultCacheStore();
+
+    private record FontFace(byte[] data, String family, int weight, FontStyle style) {
+    }
+
+    public PdfFontRegistry(@Value("${app.export.pdf.font-dirs:/usr/share/fonts/truetype/dejavu}") String fontDirs) {
+        List<FontFace> loaded = new ArrayList<>();
+        for (String dir : fontDirs.split(",")) {
+            if (!dir.isBlank()) {
+                loadDirectory(Path.of(dir.trim()), loaded);
+            }
+        }
+        this.fonts = List.copyOf(loaded);
+        System.out.println("🔤 Loaded " + fonts.size() + " PDF fonts: "
+                + fonts.stream().map(font -> font.family() + " " + font.weight() + " " + font.style()).toList());
+    }
+
+    private static void loadDirectory(Path dir, List<FontFace> loaded) {
+        if (!Files.isDirectory(dir)) {
+            System.err.println("❌ PDF font directory not found: " + dir);
+            return;
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.filter(f -> f.getFileName().toString().toLowerCase().endsWith(".ttf")).sorted().toList()) {
+                try {
+                    loaded.add(readFace(Files.readAllBytes(file)));
+                } catch (IOException e) {
+                    System.err.println("❌ Cannot load PDF font " + file + ": " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("❌ Cannot list PDF fonts in " + dir + ": " + e.getMessage());
+        }
+    }
+
+    private static FontFace readFace(byte[] data) throws IOException {
+        try (TrueTypeFont font = new TTFParser().parse(new ByteArrayInputStream(data))) {
+            NamingTable naming = font.getNaming();
+            String family = naming != null && naming.getFontFamily() != null ? naming.getFontFamily() : "sans-serif";
+            String subFamily = naming != null && naming.getFontSubFamily() != null
+                    ? naming.getFontSubFamily().toLowerCase() : "";
+            OS2WindowsMetricsTable os2 = font.getOS2Windows();
+            int weight = os2 != null ? os2.getWeightClass() : (subFamily.contains("bold") ? 700 : 400);
+            FontStyle style = subFamily.contains("italic") ? FontStyle.ITALIC
+                    : subFamily.contains("oblique") ? FontStyle.OBLIQUE : FontStyle.NORMAL;
+            return new FontFace(data, family, weight, style);
+        }
+    }
+
+    /**
+     * Đăng ký font (subset khi nhúng vào PDF) và metrics cache dùng chung cho một lần render
+     */
+    public void configure(PdfRendererBuilder builder) {
+        builder.useCacheStore(PdfRendererBuilder.CacheStore.PDF_FONT_METRICS, fontMetrics);
+        for (FontFace font : fonts) {
+            builder.useFont(() -> new ByteArrayInputStream(font.data()), font.family(), font.weight(), font.style(), true);
+        }
+    }
+
+    public List<String> families() {
+        return fonts.stream().map(FontFace::family).distinct().toList();
+    }
+
+    public long loadedBytes() {
+        return fonts.stream().mapToLong(font -> font.data().length).sum();
+    }
+}
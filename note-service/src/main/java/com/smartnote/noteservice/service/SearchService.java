@@ -1,40 +1,76 @@
 package com.smartnote.noteservice.service;
 
-import com.smartnote.noteservice.dto.NoteResponse;
-import com.smartnote.noteservice.model.Note;
-import com.smartnote.noteservice.repository.NoteRepository;
+import com.smartnote.noteservice.dto.NoteSearchResult;
+import com.smartnote.noteservice.dto.NoteSummary;
+import com.smartnote.noteservice.dto.NoteSummaryPage;
+import com.smartnote.noteservice.dto.TitleSuggestion;
+import com.smartnote.noteservice.search.NoteSearchIndex;
+import com.smartnote.noteservice.search.SearchFilter;
+import com.smartnote.noteservice.search.TitleAutocomplete;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class SearchService {
 
-    private final NoteRepository noteRepository;
+    private static final int DEFAULT_SEARCH_LIMIT = 20;
+    private static final int MAX_SEARCH_LIMIT = 100;
+    private static final int DEFAULT_SUGGEST_LIMIT = 8;
+    private static final int MAX_SUGGEST_LIMIT = 50;
 
-    public List<NoteResponse> getNotesByFolder(String folderId) {
-        List<Note> notes = noteRepository.findByFolderId(folderId);
-        return notes.stream()
-                .map(this::convertToResponse)
-                .collect(Collectors.toList());
+    private final NoteService noteService;
+    private final NoteSearchIndex noteSearchIndex;
+    private final TitleAutocomplete titleAutocomplete;
+    private final SearchStreamService searchStreamService;
+
+    public NoteSummaryPage getNotesByFolder(String folderId, String cursor, Integer limit) {
+        return noteService.getNoteSummariesByFolder(folderId, cursor, limit);
     }
 
+    /**
+     * Full-text search trên title, content và tags của note thuộc userId, kèm facet cho filter ở sidebar
+     */
+    public NoteSearchResult searchNotes(String userId, String query, SearchFilter filter, Integer limit) {
+        if (query == null || query.isBlank()) {
+            throw new IllegalArgumentException("Query cannot be empty");
+        }
+        long start = System.nanoTime();
+        int size = Math.max(1, Math.min(limit != null ? limit : DEFAULT_SEARCH_LIMIT, MAX_SEARCH_LIMIT));
+
+        NoteSearchIndex.Results results = noteSearchIndex.search(userId, query, filter, size);
+        List<String> noteIds = results.noteIds();
+        List<NoteSummary> items = noteService.getNoteSummariesByIds(noteIds);
+        if (items.size() < noteIds.size()) {
+            // Note đã xóa nhưng index chưa biết (vd. thay đổi mất khi service crash): bỏ khỏi index luôn
+            Set<String> found = items.stream().map(NoteSummary::getId).collect(Collectors.toSet());
+            noteIds.stream().filter(id -> !found.contains(id)).forEach(noteSearchIndex::remove);
+        }
+        return new NoteSearchResult(query, items, results.total(), results.facets(),
+                (System.nanoTime() - start) / 1_000_000, noteSearchIndex.isReady());
+    }
+
+    /**
+     * Gợi ý title khi đang gõ, chịu 1 lỗi gõ mỗi từ
+     */
+    public List<TitleSuggestion> suggestTitles(String userId, String query, Integer limit) {
+        if (query == null || query.isBlank()) {
+            return List.of();
+        }
+        int size = Math.max(1, Math.min(limit != null ? limit : DEFAULT_SUGGEST_LIMIT, MAX_SUGGEST_LIMIT));
+        return titleAutocomplete.suggest(userId, query, size);
+    }
 
-    private NoteResponse convertToResponse(Note note) {
-        NoteResponse response = new NoteResponse();
-        response.setId(note.getId());
-        response.setFolderId(note.getFolderId());
-        response.setTitle(note.getTitle());
-        response.setContent(note.getContent());
-        response.setContentType(note.getContentType());
-        response.setCreatedBy(note.getCreatedBy());
-        response.setCreatedAt(note.getCreatedAt());
-        response.setUpdatedAt(note.getUpdatedAt());
-        response.setVersion(note.getVersion());
-        response.setTags(note.getTags());
-        return response;
+    public Map<String, Object> getIndexStats() {
+        Map<String, Object> stats = new LinkedHashMap<>(noteSearchIndex.getStats());
+        stats.put("autocomplete", titleAutocomplete.getStats());
+        stats.put("streaming", searchStreamService.getStats());
+        return stats;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,176 @@
+package com.smartnote.noteservice.service;
+
+import com.smartnote.noteservice.dto.NoteSearchChunk;
+import com.smartnote.noteservice.dto.NoteSummary;
+import com.smartnote.noteservice.search.LatencyStats;
+import com.smartnote.noteservice.search.NoteSearchIndex;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Search-as-you-type qua Server-Sent Events
+ *
+ * - Mỗi segment của index chấm xong mà top đổi thì gửi ngay event "hits" (top hiện tại đã hydrate),
+ *   nên kết quả đầu tiên không phải chờ chấm hết mọi segment
+ * - Dừng sớm khi các segment còn lại không thể đổi top, kết thúc bằng event "done"
+ * - Mỗi (user, session) chỉ có một stream: query mới hủy query cũ đang chạy khi user gõ tiếp
+ * - Metric chính: time-to-first-result (thời gian tới event đầu tiên)
+ */
+@Service
+public class SearchStreamService {
+
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 100;
+
+    private final NoteService noteService;
+    private final NoteSearchIndex noteSearchIndex;
+    private final long timeoutMs;
+
+    private final Map<String, StreamTask> active = new ConcurrentHashMap<>();
+    private final LatencyStats timeToFirstResult = new LatencyStats();
+    private final LatencyStats timeToDone = new LatencyStats();
+    private final AtomicLong cancelledCount = new AtomicLong();
+    private final AtomicLong terminatedEarlyCount = new AtomicLong();
+
+    public SearchStreamService(NoteService noteService,
+                               NoteSearchIndex noteSearchIndex,
+                               @Value("${app.search.stream.timeout-ms:30000}") long timeoutMs) {
+        this.noteService = noteService;
+        this.noteSearchIndex = noteSearchIndex;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Một stream đang chạy; cancelled được search kiểm tra giữa các segment
+     */
+    private static final class StreamTask {
+        final SseEmitter emitter;
+        final AtomicBoolean cancelled = new AtomicBoolean();
+
+        StreamTask(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+    }
+
+    public SseEmitter stream(String userId, String session, String query, Integer limit) {
+        if (query == null || query.isBlank()) {
+            throw new IllegalArgumentException("Query cannot be empty");
+        }
+        long start = System.nanoTime();
+        int size = Math.max(1, Math.min(limit != null ? limit : DEFAULT_LIMIT, MAX_LIMIT));
+        String key = userId + ":" + (session != null && !session.isBlank() ? session : "default");
+
+        StreamTask task = new StreamTask(new SseEmitter(timeoutMs));
+        StreamTask previous = active.put(key, task);
+        if (previous != null && previous.cancelled.compareAndSet(false, true)) {
+            // User gõ tiếp: query cũ không còn ai cần
+            cancelledCount.incrementAndGet();
+            previous.emitter.complete();
+        }
+        Runnable cleanup = () -> {
+            task.cancelled.set(true);
+            active.remove(key, task);
+        };
+        task.emitter.onCompletion(cleanup);
+        task.emitter.onTimeout(cleanup);
+        task.emitter.onError(error -> cleanup.run());
+
+        Thread.ofVirtual().name("search-stream").start(() -> run(task, userId, query, size, start));
+        return task.emitter;
+    }
+
+    private void run(StreamTask task, String userId, String query, int limit, long start) {
+        Map<String, NoteSummary> hydrated = new HashMap<>();
+        AtomicBoolean first = new AtomicBoolean(true);
+        List<String> latest = new ArrayList<>();
+        try {
+            NoteSearchIndex.StreamSummary summary = noteSearchIndex.searchStream(userId, query, limit, noteIds -> {
+                latest.clear();
+                latest.addAll(noteIds);
+                if (!task.cancelled.get()
+                        && send(task, "hits", new NoteSearchChunk(query, hydrate(noteIds, hydrated), false, elapsedMs(start), false))
+                        && first.getAndSet(false)) {
+                    timeToFirstResult.record(System.nanoTime() - start);
+                }
+            }, task.cancelled::get);
+
+            if (summary.cancelled() || task.cancelled.get()) {
+                return;
+            }
+            if (summary.terminatedEarly()) {
+                terminatedEarlyCount.incrementAndGet();
+            }
+            if (!send(task, "done", new NoteSearchChunk(query, hydrate(latest, hydrated), true, elapsedMs(start),
+                    summary.terminatedEarly()))) {
+                return;
+            }
+            if (first.get()) {
+                // Không có kết quả: event "done" chính là kết quả đầu tiên client thấy
+                timeToFirstResult.record(System.nanoTime() - start);
+            }
+            timeToDone.record(System.nanoTime() - start);
+            task.emitter.complete();
+        } catch (Exception e) {
+            System.err.println("❌ Search stream failed: " + e.getMessage());
+            task.emitter.completeWithError(e);
+        }
+    }
+
+    /**
+     * Chỉ đọc từ Mongo các note chưa hydrate ở event trước; note đã bị xóa (index chưa biết) bị bỏ khỏi index
+     */
+    private List<NoteSummary> hydrate(List<String> noteIds, Map<String, NoteSummary> hydrated) {
+        List<String> missing = noteIds.stream().filter(id -> !hydrated.containsKey(id)).toList();
+        if (!missing.isEmpty()) {
+            for (NoteSummary summary : noteService.getNoteSummariesByIds(missing)) {
+                hydrated.put(summary.getId(), summary);
+            }
+            missing.stream().filter(id -> !hydrated.containsKey(id)).forEach(id -> {
+                hydrated.put(id, null);
+                noteSearchIndex.remove(id);
+            });
+        }
+        return noteIds.stream().map(hydrated::get).filter(Objects::nonNull).toList();
+    }
+
+    /**
+     * @return false nếu client đã đóng kết nối (stream coi như bị hủy)
+     */
+    private static boolean send(StreamTask task, String event, NoteSearchChunk chunk) {
+        try {
+            task.emitter.send(SseEmitter.event().name(event).data(chunk));
+            return true;
+        } catch (IOException | IllegalStateException e) {
+            task.cancelled.set(true);
+            return false;
+        }
+    }
+
+    private static long elapsedMs(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("streams", timeToDone.count());
+        stats.put("active", active.size());
+        stats.put("cancelled", cancelledCount.get());
+        stats.put("terminatedEarly", terminatedEarlyCount.get());
+        stats.put("timeToFirstResultP50Micros", timeToFirstResult.percentileMicros(0.50));
+        stats.put("timeToFirstResultP99Micros", timeToFirstResult.percentileMicros(0.99));
+        stats.put("timeToDoneP50Micros", timeToDone.percentileMicros(0.50));
+        return stats;
+    }
+}
@@ -0,0 +1,264 @@
+package com.smartnote.noteservice.util;
+
+import com.smartnote.noteservice.model.ContentHunk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Diff text theo dòng (Myers) sau khi cắt phần đầu/cuối giống nhau
+ *
+ * Kết quả là danh sách ContentHunk theo vị trí tăng dần trên text gốc,
+ * apply(base, diff(base, target).hunks()) luôn trả về đúng target.
+ */
+public final class TextDiff {
+
+    // Giới hạn số bước edit của Myers, vượt quá thì thay cả đoạn giữa bằng một hunk
+    private static final int MAX_EDIT_DISTANCE = 1000;
+
+    // Overhead ước lượng của mỗi hunk khi lưu BSON (field names + 2 int)
+    private static final int HUNK_OVERHEAD_BYTES = 24;
+
+    private TextDiff() {
+    }
+
+    public record Result(List<ContentHunk> hunks, int linesAdded, int linesRemoved) {
+
+        public int encodedSize() {
+            int size = 0;
+            for (ContentHunk hunk : hunks) {
+                size += HUNK_OVERHEAD_BYTES + utf8Length(hunk.getInsert());
+            }
+            return size;
+        }
+    }
+
+    public static Result diff(String base, String target) {
+        String a = base != null ? base : "";
+        String b = target != null ? target : "";
+
+        int prefix = commonPrefix(a, b);
+        int suffix = commonSuffix(a, b, prefix);
+        String aMid = a.substring(prefix, a.length() - suffix);
+        String bMid = b.substring(prefix, b.length() - suffix);
+
+        List<ContentHunk> hunks = new ArrayList<>();
+        if (aMid.isEmpty() && bMid.isEmpty()) {
+            return new Result(hunks, 0, 0);
+        }
+        if (aMid.isEmpty() || bMid.isEmpty()) {
+            hunks.add(new ContentHunk(prefix, aMid.length(), bMid));
+            return new Result(hunks, countLines(bMid), countLines(aMid));
+        }
+
+        List<String> aLines = splitLines(aMid);
+        List<String> bLines = splitLines(bMid);
+        Map<String, Integer> ids = new HashMap<>();
+        int[] aIds = toIds(aLines, ids);
+        int[] bIds = toIds(bLines, ids);
+
+        byte[] ops = myers(aIds, bIds);
+        if (ops == null) {
+            hunks.add(new ContentHunk(prefix, aMid.length(), bMid));
+            return new Result(hunks, bLines.size(), aLines.size());
+        }
+
+        int linesAdded = 0;
+        int linesRemoved = 0;
+        int aIndex = 0;
+        int bIndex = 0;
+        int offset = prefix;
+        int i = 0;
+        while (i < ops.length) {
+            if (ops[i] == EQUAL) {
+                offset += aLines.get(aIndex).length();
+                aIndex++;
+                bIndex++;
+                i++;
+                continue;
+            }
+            int position = offset;
+            int deleteLength = 0;
+            StringBuilder insert = new StringBuilder();
+            while (i < ops.length && ops[i] != EQUAL) {
+                if (ops[i] == DELETE) {
+                    deleteLength += aLines.get(aIndex).length();
+                    aIndex++;
+                    linesRemoved++;
+                } else {
+                    insert.append(bLines.get(bIndex));
+                    bIndex++;
+                    linesAdded++;
+                }
+                i++;
+            }
+            hunks.add(new ContentHunk(position, deleteLength, insert.toString()));
+            offset += deleteLength;
+        }
+        return new Result(hunks, linesAdded, linesRemoved);
+    }
+
+    public static String apply(String base, List<ContentHunk> hunks) {
+        String a = base != null ? base : "";
+        StringBuilder result = new StringBuilder(a.length() + 64);
+        int cursor = 0;
+        for (ContentHunk hunk : hunks) {
+            if (hunk.getPosition() < cursor || hunk.getPosition() + hunk.getDeleteLength() > a.length()) {
+                throw new IllegalStateException("Delta does not match base content (hunk at " + hunk.getPosition() + ")");
+            }
+            result.append(a, cursor, hunk.getPosition());
+            if (hunk.getInsert() != null) {
+                result.append(hunk.getInsert());
+            }
+            cursor = hunk.getPosition() + hunk.getDeleteLength();
+        }
+        result.append(a, cursor, a.length());
+        return result.toString();
+    }
+
+    public static int utf8Length(String text) {
+        if (text == null) {
+            return 0;
+        }
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static final byte EQUAL = 0;
+    private static final byte DELETE = 1;
+    private static final byte INSERT = 2;
+
+    /**
+     * Myers O((N+M)D), trả về chuỗi EQUAL/DELETE/INSERT theo thứ tự,
+     * hoặc null nếu số bước edit vượt MAX_EDIT_DISTANCE
+     */
+    private static byte[] myers(int[] a, int[] b) {
+        int n = a.length;
+        int m = b.length;
+        int maxD = Math.min(n + m, MAX_EDIT_DISTANCE);
+
+        // trace.get(d)[k + d] = x xa nhất trên đường chéo k sau d bước
+        List<int[]> trace = new ArrayList<>();
+        int[] previous = null;
+        for (int d = 0; d <= maxD; d++) {
+            int[] v = new int[2 * d + 1];
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (d == 0) {
+                    x = 0;
+                } else if (k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1])) {
+                    x = previous[k + 1 + d - 1];
+                } else {
+                    x = previous[k - 1 + d - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a[x] == b[y]) {
+                    x++;
+                    y++;
+                }
+                v[k + d] = x;
+                if (x >= n && y >= m) {
+                    trace.add(v);
+                    return backtrack(trace, n, m);
+                }
+            }
+            trace.add(v);
+            previous = v;
+        }
+        return null;
+    }
+
+    private static byte[] backtrack(List<int[]> trace, int n, int m) {
+        int d = trace.size() - 1;
+        byte[] ops = new byte[(n + m + d) / 2];
+        int index = ops.length;
+        int x = n;
+        int y = m;
+        for (; d > 0; d--) {
+            int[] previous = trace.get(d - 1);
+            int k = x - y;
+            int prevK = (k == -d || (k != d && previous[k - 1 + d - 1] < previous[k + 1 + d - 1])) ? k + 1 : k - 1;
+            int prevX = previous[prevK + d - 1];
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                ops[--index] = EQUAL;
+                x--;
+                y--;
+            }
+            ops[--index] = x == prevX ? INSERT : DELETE;
+            x = prevX;
+            y = prevY;
+        }
+        while (index > 0) {
+            ops[--index] = EQUAL;
+        }
+        return ops;
+    }
+
+    private static int commonPrefix(String a, String b) {
+        int max = Math.min(a.length(), b.length());
+        int i = 0;
+        while (i < max && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        // Không cắt giữa surrogate pair, BSON không lưu được nửa ký tự
+        if (i > 0 && Character.isHighSurrogate(a.charAt(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+
+    private static int commonSuffix(String a, String b, int prefix) {
+        int max = Math.min(a.length(), b.length()) - prefix;
+        int i = 0;
+        while (i < max && a.charAt(a.length() - 1 - i) == b.charAt(b.length() - 1 - i)) {
+            i++;
+        }
+        if (i > 0 && Character.isLowSurrogate(a.charAt(a.length() - i))) {
+            i--;
+        }
+        return i;
+    }
+
+    private static List<String> splitLines(String text) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lines.add(text.substring(start, i + 1));
+                start = i + 1;
+            }
+        }
+        if (start < text.length()) {
+            lines.add(text.substring(start));
+        }
+        return lines;
+    }
+
+    private static int countLines(String text) {
+        return text.isEmpty() ? 0 : splitLines(text).size();
+    }
+
+    private static int[] toIds(List<String> lines, Map<String, Integer> ids) {
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < lines.size(); i++) {
+            result[i] = ids.computeIfAbsent(lines.get(i), key -> ids.size());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,174 @@
+package com.smartnote.noteservice.config;
+
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.MongoCollection;
+import com.smartnote.noteservice.model.DataJob;
+import com.smartnote.noteservice.model.Folder;
+import com.smartnote.noteservice.model.Note;
+import com.smartnote.noteservice.model.NoteHistory;
+import com.smartnote.noteservice.model.TrashItem;
+import com.smartnote.noteservice.search.NoteSearchIndex;
+import com.smartnote.noteservice.repository.NoteRepository;
+import com.smartnote.noteservice.service.NoteContentStore;
+import com.smartnote.noteservice.service.NoteHistoryService;
+import com.smartnote.noteservice.service.NoteService;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Không có mongod trong môi trường test nên không chạy explain() được (explain vẫn chạy lúc startup).
+ * Thay vào đó kiểm tra tĩnh theo quy tắc equality, sort, range: mỗi query shape phải có một index khai báo
+ * mà planner dùng được cho cả filter lẫn sort, và shape của danh sách summary khớp với pipeline NoteService build
+ */
+class MongoIndexManagerTest {
+
+    private static final List<Class<?>> ENTITIES = List.of(
+            Note.class, Folder.class, TrashItem.class, NoteHistory.class, DataJob.class);
+
+    @Test
+    void everyQueryShapeHasCoveringIndex() {
+        Map<String, List<Document>> indexes = declaredIndexes();
+
+        List<String> uncovered = new ArrayList<>();
+        for (MongoIndexManager.QueryShape shape : MongoIndexManager.QUERY_SHAPES) {
+            boolean covered = indexes.getOrDefault(shape.collection(), List.of()).stream()
+                    .anyMatch(keys -> covers(keys, shape.filter(), shape.sort()));
+            if (!covered) {
+                uncovered.add(shape.name());
+            }
+        }
+
+        assertThat(uncovered).isEmpty();
+    }
+
+    @Test
+    void coverageCheckRejectsIndexThatCannotServeSort() {
+        Document keys = new Document("created_by", 1).append("is_deleted", 1);
+        Document filter = new Document("created_by", "u").append("is_deleted", false);
+
+        assertThat(covers(keys, filter, null)).isTrue();
+        assertThat(covers(keys, filter, new Document("updated_at", -1))).isFalse();
+        assertThat(covers(new Document("updated_at", -1).append("created_by", 1), filter, null)).isFalse();
+    }
+
+    @Test
+    void summaryShapesMatchNoteServicePipelines() {
+        List<List<Document>> pipelines = new ArrayList<>();
+        NoteService noteService = noteServiceCapturing(pipelines);
+
+        noteService.getNoteSummariesByUser("u", null, 20);
+        noteService.getImportantNoteSummaries("u", null, 20);
+        noteService.getNoteSummariesByFolder("f", null, 20);
+
+        assertMatchesShape(pipelines.get(0), "NoteService.getNoteSummariesByUser");
+        assertMatchesShape(pipelines.get(1), "NoteService.getImportantNoteSummaries");
+        assertMatchesShape(pipelines.get(2), "NoteService.getNoteSummariesByFolder");
+    }
+
+    private void assertMatchesShape(List<Document> pipeline, String shapeName) {
+        MongoIndexManager.QueryShape shape = MongoIndexManager.QUERY_SHAPES.stream()
+                .filter(s -> s.name().equals(shapeName))
+                .findFirst()
+                .orElseThrow();
+        Document match = (Document) pipeline.get(0).get("$match");
+        Document sort = (Document) pipeline.get(1).get("$sort");
+
+        assertThat(match.keySet()).isEqualTo(shape.filter().keySet());
+        assertThat(sort).isEqualTo(shape.sort());
+    }
+
+    @SuppressWarnings("unchecked")
+    private NoteService noteServiceCapturing(List<List<Document>> pipelines) {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        MongoCollection<Document> collection = mock(MongoCollection.class);
+        AggregateIterable<Document> result = mock(AggregateIterable.class);
+        when(mongoTemplate.getCollectionName(Note.class)).thenReturn("notes");
+        when(mongoTemplate.getCollection(anyString())).thenReturn(collection);
+        when(collection.aggregate(anyList())).thenAnswer(inv -> {
+            pipelines.add(inv.getArgument(0));
+            return result;
+        });
+        when(result.into(any())).thenAnswer(inv -> inv.getArgument(0));
+
+        return new NoteService(mock(NoteRepository.class), mock(NoteHistoryService.class), mongoTemplate,
+                mock(NoteSearchIndex.class), mock(NoteContentStore.class));
+    }
+
+    private Map<String, List<Document>> declaredIndexes() {
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(new MongoCustomConversions(List.of()).getSimpleTypeHolder());
+        MongoPersistentEntityIndexResolver resolver = new MongoPersistentEntityIndexResolver(mappingContext);
+
+        Map<String, List<Document>> indexes = new HashMap<>();
+        for (Class<?> entity : ENTITIES) {
+            String collection = mappingContext.getRequiredPersistentEntity(entity).getCollection();
+            for (IndexDefinition definition : resolver.resolveIndexFor(entity)) {
+                indexes.computeIfAbsent(collection, key -> new ArrayList<>()).add(definition.getIndexKeys());
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Index phục vụ được query khi: các field equality là prefix của index (thứ tự bất kỳ),
+     * ngay sau đó là các field sort (cùng chiều hoặc đảo ngược toàn bộ), field range nằm sau prefix equality.
+     * Không có sort thì $in được coi như equality
+     */
+    private boolean covers(Document keys, Document filter, Document sort) {
+        List<String> indexFields = new ArrayList<>(keys.keySet());
+        Set<String> equality = new HashSet<>();
+        Set<String> range = new HashSet<>();
+        for (Map.Entry<String, Object> condition : filter.entrySet()) {
+            boolean isRange = condition.getValue() instanceof Document operators
+                    && !(sort == null && operators.containsKey("$in"));
+            (isRange ? range : equality).add(condition.getKey());
+        }
+
+        if (indexFields.size() < equality.size()
+                || !new HashSet<>(indexFields.subList(0, equality.size())).equals(equality)) {
+            return false;
+        }
+        List<String> rest = indexFields.subList(equality.size(), indexFields.size());
+
+        if (sort == null) {
+            return rest.size() >= range.size() && new HashSet<>(rest.subList(0, range.size())).equals(range);
+        }
+
+        List<String> sortFields = new ArrayList<>(sort.keySet());
+        if (rest.size() < sortFields.size()) {
+            return false;
+        }
+        Integer direction = null;
+        for (int i = 0; i < sortFields.size(); i++) {
+            String field = sortFields.get(i);
+            if (!field.equals(rest.get(i))) {
+                return false;
+            }
+            int relative = ((Number) sort.get(field)).intValue() * ((Number) keys.get(field)).intValue();
+            if (direction != null && direction != relative) {
+                return false;
+            }
+            direction = relative;
+        }
+        return rest.containsAll(range);
+    }
+}
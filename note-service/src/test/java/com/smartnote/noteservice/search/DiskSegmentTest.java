@@ -0,0 +1,144 @@
+package com.smartnote.noteservice.search;
+
+import com.smartnote.noteservice.model.Note;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Ghi segment từ buffer rồi đọc lại qua memory-map: mọi giá trị phải giống buffer, tombstone còn sau khi mở lại
+ */
+class DiskSegmentTest {
+
+    private static final int DOCS = 70; // > 64 để bitset isImportant trải qua hai long
+
+    @TempDir
+    Path directory;
+
+    private static BufferSegment buffer() {
+        BufferSegment buffer = new BufferSegment();
+        for (int i = 0; i < DOCS; i++) {
+            Note note = new Note();
+            note.setId(String.format("note-%03d", (i * 37) % DOCS)); // id không theo thứ tự doc
+            note.setCreatedBy("user-" + (i % 3));
+            note.setTitle("Ghi chú số " + i);
+            note.setContent("Nội dung **markdown** của note " + i + (i % 2 == 0 ? " có từ chẵn" : ""));
+            note.setTags(i % 4 == 0 ? List.of("công việc", "tag-" + (i % 5)) : List.of());
+            note.setFolderId(i % 5 == 0 ? null : "folder-" + (i % 5));
+            note.setContentType(i % 7 == 0 ? "text" : "markdown");
+            note.setIsImportant(i % 3 == 0);
+            note.setUpdatedAt(LocalDateTime.of(2025, 1, 1, 0, 0).plusMinutes(i));
+            buffer.add(AnalyzedNote.of(note));
+        }
+        return buffer;
+    }
+
+    @Test
+    void writeAndReadBackMatchesBuffer() throws Exception {
+        BufferSegment buffer = buffer();
+        SegmentWriter.write(directory, 1, List.of(buffer), false);
+        DiskSegment disk = DiskSegment.open(directory, 1);
+
+        assertThat(disk.maxDoc()).isEqualTo(buffer.maxDoc());
+        assertThat(disk.liveDocs()).isEqualTo(DOCS);
+        for (int doc = 0; doc < DOCS; doc++) {
+            assertThat(disk.noteId(doc)).isEqualTo(buffer.noteId(doc));
+            assertThat(disk.userId(doc)).isEqualTo(buffer.userId(doc));
+            assertThat(disk.updatedAt(doc)).isEqualTo(buffer.updatedAt(doc));
+            assertThat(disk.isImportant(doc)).as("important %d", doc).isEqualTo(buffer.isImportant(doc));
+            assertThat(disk.findDoc(buffer.noteId(doc))).isEqualTo(doc);
+            for (int field = 0; field < AnalyzedNote.FIELD_COUNT; field++) {
+                assertThat(disk.fieldLength(doc, field)).isEqualTo(buffer.fieldLength(doc, field));
+            }
+            for (int facet = 0; facet < Segment.FACET_COUNT; facet++) {
+                assertThat(values(disk, doc, facet)).isEqualTo(values(buffer, doc, facet));
+            }
+        }
+        assertThat(disk.findDoc("missing")).isEqualTo(-1);
+
+        for (int user = 0; user < 3; user++) {
+            Segment.UserStats expected = buffer.userStats("user-" + user);
+            Segment.UserStats actual = disk.userStats("user-" + user);
+            assertThat(actual.docCount()).isEqualTo(expected.docCount());
+            assertThat(actual.fieldLengthSums()).isEqualTo(expected.fieldLengthSums());
+        }
+        assertThat(disk.userStats("nobody")).isNull();
+        assertThat(disk.lookupOrdinal(Segment.FACET_TAG, "công việc")).isNotNegative();
+        assertThat(disk.lookupOrdinal(Segment.FACET_TAG, "absent")).isEqualTo(-1);
+
+        assertThat(terms(disk, "")).isEqualTo(terms(buffer, ""));
+        // Duyệt từ giữa dictionary: chỉ các term của user-1 trở đi
+        String from = Segment.termKey("user-1", "");
+        assertThat(terms(disk, from)).isEqualTo(terms(buffer, from)).isNotEmpty();
+        assertThat(terms(disk, from).get(0)).startsWith(from);
+    }
+
+    @Test
+    void tombstonesSurviveReopenAndAreDroppedOnMerge() throws Exception {
+        SegmentWriter.write(directory, 1, List.of(buffer()), false);
+        DiskSegment disk = DiskSegment.open(directory, 1);
+        String deletedId = disk.noteId(5);
+        disk.delete(5);
+        disk.delete(5);
+        disk.delete(64);
+        assertThat(disk.deletedCount()).isEqualTo(2);
+        assertThat(disk.findDoc(deletedId)).isEqualTo(-1);
+
+        disk.writeDeletesIfDirty();
+        assertThat(Files.exists(DiskSegment.delPath(directory, 1))).isTrue();
+
+        DiskSegment reopened = DiskSegment.open(directory, 1);
+        assertThat(reopened.isDeleted(5)).isTrue();
+        assertThat(reopened.isDeleted(64)).isTrue();
+        assertThat(reopened.isDeleted(6)).isFalse();
+        assertThat(reopened.liveDocs()).isEqualTo(DOCS - 2);
+        assertThat(reopened.findDoc(deletedId)).isEqualTo(-1);
+
+        int[][] docMaps = SegmentWriter.write(directory, 2, List.of(reopened), true);
+        assertThat(docMaps[0][5]).isEqualTo(-1);
+        assertThat(docMaps[0][64]).isEqualTo(-1);
+        DiskSegment merged = DiskSegment.open(directory, 2);
+        assertThat(merged.maxDoc()).isEqualTo(DOCS - 2);
+        assertThat(merged.findDoc(deletedId)).isEqualTo(-1);
+        assertThat(merged.findDoc(reopened.noteId(6))).isEqualTo(docMaps[0][6]);
+        Segment.TermIterator iterator = merged.terms("");
+        while (iterator.next()) {
+            Segment.Postings postings = iterator.postings();
+            for (int i = 0; i < postings.size(); i++) {
+                assertThat(postings.doc(i)).isLessThan(merged.maxDoc());
+            }
+        }
+    }
+
+    private static List<String> values(Segment segment, int doc, int facet) {
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < segment.valueCount(doc, facet); i++) {
+            values.add(segment.dictionaryValue(facet, segment.ordinal(doc, facet, i)));
+        }
+        return values;
+    }
+
+    /**
+     * Term key kèm postings dạng "key [doc@freq ...]" theo thứ tự dictionary
+     */
+    private static List<String> terms(Segment segment, String fromKey) {
+        List<String> terms = new ArrayList<>();
+        Segment.TermIterator iterator = segment.terms(fromKey);
+        while (iterator.next()) {
+            Segment.Postings postings = iterator.postings();
+            StringBuilder entry = new StringBuilder(iterator.key()).append(" [");
+            for (int i = 0; i < postings.size(); i++) {
+                entry.append(postings.doc(i)).append('@').append(postings.freq(i)).append(' ');
+            }
+            terms.add(entry.append(']').toString());
+        }
+        return terms;
+    }
+}
@@ -0,0 +1,105 @@
+package com.smartnote.noteservice.search;
+
+import com.smartnote.noteservice.dto.FacetCount;
+import com.smartnote.noteservice.model.Note;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+
+/**
+ * Đổi folder/isImportant/tags tại chỗ (không phân tích lại note) trên buffer, segment đã flush,
+ * rồi qua merge và mở lại index: filter, facet và tìm theo tag phải thấy giá trị mới
+ */
+class DocValueUpdateTest {
+
+    private static final String USER = "u1";
+    private static final LocalDateTime NOW = LocalDateTime.of(2026, 1, 1, 0, 0);
+
+    @TempDir
+    Path directory;
+
+    private static AnalyzedNote note(String id, String folderId, List<String> tags) {
+        Note note = new Note();
+        note.setId(id);
+        note.setCreatedBy(USER);
+        note.setTitle("Báo cáo " + id);
+        note.setContent("Nội dung của " + id);
+        note.setTags(tags);
+        note.setFolderId(folderId);
+        note.setIsImportant(false);
+        note.setUpdatedAt(NOW);
+        return AnalyzedNote.of(note);
+    }
+
+    private static Segment.DocValues moved(String folderId, List<String> tags) {
+        return new Segment.DocValues(folderId, true, tags, AnalyzedNote.epochMillis(NOW.plusMinutes(1)));
+    }
+
+    @Test
+    void updatesAreVisibleInBufferAndDiskSegments() throws Exception {
+        SegmentedIndex index = SegmentedIndex.open(directory, 10, Long.MAX_VALUE);
+        index.upsert(note("n1", "f1", List.of("alpha")));
+        index.upsert(note("n2", "f1", List.of("alpha")));
+        index.flush(() -> NOW);
+        index.upsert(note("n3", "f1", List.of("alpha")));
+
+        assertThat(index.updateDocValues("n1", USER, current -> moved("f2", List.of("gamma")))).isTrue();
+        assertThat(index.updateDocValues("n3", USER, current -> moved("f2", List.of("gamma", "alpha")))).isTrue();
+        assertThat(index.updateDocValues("n2", "other", current -> moved("f2", List.of()))).isFalse();
+        assertThat(index.updateDocValues("missing", USER, current -> moved("f2", List.of()))).isFalse();
+
+        assertUpdated(index);
+    }
+
+    @Test
+    void updatesSurviveFlushMergeAndReopen() throws Exception {
+        SegmentedIndex index = SegmentedIndex.open(directory, 2, Long.MAX_VALUE);
+        index.upsert(note("n1", "f1", List.of("alpha")));
+        index.upsert(note("n2", "f1", List.of("alpha")));
+        index.flush(() -> NOW);
+        index.upsert(note("n3", "f1", List.of("alpha")));
+        index.updateDocValues("n1", USER, current -> moved("f2", List.of("gamma")));
+        index.updateDocValues("n3", USER, current -> moved("f2", List.of("gamma", "alpha")));
+
+        index.flush(() -> NOW);
+        assertThat(Files.exists(directory.resolve("_0.dvu"))).isTrue();
+        assertUpdated(index);
+
+        assertThat(index.maybeMerge()).isTrue();
+        assertUpdated(index);
+
+        // Đổi lại sau merge, chỉ được ghi xuống .dvu lúc commit
+        index.updateDocValues("n2", USER, current ->
+                new Segment.DocValues(current.folderId(), false, List.of("beta"), current.updatedAt()));
+        index.flush(() -> NOW);
+        SegmentedIndex reopened = SegmentedIndex.open(directory, 2, Long.MAX_VALUE);
+        assertUpdated(reopened);
+        assertThat(ids(reopened, "beta", SearchFilter.NONE)).containsExactly("n2");
+    }
+
+    private static void assertUpdated(SegmentedIndex index) {
+        assertThat(ids(index, "báo cáo", new SearchFilter(null, "f2", null, null))).containsExactlyInAnyOrder("n1", "n3");
+        assertThat(ids(index, "báo cáo", new SearchFilter(null, null, null, true))).containsExactlyInAnyOrder("n1", "n3");
+        assertThat(ids(index, "báo cáo", new SearchFilter("gamma", null, null, null))).containsExactlyInAnyOrder("n1", "n3");
+        assertThat(ids(index, "gamma", SearchFilter.NONE)).containsExactlyInAnyOrder("n1", "n3");
+        assertThat(ids(index, "alpha", new SearchFilter("alpha", null, null, null))).doesNotContain("n1").contains("n3");
+
+        IndexSearcher.Result result = index.search(USER, SearchQuery.parse("báo cáo"), SearchFilter.NONE, 10, true);
+        assertThat(result.facets().getFolders()).extracting(FacetCount::getValue, FacetCount::getCount)
+                .contains(tuple("f2", 2L), tuple("f1", 1L));
+        assertThat(result.facets().getImportant()).isEqualTo(2);
+    }
+
+    private static List<String> ids(SegmentedIndex index, String query, SearchFilter filter) {
+        return index.search(USER, SearchQuery.parse(query), filter, 10, false).hits().stream()
+                .map(IndexSearcher.Hit::noteId)
+                .toList();
+    }
+}
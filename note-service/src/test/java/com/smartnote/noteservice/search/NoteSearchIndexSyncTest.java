@@ -0,0 +1,212 @@
+package com.smartnote.noteservice.search;
+
+import com.smartnote.noteservice.model.Note;
+import com.smartnote.noteservice.service.NoteContentStore;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Sync định kỳ theo keyset (updated_at, _id) trên một collection notes giả lập trong memory
+ */
+class NoteSearchIndexSyncTest {
+
+    private static final SearchFilter NO_FILTER = new SearchFilter(null, null, null, null);
+
+    @TempDir
+    Path indexDir;
+
+    private final List<Note> notes = new ArrayList<>();
+    private final NoteContentStore contentStore = mock(NoteContentStore.class);
+    private NoteSearchIndex searchIndex;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.stream(any(Query.class), eq(Note.class))).thenAnswer(inv -> Stream.empty());
+        when(mongoTemplate.find(any(Query.class), eq(Note.class))).thenAnswer(inv -> find(inv.getArgument(0)));
+        searchIndex = new NoteSearchIndex(mongoTemplate, new TitleAutocomplete(mongoTemplate, 10), contentStore,
+                true, indexDir.toString(), 5000, 8, 512);
+        searchIndex.open();
+        searchIndex.rebuild();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        searchIndex.close();
+    }
+
+    @Test
+    void secondSyncFindsNothing() {
+        LocalDateTime updatedAt = LocalDateTime.now().plusMinutes(1).truncatedTo(ChronoUnit.MILLIS);
+        addNote("n1", updatedAt.minusSeconds(1));
+        addNote("n2", updatedAt);
+
+        assertThat(searchIndex.syncChanges()).isEqualTo(2);
+        assertThat(searchIndex.syncChanges()).isZero();
+        assertThat(searchIndex.search("u1", "hello", NO_FILTER, 10).total()).isEqualTo(2);
+    }
+
+    @Test
+    void notesSharingTimestampAcrossBatchBoundaryAreAllSynced() {
+        LocalDateTime updatedAt = LocalDateTime.now().plusMinutes(1).truncatedTo(ChronoUnit.MILLIS);
+        for (int i = 0; i < 1500; i++) {
+            addNote(String.format("n%05d", i), updatedAt);
+        }
+
+        assertThat(searchIndex.syncChanges()).isEqualTo(1500);
+        assertThat(searchIndex.search("u1", "hello", NO_FILTER, 10).total()).isEqualTo(1500);
+        assertThat(searchIndex.syncChanges()).isZero();
+    }
+
+    @Test
+    void watermarkAdvancesToNewestChange() {
+        LocalDateTime updatedAt = LocalDateTime.now().plusMinutes(1).truncatedTo(ChronoUnit.MILLIS);
+        addNote("n1", updatedAt);
+        searchIndex.syncChanges();
+
+        // Note sửa lại sau đó: chỉ note này được index lại
+        notes.get(0).setUpdatedAt(updatedAt.plusMinutes(1));
+        addNote("n2", updatedAt.plusMinutes(2));
+        assertThat(searchIndex.syncChanges()).isEqualTo(2);
+        assertThat(searchIndex.getStats().get("syncWatermark")).isEqualTo(updatedAt.plusMinutes(2));
+        assertThat(searchIndex.syncChanges()).isZero();
+    }
+
+    @Test
+    void docValueUpdatesAreNotReindexedBySync() {
+        LocalDateTime updatedAt = LocalDateTime.now().plusMinutes(1).truncatedTo(ChronoUnit.MILLIS);
+        addNote("n1", updatedAt);
+        addNote("n2", updatedAt);
+        searchIndex.syncChanges();
+
+        // PATCH star: kết quả findAndModify không có content
+        Note starred = notes.get(0);
+        starred.setIsImportant(true);
+        starred.setUpdatedAt(updatedAt.plusMinutes(1));
+        Note patched = new Note();
+        patched.setId(starred.getId());
+        patched.setCreatedBy(starred.getCreatedBy());
+        patched.setIsImportant(true);
+        patched.setUpdatedAt(starred.getUpdatedAt());
+        searchIndex.updateDocValues(patched);
+
+        // Move: chỉ đổi folder
+        notes.get(1).setFolderId("f1");
+        notes.get(1).setUpdatedAt(updatedAt.plusMinutes(2));
+        searchIndex.updateFolder("u1", List.of("n2"), "f1", updatedAt.plusMinutes(2));
+
+        assertThat(searchIndex.syncChanges()).isZero();
+        assertThat(searchIndex.search("u1", "hello", new SearchFilter(null, null, null, true), 10).noteIds())
+                .containsExactly("n1");
+        assertThat(searchIndex.search("u1", "hello", new SearchFilter(null, "f1", null, null), 10).noteIds())
+                .containsExactly("n2");
+    }
+
+    @Test
+    void largeNoteIsIndexedFromStoredContent() throws Exception {
+        LocalDateTime updatedAt = LocalDateTime.now().plusMinutes(1).truncatedTo(ChronoUnit.MILLIS);
+        StringBuilder content = new StringBuilder();
+        for (int paragraph = 0; paragraph < 3000; paragraph++) {
+            content.append("Đoạn ").append(paragraph).append(" của tài liệu lớn\n\n");
+        }
+        content.append("từ khóa cuối cùng: zebra\n");
+        when(contentStore.open("ref-1")).thenAnswer(inv ->
+                new ByteArrayInputStream(content.toString().getBytes(StandardCharsets.UTF_8)));
+        addNote("big", updatedAt);
+        notes.get(0).setContent(null);
+        notes.get(0).setContentRef("ref-1");
+        notes.get(0).setContentPreview("Đoạn 0 của tài liệu lớn");
+        addNote("broken", updatedAt);
+        notes.get(1).setContent(null);
+        notes.get(1).setContentRef("missing");
+        notes.get(1).setContentPreview("chỉ có preview kangaroo");
+        when(contentStore.open("missing")).thenThrow(new IOException("Note content not found: missing"));
+
+        searchIndex.syncChanges();
+
+        // Từ ở cuối file (đoạn cuối, sau nhiều chunk) vẫn được index
+        assertThat(searchIndex.search("u1", "zebra", NO_FILTER, 10).noteIds()).containsExactly("big");
+        assertThat(searchIndex.search("u1", "kangaroo", NO_FILTER, 10).noteIds()).containsExactly("broken");
+    }
+
+    private void addNote(String id, LocalDateTime updatedAt) {
+        Note note = new Note();
+        note.setId(id);
+        note.setTitle("Note " + id);
+        note.setContent("hello world");
+        note.setCreatedBy("u1");
+        note.setCreatedAt(updatedAt);
+        note.setUpdatedAt(updatedAt);
+        notes.add(note);
+    }
+
+    /**
+     * Chạy query của syncChanges trên list: updatedAt >= from, hoặc keyset $or (updatedAt, id)
+     */
+    private List<Note> find(Query query) {
+        Predicate<Note> filter = matches(query.getQueryObject());
+        return notes.stream()
+                .filter(filter)
+                .sorted(Comparator.comparing(Note::getUpdatedAt).thenComparing(Note::getId))
+                .limit(query.getLimit())
+                .toList();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Predicate<Note> matches(Document criteria) {
+        Predicate<Note> result = note -> true;
+        for (String key : criteria.keySet()) {
+            Object value = criteria.get(key);
+            Predicate<Note> condition = switch (key) {
+                case "$or" -> ((List<Document>) value).stream()
+                        .map(NoteSearchIndexSyncTest::matches)
+                        .reduce(note -> false, Predicate::or);
+                case "updatedAt" -> compare(value, Note::getUpdatedAt);
+                case "id" -> compare(value, Note::getId);
+                default -> throw new IllegalArgumentException("Unexpected criteria " + key);
+            };
+            result = result.and(condition);
+        }
+        return result;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Predicate<Note> compare(Object value, java.util.function.Function<Note, Comparable> field) {
+        if (!(value instanceof Document operators)) {
+            return note -> field.apply(note).compareTo(value) == 0;
+        }
+        Predicate<Note> result = note -> true;
+        for (String operator : operators.keySet()) {
+            Object bound = operators.get(operator);
+            result = result.and(switch (operator) {
+                case "$gt" -> note -> field.apply(note).compareTo(bound) > 0;
+                case "$gte" -> note -> field.apply(note).compareTo(bound) >= 0;
+                default -> throw new IllegalArgumentException("Unexpected operator " + operator);
+            });
+        }
+        return result;
+    }
+}
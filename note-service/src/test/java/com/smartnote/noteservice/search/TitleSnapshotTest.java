@@ -0,0 +1,90 @@
+package com.smartnote.noteservice.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TitleSnapshotTest {
+
+    private static TitleSnapshot.TitleEntry entry(String noteId, String title, long updatedAt, String... words) {
+        return new TitleSnapshot.TitleEntry(noteId, title, null, updatedAt, String.join(" ", words), words);
+    }
+
+    private static final TitleSnapshot SNAPSHOT = TitleSnapshot.build(List.of(
+            entry("n1", "Weekly meeting notes", 1, "weekly", "meeting", "notes"),
+            entry("n2", "Kế hoạch dự án", 2, "ke", "hoach", "du", "an"),
+            entry("n3", "Meeting", 3, "meeting"),
+            entry("n4", "Báo cáo tuần", 4, "bao", "cao", "tuan")));
+
+    @Test
+    void withinOneEdit() {
+        assertThat(TitleSnapshot.withinOneEdit("meeting", "meeting")).isTrue();
+        assertThat(TitleSnapshot.withinOneEdit("meating", "meeting")).as("substitution").isTrue();
+        assertThat(TitleSnapshot.withinOneEdit("meetting", "meeting")).as("insertion").isTrue();
+        assertThat(TitleSnapshot.withinOneEdit("meting", "meeting")).as("deletion").isTrue();
+        assertThat(TitleSnapshot.withinOneEdit("meteing", "meeting")).as("transposition").isTrue();
+        assertThat(TitleSnapshot.withinOneEdit("meetnig", "meeting")).as("transposition at end").isTrue();
+        assertThat(TitleSnapshot.withinOneEdit("mteeign", "meeting")).as("two edits").isFalse();
+        assertThat(TitleSnapshot.withinOneEdit("meet", "meeting")).as("length differs by 3").isFalse();
+        assertThat(TitleSnapshot.withinOneEdit("abcd", "abdc")).isTrue();
+        assertThat(TitleSnapshot.withinOneEdit("abcd", "acbe")).isFalse();
+    }
+
+    @Test
+    void fuzzyPrefix() {
+        assertThat(TitleSnapshot.fuzzyMatch("meti", "meeting", true)).isTrue();
+        assertThat(TitleSnapshot.fuzzyMatch("meet", "meeting", true)).isTrue();
+        assertThat(TitleSnapshot.fuzzyMatch("mete", "meeting", true)).isTrue();
+        assertThat(TitleSnapshot.fuzzyMatch("mxxt", "meeting", true)).isFalse();
+        assertThat(TitleSnapshot.fuzzyMatch("me", "meeting", true)).as("token too short").isFalse();
+    }
+
+    @Test
+    void fuzzyTermsFindEveryKindOfSingleTypo() {
+        for (String typo : List.of("meating", "meetting", "meting", "meteing", "meetnig", "emeting")) {
+            assertThat(SNAPSHOT.fuzzyTerms(typo, false)).as(typo).contains("meeting");
+        }
+        assertThat(SNAPSHOT.fuzzyTerms("mteeign", false)).isEmpty();
+        assertThat(SNAPSHOT.fuzzyTerms("hoahc", false)).containsExactly("hoach");
+        assertThat(SNAPSHOT.fuzzyTerms("tu", false)).as("token too short").isEmpty();
+    }
+
+    @Test
+    void fuzzyPrefixTerms() {
+        assertThat(SNAPSHOT.fuzzyTerms("meti", true)).contains("meeting");
+        assertThat(SNAPSHOT.fuzzyTerms("wekl", true)).contains("weekly");
+    }
+
+    @Test
+    void matchRequiresEveryTokenAndMarksExactHits() {
+        String[] tokens = {"meeting", "not"};
+        TitleSnapshot.Match match = SNAPSHOT.match(tokens, true, null);
+        assertThat(ids(match)).containsExactly("n1");
+
+        tokens = new String[]{"meteing"};
+        match = SNAPSHOT.match(tokens, false, List.of(SNAPSHOT.fuzzyTerms("meteing", false)));
+        assertThat(ids(match)).containsExactlyInAnyOrder("n1", "n3");
+        assertThat(match.exact()[0].isEmpty()).isTrue();
+
+        match = SNAPSHOT.match(new String[]{"bao", "tua"}, true, List.of(Set.of(), Set.of()));
+        assertThat(ids(match)).containsExactly("n4");
+        assertThat(match.exact()[1].cardinality()).isEqualTo(1);
+
+        assertThat(SNAPSHOT.match(new String[]{"missing"}, false, null).candidates().isEmpty()).isTrue();
+    }
+
+    @Test
+    void entriesAreOrderedByTitleLengthThenRecency() {
+        assertThat(SNAPSHOT.entry(0).noteId()).isEqualTo("n3");
+        assertThat(SNAPSHOT.position("n3")).isZero();
+        assertThat(SNAPSHOT.position("unknown")).isEqualTo(-1);
+        assertThat(TitleSnapshot.EMPTY.size()).isZero();
+    }
+
+    private static List<String> ids(TitleSnapshot.Match match) {
+        return match.candidates().stream().mapToObj(i -> SNAPSHOT.entry(i).noteId()).toList();
+    }
+}
@@ -0,0 +1,36 @@
+package com.smartnote.noteservice.service;
+
+import com.smartnote.noteservice.exception.JobQueueFullException;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BulkExportServiceTest {
+
+    private final FolderService folderService = mock(FolderService.class);
+    private final BulkExportService bulkExportService = new BulkExportService(mock(MongoTemplate.class),
+            folderService, mock(NoteService.class), mock(ExportService.class), mock(ExportArtifactCache.class), 10, 1);
+
+    @Test
+    void slotIsReleasedOnceEvenWhenBodyNeverRuns() {
+        when(folderService.getUserFolders("u1")).thenReturn(List.of());
+
+        BulkExportService.ExportScope scope = bulkExportService.prepare("u1", null);
+        assertThatThrownBy(() -> bulkExportService.prepare("u1", null)).isInstanceOf(JobQueueFullException.class);
+
+        // Callback hoàn tất của request và writeZip cùng trả slot: chỉ được tính một lần
+        bulkExportService.release(scope);
+        bulkExportService.release(scope);
+        assertThat(bulkExportService.getStats()).containsEntry("active", 0);
+
+        BulkExportService.ExportScope next = bulkExportService.prepare("u1", null);
+        assertThat(bulkExportService.getStats()).containsEntry("active", 1);
+        bulkExportService.release(next);
+    }
+}
@@ -0,0 +1,169 @@
+package com.smartnote.noteservice.service;
+
+import com.smartnote.noteservice.model.DataJob;
+import com.smartnote.noteservice.model.DataJobStatus;
+import com.smartnote.noteservice.model.DataJobType;
+import com.smartnote.noteservice.model.Note;
+import com.smartnote.noteservice.search.NoteSearchIndex;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Chạy tiếp job import sau restart với MongoTemplate và data_jobs giả lập:
+ * bỏ qua các entry trước cursor, xóa phần batch đã insert dở rồi ghi lại đúng các note đó
+ */
+class BulkImportServiceTest {
+
+    private static final String JOB_ID = "job-1";
+    private static final int BATCH_SIZE = 2;
+
+    @TempDir
+    Path stagingDir;
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final NoteContentStore noteContentStore = mock(NoteContentStore.class);
+    private final DataJobService dataJobService = mock(DataJobService.class);
+    private final List<Note> inserted = new ArrayList<>();
+    private BulkImportService importService;
+    private DataJob stored;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        importService = new BulkImportService(mongoTemplate, mock(FolderService.class), mock(NoteSearchIndex.class),
+                noteContentStore, dataJobService, BATCH_SIZE, 8, 200, 1, 4, stagingDir.toString(), 60);
+        when(noteContentStore.getThresholdBytes()).thenReturn(1024L * 1024);
+        when(mongoTemplate.insert(anyCollection(), eq(Note.class))).thenAnswer(inv -> {
+            List<Note> batch = new ArrayList<>(inv.<Collection<Note>>getArgument(0));
+            inserted.addAll(batch);
+            return batch;
+        });
+        when(dataJobService.checkpoint(anyString(), any(Update.class))).thenReturn(true);
+
+        // Lần chạy trước: batch đầu (a, b) đã checkpoint, service dừng khi batch sau đang insert dở
+        Path directory = Files.createDirectories(stagingDir.resolve(JOB_ID));
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(directory.resolve("00000")))) {
+            for (String name : List.of("a", "b", "c", "d")) {
+                zip.putNextEntry(new ZipEntry(name + ".md"));
+                zip.write(("# " + name).getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        Files.writeString(directory.resolve("00000.name"), "notes.zip");
+
+        stored = new DataJob();
+        stored.setId(JOB_ID);
+        stored.setType(DataJobType.IMPORT);
+        stored.setUserId("u1");
+        stored.setStatus(DataJobStatus.RUNNING);
+        stored.setWorkPath(directory.toString());
+        stored.setCursor(2);
+        stored.setAttempts(1);
+        stored.setCreatedAt(LocalDateTime.of(2026, 1, 1, 0, 0));
+        when(dataJobService.findUnfinished(DataJobType.IMPORT)).thenReturn(List.of(stored));
+    }
+
+    @AfterEach
+    void tearDown() {
+        importService.shutdown();
+    }
+
+    @Test
+    void resumeSkipsCheckpointedEntriesAndReplacesPartialBatch() {
+        DataJob claimed = copy(stored);
+        claimed.setAttempts(2);
+        when(dataJobService.claim(JOB_ID)).thenReturn(claimed);
+        // Note đầu của batch sau đã kịp insert ở lần trước, content của nó nằm trong GridFS
+        when(mongoTemplate.find(any(Query.class), eq(Note.class))).thenAnswer(inv -> {
+            Note partial = new Note();
+            partial.setId(idsIn(inv.getArgument(0)).get(0));
+            partial.setContentRef("ref-c");
+            return List.of(partial);
+        });
+
+        importService.resumeUnfinished();
+
+        verify(dataJobService, timeout(5000)).finish(eq(JOB_ID), eq(DataJobStatus.DONE), any(Update.class));
+        assertThat(inserted).extracting(Note::getTitle).containsExactly("c", "d");
+
+        ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(removed.capture(), eq(Note.class));
+        assertThat(idsIn(removed.getValue())).containsExactlyElementsOf(inserted.stream().map(Note::getId).toList());
+        verify(noteContentStore).delete("ref-c");
+
+        ArgumentCaptor<Update> progress = ArgumentCaptor.forClass(Update.class);
+        verify(dataJobService, atLeastOnce()).checkpoint(eq(JOB_ID), progress.capture());
+        assertThat(progress.getValue().getUpdateObject().get("$set", Document.class)).containsEntry("cursor", 4L);
+    }
+
+    @Test
+    void firstRunDoesNotLookForPartialBatch() {
+        stored.setCursor(0);
+        stored.setStatus(DataJobStatus.QUEUED);
+        DataJob claimed = copy(stored);
+        claimed.setAttempts(1);
+        when(dataJobService.claim(JOB_ID)).thenReturn(claimed);
+
+        importService.resumeUnfinished();
+
+        verify(dataJobService, timeout(5000)).finish(eq(JOB_ID), eq(DataJobStatus.DONE), any(Update.class));
+        assertThat(inserted).extracting(Note::getTitle).containsExactly("a", "b", "c", "d");
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Note.class));
+    }
+
+    @Test
+    void exhaustedJobIsNotResumed() {
+        when(dataJobService.failIfExhausted(stored)).thenReturn(true);
+
+        importService.resumeUnfinished();
+
+        verify(dataJobService, never()).claim(anyString());
+        assertThat(Path.of(stored.getWorkPath())).doesNotExist();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> idsIn(Query query) {
+        return (List<String>) query.getQueryObject().get("id", Document.class).get("$in");
+    }
+
+    private static DataJob copy(DataJob job) {
+        DataJob copy = new DataJob();
+        copy.setId(job.getId());
+        copy.setType(job.getType());
+        copy.setUserId(job.getUserId());
+        copy.setStatus(DataJobStatus.RUNNING);
+        copy.setWorkPath(job.getWorkPath());
+        copy.setCursor(job.getCursor());
+        copy.setCreatedAt(job.getCreatedAt());
+        copy.setStartedAt(LocalDateTime.now());
+        return copy;
+    }
+}
@@ -0,0 +1,160 @@
+package com.smartnote.noteservice.service;
+
+import com.smartnote.noteservice.model.DataJob;
+import com.smartnote.noteservice.model.DataJobStatus;
+import com.smartnote.noteservice.model.DataJobType;
+import com.smartnote.noteservice.repository.DataJobRepository;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Chuyển trạng thái job qua findAndModify, với MongoTemplate giả lập: kiểm tra filter/update được gửi đi
+ * và job trả về theo kết quả của từng lệnh
+ */
+class DataJobServiceTest {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final DataJobRepository repository = mock(DataJobRepository.class);
+    private final DataJobService dataJobService = new DataJobService(repository, mongoTemplate, MAX_ATTEMPTS);
+
+    // Các lệnh findAndModify đã gửi, và job trả về cho lệnh có filter status tương ứng
+    private final List<Document> filters = new ArrayList<>();
+    private final List<Document> updates = new ArrayList<>();
+    private DataJob queuedResult;
+    private DataJob runningResult;
+    private DataJob activeResult;
+
+    @BeforeEach
+    void setUp() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class),
+                any(FindAndModifyOptions.class), eq(DataJob.class))).thenAnswer(inv -> {
+            Document filter = inv.<Query>getArgument(0).getQueryObject();
+            filters.add(filter);
+            updates.add(inv.<UpdateDefinition>getArgument(1).getUpdateObject());
+            Object status = filter.get("status");
+            if (status == DataJobStatus.QUEUED) {
+                return queuedResult;
+            }
+            if (status == DataJobStatus.RUNNING) {
+                return runningResult;
+            }
+            return activeResult;
+        });
+    }
+
+    @Test
+    void claimMarksActiveJobRunningAndCountsAttempt() {
+        activeResult = job(DataJobStatus.RUNNING, 1);
+
+        assertThat(dataJobService.claim("j1")).isSameAs(activeResult);
+
+        assertThat(filters.get(0))
+                .containsEntry("status", new Document("$in", List.of(DataJobStatus.QUEUED, DataJobStatus.RUNNING)))
+                .containsEntry("cancelRequested", new Document("$ne", true));
+        assertThat(updates.get(0).get("$set", Document.class)).containsEntry("status", DataJobStatus.RUNNING);
+        assertThat(updates.get(0).get("$inc", Document.class)).containsEntry("attempts", 1);
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(UpdateDefinition.class), eq(DataJob.class));
+    }
+
+    @Test
+    void claimClosesJobCancelledWhileRunning() {
+        activeResult = null;
+
+        assertThat(dataJobService.claim("j1")).isNull();
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate).updateFirst(query.capture(), update.capture(), eq(DataJob.class));
+        assertThat(query.getValue().getQueryObject()).containsEntry("cancelRequested", true);
+        assertThat(update.getValue().getUpdateObject().get("$set", Document.class))
+                .containsEntry("status", DataJobStatus.CANCELLED);
+    }
+
+    @Test
+    void cancelQueuedJobStopsItImmediately() {
+        DataJob stored = job(DataJobStatus.QUEUED, 0);
+        when(repository.findById("j1")).thenReturn(Optional.of(stored));
+        queuedResult = job(DataJobStatus.CANCELLED, 0);
+
+        assertThat(dataJobService.requestCancel("u1", "j1", DataJobType.IMPORT)).isSameAs(queuedResult);
+
+        assertThat(filters).hasSize(1);
+        assertThat(updates.get(0).get("$set", Document.class))
+                .containsEntry("status", DataJobStatus.CANCELLED)
+                .containsEntry("cancelRequested", true);
+        assertThat(dataJobService.isCancelRequested("j1")).isFalse();
+    }
+
+    @Test
+    void cancelRunningJobOnlyFlagsItUntilFinish() {
+        when(repository.findById("j1")).thenReturn(Optional.of(job(DataJobStatus.RUNNING, 1)));
+        runningResult = job(DataJobStatus.RUNNING, 1);
+        runningResult.setCancelRequested(true);
+
+        assertThat(dataJobService.requestCancel("u1", "j1", DataJobType.IMPORT)).isSameAs(runningResult);
+
+        assertThat(filters).extracting(filter -> filter.get("status"))
+                .containsExactly(DataJobStatus.QUEUED, DataJobStatus.RUNNING);
+        assertThat(updates.get(1).get("$set", Document.class))
+                .containsEntry("cancelRequested", true)
+                .doesNotContainKey("status");
+        assertThat(dataJobService.isCancelRequested("j1")).isTrue();
+
+        dataJobService.finish("j1", DataJobStatus.CANCELLED, new Update());
+        assertThat(dataJobService.isCancelRequested("j1")).isFalse();
+    }
+
+    @Test
+    void cancelFinishedJobKeepsIt() {
+        DataJob done = job(DataJobStatus.DONE, 1);
+        when(repository.findById("j1")).thenReturn(Optional.of(done));
+
+        assertThat(dataJobService.requestCancel("u1", "j1", DataJobType.IMPORT)).isSameAs(done);
+        assertThat(filters).isEmpty();
+    }
+
+    @Test
+    void jobIsFailedOnlyAfterMaxAttempts() {
+        assertThat(dataJobService.failIfExhausted(job(DataJobStatus.RUNNING, MAX_ATTEMPTS - 1))).isFalse();
+        assertThat(filters).isEmpty();
+
+        activeResult = job(DataJobStatus.FAILED, MAX_ATTEMPTS);
+        assertThat(dataJobService.failIfExhausted(job(DataJobStatus.RUNNING, MAX_ATTEMPTS))).isTrue();
+
+        // Không đè lên job đã được nhận thêm lần nữa kể từ lúc đọc
+        assertThat(filters.get(0)).containsEntry("attempts", MAX_ATTEMPTS);
+        assertThat(updates.get(0).get("$set", Document.class)).containsEntry("status", DataJobStatus.FAILED);
+        assertThat(updates.get(0)).containsKey("$push");
+    }
+
+    private static DataJob job(DataJobStatus status, int attempts) {
+        DataJob job = new DataJob();
+        job.setId("j1");
+        job.setType(DataJobType.IMPORT);
+        job.setUserId("u1");
+        job.setStatus(status);
+        job.setAttempts(attempts);
+        return job;
+    }
+}
@@ -0,0 +1,70 @@
+package com.smartnote.noteservice.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ExportArtifactCacheTest {
+
+    private static final int MB = 1024 * 1024;
+
+    @TempDir
+    Path cacheDir;
+
+    @TempDir
+    Path workDir;
+
+    @Test
+    void evictedFileSurvivesUntilLeaseIsClosed() throws Exception {
+        ExportArtifactCache cache = new ExportArtifactCache(cacheDir.toString(), 1);
+        cache.put("a", "pdf", file("a", MB / 2 + 1));
+
+        ExportArtifactCache.Lease lease = cache.acquire("a", "pdf");
+        assertThat(lease).isNotNull();
+
+        // Vượt budget: "a" bị evict nhưng đang có lease nên chưa bị xóa
+        cache.put("b", "pdf", file("b", MB / 2 + 1));
+        assertThat(Files.size(lease.path())).isEqualTo(MB / 2 + 1);
+        assertThat(cache.acquire("a", "pdf")).isNull();
+        assertThat(cache.getStats()).containsEntry("pendingDelete", 1);
+
+        lease.close();
+        lease.close();
+        assertThat(lease.path()).doesNotExist();
+        assertThat(cache.getStats()).containsEntry("pendingDelete", 0);
+    }
+
+    @Test
+    void reputWhileLeasedKeepsNewFile() throws Exception {
+        ExportArtifactCache cache = new ExportArtifactCache(cacheDir.toString(), 1);
+        cache.put("a", "pdf", file("a", MB / 2 + 1));
+        ExportArtifactCache.Lease lease = cache.acquire("a", "pdf");
+
+        cache.put("b", "pdf", file("b", MB / 2 + 1));
+        cache.put("a", "pdf", file("a2", 10));
+        lease.close();
+
+        try (ExportArtifactCache.Lease again = cache.acquire("a", "pdf")) {
+            assertThat(again).isNotNull();
+            assertThat(Files.size(again.path())).isEqualTo(10);
+        }
+    }
+
+    @Test
+    void unleasedFileIsDeletedOnEviction() throws Exception {
+        ExportArtifactCache cache = new ExportArtifactCache(cacheDir.toString(), 1);
+        cache.put("a", "pdf", file("a", MB / 2 + 1));
+        cache.put("b", "pdf", file("b", MB / 2 + 1));
+
+        assertThat(cacheDir.resolve("a.pdf")).doesNotExist();
+        assertThat(cacheDir.resolve("b.pdf")).exists();
+    }
+
+    private Path file(String name, int size) throws Exception {
+        return Files.write(workDir.resolve(name), new byte[size]);
+    }
+}
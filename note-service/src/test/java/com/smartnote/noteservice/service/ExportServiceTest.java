@@ -0,0 +1,43 @@
+package com.smartnote.noteservice.service;
+
+import com.smartnote.noteservice.dto.NoteResponse;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class ExportServiceTest {
+
+    private final ExportService exportService = new ExportService(mock(PdfFontRegistry.class), 1, false);
+
+    @Test
+    void artifactKeyDependsOnVersionTitleAndFormatOnly() {
+        String key = exportService.artifactKey(note(3, "Plan", "Aa"), "pdf");
+
+        // Content không nằm trong khóa: mọi lần sửa content đều tăng version
+        assertThat(exportService.artifactKey(note(3, "Plan", "BB"), "pdf")).isEqualTo(key);
+        assertThat(exportService.artifactKey(note(3, "Plan", null), "pdf")).isEqualTo(key);
+
+        assertThat(exportService.artifactKey(note(4, "Plan", "Aa"), "pdf")).isNotEqualTo(key);
+        assertThat(exportService.artifactKey(note(3, "Plan 2", "Aa"), "pdf")).isNotEqualTo(key);
+        assertThat(exportService.artifactKey(note(3, "Plan", "Aa"), "html")).isNotEqualTo(key);
+    }
+
+    @Test
+    void renderedHtmlFollowsTitleChangeWithoutVersionBump() {
+        String before = exportService.renderHtml(note(3, "Plan", "body"));
+        String after = exportService.renderHtml(note(3, "Roadmap", "body"));
+
+        assertThat(before).contains("<h1>Plan</h1>");
+        assertThat(after).contains("<h1>Roadmap</h1>");
+    }
+
+    private static NoteResponse note(int version, String title, String content) {
+        NoteResponse note = new NoteResponse();
+        note.setId("n1");
+        note.setVersion(version);
+        note.setTitle(title);
+        note.setContent(content);
+        return note;
+    }
+}
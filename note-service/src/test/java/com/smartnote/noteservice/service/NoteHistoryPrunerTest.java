@@ -0,0 +1,159 @@
+package com.smartnote.noteservice.service;
+
+import com.mongodb.client.result.DeleteResult;
+import com.smartnote.noteservice.model.ContentHunk;
+import com.smartnote.noteservice.model.Note;
+import com.smartnote.noteservice.model.NoteHistory;
+import com.smartnote.noteservice.model.NoteHistoryPruneState;
+import com.smartnote.noteservice.util.TextDiff;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Dọn history với note_history giả lập: chỉ đọc content của version cần rebase,
+ * ghi watermark cho note và lần chạy sau không xét lại note chưa có gì thay đổi
+ */
+class NoteHistoryPrunerTest {
+
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final BulkOperations historyBulk = mock(BulkOperations.class);
+    private final BulkOperations stateBulk = mock(BulkOperations.class);
+    private final List<NoteHistory> stored = new ArrayList<>();
+    private final List<Query> metadataQueries = new ArrayList<>();
+    private final List<Query> contentQueries = new ArrayList<>();
+    private NoteHistoryPruner pruner;
+
+    @BeforeEach
+    void setUp() {
+        // v1 keyframe quá daily-days (xóa), v2 delta trên v1 (giữ, phải rebase),
+        // v3 trong keep-all-hours, v4 mới nhất: v3, v4 không cần đọc content
+        String v1 = "dòng 1\n";
+        String v2 = v1 + "dòng 2\n";
+        String v3 = v2 + "dòng 3\n";
+        stored.add(entry(1, Duration.ofDays(40), v1, null, null));
+        stored.add(entry(2, Duration.ofDays(10), null, TextDiff.diff(v1, v2).hunks(), stored.get(0)));
+        stored.add(entry(3, Duration.ofHours(2), null, TextDiff.diff(v2, v3).hunks(), stored.get(1)));
+        stored.add(entry(4, Duration.ofMinutes(1), null, TextDiff.diff(v3, v3 + "dòng 4\n").hunks(), stored.get(2)));
+
+        NoteHistory newest = new NoteHistory();
+        newest.setId(stored.get(3).getId());
+        when(mongoTemplate.findOne(any(Query.class), eq(NoteHistory.class))).thenReturn(newest);
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq("note_history"), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(new Document("_id", "n1")
+                        .append("latest", new ObjectId(stored.get(3).getId()))), new Document()));
+        when(mongoTemplate.find(any(Query.class), eq(NoteHistoryPruneState.class))).thenReturn(List.of());
+        when(mongoTemplate.find(any(Query.class), eq(NoteHistory.class))).thenAnswer(inv -> {
+            Query query = inv.getArgument(0);
+            if (query.getFieldsObject().containsKey("content")) {
+                metadataQueries.add(query);
+                return stored.stream().map(NoteHistoryPrunerTest::metadataOnly).toList();
+            }
+            contentQueries.add(query);
+            Collection<?> ids = (Collection<?>) query.getQueryObject().get("id", Document.class).get("$in");
+            return stored.stream().filter(entry -> ids.contains(entry.getId())).toList();
+        });
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(NoteHistory.class))).thenReturn(historyBulk);
+        when(mongoTemplate.bulkOps(any(BulkOperations.BulkMode.class), eq(NoteHistoryPruneState.class)))
+                .thenReturn(stateBulk);
+        when(mongoTemplate.remove(any(Query.class), eq(NoteHistory.class))).thenReturn(DeleteResult.acknowledged(1));
+        when(mongoTemplate.findDistinct(any(Query.class), eq("original_note_id"), eq(NoteHistory.class), eq(String.class)))
+                .thenReturn(List.of("n1"));
+        Note note = new Note();
+        note.setId("n1");
+        when(mongoTemplate.find(any(Query.class), eq(Note.class))).thenReturn(List.of(note));
+
+        NoteHistoryService historyService = mock(NoteHistoryService.class);
+        when(historyService.keyframeContent(any(NoteHistory.class))).thenAnswer(inv -> inv.<NoteHistory>getArgument(0).getContent());
+        pruner = new NoteHistoryPruner(mongoTemplate, historyService, true, 6, 24, 30, 200, 500);
+    }
+
+    @Test
+    void loadsContentOnlyForRebasedVersions() {
+        Map<String, Object> result = pruner.prune();
+
+        assertThat(result).containsEntry("versionsRebased", 1L).containsEntry("contentsLoaded", 2L);
+        assertThat(contentQueries).hasSize(1);
+
+        // v2 thành keyframe, chain của v3, v4 ngắn lại theo
+        ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+        verify(historyBulk, times(3)).updateOne(any(Query.class), updates.capture());
+        assertThat(updates.getAllValues()).extracting(update -> update.getUpdateObject().get("$set", Document.class))
+                .satisfiesExactly(
+                        rebase -> assertThat(rebase).containsEntry("content", "dòng 1\ndòng 2\n")
+                                .containsEntry("chain_length", 0),
+                        v3 -> assertThat(v3).containsEntry("chain_length", 1),
+                        v4 -> assertThat(v4).containsEntry("chain_length", 2));
+
+        // Watermark: version mới nhất đã xét, hạn tiếp theo là lúc v3 ra khỏi keep-all-hours
+        ArgumentCaptor<Update> state = ArgumentCaptor.forClass(Update.class);
+        verify(stateBulk).upsert(any(Query.class), state.capture());
+        Document set = state.getValue().getUpdateObject().get("$set", Document.class);
+        assertThat(set).containsEntry("prunedThrough", stored.get(3).getId());
+        LocalDateTime v3LeavesKeepAll = LocalDateTime.ofInstant(
+                new ObjectId(stored.get(2).getId()).getDate().toInstant().plus(Duration.ofHours(6)), ZoneId.systemDefault());
+        assertThat(set).containsEntry("nextPruneAt", v3LeavesKeepAll);
+    }
+
+    @Test
+    void secondRunWithoutNewVersionsSkipsNote() {
+        pruner.prune();
+        Map<String, Object> second = pruner.prune();
+
+        assertThat(second).containsEntry("notesScanned", 0);
+        verify(mongoTemplate, times(1)).aggregate(any(Aggregation.class), eq("note_history"), eq(Document.class));
+        // findDistinct chỉ còn lượt tìm orphan của mỗi lần chạy
+        verify(mongoTemplate, times(2)).findDistinct(any(Query.class), eq("original_note_id"),
+                eq(NoteHistory.class), eq(String.class));
+        assertThat(metadataQueries).hasSize(1);
+        assertThat(contentQueries).hasSize(1);
+    }
+
+    private static NoteHistory entry(int version, Duration age, String content, List<ContentHunk> delta, NoteHistory base) {
+        NoteHistory entry = new NoteHistory();
+        entry.setId(new ObjectId(Date.from(Instant.now().minus(age))).toHexString());
+        entry.setOriginalNoteId("n1");
+        entry.setVersion(version);
+        entry.setContent(content);
+        entry.setDelta(delta);
+        entry.setBaseId(base != null ? base.getId() : null);
+        entry.setChainLength(base != null ? base.getChainLength() + 1 : 0);
+        return entry;
+    }
+
+    private static NoteHistory metadataOnly(NoteHistory entry) {
+        NoteHistory metadata = new NoteHistory();
+        metadata.setId(entry.getId());
+        metadata.setOriginalNoteId(entry.getOriginalNoteId());
+        metadata.setVersion(entry.getVersion());
+        metadata.setBaseId(entry.getBaseId());
+        metadata.setChainLength(entry.getChainLength());
+        return metadata;
+    }
+}
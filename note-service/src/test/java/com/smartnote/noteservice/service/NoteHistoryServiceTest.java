@@ -0,0 +1,209 @@
+package com.smartnote.noteservice.service;
+
+import com.smartnote.noteservice.dto.NoteHistoryPage;
+import com.smartnote.noteservice.model.Note;
+import com.smartnote.noteservice.model.NoteHistory;
+import com.smartnote.noteservice.repository.NoteHistoryRepository;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Ghi version dạng delta + keyframe rồi dựng lại, với note_history giả lập trong memory
+ */
+class NoteHistoryServiceTest {
+
+    private static final int KEYFRAME_INTERVAL = 3;
+
+    private final List<NoteHistory> stored = new ArrayList<>();
+    // GridFS giả lập: ref -> content
+    private final Map<String, String> files = new HashMap<>();
+    private final NoteContentStore contentStore = mock(NoteContentStore.class);
+    private long largeBytes = Long.MAX_VALUE;
+    private NoteHistoryService historyService;
+
+    @BeforeEach
+    void setUp() {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        NoteHistoryRepository repository = mock(NoteHistoryRepository.class);
+        when(repository.save(any(NoteHistory.class))).thenAnswer(inv -> {
+            NoteHistory history = inv.getArgument(0);
+            history.setId(new ObjectId().toHexString());
+            stored.add(history);
+            return history;
+        });
+        when(repository.findById(anyString())).thenAnswer(inv -> stored.stream()
+                .filter(history -> history.getId().equals(inv.getArgument(0)))
+                .findFirst());
+        // findLatest và loadChain: version mới nhất trước, có limit
+        when(mongoTemplate.findOne(any(Query.class), eq(NoteHistory.class)))
+                .thenAnswer(inv -> newestFirst(Integer.MAX_VALUE, 1).stream().findFirst().orElse(null));
+        when(mongoTemplate.find(any(Query.class), eq(NoteHistory.class))).thenAnswer(inv -> {
+            Query query = inv.getArgument(0);
+            int maxVersion = (Integer) ((org.bson.Document) query.getQueryObject().get("version")).get("$lte");
+            return newestFirst(maxVersion, query.getLimit());
+        });
+        when(contentStore.isLarge(anyLong())).thenAnswer(inv -> inv.<Long>getArgument(0) > largeBytes);
+        when(contentStore.storeText(any(), any(), anyString())).thenAnswer(inv -> {
+            String ref = new ObjectId().toHexString();
+            files.put(ref, inv.getArgument(2));
+            return ref;
+        });
+        when(contentStore.read(anyString())).thenAnswer(inv -> files.get(inv.<String>getArgument(0)));
+        historyService = new NoteHistoryService(mongoTemplate, repository, contentStore, KEYFRAME_INTERVAL, 0.9);
+    }
+
+    private List<NoteHistory> newestFirst(int maxVersion, int limit) {
+        return stored.stream()
+                .filter(history -> history.getVersion() <= maxVersion)
+                .sorted(Comparator.comparing(NoteHistory::getVersion).reversed())
+                .limit(limit)
+                .toList();
+    }
+
+    @Test
+    void rebuildsEveryVersionAcrossKeyframeBoundaries() {
+        List<String> contents = new ArrayList<>();
+        StringBuilder content = new StringBuilder("# Plan\r\n");
+        for (int line = 0; line < 20; line++) {
+            content.append("Nội dung dòng ").append(line).append(" đủ dài để delta nhỏ hơn content\r\n");
+        }
+        for (int version = 1; version <= 10; version++) {
+            content.append("- step ").append(version).append("\r\n");
+            if (version % 4 == 0) {
+                // Sửa giữa văn bản, không chỉ append
+                content.replace(0, content.indexOf("\r\n"), "# Plan v" + version);
+            }
+            contents.add(content.toString());
+            Note note = new Note();
+            note.setId("n1");
+            note.setVersion(version);
+            note.setContent(content.toString());
+            historyService.recordVersion(note, "UPDATE");
+        }
+
+        assertThat(stored).extracting(NoteHistory::getChainLength)
+                .containsExactly(0, 1, 2, 0, 1, 2, 0, 1, 2, 0);
+        assertThat(stored.get(2).isKeyframe()).isFalse();
+        assertThat(stored.get(2).getContent()).isNull();
+        for (int i = 0; i < stored.size(); i++) {
+            assertThat(historyService.reconstructContent(stored.get(i))).as("version %d", i + 1)
+                    .isEqualTo(contents.get(i));
+        }
+    }
+
+    @Test
+    void largeNoteStoresDeltasAndKeyframesInGridFs() {
+        largeBytes = 1000;
+        StringBuilder content = new StringBuilder();
+        for (int line = 0; line < 100; line++) {
+            content.append("Dòng ").append(line).append(" của note lớn nằm trong GridFS\n");
+        }
+        List<String> contents = new ArrayList<>();
+        List<String> retired = new ArrayList<>();
+        String noteRef = contentStore.storeText("Big", "u1", content.toString());
+        for (int version = 1; version <= 4; version++) {
+            contents.add(content.toString());
+            Note note = new Note();
+            note.setId("n1");
+            note.setVersion(version);
+            note.setContentRef(noteRef);
+            // Version 2 chỉ đổi title: note vẫn dùng file đó, history không được nhận file
+            boolean contentReplaced = version != 2;
+            historyService.recordVersion(note, "UPDATE", contentReplaced ? noteRef : null);
+            if (contentReplaced) {
+                retired.add(noteRef);
+                content.append("- thêm dòng ").append(version).append("\n");
+                noteRef = contentStore.storeText("Big", "u1", content.toString());
+            }
+        }
+
+        // v1 keyframe nhận luôn file cũ của note, v2, v3 là delta, v4 keyframe (interval 3) nhận file của nó
+        assertThat(stored).extracting(NoteHistory::getChainLength).containsExactly(0, 1, 2, 0);
+        assertThat(stored).allSatisfy(history -> assertThat(history.getContent()).isNull());
+        assertThat(stored).extracting(NoteHistory::getContentRef)
+                .containsExactly(retired.get(0), null, null, retired.get(retired.size() - 1));
+        for (int i = 0; i < stored.size(); i++) {
+            assertThat(historyService.reconstructContent(stored.get(i))).as("version %d", i + 1)
+                    .isEqualTo(contents.get(i));
+        }
+    }
+
+    @Test
+    void largeKeyframeWithoutRetiredFileIsCopied() {
+        largeBytes = 10;
+        Note note = new Note();
+        note.setId("n1");
+        note.setVersion(1);
+        note.setContentRef(contentStore.storeText("Big", "u1", "nội dung lớn hơn ngưỡng"));
+
+        NoteHistory history = historyService.recordVersion(note, "UPDATE", null);
+
+        assertThat(history.getContentRef()).isNotNull().isNotEqualTo(note.getContentRef());
+        assertThat(historyService.reconstructContent(history)).isEqualTo("nội dung lớn hơn ngưỡng");
+    }
+
+    @Test
+    void historyPageHandlesRowsWithoutVersion() {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        NoteHistoryService service = new NoteHistoryService(mongoTemplate, mock(NoteHistoryRepository.class),
+                contentStore, KEYFRAME_INTERVAL, 0.9);
+        List<NoteHistory> legacy = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            NoteHistory history = new NoteHistory();
+            history.setId(new ObjectId().toHexString());
+            history.setOriginalNoteId("n1");
+            legacy.add(history);
+        }
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        when(mongoTemplate.find(queries.capture(), eq(NoteHistory.class))).thenReturn(legacy);
+
+        NoteHistoryPage page = service.getHistoryPage("n1", null, 1);
+        assertThat(page.getItems()).hasSize(1);
+        assertThat(page.getNextCursor()).isEqualTo("0:" + legacy.get(0).getId());
+
+        service.getHistoryPage("n1", page.getNextCursor(), 1);
+        org.bson.Document filter = queries.getValue().getQueryObject();
+        assertThat(filter).containsEntry("version", null);
+        assertThat(filter.get("_id", org.bson.Document.class)).containsEntry("$lt", new ObjectId(legacy.get(0).getId()));
+    }
+
+    @Test
+    void historyPageAfterVersionedRowsIncludesRowsWithoutVersion() {
+        MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+        NoteHistoryService service = new NoteHistoryService(mongoTemplate, mock(NoteHistoryRepository.class),
+                contentStore, KEYFRAME_INTERVAL, 0.9);
+        ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+        when(mongoTemplate.find(queries.capture(), eq(NoteHistory.class))).thenReturn(List.of());
+
+        service.getHistoryPage("n1", "3:" + new ObjectId().toHexString(), 10);
+        List<Object> branches = queries.getValue().getQueryObject().getList("$or", Object.class);
+        assertThat(branches).hasSize(3).contains(new org.bson.Document("version", null));
+    }
+
+    @Test
+    void legacyHistoryWithoutDeltaIsKeyframe() {
+        NoteHistory legacy = new NoteHistory();
+        legacy.setContent("old body");
+        assertThat(historyService.reconstructContent(legacy)).isEqualTo("old body");
+        assertThat(Optional.ofNullable(legacy.getChainLength())).isEmpty();
+    }
+}
@@ -0,0 +1,127 @@
+package com.smartnote.noteservice.util;
+
+import com.smartnote.noteservice.model.ContentHunk;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TextDiffTest {
+
+    private static String roundTrip(String base, String target) {
+        TextDiff.Result diff = TextDiff.diff(base, target);
+        String rebuilt = TextDiff.apply(base, diff.hunks());
+        assertThat(rebuilt).isEqualTo(target != null ? target : "");
+        return rebuilt;
+    }
+
+    @Test
+    void identicalTextHasNoHunks() {
+        TextDiff.Result diff = TextDiff.diff("a\nb\n", "a\nb\n");
+        assertThat(diff.hunks()).isEmpty();
+        assertThat(diff.linesAdded()).isZero();
+        assertThat(diff.linesRemoved()).isZero();
+    }
+
+    @Test
+    void emptyAndNullText() {
+        roundTrip("", "");
+        roundTrip("", "one\ntwo\n");
+        roundTrip("one\ntwo\n", "");
+        roundTrip(null, "text");
+        roundTrip("text", null);
+    }
+
+    @Test
+    void trailingNewlineAddedAndRemoved() {
+        roundTrip("line 1\nline 2", "line 1\nline 2\n");
+        roundTrip("line 1\nline 2\n", "line 1\nline 2");
+        roundTrip("line 1\nline 2\n", "line 1\nline 2\n\n");
+    }
+
+    @Test
+    void crlfLinesAreKept() {
+        roundTrip("a\r\nb\r\nc\r\n", "a\r\nB\r\nc\r\n");
+        roundTrip("a\r\nb\r\nc\r\n", "a\nb\nc\n");
+        roundTrip("a\nb\nc", "a\r\nb\r\nc");
+    }
+
+    @Test
+    void fullReplacement() {
+        TextDiff.Result diff = TextDiff.diff("alpha\nbeta\n", "gamma\ndelta\nepsilon\n");
+        assertThat(TextDiff.apply("alpha\nbeta\n", diff.hunks())).isEqualTo("gamma\ndelta\nepsilon\n");
+        assertThat(diff.linesAdded()).isEqualTo(3);
+        assertThat(diff.linesRemoved()).isEqualTo(2);
+    }
+
+    @Test
+    void hunksAreOrderedOnBaseOffsets() {
+        String base = "# Title\nintro\nkeep 1\nold A\nkeep 2\nold B\nend\n";
+        String target = "# Title\nintro\nkeep 1\nnew A\nkeep 2\nnew B\nmore\nend\n";
+        List<ContentHunk> hunks = TextDiff.diff(base, target).hunks();
+        assertThat(hunks).hasSize(2);
+        assertThat(hunks.get(0).getPosition()).isEqualTo(base.indexOf("old A"));
+        assertThat(hunks.get(1).getPosition()).isEqualTo(base.indexOf("old B"));
+        roundTrip(base, target);
+    }
+
+    @Test
+    void surrogatePairsAreNotSplit() {
+        roundTrip("note 😀\n", "note 😃\n");
+        for (ContentHunk hunk : TextDiff.diff("x😀y", "x😃y").hunks()) {
+            assertThat(Character.isLowSurrogate(hunk.getInsert().charAt(0))).isFalse();
+        }
+    }
+
+    @Test
+    void editsBeyondMaxDistanceFallBackToOneHunk() {
+        StringBuilder base = new StringBuilder();
+        StringBuilder target = new StringBuilder();
+        for (int i = 0; i < 1500; i++) {
+            base.append("a").append(i).append('\n');
+            target.append("b").append(i).append('\n');
+        }
+        roundTrip(base.toString(), target.toString());
+    }
+
+    @Test
+    void randomEditsRoundTrip() {
+        Random random = new Random(42);
+        String[] vocabulary = {"alpha\n", "beta\n", "gamma\n", "\n", "delta", "tiếng Việt\n", "x\r\n"};
+        for (int round = 0; round < 500; round++) {
+            List<String> lines = new ArrayList<>();
+            for (int i = random.nextInt(30); i > 0; i--) {
+                lines.add(vocabulary[random.nextInt(vocabulary.length)]);
+            }
+            String base = String.join("", lines);
+            for (int edits = random.nextInt(6); edits > 0 && !lines.isEmpty(); edits--) {
+                int at = random.nextInt(lines.size());
+                switch (random.nextInt(3)) {
+                    case 0 -> lines.remove(at);
+                    case 1 -> lines.add(at, vocabulary[random.nextInt(vocabulary.length)]);
+                    default -> lines.set(at, vocabulary[random.nextInt(vocabulary.length)]);
+                }
+            }
+            roundTrip(base, String.join("", lines));
+        }
+    }
+
+    @Test
+    void applyRejectsDeltaForWrongBase() {
+        List<ContentHunk> hunks = TextDiff.diff("one\ntwo\nthree\n", "one\n2\nthree\n").hunks();
+        assertThatThrownBy(() -> TextDiff.apply("one\n", hunks)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void utf8Length() {
+        assertThat(TextDiff.utf8Length(null)).isZero();
+        assertThat(TextDiff.utf8Length("abc")).isEqualTo(3);
+        assertThat(TextDiff.utf8Length("é")).isEqualTo(2);
+        assertThat(TextDiff.utf8Length("ệ")).isEqualTo(3);
+        assertThat(TextDiff.utf8Length("😀")).isEqualTo(4);
+    }
+}